@@ -0,0 +1,149 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The protection spaces in which a web client has been asked to authenticate, so that later requests into them
+ * may carry credentials without first being rejected. Each space is identified by the scheme, host and port of a
+ * challenged request, its realm, and the directory of the challenged path; as in browsers, paths below that
+ * directory are assumed to be in the same space. For digest authentication, the server's last nonce is reused
+ * with an increasing nonce count until the server reports it stale.
+ **/
+class AuthenticationCache {
+
+    private final WebClient _client;
+
+    /** The protection spaces, as lists keyed by the origin of the server. **/
+    private final Map _spaces = new HashMap();
+
+
+    AuthenticationCache( WebClient client ) {
+        _client = client;
+    }
+
+
+    /**
+     * Returns the authorization header to send preemptively with the specified request, or null if it does not
+     * fall in a known protection space.
+     **/
+    synchronized String getAuthorizationHeader( WebRequest request ) throws MalformedURLException {
+        URL url = request.getURL();
+        ProtectionSpace space = findSpace( url );
+        return space == null ? null : space.createAuthorizationHeader( request );
+    }
+
+
+    /**
+     * Records the protection space described by the challenge to the specified request, and returns the
+     * authorization header answering it.
+     **/
+    synchronized String getAuthorizationHeader( WebRequest request, AuthenticationChallenge challenge ) throws MalformedURLException {
+        URL url = request.getURL();
+        ProtectionSpace space = findSpace( url );
+        if (space == null || !space.isRealm( challenge.getRealm() )) {
+            String path = getDirectory( url );
+            List spaces = getSpaces( url );
+            for (Iterator i = spaces.iterator(); i.hasNext();) {
+                if (((ProtectionSpace) i.next())._path.equals( path )) i.remove();
+            }
+            spaces.add( space = new ProtectionSpace( path, challenge.getRealm() ) );
+        }
+        space.setChallenge( challenge );
+        return space.createAuthorizationHeader( request );
+    }
+
+
+    private ProtectionSpace findSpace( URL url ) {
+        List spaces = (List) _spaces.get( getOrigin( url ) );
+        if (spaces == null) return null;
+
+        ProtectionSpace result = null;
+        String path = url.getPath();
+        for (Iterator i = spaces.iterator(); i.hasNext();) {
+            ProtectionSpace space = (ProtectionSpace) i.next();
+            if (path.startsWith( space._path ) && (result == null || space._path.length() > result._path.length())) result = space;
+        }
+        return result;
+    }
+
+
+    private List getSpaces( URL url ) {
+        List spaces = (List) _spaces.get( getOrigin( url ) );
+        if (spaces == null) _spaces.put( getOrigin( url ), spaces = new ArrayList() );
+        return spaces;
+    }
+
+
+    private static String getOrigin( URL url ) {
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ':' + port;
+    }
+
+
+    private static String getDirectory( URL url ) {
+        String path = url.getPath();
+        return path.substring( 0, path.lastIndexOf( '/' ) + 1 );
+    }
+
+
+    private class ProtectionSpace {
+
+        private final String _path;
+        private final String _realm;
+        private String _challenge;
+        private int _nonceCount;
+
+
+        ProtectionSpace( String path, String realm ) {
+            _path = path;
+            _realm = realm;
+        }
+
+
+        /**
+         * Records the latest challenge for this space. Its nonce, if any, is used from now on.
+         */
+        void setChallenge( AuthenticationChallenge challenge ) {
+            _challenge = challenge.getHeaderString();
+            _nonceCount = 0;
+        }
+
+
+        boolean isRealm( String realm ) {
+            return _realm == null ? realm == null : _realm.equals( realm );
+        }
+
+
+        String createAuthorizationHeader( WebRequest request ) {
+            if (_realm == null || _client.getCredentialsForRealm( _realm ) == null) return null;
+            return new AuthenticationChallenge( _client, request, _challenge ).createAuthenticationHeader( ++_nonceCount );
+        }
+    }
+
+}
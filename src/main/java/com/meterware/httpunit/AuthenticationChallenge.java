@@ -23,6 +23,7 @@ import java.net.PasswordAuthentication;
 import java.net.MalformedURLException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.io.UnsupportedEncodingException;
@@ -73,8 +74,44 @@ class AuthenticationChallenge extends HttpHeader {
 
 
     String createAuthenticationHeader() {
+        return createAuthenticationHeader( 1 );
+    }
+
+
+    /**
+     * Creates the header answering this challenge.
+     * @param nonceCount the number of times, including this one, that the server's nonce has been used
+     */
+    String createAuthenticationHeader( int nonceCount ) {
         PasswordAuthentication credentials = getCredentialsForRealm();
-        return getAuthenticationStrategy().createAuthenticationHeader( this, credentials.getUserName(), new String( credentials.getPassword() ) );
+        return getAuthenticationStrategy().createAuthenticationHeader( this, credentials.getUserName(), new String( credentials.getPassword() ), nonceCount );
+    }
+
+
+    /**
+     * Returns the realm for which authentication is requested.
+     */
+    String getRealm() {
+        return getProperty( "realm" );
+    }
+
+
+    /**
+     * Returns the text of the WWW-Authenticate header from which this challenge was created.
+     */
+    String getHeaderString() {
+        return _headerString;
+    }
+
+
+    private boolean supportsQop() {
+        String qop = getProperty( "qop" );
+        if (qop == null) return false;
+        String[] options = qop.split( "," );
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].trim().equalsIgnoreCase( "auth" )) return true;
+        }
+        return false;
     }
 
 
@@ -117,13 +154,13 @@ class AuthenticationChallenge extends HttpHeader {
 
 
     private interface AuthenticationStrategy {
-        String createAuthenticationHeader( AuthenticationChallenge challenge, String username, String password );
+        String createAuthenticationHeader( AuthenticationChallenge challenge, String username, String password, int nonceCount );
     }
 
 
     private static class BasicAuthenticationStrategy implements AuthenticationStrategy {
 
-        public String createAuthenticationHeader( AuthenticationChallenge challenge, String userName, String password ) {
+        public String createAuthenticationHeader( AuthenticationChallenge challenge, String userName, String password, int nonceCount ) {
             return "Basic " + Base64.encode( userName + ':' + password );
         }
 
@@ -131,6 +168,8 @@ class AuthenticationChallenge extends HttpHeader {
 
     private static class DigestAuthenticationStrategy implements AuthenticationStrategy {
 
+        private static final SecureRandom CNONCE_GENERATOR = new SecureRandom();
+
         private class Algorithm {
 
             public void appendParams( StringBuffer sb, AuthenticationChallenge challenge, String userName, String password ) {
@@ -193,7 +232,7 @@ class AuthenticationChallenge extends HttpHeader {
                 return sb.toString();
             }
 
-            private void append( StringBuffer sb, String name, String value ) {
+            protected void append( StringBuffer sb, String name, String value ) {
                 sb.append( "," ).append( name ).append( "=" ).append( quote( value ) );
             }
 
@@ -209,50 +248,46 @@ class AuthenticationChallenge extends HttpHeader {
         }
 
 
+        /**
+         * The RFC 2617 digest algorithm with "auth" quality of protection, in which the server's nonce may be reused
+         * with an increasing nonce count.
+         */
         private class QopAlgorithm extends Algorithm {
 
+            private final String _nonceCount;
+            private final String _cnonce;
+
+
+            QopAlgorithm( int nonceCount ) {
+                String count = Integer.toHexString( nonceCount );
+                _nonceCount = "00000000".substring( count.length() ) + count;
+                _cnonce = Long.toHexString( CNONCE_GENERATOR.nextLong() );
+            }
+
 
             protected void appendDigestParams( StringBuffer sb, String realm, String nonce, String uri, String userName, String password, String method, String opaque ) {
                 super.appendDigestParams( sb, realm, nonce, uri, userName, password, method, opaque );
-//            append( sb, "qop", "auth" );
-//            append( sb, "nc", getNonceCount() );
-//            append( sb, "cnonce", getCNonce() );
+                sb.append( ",qop=auth,nc=" ).append( _nonceCount );
+                append( sb, "cnonce", _cnonce );
             }
 
 
             protected String getResponse( String userName, String realm, String password, String nonce, String uri, String method ) {
                 try {
-                    String a1 = A1( userName, password, realm, nonce );
-                    String a2 = A2( uri, method );
-                    String ha1 = H( a1 );
-                    String ha2 = H( a2 );
-                    return KD( ha1, nonce + ':' + ha2 );
+                    String ha1 = H( A1( userName, password, realm, nonce ) );
+                    String ha2 = H( A2( uri, method ) );
+                    return KD( ha1, nonce + ':' + _nonceCount + ':' + _cnonce + ":auth:" + ha2 );
                 } catch (NoSuchAlgorithmException e) {
                     return "";
                 } catch (UnsupportedEncodingException e) {
                     return "";
                 }
             }
-
-
-            protected String A1( String userName, String password, String realm, String nonce ) throws NoSuchAlgorithmException, UnsupportedEncodingException {
-                return H( userName + ":" + realm + ":" + password ) + ":" + nonce + ":" + getCNonce();
-            }
-
-
-            private String getCNonce() {
-                return ":";
-            }
-
-
-            protected String A2( String uri, String method ) {
-                return super.A2( uri, method );    //To change body of overridden methods use File | Settings | File Templates.
-            }
         }
 
-        public String createAuthenticationHeader( AuthenticationChallenge challenge, String userName, String password ) {
+        public String createAuthenticationHeader( AuthenticationChallenge challenge, String userName, String password, int nonceCount ) {
             StringBuffer sb = new StringBuffer( "Digest ");
-            Algorithm algorithm = new Algorithm();
+            Algorithm algorithm = challenge.supportsQop() ? new QopAlgorithm( nonceCount ) : new Algorithm();
             algorithm.appendParams( sb, challenge, userName, password );
             return sb.toString();
         }
@@ -0,0 +1,127 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * A stream which decodes a message body sent with the HTTP/1.1 chunked transfer encoding. The stream reports
+ * end-of-file after the terminating zero-length chunk and its trailers have been read, leaving the underlying
+ * stream positioned at the start of the next message.
+ **/
+class ChunkedInputStream extends InputStream {
+
+    private InputStream _in;
+
+    /** The number of bytes remaining in the current chunk. **/
+    private int _chunkRemaining;
+
+    /** True once the first chunk header has been read. **/
+    private boolean _started;
+
+    private boolean _eof;
+
+
+    ChunkedInputStream( InputStream in ) {
+        _in = in;
+    }
+
+
+    public int read() throws IOException {
+        if (!hasMoreData()) return -1;
+        int b = _in.read();
+        if (b < 0) throw new IOException( "Premature end of chunked message body" );
+        _chunkRemaining--;
+        return b;
+    }
+
+
+    public int read( byte[] buffer, int offset, int length ) throws IOException {
+        if (length == 0) return 0;
+        if (!hasMoreData()) return -1;
+        int count = _in.read( buffer, offset, Math.min( length, _chunkRemaining ) );
+        if (count < 0) throw new IOException( "Premature end of chunked message body" );
+        _chunkRemaining -= count;
+        return count;
+    }
+
+
+    public int available() throws IOException {
+        return _eof ? 0 : Math.min( _chunkRemaining, _in.available() );
+    }
+
+
+    /**
+     * Returns true if the underlying stream has been read through the end of the chunked body.
+     */
+    boolean isComplete() {
+        return _eof;
+    }
+
+
+    private boolean hasMoreData() throws IOException {
+        if (_eof) return false;
+        if (_chunkRemaining == 0) readChunkHeader();
+        return !_eof;
+    }
+
+
+    private void readChunkHeader() throws IOException {
+        if (_started) readLine( _in );   // the CRLF which follows the previous chunk's data
+        _started = true;
+
+        String sizeLine = readLine( _in );
+        if (sizeLine == null) throw new IOException( "Premature end of chunked message body" );
+        int extensionStart = sizeLine.indexOf( ';' );
+        if (extensionStart >= 0) sizeLine = sizeLine.substring( 0, extensionStart );
+        try {
+            _chunkRemaining = Integer.parseInt( sizeLine.trim(), 16 );
+        } catch (NumberFormatException e) {
+            throw new IOException( "Bad chunk size: " + sizeLine );
+        }
+        if (_chunkRemaining == 0) {
+            String trailer;
+            do {
+                trailer = readLine( _in );
+            } while (trailer != null && trailer.length() != 0);
+            _eof = true;
+        }
+    }
+
+
+    /**
+     * Reads a line terminated by LF, discarding any trailing CR. Returns null if the stream ends before any
+     * character is read.
+     */
+    static String readLine( InputStream in ) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        int b = in.read();
+        if (b < 0) return null;
+        while (b >= 0 && b != '\n') {
+            sb.append( (char) b );
+            b = in.read();
+        }
+        int length = sb.length();
+        if (length > 0 && sb.charAt( length-1 ) == '\r') sb.setLength( length-1 );
+        return sb.toString();
+    }
+}
@@ -0,0 +1,328 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.parsing.HTMLParser;
+import com.meterware.httpunit.parsing.HTMLParserFactory;
+
+
+/**
+ * An immutable set of options which control how a web client parses, scripts and retrieves pages. A client which has
+ * been given a configuration uses it in place of the corresponding global settings in {@link HttpUnitOptions} and
+ * {@link HTMLParserFactory}, so that differently configured clients may run side by side. A configuration is derived
+ * from another by its <code>with</code> methods:
+ * <pre>
+ *   client.setConfiguration( ClientConfiguration.fromGlobalOptions().withScriptingEnabled( false ) );
+ * </pre>
+ * Cookie handling is configured separately, by giving the client's cookie jar its own
+ * {@link com.meterware.httpunit.cookies.CookieProperties}.
+ * @since 1.8
+ **/
+public class ClientConfiguration {
+
+    /** The configuration of clients which have not been given one. It follows the global settings as they change. **/
+    final static ClientConfiguration GLOBAL_OPTIONS = new GlobalOptions();
+
+    private final boolean _scriptingEnabled;
+
+    private final boolean _checkContentLength;
+
+    private final boolean _checkHtmlContentType;
+
+    private final int _redirectDelay;
+
+    private final boolean _exceptionsThrownOnErrorStatus;
+
+    private final String _defaultCharacterSet;
+
+    private final String _defaultContentType;
+
+    private final boolean _loggingHttpHeaders;
+
+    private final HTMLParser _htmlParser;
+
+
+    /**
+     * Returns a configuration which holds the current values of the global settings.
+     **/
+    public static ClientConfiguration fromGlobalOptions() {
+        return new ClientConfiguration( GLOBAL_OPTIONS );
+    }
+
+
+    private ClientConfiguration() {
+        this( false, false, false, 0, false, null, null, false, null );
+    }
+
+
+    private ClientConfiguration( ClientConfiguration source ) {
+        this( source.isScriptingEnabled(), source.isCheckContentLength(), source.isCheckHtmlContentType(), source.getRedirectDelay(),
+              source.getExceptionsThrownOnErrorStatus(), source.getDefaultCharacterSet(), source.getDefaultContentType(),
+              source.isLoggingHttpHeaders(), source.getHTMLParser() );
+    }
+
+
+    private ClientConfiguration( boolean scriptingEnabled, boolean checkContentLength, boolean checkHtmlContentType,
+                                 int redirectDelay, boolean exceptionsThrownOnErrorStatus, String defaultCharacterSet,
+                                 String defaultContentType, boolean loggingHttpHeaders, HTMLParser htmlParser ) {
+        _scriptingEnabled              = scriptingEnabled;
+        _checkContentLength            = checkContentLength;
+        _checkHtmlContentType          = checkHtmlContentType;
+        _redirectDelay                 = redirectDelay;
+        _exceptionsThrownOnErrorStatus = exceptionsThrownOnErrorStatus;
+        _defaultCharacterSet           = defaultCharacterSet;
+        _defaultContentType            = defaultContentType;
+        _loggingHttpHeaders            = loggingHttpHeaders;
+        _htmlParser                    = htmlParser;
+    }
+
+
+    /**
+     * Returns true if scripts in pages are run.
+     * @see HttpUnitOptions#isScriptingEnabled
+     **/
+    public boolean isScriptingEnabled() {
+        return _scriptingEnabled;
+    }
+
+
+    /**
+     * Returns true if scripts are run under this configuration: that is, if scripting is enabled both by this
+     * configuration and globally.
+     **/
+    boolean isScriptingActive() {
+        return isScriptingEnabled() && HttpUnitOptions.isScriptingEnabled();
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in whether scripts are run. Scripting which has been
+     * disabled globally cannot be re-enabled for a single client.
+     **/
+    public ClientConfiguration withScriptingEnabled( boolean scriptingEnabled ) {
+        return new ClientConfiguration( scriptingEnabled, isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns true if a response shorter than its Content-Length header is reported as an error.
+     * @see HttpUnitOptions#isCheckContentLength
+     **/
+    public boolean isCheckContentLength() {
+        return _checkContentLength;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in whether the lengths of responses are checked.
+     **/
+    public ClientConfiguration withCheckContentLength( boolean checkContentLength ) {
+        return new ClientConfiguration( isScriptingEnabled(), checkContentLength, isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns true if asking for the HTML structure of a response which is not HTML is reported as an error.
+     * @see HttpUnitOptions#isCheckHtmlContentType
+     **/
+    public boolean isCheckHtmlContentType() {
+        return _checkHtmlContentType;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in whether content types are checked before parsing.
+     **/
+    public ClientConfiguration withCheckHtmlContentType( boolean checkHtmlContentType ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), checkHtmlContentType, getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns the delay, in milliseconds, before a redirect is followed.
+     * @see HttpUnitOptions#getRedirectDelay
+     **/
+    public int getRedirectDelay() {
+        return _redirectDelay;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in the delay before a redirect is followed.
+     **/
+    public ClientConfiguration withRedirectDelay( int redirectDelay ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), redirectDelay,
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns true if a response with an error status causes an exception to be thrown. This is the initial setting
+     * of a client given this configuration, which {@link WebClient#setExceptionsThrownOnErrorStatus} may change.
+     * @see HttpUnitOptions#getExceptionsThrownOnErrorStatus
+     **/
+    public boolean getExceptionsThrownOnErrorStatus() {
+        return _exceptionsThrownOnErrorStatus;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in whether error statuses cause exceptions.
+     **/
+    public ClientConfiguration withExceptionsThrownOnErrorStatus( boolean exceptionsThrownOnErrorStatus ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        exceptionsThrownOnErrorStatus, getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns the character set assumed for a response which does not specify one.
+     * @see HttpUnitOptions#getDefaultCharacterSet
+     **/
+    public String getDefaultCharacterSet() {
+        return _defaultCharacterSet;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in the default character set.
+     **/
+    public ClientConfiguration withDefaultCharacterSet( String defaultCharacterSet ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), defaultCharacterSet, getDefaultContentType(),
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns the content type assumed for a response which does not specify one.
+     * @see HttpUnitOptions#getDefaultContentType
+     **/
+    public String getDefaultContentType() {
+        return _defaultContentType;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in the default content type.
+     **/
+    public ClientConfiguration withDefaultContentType( String defaultContentType ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), defaultContentType,
+                                        isLoggingHttpHeaders(), getHTMLParser() );
+    }
+
+
+    /**
+     * Returns true if the headers of requests and responses are written to the console.
+     * @see HttpUnitOptions#isLoggingHttpHeaders
+     **/
+    public boolean isLoggingHttpHeaders() {
+        return _loggingHttpHeaders;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in whether headers are logged.
+     **/
+    public ClientConfiguration withLoggingHttpHeaders( boolean loggingHttpHeaders ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        loggingHttpHeaders, getHTMLParser() );
+    }
+
+
+    /**
+     * Returns the parser used to read HTML pages.
+     * @see HTMLParserFactory#getHTMLParser
+     **/
+    public HTMLParser getHTMLParser() {
+        return _htmlParser;
+    }
+
+
+    /**
+     * Returns a configuration which differs from this one only in the parser used to read HTML pages.
+     **/
+    public ClientConfiguration withHTMLParser( HTMLParser htmlParser ) {
+        return new ClientConfiguration( isScriptingEnabled(), isCheckContentLength(), isCheckHtmlContentType(), getRedirectDelay(),
+                                        getExceptionsThrownOnErrorStatus(), getDefaultCharacterSet(), getDefaultContentType(),
+                                        isLoggingHttpHeaders(), htmlParser );
+    }
+
+
+    /**
+     * The configuration which reads each setting from the global options whenever it is asked.
+     */
+    private static class GlobalOptions extends ClientConfiguration {
+
+        public boolean isScriptingEnabled() {
+            return HttpUnitOptions.isScriptingEnabled();
+        }
+
+
+        public boolean isCheckContentLength() {
+            return HttpUnitOptions.isCheckContentLength();
+        }
+
+
+        public boolean isCheckHtmlContentType() {
+            return HttpUnitOptions.isCheckHtmlContentType();
+        }
+
+
+        public int getRedirectDelay() {
+            return HttpUnitOptions.getRedirectDelay();
+        }
+
+
+        public boolean getExceptionsThrownOnErrorStatus() {
+            return HttpUnitOptions.getExceptionsThrownOnErrorStatus();
+        }
+
+
+        public String getDefaultCharacterSet() {
+            return HttpUnitOptions.getDefaultCharacterSet();
+        }
+
+
+        public String getDefaultContentType() {
+            return HttpUnitOptions.getDefaultContentType();
+        }
+
+
+        public boolean isLoggingHttpHeaders() {
+            return HttpUnitOptions.isLoggingHttpHeaders();
+        }
+
+
+        public HTMLParser getHTMLParser() {
+            return HTMLParserFactory.getHTMLParser();
+        }
+    }
+}
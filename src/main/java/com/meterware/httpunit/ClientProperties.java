@@ -297,6 +297,63 @@ public class ClientProperties {
 		}
 
 
+    /**
+     * Returns the size in bytes above which a response body is written to a temporary file and read through
+     * a memory-mapped view of it, rather than held on the heap. The default, zero, keeps every body in memory.
+     */
+    public int getResponseBodyFileThreshold() {
+        return _responseBodyFileThreshold;
+    }
+
+
+    /**
+     * Specifies the size in bytes above which a response body is written to a temporary file and read through
+     * a memory-mapped view of it, rather than held on the heap. When this is set, every response body is read
+     * as soon as the response arrives; zero keeps every body in memory.
+     */
+    public void setResponseBodyFileThreshold( int responseBodyFileThreshold ) {
+        _responseBodyFileThreshold = responseBodyFileThreshold;
+    }
+
+
+    /**
+     * Returns the maximum number of subframe requests of a frameset which will be sent at once. The default, one,
+     * loads the frames one at a time.
+     */
+    public int getMaxConcurrentFrameRequests() {
+        return _maxConcurrentFrameRequests;
+    }
+
+
+    /**
+     * Specifies the maximum number of subframe requests of a frameset which will be sent at once. When this is greater
+     * than one, the frames of a frameset are requested concurrently and then loaded in the order in which they appear,
+     * after all of them have been received. As in a browser, the requests for the frames therefore do not carry any
+     * cookies set by the responses to their sibling frames.
+     */
+    public void setMaxConcurrentFrameRequests( int maxConcurrentFrameRequests ) {
+        _maxConcurrentFrameRequests = maxConcurrentFrameRequests;
+    }
+
+
+    /**
+     * Returns true if the scripts included by a page are requested as soon as the page is received, rather than
+     * one at a time as the page is parsed. The default is false.
+     */
+    public boolean isPrefetchScripts() {
+        return _prefetchScripts;
+    }
+
+
+    /**
+     * Specifies whether the scripts included by a page are requested as soon as the page is received. If true, all of
+     * the scripts are requested concurrently, and the parser uses each reply when it reaches the corresponding script.
+     */
+    public void setPrefetchScripts( boolean prefetchScripts ) {
+        _prefetchScripts = prefetchScripts;
+    }
+
+
     ClientProperties cloneProperties() {
         return new ClientProperties( this );
     }
@@ -311,12 +368,15 @@ public class ClientProperties {
     private int    _availWidth          = 800;
     private int    _availHeight         = 600;
     private int    _maxRedirects        = 5;
+    private int    _responseBodyFileThreshold;
+    private int    _maxConcurrentFrameRequests = 1;
 
     private boolean _iframeSupported = true;
     private boolean _acceptCookies = true;
     private boolean _acceptGzip    = true;
     private boolean _autoRedirect  = true;
     private boolean _autoRefresh   = false;
+    private boolean _prefetchScripts;
 
     private DNSListener _dnsListener;
     private boolean _sendReferer;
@@ -351,6 +411,9 @@ public class ClientProperties {
         _autoRefresh         = source._autoRefresh;
         _sendReferer         = source._sendReferer;
         _maxRedirects		 = source._maxRedirects;
+        _responseBodyFileThreshold = source._responseBodyFileThreshold;
+        _maxConcurrentFrameRequests = source._maxConcurrentFrameRequests;
+        _prefetchScripts     = source._prefetchScripts;
     }
 
 
@@ -59,4 +59,12 @@ class ElementRegistry {
     boolean hasNode( Node node ) {
         return _map.containsKey( node );
     }
+
+
+    /**
+     * Returns the number of registered elements.
+     */
+    int size() {
+        return _map.size();
+    }
 }
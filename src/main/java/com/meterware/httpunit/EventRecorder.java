@@ -0,0 +1,65 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+
+
+/**
+ * Receives the events marking the significant units of work done by HttpUnit, so that they may be passed on to a
+ * profiler. A recorder is installed with {@link HttpUnitOptions#setEventRecorder}; when none is installed, as is the
+ * default, no event information is gathered.
+ *
+ * @see FlightRecorderEventRecorder
+ **/
+public interface EventRecorder {
+
+    /** The exchange of a request and its reply with a web server. **/
+    int HTTP_EXCHANGE = 0;
+
+    /** The parsing of the text of a page into a document. **/
+    int HTML_PARSE = 1;
+
+    /** The creation of the HttpUnit objects, such as forms and links, representing the elements of a parsed page. **/
+    int ELEMENT_LOAD = 2;
+
+    /** The running of a script or of an event handler. **/
+    int SCRIPT = 3;
+
+    /** The invocation of a servlet or filter by ServletUnit. **/
+    int SERVLET_INVOCATION = 4;
+
+
+    /**
+     * Called as a unit of work of the specified type begins.
+     * @return an object identifying the event to complete, or null if events of this type are not being recorded
+     **/
+    Object beginEvent( int eventType );
+
+
+    /**
+     * Called as a unit of work completes.
+     * @param event        the object returned when the event began
+     * @param url          the URL of the page or servlet involved, if any
+     * @param size         the size of the content handled, in bytes or characters, or -1 if not known
+     * @param elementCount the number of elements handled, if this event deals with elements
+     **/
+    void endEvent( Object event, String url, long size, int elementCount );
+
+}
@@ -0,0 +1,188 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * An event recorder which reports HttpUnit's events to the JDK Flight Recorder, as events in the "HttpUnit"
+ * category. The flight recorder is available only in Java 11 and later; since HttpUnit runs on earlier versions
+ * as well, it is accessed reflectively. While no recording is enabled for an event type, beginning an event
+ * of that type costs a single reflective call to check that state, which allocates no arguments of its own.
+ * Events which are recorded do pay for reflection: each one is a new event object, and its size and element
+ * count are boxed when set. To use it:
+ * <pre>
+ *   if (FlightRecorderEventRecorder.isAvailable()) HttpUnitOptions.setEventRecorder( new FlightRecorderEventRecorder() );
+ * </pre>
+ **/
+public class FlightRecorderEventRecorder implements EventRecorder {
+
+    private final static String[][] EVENT_TYPES = {
+            { "com.meterware.httpunit.HttpExchange",      "HTTP Exchange",      "A request sent and its reply received" },
+            { "com.meterware.httpunit.HtmlParse",         "HTML Parse",         "The text of a page parsed into a document" },
+            { "com.meterware.httpunit.ElementLoad",       "Element Load",       "The elements of a parsed page loaded" },
+            { "com.meterware.httpunit.Script",            "Script",             "A script or event handler run" },
+            { "com.meterware.httpunit.ServletInvocation", "Servlet Invocation", "A servlet or filter invoked by ServletUnit" } };
+
+    private static final int URL_FIELD = 0;
+    private static final int SIZE_FIELD = 1;
+    private static final int ELEMENTS_FIELD = 2;
+
+    private final static Object[] NO_ARGS = new Object[0];
+
+    private final static Integer URL_INDEX = Integer.valueOf( URL_FIELD );
+    private final static Integer SIZE_INDEX = Integer.valueOf( SIZE_FIELD );
+    private final static Integer ELEMENTS_INDEX = Integer.valueOf( ELEMENTS_FIELD );
+
+    private static Method _create;
+    private static Method _newEvent;
+    private static Method _getEventType;
+    private static Method _isEnabled;
+    private static Method _begin;
+    private static Method _end;
+    private static Method _set;
+    private static Method _commit;
+    private static Constructor _newAnnotation;
+    private static Constructor _newField;
+    private static Class _nameAnnotation;
+    private static Class _labelAnnotation;
+    private static Class _descriptionAnnotation;
+    private static Class _categoryAnnotation;
+
+    private static boolean _available;
+
+    static {
+        try {
+            Class eventFactory = Class.forName( "jdk.jfr.EventFactory" );
+            Class eventType = Class.forName( "jdk.jfr.EventType" );
+            Class event = Class.forName( "jdk.jfr.Event" );
+            _create = eventFactory.getMethod( "create", new Class[] { List.class, List.class } );
+            _newEvent = eventFactory.getMethod( "newEvent", new Class[0] );
+            _getEventType = eventFactory.getMethod( "getEventType", new Class[0] );
+            _isEnabled = eventType.getMethod( "isEnabled", new Class[0] );
+            _begin = event.getMethod( "begin", new Class[0] );
+            _end = event.getMethod( "end", new Class[0] );
+            _set = event.getMethod( "set", new Class[] { int.class, Object.class } );
+            _commit = event.getMethod( "commit", new Class[0] );
+            _newAnnotation = Class.forName( "jdk.jfr.AnnotationElement" ).getConstructor( new Class[] { Class.class, Object.class } );
+            _newField = Class.forName( "jdk.jfr.ValueDescriptor" ).getConstructor( new Class[] { Class.class, String.class, List.class } );
+            _nameAnnotation = Class.forName( "jdk.jfr.Name" );
+            _labelAnnotation = Class.forName( "jdk.jfr.Label" );
+            _descriptionAnnotation = Class.forName( "jdk.jfr.Description" );
+            _categoryAnnotation = Class.forName( "jdk.jfr.Category" );
+            _available = true;
+        } catch (ClassNotFoundException e) {
+        } catch (NoSuchMethodException e) {
+        } catch (LinkageError e) {
+        }
+    }
+
+
+    /**
+     * Returns true if the JDK Flight Recorder is available in this JVM.
+     **/
+    public static boolean isAvailable() {
+        return _available;
+    }
+
+
+    private final Object[] _factories = new Object[ EVENT_TYPES.length ];
+
+    private final Object[] _eventTypes = new Object[ EVENT_TYPES.length ];
+
+
+    /**
+     * Registers the HttpUnit event types with the flight recorder.
+     * @throws IllegalStateException if the flight recorder is not available
+     **/
+    public FlightRecorderEventRecorder() {
+        if (!_available) throw new IllegalStateException( "The JDK Flight Recorder is not available" );
+        for (int i = 0; i < EVENT_TYPES.length; i++) {
+            List annotations = Arrays.asList( new Object[] {
+                    newAnnotation( _nameAnnotation, EVENT_TYPES[i][0] ),
+                    newAnnotation( _labelAnnotation, EVENT_TYPES[i][1] ),
+                    newAnnotation( _descriptionAnnotation, EVENT_TYPES[i][2] ),
+                    newAnnotation( _categoryAnnotation, new String[] { "HttpUnit" } ) } );
+            List fields = new ArrayList();
+            fields.add( URL_FIELD, newField( String.class, "url", "URL" ) );
+            fields.add( SIZE_FIELD, newField( long.class, "size", "Size" ) );
+            fields.add( ELEMENTS_FIELD, newField( int.class, "elements", "Elements" ) );
+            _factories[i] = invoke( _create, null, new Object[] { annotations, fields } );
+            _eventTypes[i] = invoke( _getEventType, _factories[i], NO_ARGS );
+        }
+    }
+
+
+    public Object beginEvent( int eventType ) {
+        if (!((Boolean) invoke( _isEnabled, _eventTypes[ eventType ], NO_ARGS )).booleanValue()) return null;
+
+        Object event = invoke( _newEvent, _factories[ eventType ], NO_ARGS );
+        invoke( _begin, event, NO_ARGS );
+        return event;
+    }
+
+
+    public void endEvent( Object event, String url, long size, int elementCount ) {
+        invoke( _end, event, NO_ARGS );
+        invoke( _set, event, new Object[] { URL_INDEX, url } );
+        invoke( _set, event, new Object[] { SIZE_INDEX, Long.valueOf( size ) } );
+        invoke( _set, event, new Object[] { ELEMENTS_INDEX, Integer.valueOf( elementCount ) } );
+        invoke( _commit, event, NO_ARGS );
+    }
+
+
+    private Object newAnnotation( Class annotationType, Object value ) {
+        return construct( _newAnnotation, new Object[] { annotationType, value } );
+    }
+
+
+    private Object newField( Class type, String name, String label ) {
+        return construct( _newField, new Object[] { type, name, Arrays.asList( new Object[] { newAnnotation( _labelAnnotation, label ) } ) } );
+    }
+
+
+    private static Object construct( Constructor constructor, Object[] args ) {
+        try {
+            return constructor.newInstance( args );
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException( "Unable to create flight recorder event type: " + e.getTargetException() );
+        } catch (Exception e) {
+            throw new IllegalStateException( "Unable to create flight recorder event type: " + e );
+        }
+    }
+
+
+    private static Object invoke( Method method, Object target, Object[] args ) {
+        try {
+            return method.invoke( target, args );
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException( "Unable to record flight recorder event: " + e.getTargetException() );
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException( "Unable to record flight recorder event: " + e );
+        }
+    }
+
+}
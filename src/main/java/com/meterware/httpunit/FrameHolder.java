@@ -44,13 +44,16 @@ class FrameHolder {
     /** The topmost frame in this frameholder. **/
     private FrameSelector _topFrame;
 
+    /** Pages copied from another client whose scripts have not yet been run. **/
+    private Set _unassociatedContents = new HashSet();
+
 
     FrameHolder( WebWindow window ) {
         _window = window;
         _topFrame = FrameSelector.newTopFrame( window );
         DefaultWebResponse blankResponse = new DefaultWebResponse( window.getClient(), null, WebResponse.BLANK_HTML );
         _contents.put( _topFrame, blankResponse );
-        HttpUnitOptions.getScriptingEngine().associate( blankResponse );
+        HttpUnitOptions.getScriptingEngine( blankResponse.getConfiguration() ).associate( blankResponse );
     }
 
 
@@ -85,13 +88,50 @@ class FrameHolder {
 
 
     WebResponse get( FrameSelector targetFrame ) {
-        return (WebResponse) _contents.get( targetFrame );
+        WebResponse response = (WebResponse) _contents.get( targetFrame );
+        if (response != null && _unassociatedContents.remove( response )) {
+            HttpUnitOptions.getScriptingEngine( response.getConfiguration() ).associate( response );
+        }
+        return response;
     }
 
 
     WebResponse get( String target ) {
         FrameSelector frame = getFrame( _topFrame, target );
-        return frame == null ? null : (WebResponse) _contents.get( frame );
+        return frame == null ? null : get( frame );
+    }
+
+
+    /**
+     * Replaces the contents of these frames with copies of those in the specified frames, which belong to a window
+     * of another client. The scripts of each page copied are run only when the page is first retrieved.
+     */
+    void copyContents( FrameHolder source ) throws IOException {
+        _contents.clear();
+        _subframes.clear();
+        _unassociatedContents.clear();
+        copyFrame( source, source._topFrame, _topFrame );
+    }
+
+
+    private void copyFrame( FrameHolder source, FrameSelector sourceFrame, FrameSelector frame ) throws IOException {
+        WebResponse response = (WebResponse) source._contents.get( sourceFrame );
+        if (response != null) {
+            WebResponse copy = _window.getClient().copyResponse( response, frame );
+            copy.setWindow( _window );
+            _contents.put( frame, copy );
+            if (copy.isHTML()) _unassociatedContents.add( copy );
+        }
+
+        FrameSelector[] subframes = (FrameSelector[]) source._subframes.get( sourceFrame );
+        if (subframes == null) return;
+
+        FrameSelector[] copies = new FrameSelector[ subframes.length ];
+        for (int i = 0; i < subframes.length; i++) {
+            copies[i] = new FrameSelector( subframes[i].getName(), frame );
+            copyFrame( source, subframes[i], copies[i] );
+        }
+        _subframes.put( frame, copies );
     }
 
 
@@ -174,16 +214,12 @@ class FrameHolder {
         _contents.put( frame, response );
 
         if (response.isHTML()) {
-            HttpUnitOptions.getScriptingEngine().associate( response );
+            HttpUnitOptions.getScriptingEngine( response.getConfiguration() ).associate( response );
             requestContext.addNewResponse( response );
             WebRequest[] requests = response.getFrameRequests();
             if (requests.length > 0) {
                 createSubFrames( frame, response.getFrameSelectors() );
-                for (int i = 0; i < requests.length; i++) {
-                    if (requests[i].getURLString().length() != 0) {
-                        response.getWindow().getSubframeResponse( requests[i], requestContext );
-                    }
-                }
+                response.getWindow().getSubframeResponses( requests, requestContext );
             }
         }
     }
@@ -22,8 +22,8 @@ package com.meterware.httpunit;
 import com.meterware.httpunit.scripting.NamedDelegate;
 import com.meterware.httpunit.scripting.ScriptableDelegate;
 import com.meterware.httpunit.scripting.ScriptingHandler;
-import com.meterware.httpunit.parsing.HTMLParserFactory;
 import com.meterware.httpunit.parsing.DocumentAdapter;
+import com.meterware.httpunit.parsing.TagRecorder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -32,6 +32,7 @@ import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 import java.util.Vector;
 
 
@@ -268,11 +269,64 @@ public class HTMLPage extends ParsedHTML {
      * @throws IOException
      */
     public void parse( String text, URL pageURL ) throws SAXException, IOException {
-        HTMLParserFactory.getHTMLParser().parse( pageURL, text, new DocumentAdapter() {
-            public void setDocument(HTMLDocument document ) { HTMLPage.this.setRootNode( document ); }
-            public String getIncludedScript( String srcAttribute ) throws IOException { return HTMLPage.this.getIncludedScript( srcAttribute ); }
-            public ScriptingHandler getScriptingHandler() { return getResponse().getScriptingHandler(); }
-        });
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.HTML_PARSE );
+        ClientConfiguration configuration = getResponse().getConfiguration();
+        int numElements = 0;
+        try {
+            PageAdapter adapter = new PageAdapter( configuration );
+            configuration.getHTMLParser().parse( pageURL, text, adapter );
+            if (!adapter._recording) {
+                getResponse().scanTags();
+                setBase( getResponse().getBaseURL(), getResponse().getBaseTarget() );
+            }
+            if (event != null) numElements = ((Document) getRootNode()).getElementsByTagName( "*" ).getLength();
+        } finally {
+            if (event != null) recorder.endEvent( event, pageURL == null ? null : pageURL.toExternalForm(), text.length(), numElements );
+        }
+    }
+
+
+    /**
+     * Connects the parser to this page. Tags are passed to the response as the parser reports them; if the parser
+     * does not report them, the page is scanned for them once it has been parsed.
+     */
+    private class PageAdapter implements DocumentAdapter, TagRecorder {
+
+        private final ClientConfiguration _configuration;
+
+        private boolean _recording;
+
+
+        PageAdapter( ClientConfiguration configuration ) {
+            _configuration = configuration;
+        }
+
+
+        public void setDocument( HTMLDocument document ) {
+            HTMLPage.this.setRootNode( document );
+        }
+
+
+        public String getIncludedScript( String srcAttribute ) throws IOException {
+            return HTMLPage.this.getIncludedScript( srcAttribute );
+        }
+
+
+        public ScriptingHandler getScriptingHandler() {
+            return _configuration.isScriptingActive() ? getResponse().getScriptingHandler() : ScriptableDelegate.NULL_SCRIPT_ENGINE;
+        }
+
+
+        public void startRecording() {
+            _recording = true;
+        }
+
+
+        public void recordTag( String name, Map attributes ) {
+            getResponse().recordTag( name, attributes );
+            if (name.equals( "base" )) setBase( getResponse().getBaseURL(), getResponse().getBaseTarget() );
+        }
     }
 
 
@@ -0,0 +1,379 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+
+/**
+ * A client listener which records each request sent by a web client and the response received to it, in the
+ * HTTP Archive (HAR) 1.2 format. Each entry is written as soon as its response arrives, so that the recording
+ * of a long run need not be held in memory. To record a conversation:
+ * <pre>
+ *   HarRecorder recorder = new HarRecorder( new File( "journey.har" ) );
+ *   conversation.addClientListener( recorder );
+ *   ...
+ *   conversation.removeClientListener( recorder );
+ *   recorder.close();
+ * </pre>
+ * Redirects followed automatically appear as separate entries. The bodies of responses are not recorded;
+ * their sizes are.
+ * <p>
+ * Since a listener may not throw checked exceptions, a failure to write an entry does not interrupt the
+ * conversation. Instead, recording stops, and the failure is reported by {@link #getError} and thrown
+ * from {@link #close}.
+ **/
+public class HarRecorder implements WebClientListener {
+
+    private final static String HTTP_VERSION = "HTTP/1.1";
+
+    private final Writer _writer;
+
+    private final SimpleDateFormat _dateFormat = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+
+    private int _numEntries;
+
+    private boolean _closed;
+
+    private IOException _error;
+
+
+    /**
+     * Creates a recorder which writes to the specified file.
+     **/
+    public HarRecorder( File file ) throws IOException {
+        this( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) ) );
+    }
+
+
+    /**
+     * Creates a recorder which writes to the specified writer.
+     **/
+    public HarRecorder( Writer writer ) throws IOException {
+        _writer = writer;
+        _dateFormat.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        _writer.write( "{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"HttpUnit\",\"version\":" );
+        writeString( getVersion() );
+        _writer.write( "},\"entries\":[" );
+        _writer.flush();
+    }
+
+
+    /**
+     * Returns the number of entries recorded so far.
+     **/
+    public synchronized int getNumEntries() {
+        return _numEntries;
+    }
+
+
+    /**
+     * Returns the failure which stopped this recorder from writing entries, or null if there was none.
+     **/
+    public synchronized IOException getError() {
+        return _error;
+    }
+
+
+    /**
+     * Completes the archive and closes the underlying writer. Responses received afterwards are not recorded.
+     * @throws IOException if the archive could not be completed, or if an earlier entry could not be written
+     **/
+    public synchronized void close() throws IOException {
+        if (_closed) return;
+        _closed = true;
+        try {
+            if (_error == null) _writer.write( "\n]}}\n" );
+        } finally {
+            _writer.close();
+        }
+        if (_error != null) throw _error;
+    }
+
+
+    /**
+     * Does nothing: each entry is written once its response arrives, from the request the response retains.
+     * This pairs requests correctly even when the frames of a page are requested together and their responses
+     * received in any order and on any thread, and retains nothing for a request which never receives a response.
+     **/
+    public void requestSent( WebClient src, WebRequest req ) {
+    }
+
+
+    public void responseReceived( WebClient src, WebResponse resp ) {
+        writeEntry( resp.getRequest(), resp );
+    }
+
+
+    /**
+     * Writes an entry, unless recording has stopped. A failure to write it is retained, and stops recording.
+     **/
+    synchronized void writeEntry( WebRequest request, WebResponse response ) {
+        if (_closed || _error != null) return;
+        try {
+            writeEntryContents( request, response );
+        } catch (IOException e) {
+            _error = e;
+        }
+    }
+
+
+    private void writeEntryContents( WebRequest request, WebResponse response ) throws IOException {
+        ResponseTiming timing = response.getTiming();
+        double connect = getMillis( timing, ResponseTiming.CONNECT );
+        double send = Math.max( 0, getMillis( timing, ResponseTiming.SEND ) );
+        double wait = Math.max( 0, getMillis( timing, ResponseTiming.WAIT ) );
+        double receive = Math.max( 0, getMillis( timing, ResponseTiming.DOWNLOAD ) );
+
+        _writer.write( _numEntries++ == 0 ? "\n" : ",\n" );
+        _writer.write( "{\"startedDateTime\":" );
+        writeString( _dateFormat.format( new Date( getStartTime( timing ) ) ) );
+        _writer.write( ",\"time\":" + round( Math.max( 0, connect ) + send + wait + receive ) );
+        writeRequest( request, response );
+        writeResponse( response );
+        _writer.write( ",\"cache\":{},\"timings\":{\"blocked\":-1,\"dns\":-1,\"connect\":" + connect
+                       + ",\"send\":" + send + ",\"wait\":" + wait + ",\"receive\":" + receive + "}}" );
+        _writer.flush();
+    }
+
+
+    private void writeRequest( WebRequest request, WebResponse response ) throws IOException {
+        Dictionary headers = response.getRequestHeaders();
+        if (headers == null && request != null) headers = request.getHeaders();
+        String url = response.getURL() != null ? response.getURL().toExternalForm() : request != null ? request.getURLString() : "";
+
+        _writer.write( ",\"request\":{\"method\":" );
+        writeString( request != null ? request.getMethod() : "GET" );
+        _writer.write( ",\"url\":" );
+        writeString( url );
+        _writer.write( ",\"httpVersion\":\"" + HTTP_VERSION + "\",\"cookies\":[" );
+        writeRequestCookies( headers == null ? null : (String) headers.get( "Cookie" ) );
+        _writer.write( "],\"headers\":[" );
+        if (headers != null) {
+            String separator = "";
+            for (Enumeration e = headers.keys(); e.hasMoreElements(); separator = ",") {
+                String name = (String) e.nextElement();
+                _writer.write( separator );
+                writeNameValue( name, headers.get( name ).toString() );
+            }
+        }
+        _writer.write( "],\"queryString\":[" );
+        writeQueryString( url );
+        _writer.write( "]" );
+        long bodySize = 0;
+        if (request instanceof MessageBodyWebRequest) {
+            MessageBodyWebRequest bodyRequest = (MessageBodyWebRequest) request;
+            String text = "";
+            bodySize = -1;
+            if (!bodyRequest.isMimeEncoded() && !(bodyRequest.getMessageBody() instanceof MessageBodyWebRequest.InputStreamMessageBody)) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                bodyRequest.writeMessageBody( body );
+                text = new String( body.toByteArray(), "ISO-8859-1" );
+                bodySize = body.size();
+            }
+            _writer.write( ",\"postData\":{\"mimeType\":" );
+            writeString( bodyRequest.getContentType() );
+            _writer.write( ",\"text\":" );
+            writeString( text );
+            _writer.write( "}" );
+        }
+        _writer.write( ",\"headersSize\":-1,\"bodySize\":" + bodySize + "}" );
+    }
+
+
+    private void writeResponse( WebResponse response ) throws IOException {
+        _writer.write( ",\"response\":{\"status\":" + response.getResponseCode() + ",\"statusText\":" );
+        writeString( response.getResponseMessage() );
+        _writer.write( ",\"httpVersion\":\"" + HTTP_VERSION + "\",\"cookies\":[" );
+        writeResponseCookies( response.getHeaderFields( "Set-Cookie" ) );
+        _writer.write( "],\"headers\":[" );
+        String[] names = response.getHeaderFieldNames();
+        String separator = "";
+        for (int i = 0; i < names.length; i++) {
+            String[] values = response.getHeaderFields( names[i] );
+            for (int j = 0; j < values.length; j++) {
+                _writer.write( separator );
+                writeNameValue( names[i], values[j] );
+                separator = ",";
+            }
+        }
+        long size = response.getReceivedSize();
+        _writer.write( "],\"content\":{\"size\":" + size + ",\"mimeType\":" );
+        writeString( response.getHeaderField( "Content-Type" ) );
+        _writer.write( "},\"redirectURL\":" );
+        writeString( response.getHeaderField( "Location" ) );
+        _writer.write( ",\"headersSize\":-1,\"bodySize\":" + (response.getContentLength() >= 0 ? response.getContentLength() : size) + "}" );
+    }
+
+
+    private void writeRequestCookies( String cookieHeader ) throws IOException {
+        if (cookieHeader == null) return;
+        String separator = "";
+        for (StringTokenizer st = new StringTokenizer( cookieHeader, ";" ); st.hasMoreTokens(); separator = ",") {
+            _writer.write( separator );
+            writeCookieStart( st.nextToken() );
+            _writer.write( "}" );
+        }
+    }
+
+
+    private void writeResponseCookies( String[] setCookieHeaders ) throws IOException {
+        String separator = "";
+        for (int i = 0; i < setCookieHeaders.length; i++) {
+            StringTokenizer st = new StringTokenizer( setCookieHeaders[i], ";" );
+            if (!st.hasMoreTokens()) continue;
+            _writer.write( separator );
+            separator = ",";
+            writeCookieStart( st.nextToken() );
+            while (st.hasMoreTokens()) {
+                String attribute = st.nextToken().trim();
+                int equals = attribute.indexOf( '=' );
+                String name = (equals < 0 ? attribute : attribute.substring( 0, equals )).toLowerCase();
+                String value = equals < 0 ? null : attribute.substring( equals + 1 );
+                if (name.equals( "path" ) || name.equals( "domain" )) {
+                    _writer.write( ",\"" + name + "\":" );
+                    writeString( value );
+                } else if (name.equals( "httponly" )) {
+                    _writer.write( ",\"httpOnly\":true" );
+                } else if (name.equals( "secure" )) {
+                    _writer.write( ",\"secure\":true" );
+                }
+            }
+            _writer.write( "}" );
+        }
+    }
+
+
+    private void writeCookieStart( String nameValue ) throws IOException {
+        int equals = nameValue.indexOf( '=' );
+        _writer.write( "{\"name\":" );
+        writeString( (equals < 0 ? nameValue : nameValue.substring( 0, equals )).trim() );
+        _writer.write( ",\"value\":" );
+        writeString( equals < 0 ? "" : nameValue.substring( equals + 1 ).trim() );
+    }
+
+
+    private void writeQueryString( String url ) throws IOException {
+        int start = url.indexOf( '?' );
+        if (start < 0) return;
+        int end = url.indexOf( '#', start );
+        String query = end < 0 ? url.substring( start + 1 ) : url.substring( start + 1, end );
+
+        String separator = "";
+        for (StringTokenizer st = new StringTokenizer( query, "&" ); st.hasMoreTokens(); separator = ",") {
+            String parameter = st.nextToken();
+            int equals = parameter.indexOf( '=' );
+            _writer.write( separator );
+            writeNameValue( decode( equals < 0 ? parameter : parameter.substring( 0, equals ) ),
+                            decode( equals < 0 ? "" : parameter.substring( equals + 1 ) ) );
+        }
+    }
+
+
+    private static String decode( String encoded ) {
+        try {
+            return URLDecoder.decode( encoded, "UTF-8" );
+        } catch (UnsupportedEncodingException e) {
+            return encoded;
+        } catch (IllegalArgumentException e) {
+            return encoded;
+        }
+    }
+
+
+    private void writeNameValue( String name, String value ) throws IOException {
+        _writer.write( "{\"name\":" );
+        writeString( name );
+        _writer.write( ",\"value\":" );
+        writeString( value );
+        _writer.write( "}" );
+    }
+
+
+    private void writeString( String value ) throws IOException {
+        if (value == null) value = "";
+        _writer.write( '"' );
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt( i );
+            switch (c) {
+                case '"':  _writer.write( "\\\"" ); break;
+                case '\\': _writer.write( "\\\\" ); break;
+                case '\n': _writer.write( "\\n" ); break;
+                case '\r': _writer.write( "\\r" ); break;
+                case '\t': _writer.write( "\\t" ); break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString( c );
+                        _writer.write( "\\u0000".substring( 0, 6 - hex.length() ) + hex );
+                    } else {
+                        _writer.write( c );
+                    }
+            }
+        }
+        _writer.write( '"' );
+    }
+
+
+    /**
+     * Returns the length of the specified phase in milliseconds, to the nearest microsecond, or -1 if it was not recorded.
+     **/
+    private static double getMillis( ResponseTiming timing, int phase ) {
+        return timing.isRecorded( phase ) ? round( timing.getDuration( phase ) / 1000000.0 ) : -1;
+    }
+
+
+    private static double round( double millis ) {
+        return Math.round( millis * 1000 ) / 1000.0;
+    }
+
+
+    /**
+     * Returns the wall clock time at which the request was begun, derived from the earliest recorded phase.
+     **/
+    private static long getStartTime( ResponseTiming timing ) {
+        long now = System.currentTimeMillis();
+        long nanoNow = System.nanoTime();
+        for (int phase = 0; phase < ResponseTiming.getNumPhases(); phase++) {
+            if (timing.isRecorded( phase )) return now - (nanoNow - timing.getStartTime( phase )) / 1000000;
+        }
+        return now;
+    }
+
+
+    private static String getVersion() {
+        String version = HarRecorder.class.getPackage() == null ? null : HarRecorder.class.getPackage().getImplementationVersion();
+        return version == null ? "unknown" : version;
+    }
+
+}
@@ -0,0 +1,423 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+
+/**
+ * A browser-style cache of responses to GET requests. A cache is enabled for a conversation by
+ * {@link WebConversation#setCache}, and may be shared by any number of conversations.
+ * <p>
+ * Responses are stored according to the caching rules which apply to a shared cache: those which are marked
+ * "no-store" or "private", which set cookies, or which answer requests carrying credentials are never stored.
+ * A stored response is returned without contacting the server for as long as its Cache-Control max-age or
+ * Expires header allows; after that, or if it is marked "no-cache", it is revalidated with a conditional request
+ * using its ETag or Last-Modified header, and returned again if the server replies "304 Not Modified".
+ * <p>
+ * Since a cache may be shared by conversations holding different cookies, a stored response is only used for
+ * a request which sends the same cookies as the request which received it, and the same values of any other
+ * request headers named by its Vary header. Only one such variant of each URL is held at a time.
+ * <p>
+ * The cache is bounded by the total size of the bodies it holds, and discards the least recently used
+ * responses to stay within that bound.
+ **/
+public class HttpCache {
+
+    /** The default bound on the total size of the bodies held by a cache. **/
+    public final static int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private final static DateFormat HTTP_DATE_FORMAT = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+
+    static {
+        HTTP_DATE_FORMAT.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+    }
+
+    /** The request headers on which every stored response is assumed to vary, whether or not it says so. **/
+    private final static String[] IMPLICITLY_VARIED_HEADERS = { "Cookie" };
+
+    private final LRUStore _store;
+
+
+    /**
+     * Creates a cache bounded by {@link #DEFAULT_MAX_SIZE}.
+     **/
+    public HttpCache() {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a cache which holds bodies totalling at most the specified number of bytes.
+     **/
+    public HttpCache( int maxSize ) {
+        _store = new LRUStore( maxSize );
+    }
+
+
+    /**
+     * Returns the bound on the total size of the bodies held by this cache.
+     **/
+    public int getMaxSize() {
+        return _store.getMaxSize();
+    }
+
+
+    /**
+     * Returns the total size of the bodies currently held by this cache.
+     **/
+    public int getSize() {
+        return _store.getSize();
+    }
+
+
+    /**
+     * Returns the number of responses currently held by this cache.
+     **/
+    public int getEntryCount() {
+        return _store.getEntryCount();
+    }
+
+
+    /**
+     * Returns the number of requests answered from this cache without contacting the server.
+     **/
+    public long getHitCount() {
+        return _store.getHitCount();
+    }
+
+
+    /**
+     * Returns the number of cacheable requests which had to be answered by the server, either because no response
+     * was stored or because the stored response had changed.
+     **/
+    public long getMissCount() {
+        return _store.getMissCount();
+    }
+
+
+    /**
+     * Returns the number of requests answered from this cache after the server confirmed that the stored
+     * response was still current.
+     **/
+    public long getRevalidationCount() {
+        return _store.getRevalidationCount();
+    }
+
+
+    /**
+     * Discards all stored responses. The counters are not affected.
+     **/
+    public void clear() {
+        _store.clear();
+    }
+
+
+//---------------------------------- package members --------------------------------
+
+
+    /**
+     * Answers the specified request from the cache if possible, and otherwise sends it through the specified transport,
+     * storing the reply if it may be cached.
+     **/
+    HttpTransportResponse sendRequest( HttpTransport transport, WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException {
+        String key = url.toExternalForm();
+        if (!request.getMethod().equalsIgnoreCase( "GET" )) {
+            if (!request.getMethod().equalsIgnoreCase( "HEAD" )) _store.remove( key );
+            return transport.sendRequest( conversation, request, url, headers );
+        } else if (!isCacheableRequest( headers )) {
+            return transport.sendRequest( conversation, request, url, headers );
+        }
+
+        Entry entry = mustReload( headers ) ? null : (Entry) _store.get( key );
+        if (entry != null && !entry.isVariantFor( headers )) entry = null;
+        if (entry != null && entry.isFresh()) {
+            _store.recordHit();
+            return entry.getResponse();
+        }
+
+        HttpTransportResponse reply = transport.sendRequest( conversation, request, url,
+                                                             entry == null ? headers : entry.addValidators( headers ) );
+        if (entry != null && reply.getResponseCode() == 304) {
+            reply.getInputStream().close();
+            Entry updated = new Entry( entry.getResponse().withUpdatedHeaders( reply ), headers );
+            _store.replace( key, entry, updated );
+            _store.recordRevalidation();
+            return updated.getResponse();
+        }
+
+        _store.recordMiss();
+        if (!isStorable( reply )) {
+            _store.remove( key );
+            return reply;
+        }
+
+        Entry newEntry = new Entry( StoredResponse.read( reply, conversation.getClientProperties().getResponseBodyFileThreshold() ), headers );
+        if (newEntry.isWorthStoring()) {
+            _store.put( key, newEntry );
+        } else {
+            _store.remove( key );
+        }
+        return newEntry.getResponse();
+    }
+
+
+//---------------------------------- private members --------------------------------
+
+
+    /**
+     * Returns true if a request with the specified headers may be answered from the cache. Requests which carry
+     * credentials or their own conditions are sent unchanged.
+     **/
+    private static boolean isCacheableRequest( Dictionary headers ) {
+        return headers.get( "Authorization" ) == null && headers.get( "If-None-Match" ) == null
+            && headers.get( "If-Modified-Since" ) == null && headers.get( "Range" ) == null
+            && !hasDirective( (String) headers.get( "Cache-Control" ), "no-store" );
+    }
+
+
+    /**
+     * Returns true if a request with the specified headers asks that any stored response be ignored.
+     **/
+    private static boolean mustReload( Dictionary headers ) {
+        return hasDirective( (String) headers.get( "Cache-Control" ), "no-cache" )
+            || hasDirective( (String) headers.get( "Pragma" ), "no-cache" );
+    }
+
+
+    private static boolean isStorable( HttpTransportResponse reply ) throws IOException {
+        int code = reply.getResponseCode();
+        if (code != 200 && code != 203 && code != 300 && code != 301 && code != 410) return false;
+
+        return isStorable( StoredResponse.findHeader( reply, "Cache-Control" ) )
+            && StoredResponse.findHeader( reply, "Set-Cookie" ) == null
+            && StoredResponse.findHeader( reply, "Set-Cookie2" ) == null
+            && !"*".equals( StoredResponse.findHeader( reply, "Vary" ) );
+    }
+
+
+    /**
+     * Returns the names of the request headers which select a response with the specified Vary header.
+     **/
+    private static String[] getVariedHeaderNames( String vary ) {
+        ArrayList names = new ArrayList( Arrays.asList( IMPLICITLY_VARIED_HEADERS ) );
+        if (vary != null) {
+            for (StringTokenizer st = new StringTokenizer( vary, "," ); st.hasMoreTokens(); ) {
+                String name = st.nextToken().trim();
+                if (name.length() > 0) names.add( name );
+            }
+        }
+        return (String[]) names.toArray( new String[ names.size() ] );
+    }
+
+
+    private static String[] getHeaderValues( Dictionary headers, String[] names ) {
+        String[] values = new String[ names.length ];
+        for (int i = 0; i < names.length; i++) values[i] = (String) headers.get( names[i] );
+        return values;
+    }
+
+
+    /**
+     * Returns the time until which a response with the specified headers may be used without revalidation.
+     **/
+    static long getExpirationTime( String cacheControl, String expires, String date, String age ) {
+        long receiptTime = System.currentTimeMillis();
+        return receiptTime + getFreshnessLifetime( cacheControl, expires, date, receiptTime ) - Math.max( 0, getSeconds( age ) ) * 1000;
+    }
+
+
+    /**
+     * Returns the number of milliseconds after its receipt for which a response may be used without revalidation.
+     **/
+    private static long getFreshnessLifetime( String cacheControl, String expires, String date, long receiptTime ) {
+        long maxAge = getSeconds( getDirective( cacheControl, "s-maxage" ) );
+        if (maxAge < 0) maxAge = getSeconds( getDirective( cacheControl, "max-age" ) );
+        if (maxAge >= 0) return maxAge * 1000;
+
+        if (expires == null) return 0;
+        long expirationDate = parseDate( expires );
+        long dateSent = parseDate( date );
+        return expirationDate < 0 ? 0 : expirationDate - (dateSent < 0 ? receiptTime : dateSent);
+    }
+
+
+    /**
+     * Returns true if a response with the specified Cache-Control and Pragma headers must be revalidated on each use.
+     **/
+    static boolean isAlwaysRevalidated( String cacheControl, String pragma ) {
+        return hasDirective( cacheControl, "no-cache" ) || hasDirective( pragma, "no-cache" );
+    }
+
+
+    /**
+     * Returns true if a response with the specified Cache-Control header may be stored by a shared cache.
+     **/
+    static boolean isStorable( String cacheControl ) {
+        return !hasDirective( cacheControl, "no-store" ) && !hasDirective( cacheControl, "private" );
+    }
+
+
+    private static boolean hasDirective( String headerValue, String directive ) {
+        return getDirective( headerValue, directive ) != null;
+    }
+
+
+    /**
+     * Returns the value of the specified directive in a Cache-Control or Pragma header: the empty string if it
+     * has no value, or null if it is not present.
+     **/
+    private static String getDirective( String headerValue, String directive ) {
+        if (headerValue == null) return null;
+        for (StringTokenizer st = new StringTokenizer( headerValue, "," ); st.hasMoreTokens(); ) {
+            String token = st.nextToken().trim();
+            int equals = token.indexOf( '=' );
+            String name = equals < 0 ? token : token.substring( 0, equals ).trim();
+            if (!name.equalsIgnoreCase( directive )) continue;
+            if (equals < 0) return "";
+            String value = token.substring( equals + 1 ).trim();
+            if (value.startsWith( "\"" ) && value.endsWith( "\"" ) && value.length() > 1) value = value.substring( 1, value.length() - 1 );
+            return value;
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the number of seconds specified by a directive, or -1 if it is missing or malformed.
+     **/
+    private static long getSeconds( String value ) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong( value.trim() );
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Returns the time in milliseconds represented by an HTTP date, or -1 if it cannot be parsed.
+     **/
+    private static long parseDate( String value ) {
+        if (value == null) return -1;
+        try {
+            synchronized (HTTP_DATE_FORMAT) {
+                return HTTP_DATE_FORMAT.parse( value.trim() ).getTime();
+            }
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * A stored response, together with the time until which it may be used without revalidation and the
+     * request header values for which it was received.
+     **/
+    private static class Entry implements LRUStore.Entry {
+
+        private final StoredResponse _response;
+
+        private final long _expirationTime;
+
+        private final boolean _alwaysRevalidate;
+
+        private final String[] _variedHeaderNames;
+
+        private final String[] _variedHeaderValues;
+
+
+        Entry( StoredResponse response, Dictionary requestHeaders ) {
+            _response = response;
+            _variedHeaderNames = getVariedHeaderNames( response.getHeaderField( "Vary" ) );
+            _variedHeaderValues = getHeaderValues( requestHeaders, _variedHeaderNames );
+            String cacheControl = response.getHeaderField( "Cache-Control" );
+            _alwaysRevalidate = isAlwaysRevalidated( cacheControl, response.getHeaderField( "Pragma" ) );
+            _expirationTime = getExpirationTime( cacheControl, response.getHeaderField( "Expires" ),
+                                                 response.getHeaderField( "Date" ), response.getHeaderField( "Age" ) );
+        }
+
+
+        StoredResponse getResponse() {
+            return _response;
+        }
+
+
+        public int getSize() {
+            return _response.getBodyLength();
+        }
+
+
+        /**
+         * Returns true if this response was received for a request with the same values of the varied headers
+         * as the specified request headers.
+         **/
+        boolean isVariantFor( Dictionary requestHeaders ) {
+            return Arrays.equals( _variedHeaderValues, getHeaderValues( requestHeaders, _variedHeaderNames ) );
+        }
+
+
+        boolean isFresh() {
+            return !_alwaysRevalidate && System.currentTimeMillis() < _expirationTime;
+        }
+
+
+        /**
+         * Returns true if this response may be used again, either because it is still fresh or because it can be revalidated.
+         **/
+        boolean isWorthStoring() {
+            return isFresh() || getETag() != null || getLastModified() != null;
+        }
+
+
+        /**
+         * Returns a copy of the specified headers to which the conditions for revalidating this response have been added.
+         **/
+        Dictionary addValidators( Dictionary headers ) {
+            WebClient.HeaderDictionary conditionalHeaders = new WebClient.HeaderDictionary();
+            conditionalHeaders.addEntries( headers );
+            if (getETag() != null) conditionalHeaders.put( "If-None-Match", getETag() );
+            if (getLastModified() != null) conditionalHeaders.put( "If-Modified-Since", getLastModified() );
+            return conditionalHeaders;
+        }
+
+
+        private String getETag() {
+            return _response.getHeaderField( "ETag" );
+        }
+
+
+        private String getLastModified() {
+            return _response.getHeaderField( "Last-Modified" );
+        }
+    }
+
+}
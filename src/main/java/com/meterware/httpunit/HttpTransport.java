@@ -0,0 +1,44 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.net.URL;
+import java.util.Dictionary;
+
+
+/**
+ * The means by which a {@link WebConversation} exchanges a request with a web server. The default transport
+ * uses the JDK's URLConnection support; others may be supplied via {@link WebConversation#setTransport}, for
+ * example to control connection reuse.
+ **/
+public interface HttpTransport {
+
+
+    /**
+     * Sends the specified request and returns the status, headers and body received in reply.
+     * @param conversation the conversation on whose behalf the request is sent
+     * @param request      the request to send
+     * @param url          the URL to contact. This may differ from the request URL if a DNS listener has rerouted it.
+     * @param headers      the complete set of headers to send, keyed by header name
+     **/
+    HttpTransportResponse sendRequest( WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException;
+
+}
@@ -0,0 +1,68 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * The reply to a request sent through an {@link HttpTransport}.
+ **/
+public interface HttpTransportResponse {
+
+
+    /**
+     * Returns the numeric status code of the response.
+     **/
+    int getResponseCode() throws IOException;
+
+
+    /**
+     * Returns the status message of the response.
+     **/
+    String getResponseMessage() throws IOException;
+
+
+    /**
+     * Returns the name of the nth header field, or null if there are fewer than n+1 fields.
+     **/
+    String getHeaderFieldKey( int n );
+
+
+    /**
+     * Returns the value of the nth header field, or null if there are fewer than n+1 fields.
+     **/
+    String getHeaderField( int n );
+
+
+    /**
+     * Returns the content type of the response, or null if it is not known.
+     **/
+    String getContentType();
+
+
+    /**
+     * Returns the stream from which the body of the response may be read. Closing this stream releases any
+     * resources held by the transport for this response.
+     **/
+    InputStream getInputStream() throws IOException;
+
+}
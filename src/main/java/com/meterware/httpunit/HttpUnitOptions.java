@@ -447,6 +447,15 @@ public abstract class HttpUnitOptions {
     }
 
 
+    /**
+     * Returns the scripting engine factory to use for pages loaded under the specified configuration. A configuration
+     * may turn scripting off for its client; it cannot turn it on when it has been disabled globally.
+     */
+    static ScriptingEngineFactory getScriptingEngine( ClientConfiguration configuration ) {
+        return configuration.isScriptingActive() ? getScriptingEngine() : NULL_SCRIPTING_ENGINE_FACTORY;
+    }
+
+
     /**
      * change the scriptingEnabled flag
      * @param scriptingEnabled
@@ -464,6 +473,23 @@ public abstract class HttpUnitOptions {
     }
 
 
+    /**
+     * Returns the recorder to which events marking HttpUnit's units of work are reported, or null if there is none.
+     */
+    public static EventRecorder getEventRecorder() {
+        return _eventRecorder;
+    }
+
+
+    /**
+     * Specifies the recorder to which events marking HttpUnit's units of work are reported. By default there is none.
+     * @param eventRecorder the recorder to use, or null to stop reporting events
+     */
+    public static void setEventRecorder( EventRecorder eventRecorder ) {
+        _eventRecorder = eventRecorder;
+    }
+
+
 
     /**
      * Determines whether script errors result in exceptions or warning messages.
@@ -584,6 +610,8 @@ public abstract class HttpUnitOptions {
 
     private static boolean _checkHtmlContentType = false;
 
+    private static volatile EventRecorder _eventRecorder;
+
 
     static {
         reset();
@@ -20,18 +20,14 @@ package com.meterware.httpunit;
 *
 *******************************************************************************************************************/
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.net.UnknownHostException;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.StringTokenizer;
 import java.util.Vector;
 
 
@@ -46,83 +42,73 @@ class HttpWebResponse extends WebResponse {
 
 
     /**
-     * Constructs a response object from an input stream.
+     * Constructs a response object from a URL connection.
      * @param frame the target window or frame to which the request should be directed
      * @param url the url from which the response was received
      * @param connection the URL connection from which the response can be read
      **/
     HttpWebResponse( WebConversation client, FrameSelector frame, URL url, URLConnection connection, boolean throwExceptionOnError ) throws IOException {
+        this( client, frame, url, System.nanoTime(), new URLConnectionTransport.Response( connection ), throwExceptionOnError );
+    }
+
+
+    /**
+     * Constructs a response object from the reply to a request sent through a transport.
+     * @param frame the target window or frame to which the request should be directed
+     * @param url the url from which the response was received
+     * @param startTime the value of System.nanoTime() when the request was begun
+     * @param transportResponse the reply from which the status, headers and body can be read
+     **/
+    HttpWebResponse( WebConversation client, FrameSelector frame, URL url, long startTime, HttpTransportResponse transportResponse, boolean throwExceptionOnError ) throws IOException {
         super( client, frame, url );
-        if (HttpUnitOptions.isLoggingHttpHeaders()) System.out.println( "\nReceived from " + url );
-        readHeaders( connection );
+        if (getConfiguration().isLoggingHttpHeaders()) System.out.println( "\nReceived from " + url );
+        readHeaders( transportResponse );
+        recordExchangeTiming( startTime, transportResponse );
 
         /** make sure that any IO exception for HTML received page happens here, not later. **/
         if (_responseCode < HttpURLConnection.HTTP_BAD_REQUEST || !throwExceptionOnError) {
-        	InputStream inputStream = getInputStream( connection );
-            defineRawInputStream( new BufferedInputStream( inputStream ) );
+            defineRawInputStream( new BufferedInputStream( transportResponse.getInputStream() ) );
             String contentType = getContentType();
-            if (contentType.startsWith( "text" ))	{
+            if (contentType.startsWith( "text" ) || getResponseBodyFileThreshold() > 0 || isConnectionHeldByBody( transportResponse ))	{
             	loadResponseText();
             }
+        } else {
+            releaseBody( transportResponse );
         }
     }
 
 
-    HttpWebResponse( WebConversation client, FrameSelector frame, WebRequest request, URLConnection connection, boolean throwExceptionOnError ) throws IOException {
-        this( client, frame, request.getURL(), connection, throwExceptionOnError );
+    HttpWebResponse( WebConversation client, FrameSelector frame, WebRequest request, long startTime, HttpTransportResponse transportResponse, boolean throwExceptionOnError ) throws IOException {
+        this( client, frame, request.getURL(), startTime, transportResponse, throwExceptionOnError );
         super.setWithParse(!request.getMethod().equals("HEAD"));
         _referer = request.getReferer();
+        setRequest( request );
     }
 
 
-
     /**
-     * get the input stream for the given connection 
-     * @param connection
-     * @return
-     * @throws IOException
-     */
-    private InputStream getInputStream( URLConnection connection ) throws IOException {
-    	InputStream result=null;
-    	// check whether there is an error stream
-    	if (isResponseOnErrorStream( connection )) {
-    		result=((HttpURLConnection) connection).getErrorStream();
-    	} else  {     		
-    		// if there is no error stream it depends on the response code
-    		try {
-    			result=connection.getInputStream();
-    		} catch (java.io.FileNotFoundException fnfe) {
-    			// as of JDK 1.5 a null inputstream might have been returned here
-    			// see bug report [ 1283878 ] FileNotFoundException using Sun JDK 1.5 on empty error pages
-    			// by Roger Lindsj?
-    			if (isErrorResponse(connection)) {
-    				// fake an empty error stream
-    				result=new ByteArrayInputStream(new byte[0]);
-    			} else {
-    				throw fnfe;
-    			}
-    		}
-    	}
-    	return result;
+     * Returns true if the transport cannot reuse the connection for this response until its body has been read.
+     * Such a body is read at once, since a caller which never reads it would otherwise keep the connection forever.
+     **/
+    private boolean isConnectionHeldByBody( HttpTransportResponse transportResponse ) {
+        return transportResponse instanceof PooledTransportResponse && ((PooledTransportResponse) transportResponse).isConnectionHeldByBody();
     }
 
 
     /**
-     * check whether a response code >=400 was received
-     * @param connection
-     * @return
-     */
-    private boolean isErrorResponse(URLConnection connection ) {
-    	return _responseCode >= HttpURLConnection.HTTP_BAD_REQUEST;
-    }
-    
-    /**
-     * check whether the response is on the error stream
-     * @param connection
-     * @return
-     */
-    private boolean isResponseOnErrorStream( URLConnection connection ) {
-      return isErrorResponse(connection) && ((HttpURLConnection) connection).getErrorStream() != null;
+     * Records the time spent connecting and sending the request, if the transport reports them,
+     * and waiting for the headers of the reply.
+     **/
+    private void recordExchangeTiming( long startTime, HttpTransportResponse transportResponse ) {
+        long headersReceived = System.nanoTime();
+        long sentTime = startTime;
+        if (transportResponse instanceof TimedTransportResponse) {
+            long connectedTime = ((TimedTransportResponse) transportResponse).getConnectedTime();
+            sentTime = ((TimedTransportResponse) transportResponse).getSentTime();
+            recordPhase( ResponseTiming.CONNECT, startTime, connectedTime );
+            recordPhase( ResponseTiming.SEND, connectedTime, sentTime );
+        }
+        recordPhase( ResponseTiming.WAIT, sentTime, headersReceived );
     }
 
 
@@ -191,9 +177,6 @@ class HttpWebResponse extends WebResponse {
 //------------------------------------- private members -------------------------------------
 
 
-    private final static String FILE_ENCODING = System.getProperty( "file.encoding" );
-
-
     private int       _responseCode    = HttpURLConnection.HTTP_OK;
 	private String    _responseMessage = "OK";
     
@@ -210,78 +193,43 @@ class HttpWebResponse extends WebResponse {
     private Hashtable _headers = new Hashtable();
 
     /**
-     * read the response Header for the given connection and set the response code and
-     * message accordingly
-     * @param connection
-     * @throws IOException
+     * Releases the body of a response which will not be read, so that the transport may reclaim its connection.
      */
-    private void readResponseHeader( HttpURLConnection connection ) throws IOException {
-        if (!needStatusWorkaround()) {
-            setResponseCode(connection.getResponseCode(),connection.getResponseMessage());
-        } else {
-             if (connection.getHeaderField(0) == null) throw new UnknownHostException( connection.getURL().toExternalForm() );
-
-            StringTokenizer st = new StringTokenizer( connection.getHeaderField(0) );
-            st.nextToken();
-            if (!st.hasMoreTokens()) {
-                setResponseCode(HttpURLConnection.HTTP_OK,"OK");
-            } else try {
-                setResponseCode(Integer.parseInt( st.nextToken()) ,getRemainingTokens( st ));
-            } catch (NumberFormatException e) {
-                setResponseCode (HttpURLConnection.HTTP_INTERNAL_ERROR,"Cannot parse response header");
-            }
-        }
-    }
-
-    private boolean needStatusWorkaround() {
-        final String jdkVersion = System.getProperty( "java.version" );
-        return jdkVersion.startsWith( "1.2" ) || jdkVersion.startsWith( "1.3" );
-    }
-
-
-    private String getRemainingTokens( StringTokenizer st ) {
-        StringBuffer messageBuffer = new StringBuffer( st.hasMoreTokens() ? st.nextToken() : "" );
-        while (st.hasMoreTokens()) {
-            messageBuffer.append( ' ' ).append( st.nextToken() );
+    private void releaseBody( HttpTransportResponse transportResponse ) {
+        try {
+            transportResponse.getInputStream().close();
+        } catch (IOException e) {
+            // the body was never available, so there is nothing to release
         }
-        return messageBuffer.toString();
     }
 
 
-    private void readHeaders( URLConnection connection ) throws IOException {
-        loadHeaders( connection );
-        if (connection instanceof HttpURLConnection) {
-            readResponseHeader( (HttpURLConnection) connection );
-        } else {
-            setResponseCode (HttpURLConnection.HTTP_OK, "OK");
-            if (connection.getContentType().startsWith( "text" )) {
-                setContentTypeHeader( connection.getContentType() + "; charset=" + FILE_ENCODING );
-            }
-        }
-    }
-
-
-    private void loadHeaders( URLConnection connection ) {
-        if (HttpUnitOptions.isLoggingHttpHeaders()) {
-            System.out.println( "Header:: " + connection.getHeaderField(0) );
+    /**
+     * read the status and headers of the given transport response
+     * @param transportResponse
+     * @throws IOException
+     */
+    private void readHeaders( HttpTransportResponse transportResponse ) throws IOException {
+        setResponseCode( transportResponse.getResponseCode(), transportResponse.getResponseMessage() );
+        if (getConfiguration().isLoggingHttpHeaders()) {
+            System.out.println( "Header:: " + _responseCode + " " + _responseMessage );
         }
-        for (int i = 1; true; i++) {
-            String headerFieldKey = connection.getHeaderFieldKey( i );
-            String headerField = connection.getHeaderField(i);
+        for (int i = 0; true; i++) {
+            String headerFieldKey = transportResponse.getHeaderFieldKey( i );
+            String headerField = transportResponse.getHeaderField( i );
             if (headerFieldKey == null || headerField == null) break;
-            if (HttpUnitOptions.isLoggingHttpHeaders()) {
+            if (getConfiguration().isLoggingHttpHeaders()) {
                 System.out.println( "Header:: " + headerFieldKey + ": " + headerField );
             }
             addHeader( headerFieldKey.toUpperCase(), headerField );
         }
 
-        if (connection.getContentType() != null) {
-            setContentTypeHeader( connection.getContentType() );
+        if (transportResponse.getContentType() != null) {
+            setContentTypeHeader( transportResponse.getContentType() );
         }
     }
 
 
-
     private void addHeader( String key, String field ) {
         _headers.put( key, HttpUnitUtils.withNewValue( (String[]) _headers.get( key ), field ) );
     }
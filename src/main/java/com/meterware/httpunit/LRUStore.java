@@ -0,0 +1,154 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * The stored entries of a cache, bounded by their total size. The least recently used entries are discarded
+ * to stay within that bound. The store also keeps the counters reported by the cache which uses it.
+ **/
+class LRUStore {
+
+    private final LinkedHashMap _entries = new LinkedHashMap( 16, 0.75f, true );
+
+    private final int _maxSize;
+
+    private int _size;
+
+    private long _hitCount;
+
+    private long _missCount;
+
+    private long _revalidationCount;
+
+
+    LRUStore( int maxSize ) {
+        _maxSize = maxSize;
+    }
+
+
+    int getMaxSize() {
+        return _maxSize;
+    }
+
+
+    synchronized int getSize() {
+        return _size;
+    }
+
+
+    synchronized int getEntryCount() {
+        return _entries.size();
+    }
+
+
+    synchronized long getHitCount() {
+        return _hitCount;
+    }
+
+
+    synchronized long getMissCount() {
+        return _missCount;
+    }
+
+
+    synchronized long getRevalidationCount() {
+        return _revalidationCount;
+    }
+
+
+    synchronized void recordHit() {
+        _hitCount++;
+    }
+
+
+    synchronized void recordMiss() {
+        _missCount++;
+    }
+
+
+    synchronized void recordRevalidation() {
+        _revalidationCount++;
+    }
+
+
+    /**
+     * Discards all stored entries. The counters are not affected.
+     **/
+    synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+
+    /**
+     * Returns the entry stored under the specified key, marking it as the most recently used, or null if there is none.
+     **/
+    synchronized Entry get( Object key ) {
+        return (Entry) _entries.get( key );
+    }
+
+
+    /**
+     * Stores an entry under the specified key, replacing any stored before, and discards the least recently used
+     * entries until the total size is within bounds. An entry larger than the bound is not stored.
+     **/
+    synchronized void put( Object key, Entry entry ) {
+        remove( key );
+        if (entry.getSize() > _maxSize) return;
+        _entries.put( key, entry );
+        _size += entry.getSize();
+        for (Iterator i = _entries.values().iterator(); _size > _maxSize && i.hasNext(); ) {
+            Entry eldest = (Entry) i.next();
+            i.remove();
+            _size -= eldest.getSize();
+        }
+    }
+
+
+    /**
+     * Replaces a stored entry, unless it has been replaced or removed in the meantime.
+     **/
+    synchronized void replace( Object key, Entry oldEntry, Entry newEntry ) {
+        if (_entries.get( key ) == oldEntry) put( key, newEntry );
+    }
+
+
+    synchronized void remove( Object key ) {
+        Entry entry = (Entry) _entries.remove( key );
+        if (entry != null) _size -= entry.getSize();
+    }
+
+
+    /**
+     * An entry which may be held in a store.
+     **/
+    interface Entry {
+
+        /**
+         * Returns the size of this entry, counted against the bound on its store.
+         **/
+        int getSize();
+    }
+
+}
@@ -28,6 +28,7 @@ import org.w3c.dom.html.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.io.IOException;
 
 import javax.management.RuntimeErrorException;
@@ -377,7 +378,7 @@ public class ParsedHTML {
      * @param element
      */
     void interpretScriptElement( Element element ) {
-        if (!HttpUnitOptions.isScriptingEnabled()) {
+        if (!(_response == null ? HttpUnitOptions.isScriptingEnabled() : _response.getConfiguration().isScriptingActive())) {
             _enableNoScriptNodes = true;
             return;
         }
@@ -423,17 +424,37 @@ public class ParsedHTML {
      * @throws IOException if there is a problem retrieving the script
      */
     String getIncludedScript( String srcAttribute ) throws IOException {
+        return getIncludedScript( srcAttribute, true );
+    }
+
+
+    /**
+     * Returns the contents of an included script, given its src attribute.
+     * @param revalidate false to request the script without the validators of any cached copy, as when that copy
+     *                   was discarded before the server confirmed that it was still current
+     */
+    private String getIncludedScript( String srcAttribute, boolean revalidate ) throws IOException {
         WebRequest req = new GetMethodWebRequest( getBaseURL(), srcAttribute );
         WebWindow window = getResponse().getWindow();
         if (window == null) 
         	throw new IllegalStateException( "Unable to retrieve script included by this response, since it was loaded by getResource(). Use getResponse() instead.");
-        WebResponse response = window.getResource( req );
+        String url = req.getURL().toExternalForm();
+        ScriptCache cache = window.getClient().getScriptCache();
+        Future pendingResponse = revalidate ? getResponse().removePendingScript( url ) : null;
+        if (pendingResponse == null && cache != null && revalidate) {
+            String cookieHeader = window.getClient().getCookieHeaderField( req.getURL() );
+            String script = cache.getFreshScript( url, cookieHeader );
+            if (script != null) return script;
+            cache.addValidators( url, cookieHeader, req );
+        }
+        WebResponse response = window.getResource( req, pendingResponse );
         // check whether the Source is available
         int code = response.getResponseCode();
         // if everything is o.k.
         if (code<=HttpURLConnection.HTTP_BAD_REQUEST) {
         	// return the text
-            String result =response.getText();
+            String result = cache == null ? response.getText() : cache.getScript( url, response );
+            if (result == null) return revalidate ? getIncludedScript( srcAttribute, false ) : response.getText();
             return result;        	
         } else {
         	// in this case the text would be an error message
@@ -780,6 +801,9 @@ public class ParsedHTML {
     private void loadElements() {
         if (!_updateElements) return;
 
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.ELEMENT_LOAD );
+
         NodeUtils.NodeAction action = new NodeUtils.NodeAction() {
             public boolean processElement( NodeUtils.PreOrderTraversal pot, Element element ) {
                 HTMLElementFactory factory = getHTMLElementFactory( element.getNodeName().toLowerCase() );
@@ -800,11 +824,15 @@ public class ParsedHTML {
                 new HtmlElementRecorder().recordHtmlElement( pot, textNode, newTextBlock( textNode ) );
             }
         };
-        NodeUtils.PreOrderTraversal nt = new NodeUtils.PreOrderTraversal( getRootNode() );
-        nt.pushBaseContext( this );
-        nt.perform( action );
+        try {
+            NodeUtils.PreOrderTraversal nt = new NodeUtils.PreOrderTraversal( getRootNode() );
+            nt.pushBaseContext( this );
+            nt.perform( action );
 
-        _updateElements = false;
+            _updateElements = false;
+        } finally {
+            if (event != null) recorder.endEvent( event, _baseURL == null ? null : _baseURL.toExternalForm(), -1, _registry.size() );
+        }
     }
 
 
@@ -1136,6 +1164,15 @@ public class ParsedHTML {
     }
 
 
+    /**
+     * Records the base URL and target declared by the page, as read by the parser.
+     **/
+    void setBase( URL baseURL, String baseTarget ) {
+        _baseURL    = baseURL;
+        _baseTarget = baseTarget;
+    }
+
+
     WebResponse getResponse() {
         return _response;
     }
@@ -0,0 +1,875 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * A transport which speaks HTTP/1.1 directly over NIO socket channels and keeps connections open between requests.
+ * Each host is served by a bounded pool of persistent connections: a request waits for an idle connection
+ * once the limit has been reached. A single instance may be shared by any number of conversations.
+ * <p>
+ * Requests are routed through the conversation's proxy server, if one has been set; the pool for a host is kept
+ * separately for each proxy. Requests for protocols other than plain http are passed to a {@link URLConnectionTransport}. Requests are built
+ * from {@link WebRequest#getMethod} and the request's message body; {@link WebRequest#completeRequest} is
+ * not consulted.
+ **/
+public class PooledHttpTransport implements HttpTransport {
+
+    /** The default maximum number of connections open to a single host. **/
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    private final static int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+    private final static int DEFAULT_ACQUIRE_TIMEOUT    = 30000;
+
+    private final static String CRLF = "\r\n";
+    private final static String HEADER_ENCODING = "ISO-8859-1";
+
+    private final int _maxConnectionsPerHost;
+    private int       _keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    private int       _acquireTimeout   = DEFAULT_ACQUIRE_TIMEOUT;
+    private boolean   _tcpNoDelay       = true;
+    private int       _receiveBufferSize = -1;
+    private int       _sendBufferSize    = -1;
+
+    /** Map from host and port to the pool of connections for that host. **/
+    private final Hashtable _pools = new Hashtable();
+
+    private final HttpTransport _fallbackTransport = new URLConnectionTransport();
+
+    private int _connectionsOpened;
+
+
+    /**
+     * Creates a transport which will hold up to {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST} connections to each host.
+     */
+    public PooledHttpTransport() {
+        this( DEFAULT_MAX_CONNECTIONS_PER_HOST );
+    }
+
+
+    /**
+     * Creates a transport which will hold up to the specified number of connections to each host.
+     */
+    public PooledHttpTransport( int maxConnectionsPerHost ) {
+        if (maxConnectionsPerHost < 1) throw new IllegalArgumentException( "Must permit at least one connection per host" );
+        _maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+
+    public int getMaxConnectionsPerHost() {
+        return _maxConnectionsPerHost;
+    }
+
+
+    /**
+     * Returns the time in milliseconds for which an idle connection is kept for reuse.
+     */
+    public int getKeepAliveTimeout() {
+        return _keepAliveTimeout;
+    }
+
+
+    /**
+     * Specifies the time in milliseconds for which an idle connection is kept for reuse. The default is 15 seconds.
+     */
+    public void setKeepAliveTimeout( int keepAliveTimeout ) {
+        _keepAliveTimeout = keepAliveTimeout;
+    }
+
+
+    /**
+     * Returns the time in milliseconds a request will wait for a connection when all connections to its host are busy.
+     */
+    public int getAcquireTimeout() {
+        return _acquireTimeout;
+    }
+
+
+    /**
+     * Specifies the time in milliseconds a request will wait for a connection when all connections to its host are busy.
+     * Zero means wait indefinitely. The default is 30 seconds.
+     */
+    public void setAcquireTimeout( int acquireTimeout ) {
+        _acquireTimeout = acquireTimeout;
+    }
+
+
+    public boolean isTcpNoDelay() {
+        return _tcpNoDelay;
+    }
+
+
+    /**
+     * Specifies whether new connections disable Nagle's algorithm. The default is true.
+     */
+    public void setTcpNoDelay( boolean tcpNoDelay ) {
+        _tcpNoDelay = tcpNoDelay;
+    }
+
+
+    /**
+     * Specifies the socket receive buffer size for new connections. A negative value leaves the system default.
+     */
+    public void setReceiveBufferSize( int receiveBufferSize ) {
+        _receiveBufferSize = receiveBufferSize;
+    }
+
+
+    /**
+     * Specifies the socket send buffer size for new connections. A negative value leaves the system default.
+     */
+    public void setSendBufferSize( int sendBufferSize ) {
+        _sendBufferSize = sendBufferSize;
+    }
+
+
+    /**
+     * Returns the number of connections this transport has opened since it was created.
+     */
+    public synchronized int getConnectionsOpened() {
+        return _connectionsOpened;
+    }
+
+
+    /**
+     * Returns the number of connections currently held idle for reuse.
+     */
+    public int getIdleConnectionCount() {
+        int count = 0;
+        synchronized (_pools) {
+            for (Iterator i = _pools.values().iterator(); i.hasNext();) {
+                count += ((HostPool) i.next()).getIdleCount();
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Closes all idle connections. Connections in use will be closed as their responses are released.
+     */
+    public void closeIdleConnections() {
+        List pools;
+        synchronized (_pools) {
+            pools = new ArrayList( _pools.values() );
+        }
+        for (Iterator i = pools.iterator(); i.hasNext();) {
+            ((HostPool) i.next()).closeIdle();
+        }
+    }
+
+
+    public HttpTransportResponse sendRequest( WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException {
+        if (!url.getProtocol().equalsIgnoreCase( "http" )) {
+            return _fallbackTransport.sendRequest( conversation, request, url, headers );
+        }
+
+        Proxy proxy = conversation.getProxy();
+        byte[] messageBody = getMessageBody( request );
+        ByteBuffer head = ByteBuffer.wrap( getRequestHead( request.getMethod(), url, proxy != null, headers, messageBody ) );
+        HostPool pool = getPool( url.getHost(), url.getPort() < 0 ? url.getDefaultPort() : url.getPort(), proxy );
+
+        PooledConnection connection = pool.acquire( conversation.get_connectTimeout(), conversation.get_readTimeout() );
+        try {
+            return connection.exchange( head, messageBody, request.getMethod() );
+        } catch (StaleConnectionException e) {
+            // the server closed an idle connection before we tried to use it; try once more with a fresh one
+            connection.discard();
+            head.rewind();
+            connection = pool.open( conversation.get_connectTimeout(), conversation.get_readTimeout() );
+            try {
+                return connection.exchange( head, messageBody, request.getMethod() );
+            } catch (IOException e2) {
+                connection.discard();
+                throw e2;
+            }
+        } catch (IOException e) {
+            connection.discard();
+            throw e;
+        }
+    }
+
+
+    private byte[] getMessageBody( WebRequest request ) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        request.writeMessageBody( stream );
+        return (stream.size() > 0 || request instanceof MessageBodyWebRequest) ? stream.toByteArray() : null;
+    }
+
+
+    private byte[] getRequestHead( String method, URL url, boolean viaProxy, Dictionary headers, byte[] messageBody ) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        sb.append( method ).append( ' ' ).append( viaProxy ? url.toExternalForm() : getRequestTarget( url ) );
+        sb.append( " HTTP/1.1" ).append( CRLF );
+        boolean hasHost = false;
+        for (Enumeration e = headers.keys(); e.hasMoreElements();) {
+            String key = (String) e.nextElement();
+            if (key.equalsIgnoreCase( "Content-Length" ) || key.equalsIgnoreCase( "Connection" )) continue;
+            if (key.equalsIgnoreCase( "Host" )) hasHost = true;
+            sb.append( key ).append( ": " ).append( headers.get( key ) ).append( CRLF );
+        }
+        if (!hasHost) {
+            sb.append( "Host: " ).append( url.getHost() );
+            if (url.getPort() >= 0) sb.append( ':' ).append( url.getPort() );
+            sb.append( CRLF );
+        }
+        if (messageBody != null) sb.append( "Content-Length: " ).append( messageBody.length ).append( CRLF );
+        sb.append( CRLF );
+        return sb.toString().getBytes( HEADER_ENCODING );
+    }
+
+
+    private String getRequestTarget( URL url ) {
+        String file = url.getFile();
+        return file.length() == 0 ? "/" : file;
+    }
+
+
+    private HostPool getPool( String host, int port, Proxy proxy ) {
+        String key = host.toLowerCase() + ':' + port;
+        if (proxy != null) key += " via " + proxy.address();
+        synchronized (_pools) {
+            HostPool pool = (HostPool) _pools.get( key );
+            if (pool == null) {
+                InetSocketAddress address = proxy != null ? (InetSocketAddress) proxy.address() : new InetSocketAddress( host, port );
+                _pools.put( key, pool = new HostPool( address ) );
+            }
+            return pool;
+        }
+    }
+
+
+    private synchronized void connectionOpened() {
+        _connectionsOpened++;
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * The connections open to a single host, either directly or through a proxy.
+     */
+    private class HostPool {
+
+        /** The address to which connections are made. **/
+        private final InetSocketAddress _address;
+
+        /** Idle connections, most recently used first. **/
+        private final LinkedList _idle = new LinkedList();
+
+        /** The number of open connections, whether idle or in use. **/
+        private int _openCount;
+
+
+        HostPool( InetSocketAddress address ) {
+            _address = address;
+        }
+
+
+        /**
+         * Returns an idle connection if one is available, otherwise opens a new one, waiting if the host
+         * already has as many connections as permitted.
+         */
+        PooledConnection acquire( int connectTimeout, int readTimeout ) throws IOException {
+            synchronized (this) {
+                long deadline = _acquireTimeout <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + _acquireTimeout;
+                while (true) {
+                    PooledConnection connection = takeIdleConnection();
+                    if (connection != null) {
+                        connection.setReadTimeout( readTimeout );
+                        return connection;
+                    }
+                    if (_openCount < _maxConnectionsPerHost) break;
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) throw new IOException( "Timed out waiting for a connection to " + _address );
+                    try {
+                        wait( remaining );
+                    } catch (InterruptedException e) {
+                        throw new IOException( "Interrupted while waiting for a connection to " + _address );
+                    }
+                }
+                _openCount++;
+            }
+            return connect( connectTimeout, readTimeout );
+        }
+
+
+        /**
+         * Opens a new connection to replace one which has been discarded.
+         */
+        PooledConnection open( int connectTimeout, int readTimeout ) throws IOException {
+            synchronized (this) {
+                _openCount++;
+            }
+            return connect( connectTimeout, readTimeout );
+        }
+
+
+        private PooledConnection connect( int connectTimeout, int readTimeout ) throws IOException {
+            try {
+                PooledConnection connection = new PooledConnection( this, _address, connectTimeout );
+                connection.setReadTimeout( readTimeout );
+                connectionOpened();
+                return connection;
+            } catch (IOException e) {
+                connectionClosed();
+                throw e;
+            }
+        }
+
+
+        private PooledConnection takeIdleConnection() {
+            long now = System.currentTimeMillis();
+            while (!_idle.isEmpty()) {
+                PooledConnection connection = (PooledConnection) _idle.removeFirst();
+                if (now - connection.getIdleSince() < _keepAliveTimeout) return connection;
+                connection.closeChannel();
+                _openCount--;
+            }
+            return null;
+        }
+
+
+        synchronized void release( PooledConnection connection ) {
+            _idle.addFirst( connection );
+            notifyAll();
+        }
+
+
+        synchronized void connectionClosed() {
+            _openCount--;
+            notifyAll();
+        }
+
+
+        PooledHttpTransport getTransport() {
+            return PooledHttpTransport.this;
+        }
+
+
+        synchronized int getIdleCount() {
+            return _idle.size();
+        }
+
+
+        synchronized void closeIdle() {
+            while (!_idle.isEmpty()) {
+                ((PooledConnection) _idle.removeFirst()).closeChannel();
+                _openCount--;
+            }
+            notifyAll();
+        }
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * A persistent connection to a host.
+     */
+    private static class PooledConnection {
+
+        private final HostPool      _pool;
+        private final SocketChannel _channel;
+        private final BufferedInputStream _input;
+
+        /** True if this connection has already carried a complete exchange. **/
+        private boolean _reused;
+        private long    _idleSince;
+        private boolean _closed;
+
+
+        PooledConnection( HostPool pool, InetSocketAddress address, int connectTimeout ) throws IOException {
+            _pool = pool;
+            _channel = SocketChannel.open();
+            try {
+                PooledHttpTransport transport = pool.getTransport();
+                _channel.socket().setTcpNoDelay( transport._tcpNoDelay );
+                if (transport._receiveBufferSize > 0) _channel.socket().setReceiveBufferSize( transport._receiveBufferSize );
+                if (transport._sendBufferSize > 0) _channel.socket().setSendBufferSize( transport._sendBufferSize );
+                _channel.socket().connect( address, Math.max( 0, connectTimeout ) );
+                _input = new BufferedInputStream( _channel.socket().getInputStream() );
+            } catch (IOException e) {
+                _channel.close();
+                throw e;
+            }
+        }
+
+
+        void setReadTimeout( int readTimeout ) throws IOException {
+            _channel.socket().setSoTimeout( Math.max( 0, readTimeout ) );
+        }
+
+
+        long getIdleSince() {
+            return _idleSince;
+        }
+
+
+        /**
+         * Sends a request and reads the status and headers of the reply.
+         * @throws StaleConnectionException if a reused connection turns out to have been closed by the server before
+         *                                  any of the reply arrived, and the request may safely be sent again
+         */
+        HttpTransportResponse exchange( ByteBuffer head, byte[] messageBody, String method ) throws IOException {
+            boolean mayResend = _reused && isSafeToResend( method );
+            long connectedTime = System.nanoTime();
+            try {
+                writeFully( messageBody == null ? new ByteBuffer[] { head }
+                                                : new ByteBuffer[] { head, ByteBuffer.wrap( messageBody ) } );
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                if (mayResend) throw new StaleConnectionException();
+                throw e;
+            }
+            long sentTime = System.nanoTime();
+
+            int firstByte;
+            try {
+                _input.mark( 1 );
+                firstByte = _input.read();
+                _input.reset();
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                if (mayResend) throw new StaleConnectionException();
+                throw e;
+            }
+            if (firstByte < 0) {
+                if (mayResend) throw new StaleConnectionException();
+                throw new EOFException( "Connection closed before response was received" );
+            }
+
+            Response response = new Response( ChunkedInputStream.readLine( _input ) );
+            response.readHeaders( _input );
+            while (response.getResponseCode() >= 100 && response.getResponseCode() < 200) {
+                response = new Response( ChunkedInputStream.readLine( _input ) );
+                response.readHeaders( _input );
+            }
+            response.defineBody( this, method );
+            response._connectedTime = connectedTime;
+            response._sentTime = sentTime;
+            return response;
+        }
+
+
+        /**
+         * Returns true if a request with the specified method may be sent again should the connection turn out to
+         * have been closed. Only methods which do not change anything on the server are resent, since the server
+         * may have acted on the first request before closing the connection.
+         */
+        private boolean isSafeToResend( String method ) {
+            return method.equalsIgnoreCase( "GET" ) || method.equalsIgnoreCase( "HEAD" )
+                || method.equalsIgnoreCase( "OPTIONS" ) || method.equalsIgnoreCase( "TRACE" );
+        }
+
+
+        /**
+         * Writes every buffer in full. Each is checked in turn, since the last may be empty, as for a post with no body.
+         */
+        private void writeFully( ByteBuffer[] buffers ) throws IOException {
+            for (int i = 0; i < buffers.length; i++) {
+                while (buffers[i].hasRemaining()) _channel.write( buffers );
+            }
+        }
+
+
+        InputStream getInput() {
+            return _input;
+        }
+
+
+        /**
+         * Returns this connection to its pool after its response body has been completely read.
+         */
+        void release() {
+            _reused = true;
+            _idleSince = System.currentTimeMillis();
+            _pool.release( this );
+        }
+
+
+        /**
+         * Closes this connection without returning it to the pool.
+         */
+        void discard() {
+            if (_closed) return;
+            closeChannel();
+            _pool.connectionClosed();
+        }
+
+
+        void closeChannel() {
+            _closed = true;
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                // nothing more can be done with this connection
+            }
+        }
+    }
+
+
+    private static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * The reply received over a pooled connection.
+     */
+    private static class Response implements TimedTransportResponse, PooledTransportResponse {
+
+        private String  _protocol;
+        private int     _responseCode;
+        private String  _responseMessage = "";
+        private List    _headerKeys   = new ArrayList();
+        private List    _headerValues = new ArrayList();
+        private InputStream _body;
+        private long    _connectedTime;
+        private long    _sentTime;
+
+
+        Response( String statusLine ) throws IOException {
+            if (statusLine == null) throw new EOFException( "Connection closed before response was received" );
+            int firstSpace = statusLine.indexOf( ' ' );
+            if (!statusLine.startsWith( "HTTP/" ) || firstSpace < 0) throw new IOException( "Bad status line: " + statusLine );
+            _protocol = statusLine.substring( 0, firstSpace );
+            int secondSpace = statusLine.indexOf( ' ', firstSpace+1 );
+            String code = secondSpace < 0 ? statusLine.substring( firstSpace+1 ) : statusLine.substring( firstSpace+1, secondSpace );
+            if (secondSpace >= 0) _responseMessage = statusLine.substring( secondSpace+1 );
+            try {
+                _responseCode = Integer.parseInt( code.trim() );
+            } catch (NumberFormatException e) {
+                throw new IOException( "Bad status line: " + statusLine );
+            }
+        }
+
+
+        void readHeaders( InputStream input ) throws IOException {
+            String line;
+            while ((line = ChunkedInputStream.readLine( input )) != null && line.length() != 0) {
+                if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && !_headerValues.isEmpty()) {
+                    int last = _headerValues.size()-1;
+                    _headerValues.set( last, _headerValues.get( last ) + " " + line.trim() );
+                    continue;
+                }
+                int colon = line.indexOf( ':' );
+                if (colon <= 0) continue;
+                _headerKeys.add( line.substring( 0, colon ).trim() );
+                _headerValues.add( line.substring( colon+1 ).trim() );
+            }
+        }
+
+
+        /**
+         * Determines how the body of this response is delimited, and arranges for the connection to be returned
+         * to its pool or closed once the body has been read.
+         * @throws IOException if the declared length of the body is not a single non-negative number
+         */
+        void defineBody( PooledConnection connection, String method ) throws IOException {
+            boolean keepAlive = isKeepAlive();
+            if (method.equalsIgnoreCase( "HEAD" ) || _responseCode == 204 || _responseCode == 304 || _responseCode < 200) {
+                _body = new BodyInputStream( new BoundedInputStream( connection.getInput(), 0 ), connection, keepAlive );
+            } else if (isChunked()) {
+                _body = new BodyInputStream( new ChunkedInputStream( connection.getInput() ), connection, keepAlive );
+            } else if (getField( "Content-Length" ) != null) {
+                _body = new BodyInputStream( new BoundedInputStream( connection.getInput(), getContentLength() ), connection, keepAlive );
+            } else {
+                _body = new BodyInputStream( connection.getInput(), connection, false );
+            }
+        }
+
+
+        private boolean isKeepAlive() {
+            String connectionHeader = getField( "Connection" );
+            if (_protocol.equals( "HTTP/1.0" )) return "keep-alive".equalsIgnoreCase( connectionHeader );
+            return !"close".equalsIgnoreCase( connectionHeader );
+        }
+
+
+        private boolean isChunked() {
+            String encoding = getField( "Transfer-Encoding" );
+            return encoding != null && encoding.toLowerCase().indexOf( "chunked" ) >= 0;
+        }
+
+
+        /**
+         * Returns the declared length of the body. A length which cannot be read leaves the end of the body unknown,
+         * and with it the start of the next response on the connection, so it is reported as an error.
+         */
+        private long getContentLength() throws IOException {
+            String contentLength = getField( "Content-Length" ).trim();
+            try {
+                long length = Long.parseLong( contentLength );
+                if (length >= 0) return length;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IOException( "Bad Content-Length: " + contentLength );
+        }
+
+
+        private String getField( String name ) {
+            for (int i = 0; i < _headerKeys.size(); i++) {
+                if (name.equalsIgnoreCase( (String) _headerKeys.get( i ) )) return (String) _headerValues.get( i );
+            }
+            return null;
+        }
+
+
+        public int getResponseCode() {
+            return _responseCode;
+        }
+
+
+        public String getResponseMessage() {
+            return _responseMessage;
+        }
+
+
+        public String getHeaderFieldKey( int n ) {
+            return n < _headerKeys.size() ? (String) _headerKeys.get( n ) : null;
+        }
+
+
+        public String getHeaderField( int n ) {
+            return n < _headerValues.size() ? (String) _headerValues.get( n ) : null;
+        }
+
+
+        public long getConnectedTime() {
+            return _connectedTime;
+        }
+
+
+        public long getSentTime() {
+            return _sentTime;
+        }
+
+
+        public boolean isConnectionHeldByBody() {
+            return ((BodyInputStream) _body).isConnectionHeld();
+        }
+
+
+        public String getContentType() {
+            return getField( "Content-Type" );
+        }
+
+
+        public InputStream getInputStream() {
+            return _body;
+        }
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * A stream which reads no more than a fixed number of bytes from the underlying stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long _remaining;
+
+
+        BoundedInputStream( InputStream in, long length ) {
+            super( in );
+            _remaining = length;
+        }
+
+
+        public int read() throws IOException {
+            if (_remaining <= 0) return -1;
+            int b = in.read();
+            if (b < 0) throw new EOFException( "Connection closed with " + _remaining + " bytes of the message body unread" );
+            _remaining--;
+            return b;
+        }
+
+
+        public int read( byte[] buffer, int offset, int length ) throws IOException {
+            if (length == 0) return 0;
+            if (_remaining <= 0) return -1;
+            int count = in.read( buffer, offset, (int) Math.min( length, _remaining ) );
+            if (count < 0) throw new EOFException( "Connection closed with " + _remaining + " bytes of the message body unread" );
+            _remaining -= count;
+            return count;
+        }
+
+
+        public int available() throws IOException {
+            return (int) Math.min( _remaining, in.available() );
+        }
+
+
+        public void close() {
+            // the underlying stream belongs to the connection
+        }
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * The body of a response. Once the body has been read to its end, the connection is returned to its pool;
+     * if the body is closed before then, any small remainder is skipped so that the connection may still be reused.
+     */
+    private static class BodyInputStream extends FilterInputStream {
+
+        private final static int DRAIN_LIMIT = 8 * 1024;
+
+        private PooledConnection _connection;
+        private boolean          _keepAlive;
+
+
+        BodyInputStream( InputStream in, PooledConnection connection, boolean keepAlive ) {
+            super( in );
+            _connection = connection;
+            _keepAlive = keepAlive;
+            if (isComplete()) finished();
+        }
+
+
+        public int read() throws IOException {
+            if (_connection == null) return -1;
+            try {
+                int b = in.read();
+                if (b < 0 || isComplete()) finished();
+                return b;
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+        }
+
+
+        public int read( byte[] buffer, int offset, int length ) throws IOException {
+            if (_connection == null) return -1;
+            try {
+                int count = in.read( buffer, offset, length );
+                if (count < 0 || isComplete()) finished();
+                return count;
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+        }
+
+
+        public int available() throws IOException {
+            return _connection == null ? 0 : in.available();
+        }
+
+
+        boolean isConnectionHeld() {
+            return _connection != null;
+        }
+
+
+        public void close() {
+            if (_connection == null) return;
+            if (_keepAlive && drain()) {
+                finished();
+            } else {
+                abandon();
+            }
+        }
+
+
+        /**
+         * Returns true if the message body has been completely read from the connection.
+         */
+        private boolean isComplete() {
+            if (in instanceof BoundedInputStream) return ((BoundedInputStream) in)._remaining <= 0;
+            if (in instanceof ChunkedInputStream) return ((ChunkedInputStream) in).isComplete();
+            return false;
+        }
+
+
+        /**
+         * Reads and discards the rest of the body, provided that it is short. Returns true if the end was reached.
+         */
+        private boolean drain() {
+            try {
+                byte[] buffer = new byte[ 1024 ];
+                int drained = 0;
+                while (!isComplete() && drained < DRAIN_LIMIT) {
+                    int count = in.read( buffer, 0, buffer.length );
+                    if (count < 0) break;
+                    drained += count;
+                }
+                return isComplete();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+
+        private void finished() {
+            if (_connection == null) return;
+            if (_keepAlive) {
+                _connection.release();
+            } else {
+                _connection.discard();
+            }
+            _connection = null;
+        }
+
+
+        private void abandon() {
+            if (_connection == null) return;
+            _connection.discard();
+            _connection = null;
+        }
+    }
+}
@@ -41,7 +41,9 @@ class RequestContext {
     void runScripts() throws SAXException {
         for (Iterator iterator = _newResponses.iterator(); iterator.hasNext();) {
             WebResponse response = (WebResponse) iterator.next();
-            HttpUnitOptions.getScriptingEngine().load( response );
+            long startTime = System.nanoTime();
+            HttpUnitOptions.getScriptingEngine( response.getConfiguration() ).load( response );
+            response.recordPhase( ResponseTiming.SCRIPTS, startTime, System.nanoTime() );
         }
     }
 }
@@ -0,0 +1,323 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * The body of a response, held in a single buffer. The buffer is sized from the declared content length when
+ * there is one, up to a limit, so that a body of moderate size which arrives as promised is never copied; a larger
+ * one grows the buffer as it arrives, so that a false length cannot force a huge allocation. Text and input
+ * streams are derived from the buffer on demand.
+ * <p>
+ * A body larger than the client's file threshold is instead written to a temporary file and held as a
+ * memory-mapped view of that file, so that its size does not count against the heap.
+ **/
+class ResponseBody {
+
+    private final static int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /** The largest buffer allocated on the strength of a declared length, before any of the body has arrived. **/
+    private final static int MAX_INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] _buffer;
+
+    private int _length;
+
+    /** The view of the temporary file which holds the body, if it was too large to keep in memory. **/
+    private ByteBuffer _mappedBody;
+
+
+    /**
+     * Reads a body from the specified stream, stopping after the specified number of bytes or at end of stream,
+     * whichever comes first. The transport is responsible for reporting end of stream at the end of the body,
+     * whether it is delimited by its length, by chunked encoding, or by the closing of the connection.
+     * @param inputStream the stream from which to read the body
+     * @param expectedLength the declared length of the body, or -1 if it is not known
+     * @param maxBytes the maximum number of bytes to read
+     * @param fileThreshold the size above which the body is held in a file rather than in memory, or zero to
+     *                      hold every body in memory
+     **/
+    static ResponseBody read( InputStream inputStream, int expectedLength, int maxBytes, int fileThreshold ) throws IOException {
+        if (fileThreshold <= 0 || maxBytes <= fileThreshold) {
+            ResponseBody body = new ResponseBody( getInitialSize( expectedLength, maxBytes ) );
+            body.readFrom( inputStream, maxBytes );
+            return body;
+        } else if (expectedLength > fileThreshold) {
+            ResponseBody body = new ResponseBody( 0 );
+            body.spillToFile( inputStream, maxBytes );
+            return body;
+        } else {
+            ResponseBody body = new ResponseBody( getInitialSize( expectedLength, fileThreshold ) );
+            body.readFrom( inputStream, fileThreshold );
+            if (body._length == fileThreshold) body.spillToFile( inputStream, maxBytes );
+            return body;
+        }
+    }
+
+
+    /**
+     * Returns the size of the buffer to allocate before reading a body: the declared length if there is one, but
+     * never more than the limit on what may be read nor more than {@link #MAX_INITIAL_BUFFER_SIZE}.
+     **/
+    private static int getInitialSize( int expectedLength, int maxBytes ) {
+        return Math.min( maxBytes, expectedLength < 0 ? DEFAULT_BUFFER_SIZE : Math.min( expectedLength, MAX_INITIAL_BUFFER_SIZE ) );
+    }
+
+
+    /**
+     * Creates a body with no content.
+     **/
+    static ResponseBody createEmptyBody() {
+        return new ResponseBody( 0 );
+    }
+
+
+    /**
+     * Creates a body holding the specified bytes. The array is not copied, and must not be modified afterwards.
+     **/
+    static ResponseBody createBody( byte[] bytes ) {
+        ResponseBody body = new ResponseBody( 0 );
+        body._buffer = bytes;
+        body._length = bytes.length;
+        return body;
+    }
+
+
+    private ResponseBody( int initialSize ) {
+        _buffer = new byte[ initialSize ];
+    }
+
+
+    private void readFrom( InputStream inputStream, int maxBytes ) throws IOException {
+        while (_length < maxBytes) {
+            if (_length == _buffer.length && !expandBuffer( maxBytes )) break;
+            int count = inputStream.read( _buffer, _length, Math.min( maxBytes, _buffer.length ) - _length );
+            if (count == -1) break;
+            _length += count;
+        }
+    }
+
+
+    /**
+     * Grows the buffer once it is full, returning false if it may not grow any further.
+     **/
+    private boolean expandBuffer( int maxBytes ) {
+        long newSize = Math.min( (long) maxBytes, Math.max( 2L * _buffer.length, DEFAULT_BUFFER_SIZE ) );
+        if (newSize <= _buffer.length) return false;
+        byte[] newBuffer = new byte[ (int) newSize ];
+        System.arraycopy( _buffer, 0, newBuffer, 0, _length );
+        _buffer = newBuffer;
+        return true;
+    }
+
+
+    /**
+     * Writes the body read so far, followed by the remainder of the stream, to a temporary file, and maps that
+     * file in place of the buffer. If the stream turns out to be at its end, the body stays in memory.
+     **/
+    private void spillToFile( InputStream inputStream, int maxBytes ) throws IOException {
+        int nextByte = inputStream.read();
+        if (nextByte == -1) return;
+
+        File file = File.createTempFile( "httpunit", ".body" );
+        try {
+            OutputStream outputStream = new FileOutputStream( file );
+            try {
+                outputStream.write( _buffer, 0, _length );
+                outputStream.write( nextByte );
+                _length++;
+
+                byte[] buffer = new byte[ DEFAULT_BUFFER_SIZE ];
+                while (_length < maxBytes) {
+                    int count = inputStream.read( buffer, 0, Math.min( maxBytes - _length, buffer.length ) );
+                    if (count == -1) break;
+                    outputStream.write( buffer, 0, count );
+                    _length += count;
+                }
+            } finally {
+                outputStream.close();
+            }
+
+            RandomAccessFile mappedFile = new RandomAccessFile( file, "r" );
+            try {
+                _mappedBody = mappedFile.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, _length );
+                _buffer = null;
+            } finally {
+                mappedFile.close();
+            }
+        } finally {
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+
+    /**
+     * Returns true if the body is held in a file rather than in memory.
+     **/
+    boolean isHeldInFile() {
+        return _mappedBody != null;
+    }
+
+
+    /**
+     * Returns the number of bytes in the body.
+     **/
+    int getLength() {
+        return _length;
+    }
+
+
+    /**
+     * Returns the buffer which holds the body. Only the first {@link #getLength} bytes are meaningful.
+     * This may only be called if the body is held in memory.
+     **/
+    byte[] getBuffer() {
+        return _buffer;
+    }
+
+
+    /**
+     * Returns the body as an array of exactly its length. The buffer itself is returned if it is already the
+     * right size; otherwise it is trimmed once and the trimmed copy retained in its place. A body held in a file
+     * is copied into a new array on each call, and never retained.
+     **/
+    byte[] getBytes() {
+        if (isHeldInFile()) {
+            byte[] bytes = new byte[ _length ];
+            _mappedBody.duplicate().get( bytes );
+            return bytes;
+        }
+        if (_buffer.length != _length) {
+            byte[] bytes = new byte[ _length ];
+            System.arraycopy( _buffer, 0, bytes, 0, _length );
+            _buffer = bytes;
+        }
+        return _buffer;
+    }
+
+
+    /**
+     * Returns a copy of at most the specified number of bytes from the start of the body.
+     **/
+    byte[] getInitialBytes( int maxLength ) {
+        byte[] bytes = new byte[ Math.min( maxLength, _length ) ];
+        if (isHeldInFile()) {
+            _mappedBody.duplicate().get( bytes );
+        } else {
+            System.arraycopy( _buffer, 0, bytes, 0, bytes.length );
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Decodes the body using the specified character set.
+     **/
+    String getText( String characterSet ) throws UnsupportedEncodingException {
+        if (isHeldInFile()) return getCharset( characterSet ).decode( _mappedBody.duplicate() ).toString();
+        return new String( _buffer, 0, _length, characterSet );
+    }
+
+
+    /**
+     * Looks up the specified character set, failing as the in-memory path does if it cannot be used.
+     **/
+    private static Charset getCharset( String characterSet ) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName( characterSet );
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException( characterSet );
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException( characterSet );
+        }
+    }
+
+
+    /**
+     * Returns a new read-only view of the body, positioned at its start.
+     **/
+    ByteBuffer getView() {
+        if (isHeldInFile()) return _mappedBody.duplicate();
+        return ByteBuffer.wrap( _buffer, 0, _length ).asReadOnlyBuffer();
+    }
+
+
+    /**
+     * Returns a new stream which reads the body from the shared buffer.
+     **/
+    InputStream newInputStream() {
+        if (isHeldInFile()) return new MappedInputStream( _mappedBody.duplicate() );
+        return new ByteArrayInputStream( _buffer, 0, _length );
+    }
+
+
+    /**
+     * A stream which reads from its own view of a mapped body.
+     **/
+    static class MappedInputStream extends InputStream {
+
+        private ByteBuffer _view;
+
+
+        MappedInputStream( ByteBuffer view ) {
+            _view = view;
+        }
+
+
+        public int read() {
+            return _view.hasRemaining() ? (_view.get() & 0xff) : -1;
+        }
+
+
+        public int read( byte[] bytes, int offset, int length ) {
+            if (length == 0) return 0;
+            if (!_view.hasRemaining()) return -1;
+            int count = Math.min( length, _view.remaining() );
+            _view.get( bytes, offset, count );
+            return count;
+        }
+
+
+        public long skip( long n ) {
+            int count = (int) Math.max( 0, Math.min( n, _view.remaining() ) );
+            _view.position( _view.position() + count );
+            return count;
+        }
+
+
+        public int available() {
+            return _view.remaining();
+        }
+    }
+
+}
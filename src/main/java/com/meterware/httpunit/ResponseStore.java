@@ -0,0 +1,307 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A file of recorded responses, which may be replayed in place of the web server which sent them. A conversation
+ * records the responses it receives when its transport is one created by {@link #createRecordingTransport}, and
+ * later conversations may be served those responses, without any network access, by a transport created by
+ * {@link #createReplayTransport}:
+ * <pre>
+ *   ResponseStore store = new ResponseStore( new File( "responses.store" ) );
+ *   conversation.setTransport( store.createRecordingTransport( conversation.getTransport() ) );
+ * </pre>
+ * Responses are identified by the method and URL of their requests, together with a digest of the request body,
+ * if any. Bodies supplied as input streams are not part of the key, since reading them would consume them.
+ * <p>
+ * The file is only ever appended to; a response recorded again supersedes the earlier recording. An index of the
+ * responses is built when the file is opened, and lookups read from a memory-mapped view of the file, which
+ * limits a store to 2GB.
+ **/
+public class ResponseStore {
+
+    private final static int MAGIC = 0x48555253;    // "HURS"
+
+    private final RandomAccessFile _file;
+
+    private final FileChannel _channel;
+
+    private final Map _index = new HashMap();
+
+    private MappedByteBuffer _mappedFile;
+
+    private long _length;
+
+
+    /**
+     * Opens the specified store, creating it if it does not exist. If the file ends with an incompletely written
+     * record, as when a recording run was interrupted, that record is discarded.
+     * @throws IOException if the file exists but is not a response store, in which case it is left unchanged
+     **/
+    public ResponseStore( File file ) throws IOException {
+        _file = new RandomAccessFile( file, "rw" );
+        _channel = _file.getChannel();
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            _file.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns a transport which sends requests through the specified transport, and records each response received.
+     **/
+    public HttpTransport createRecordingTransport( HttpTransport transport ) {
+        return new RecordingTransport( transport );
+    }
+
+
+    /**
+     * Returns a transport which answers each request with the response recorded for it, and throws an
+     * IOException for requests with no recorded response.
+     **/
+    public HttpTransport createReplayTransport() {
+        return new ReplayTransport();
+    }
+
+
+    /**
+     * Returns the number of distinct requests for which responses have been recorded.
+     **/
+    public synchronized int getNumResponses() {
+        return _index.size();
+    }
+
+
+    /**
+     * Closes the file containing this store.
+     **/
+    public synchronized void close() throws IOException {
+        _mappedFile = null;
+        _file.close();
+    }
+
+
+    synchronized void record( String key, StoredResponse response ) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream( record );
+        output.writeInt( MAGIC );
+        output.writeInt( 0 );
+        writeString( output, key );
+        output.writeInt( response.getResponseCode() );
+        writeString( output, response.getResponseMessage() );
+        writeString( output, response.getContentType() );
+        int numHeaders = 0;
+        while (response.getHeaderFieldKey( numHeaders ) != null) numHeaders++;
+        output.writeInt( numHeaders );
+        for (int i = 0; i < numHeaders; i++) {
+            writeString( output, response.getHeaderFieldKey( i ) );
+            writeString( output, response.getHeaderField( i ) );
+        }
+        output.writeInt( response.getBodyLength() );
+        output.flush();
+        byte[] header = record.toByteArray();
+        ByteBuffer body = response.getBody();
+        int bodyLength = body.remaining();
+        ByteBuffer buffer = ByteBuffer.wrap( header );
+        buffer.putInt( 4, header.length + bodyLength - 8 );
+
+        long position = _length;
+        if (position + header.length + bodyLength > Integer.MAX_VALUE) throw new IOException( "Response store is full" );
+        writeFully( buffer, position );
+        writeFully( body, position + header.length );
+        _length = position + header.length + bodyLength;
+        _index.put( key, Long.valueOf( position ) );
+    }
+
+
+    synchronized StoredResponse find( String key ) throws IOException {
+        Long position = (Long) _index.get( key );
+        if (position == null) return null;
+
+        ByteBuffer view = getMappedFile().duplicate();
+        view.position( (int) position.longValue() + 4 );
+        byte[] record = new byte[ view.getInt() ];
+        view.get( record );
+
+        DataInputStream input = new DataInputStream( new ByteArrayInputStream( record ) );
+        readString( input, record.length );
+        int responseCode = input.readInt();
+        String responseMessage = readString( input, record.length );
+        String contentType = readString( input, record.length );
+        String[] headerNames = new String[ input.readInt() ];
+        String[] headerValues = new String[ headerNames.length ];
+        for (int i = 0; i < headerNames.length; i++) {
+            headerNames[i] = readString( input, record.length );
+            headerValues[i] = readString( input, record.length );
+        }
+        byte[] body = new byte[ input.readInt() ];
+        input.readFully( body );
+        return new StoredResponse( responseCode, responseMessage, headerNames, headerValues, contentType, body );
+    }
+
+
+    /**
+     * Returns the key identifying the response to the specified request.
+     **/
+    static String getKey( WebRequest request, URL url ) throws IOException {
+        StringBuffer sb = new StringBuffer( request.getMethod() ).append( ' ' ).append( url.toExternalForm() );
+        if (request instanceof MessageBodyWebRequest
+                && !(((MessageBodyWebRequest) request).getMessageBody() instanceof MessageBodyWebRequest.InputStreamMessageBody)) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            request.writeMessageBody( body );
+            sb.append( ' ' ).append( getDigest( body.toByteArray() ) );
+        }
+        return sb.toString();
+    }
+
+
+    private static String getDigest( byte[] bytes ) {
+        try {
+            byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( bytes );
+            StringBuffer sb = new StringBuffer( digest.length * 2 );
+            for (int i = 0; i < digest.length; i++) {
+                sb.append( Character.forDigit( (digest[i] >> 4) & 0xf, 16 ) ).append( Character.forDigit( digest[i] & 0xf, 16 ) );
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException( "SHA-1 digests are not supported: " + e );
+        }
+    }
+
+
+    /**
+     * Reads the keys of the records in the file, truncating it after the last complete record. A file which does not
+     * begin with a record is not truncated, since it may be some other file named by mistake.
+     **/
+    private void loadIndex() throws IOException {
+        long fileLength = _file.length();
+        long position = 0;
+        _file.seek( 0 );
+        if (fileLength >= 4 && _file.readInt() != MAGIC) throw new IOException( "Not a response store" );
+        _file.seek( 0 );
+        try {
+            while (position + 8 <= fileLength) {
+                if (_file.readInt() != MAGIC) break;
+                int recordLength = _file.readInt();
+                if (position + 8 + recordLength > fileLength) break;
+                _index.put( readString( _file, recordLength ), Long.valueOf( position ) );
+                position += 8 + recordLength;
+                _file.seek( position );
+            }
+        } catch (EOFException e) {
+        }
+        if (position > 0 && position < fileLength) _file.setLength( position );
+        _length = position;
+    }
+
+
+    private MappedByteBuffer getMappedFile() throws IOException {
+        if (_mappedFile == null || _mappedFile.capacity() < _length) {
+            _mappedFile = _channel.map( FileChannel.MapMode.READ_ONLY, 0, _length );
+        }
+        return _mappedFile;
+    }
+
+
+    private void writeFully( ByteBuffer buffer, long position ) throws IOException {
+        while (buffer.hasRemaining()) position += _channel.write( buffer, position );
+    }
+
+
+    /**
+     * Writes a string as its length in UTF-8 bytes followed by those bytes, or as a length of -1 if it is null.
+     * Unlike writeUTF, this places no limit on the length of the string, as a large header value may need.
+     **/
+    private static void writeString( DataOutputStream output, String value ) throws IOException {
+        if (value == null) {
+            output.writeInt( -1 );
+        } else {
+            byte[] bytes = value.getBytes( "UTF-8" );
+            output.writeInt( bytes.length );
+            output.write( bytes );
+        }
+    }
+
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     * @param maxLength the length of the record containing the string, which its own length may not exceed
+     **/
+    private static String readString( DataInput input, int maxLength ) throws IOException {
+        int length = input.readInt();
+        if (length < 0) return null;
+        if (length > maxLength) throw new IOException( "Corrupt response store: string of " + length + " bytes in a record of " + maxLength );
+        byte[] bytes = new byte[ length ];
+        input.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+
+    private class RecordingTransport implements HttpTransport {
+
+        private final HttpTransport _transport;
+
+        RecordingTransport( HttpTransport transport ) {
+            _transport = transport;
+        }
+
+        public HttpTransportResponse sendRequest( WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException {
+            String key = getKey( request, url );
+            StoredResponse response = StoredResponse.read( _transport.sendRequest( conversation, request, url, headers ),
+                                                           conversation.getClientProperties().getResponseBodyFileThreshold() );
+            record( key, response );
+            return response;
+        }
+    }
+
+
+    private class ReplayTransport implements HttpTransport {
+
+        public HttpTransportResponse sendRequest( WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException {
+            StoredResponse response = find( getKey( request, url ) );
+            if (response == null) throw new IOException( "No response recorded for " + request.getMethod() + " " + url );
+            return response;
+        }
+    }
+
+}
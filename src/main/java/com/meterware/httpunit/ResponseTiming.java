@@ -0,0 +1,135 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+/**
+ * The times at which the phases of obtaining and processing a response began and ended. Times are values of
+ * {@link System#nanoTime}, and so are meaningful only relative to one another.
+ * <p>
+ * The phases are recorded as they happen. Those which do not apply to a response, or which have not yet occurred,
+ * are not recorded: a response which is never parsed has no parse phase, and one from ServletUnit has no connect
+ * or wait phase.
+ **/
+public class ResponseTiming {
+
+    /** Resolving the host name and establishing the connection, or obtaining one from a pool. **/
+    public final static int CONNECT  = 0;
+
+    /**
+     * Writing the request to the connection. A transport which cannot tell when the request has been written,
+     * such as one built on URLConnection, records this phase as taking no time, and includes it in the wait.
+     **/
+    public final static int SEND     = 1;
+
+    /** Waiting for the status line and headers of the reply, once the request has been sent. **/
+    public final static int WAIT     = 2;
+
+    /** Reading the body of the reply. **/
+    public final static int DOWNLOAD = 3;
+
+    /** Decoding the body into text. **/
+    public final static int DECODE   = 4;
+
+    /** Parsing the text as HTML, including running any scripts which it contains. **/
+    public final static int PARSE    = 5;
+
+    /** Running the scripts triggered by loading the page, such as its onload handler. **/
+    public final static int SCRIPTS  = 6;
+
+    private final static String[] PHASE_NAMES = { "connect", "send", "wait", "download", "decode", "parse", "scripts" };
+
+    private final long[] _startTimes = new long[ PHASE_NAMES.length ];
+
+    private final long[] _endTimes = new long[ PHASE_NAMES.length ];
+
+    private final boolean[] _recorded = new boolean[ PHASE_NAMES.length ];
+
+
+    /**
+     * Returns the number of defined phases.
+     **/
+    public static int getNumPhases() {
+        return PHASE_NAMES.length;
+    }
+
+
+    /**
+     * Returns the name of the specified phase.
+     **/
+    public static String getPhaseName( int phase ) {
+        return PHASE_NAMES[ phase ];
+    }
+
+
+    /**
+     * Returns true if the specified phase has been recorded.
+     **/
+    public synchronized boolean isRecorded( int phase ) {
+        return _recorded[ phase ];
+    }
+
+
+    /**
+     * Returns the time at which the specified phase began. Only meaningful if the phase has been recorded.
+     **/
+    public synchronized long getStartTime( int phase ) {
+        return _startTimes[ phase ];
+    }
+
+
+    /**
+     * Returns the time at which the specified phase ended. Only meaningful if the phase has been recorded.
+     **/
+    public synchronized long getEndTime( int phase ) {
+        return _endTimes[ phase ];
+    }
+
+
+    /**
+     * Returns the length of the specified phase in nanoseconds, or zero if it has not been recorded.
+     **/
+    public synchronized long getDuration( int phase ) {
+        return _recorded[ phase ] ? _endTimes[ phase ] - _startTimes[ phase ] : 0;
+    }
+
+
+    public synchronized String toString() {
+        StringBuffer sb = new StringBuffer( "ResponseTiming [" );
+        String separator = "";
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            if (!_recorded[i]) continue;
+            sb.append( separator ).append( PHASE_NAMES[i] ).append( '=' ).append( (_endTimes[i] - _startTimes[i]) / 1000 ).append( "us" );
+            separator = ", ";
+        }
+        return sb.append( ']' ).toString();
+    }
+
+
+    /**
+     * Records the times at which a phase began and ended. If the phase occurs more than once, as when a page
+     * is reparsed, the latest occurrence is kept.
+     **/
+    synchronized void record( int phase, long startTime, long endTime ) {
+        _startTimes[ phase ] = startTime;
+        _endTimes[ phase ]   = endTime;
+        _recorded[ phase ]   = true;
+    }
+
+}
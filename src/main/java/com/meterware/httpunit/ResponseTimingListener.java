@@ -0,0 +1,38 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+/**
+ * A listener for the timing of the phases in which a web client obtains and processes its responses.
+ **/
+public interface ResponseTimingListener {
+
+    /**
+     * Invoked when a phase of obtaining or processing a response has completed. This may be called on a background
+     * thread if the response was requested in the background, as when the frames of a frameset are requested
+     * concurrently.
+     * @param src       the client which received the response
+     * @param resp      the response
+     * @param phase     the phase which completed, as defined by {@link ResponseTiming}
+     * @param startTime the value of {@link System#nanoTime} when the phase began
+     * @param endTime   the value of {@link System#nanoTime} when the phase ended
+     */
+    public void phaseCompleted( WebClient src, WebResponse resp, int phase, long startTime, long endTime );
+}
@@ -0,0 +1,262 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.util.Dictionary;
+
+
+/**
+ * A cache of the text of scripts included by pages, which may be shared by any number of clients. A cache is
+ * enabled for a client by {@link WebClient#setScriptCache}.
+ * <p>
+ * A script is stored under its URL together with its ETag and Last-Modified validators, and returned without
+ * contacting the server for as long as its Cache-Control max-age or Expires header allows. After that, the script
+ * is requested again with those validators, and the stored text is used if the server replies "304 Not Modified".
+ * Should the stored text have been discarded by the time that reply arrives, the script is requested once more
+ * without the validators.
+ * <p>
+ * Since clients sharing a cache may hold different cookies, a script is stored under the Cookie header sent with
+ * the request for it, and is returned only to a client which would send the same header. Scripts requested with an
+ * Authorization header, marked "no-store" or "private", whose responses set cookies, or whose responses vary
+ * with other request headers, are not stored.
+ * <p>
+ * The cache is bounded by the total length of the scripts it holds, and discards the least recently used
+ * scripts to stay within that bound.
+ **/
+public class ScriptCache {
+
+    /** The default bound on the total number of characters held by a cache. **/
+    public final static int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private final LRUStore _store;
+
+
+    /**
+     * Creates a cache bounded by {@link #DEFAULT_MAX_SIZE}.
+     **/
+    public ScriptCache() {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a cache which holds scripts totalling at most the specified number of characters.
+     **/
+    public ScriptCache( int maxSize ) {
+        _store = new LRUStore( maxSize );
+    }
+
+
+    /**
+     * Returns the bound on the total number of characters held by this cache.
+     **/
+    public int getMaxSize() {
+        return _store.getMaxSize();
+    }
+
+
+    /**
+     * Returns the total number of characters currently held by this cache.
+     **/
+    public int getSize() {
+        return _store.getSize();
+    }
+
+
+    /**
+     * Returns the number of scripts currently held by this cache.
+     **/
+    public int getEntryCount() {
+        return _store.getEntryCount();
+    }
+
+
+    /**
+     * Returns the number of scripts returned from this cache without contacting the server.
+     **/
+    public long getHitCount() {
+        return _store.getHitCount();
+    }
+
+
+    /**
+     * Returns the number of scripts which had to be read from the server.
+     **/
+    public long getMissCount() {
+        return _store.getMissCount();
+    }
+
+
+    /**
+     * Returns the number of scripts returned from this cache after the server confirmed that they were still current.
+     **/
+    public long getRevalidationCount() {
+        return _store.getRevalidationCount();
+    }
+
+
+    /**
+     * Discards all stored scripts. The counters are not affected.
+     **/
+    public void clear() {
+        _store.clear();
+    }
+
+
+//---------------------------------- package members --------------------------------
+
+
+    /**
+     * Returns the text of the script at the specified URL if it may be used without contacting the server,
+     * or null if it must be requested.
+     * @param cookieHeader the Cookie header which a request for the script would send, or null if there is none
+     **/
+    String getFreshScript( String url, String cookieHeader ) {
+        Entry entry = (Entry) _store.get( getKey( url, cookieHeader ) );
+        if (entry == null || !entry.isFresh()) return null;
+        _store.recordHit();
+        return entry._text;
+    }
+
+
+    /**
+     * Returns true if the script at the specified URL may be used without contacting the server.
+     **/
+    boolean isFresh( String url, String cookieHeader ) {
+        Entry entry = (Entry) _store.get( getKey( url, cookieHeader ) );
+        return entry != null && entry.isFresh();
+    }
+
+
+    /**
+     * Adds the conditions for revalidating any stored copy of the script to a request for it.
+     **/
+    void addValidators( String url, String cookieHeader, WebRequest request ) {
+        Entry entry = (Entry) _store.get( getKey( url, cookieHeader ) );
+        if (entry == null) return;
+        synchronized (entry) {
+            if (entry._eTag != null) request.setHeaderField( "If-None-Match", entry._eTag );
+            if (entry._lastModified != null) request.setHeaderField( "If-Modified-Since", entry._lastModified );
+        }
+    }
+
+
+    /**
+     * Returns the text of a script given the response to a request for it, storing the text if it may be reused.
+     * If the response confirms that a stored copy is still current, returns the stored text; if that copy has
+     * since been discarded, returns null, and the script must be requested again without validators.
+     **/
+    String getScript( String url, WebResponse response ) throws IOException {
+        Dictionary requestHeaders = response.getRequestHeaders();
+        String key = requestHeaders == null ? null : getKey( url, (String) requestHeaders.get( "Cookie" ) );
+        if (response.getResponseCode() == 304) return key == null ? null : revalidate( key, response );
+
+        String text = response.getText();
+        _store.recordMiss();
+        if (key == null) return text;
+        if (isStorable( requestHeaders, response )) {
+            Entry entry = new Entry( text, response );
+            if (entry.isFresh() || entry._eTag != null || entry._lastModified != null) _store.put( key, entry );
+        } else {
+            _store.remove( key );
+        }
+        return text;
+    }
+
+
+//---------------------------------- private members --------------------------------
+
+
+    /**
+     * Returns the key under which a script is stored: its URL, qualified by the cookies sent with the request for it.
+     **/
+    private static String getKey( String url, String cookieHeader ) {
+        return cookieHeader == null ? url : url + '\n' + cookieHeader;
+    }
+
+
+    /**
+     * Returns true if a script received in the specified response, to a request with the specified headers,
+     * may be returned to other clients which send the same cookies.
+     **/
+    private static boolean isStorable( Dictionary requestHeaders, WebResponse response ) {
+        return response.getResponseCode() == 200 && requestHeaders.get( "Authorization" ) == null
+            && HttpCache.isStorable( response.getHeaderField( "Cache-Control" ) )
+            && response.getHeaderField( "Set-Cookie" ) == null && response.getHeaderField( "Set-Cookie2" ) == null
+            && response.getHeaderField( "Vary" ) == null;
+    }
+
+
+    private String revalidate( String key, WebResponse response ) {
+        Entry entry = (Entry) _store.get( key );
+        if (entry == null) return null;
+        entry.update( response );
+        _store.recordRevalidation();
+        return entry._text;
+    }
+
+
+    /**
+     * The text of a script, together with its validators and the time until which it may be used without revalidation.
+     **/
+    private static class Entry implements LRUStore.Entry {
+
+        private final String _text;
+
+        private String _eTag;
+
+        private String _lastModified;
+
+        private long _expirationTime;
+
+        private boolean _alwaysRevalidate;
+
+
+        Entry( String text, WebResponse response ) {
+            _text = text;
+            update( response );
+        }
+
+
+        /**
+         * Updates the validators and freshness of this entry from the headers of a response.
+         **/
+        synchronized void update( WebResponse response ) {
+            if (response.getHeaderField( "ETag" ) != null) _eTag = response.getHeaderField( "ETag" );
+            if (response.getHeaderField( "Last-Modified" ) != null) _lastModified = response.getHeaderField( "Last-Modified" );
+            String cacheControl = response.getHeaderField( "Cache-Control" );
+            _alwaysRevalidate = HttpCache.isAlwaysRevalidated( cacheControl, response.getHeaderField( "Pragma" ) );
+            _expirationTime = HttpCache.getExpirationTime( cacheControl, response.getHeaderField( "Expires" ),
+                                                           response.getHeaderField( "Date" ), response.getHeaderField( "Age" ) );
+        }
+
+
+        synchronized boolean isFresh() {
+            return !_alwaysRevalidate && System.currentTimeMillis() < _expirationTime;
+        }
+
+
+        public int getSize() {
+            return _text.length();
+        }
+    }
+
+}
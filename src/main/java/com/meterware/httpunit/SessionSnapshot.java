@@ -0,0 +1,133 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.cookies.CookieJar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * The state which a web client acquires by logging in: its cookies and any fixed authorization header.
+ * A snapshot taken once may be restored into any number of new conversations, so that each need not log in again:
+ * <pre>
+ *   SessionSnapshot session = loggedIn.getSessionSnapshot();
+ *   ...
+ *   WebConversation wc = new WebConversation();
+ *   wc.restoreSession( session );
+ * </pre>
+ * Snapshots are immutable, and may be written to a stream in a compact binary form and read back later.
+ * Cookies which have expired by the time a snapshot is restored are not restored.
+ **/
+public class SessionSnapshot {
+
+    /** Identifies a stream written by this class: "HUSS". **/
+    private final static int MAGIC = 0x48555353;
+
+    private final static int FORMAT_VERSION = 1;
+
+    /** The largest block of cookies accepted when reading, far more than any browser would keep. **/
+    private final static int MAX_COOKIES_LENGTH = 16 * 1024 * 1024;
+
+    /** The cookies, as written by CookieJar.writeCookies. **/
+    private final byte[] _cookies;
+
+    private final String _authorization;
+
+
+    SessionSnapshot( CookieJar cookieJar, String authorization ) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( baos );
+            cookieJar.writeCookies( out );
+            out.flush();
+            _cookies = baos.toByteArray();
+            _authorization = authorization;
+        } catch (IOException e) {
+            throw new IllegalStateException( "Unable to record cookies: " + e );
+        }
+    }
+
+
+    private SessionSnapshot( byte[] cookies, String authorization ) {
+        _cookies = cookies;
+        _authorization = authorization;
+    }
+
+
+    /**
+     * Reads a snapshot written by {@link #write}.
+     **/
+    public static SessionSnapshot read( InputStream inputStream ) throws IOException {
+        DataInputStream in = new DataInputStream( inputStream );
+        if (in.readInt() != MAGIC) throw new IOException( "Not a session snapshot" );
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) throw new IOException( "Unsupported session snapshot version: " + version );
+
+        String authorization = in.readBoolean() ? in.readUTF() : null;
+        int length = in.readInt();
+        if (length < 0 || length > MAX_COOKIES_LENGTH) throw new IOException( "Corrupt session snapshot: " + length + " bytes of cookies" );
+        byte[] cookies = new byte[ length ];
+        in.readFully( cookies );
+        new CookieJar().readCookies( new DataInputStream( new ByteArrayInputStream( cookies ) ) );  // so that restoring cannot fail
+        return new SessionSnapshot( cookies, authorization );
+    }
+
+
+    /**
+     * Writes this snapshot to the specified stream.
+     **/
+    public void write( OutputStream outputStream ) throws IOException {
+        DataOutputStream out = new DataOutputStream( outputStream );
+        out.writeInt( MAGIC );
+        out.writeByte( FORMAT_VERSION );
+        out.writeBoolean( _authorization != null );
+        if (_authorization != null) out.writeUTF( _authorization );
+        out.writeInt( _cookies.length );
+        out.write( _cookies );
+        out.flush();
+    }
+
+
+    /**
+     * Returns the fixed authorization header recorded, or null if there was none.
+     **/
+    public String getAuthorization() {
+        return _authorization;
+    }
+
+
+    /**
+     * Adds the recorded cookies which have not expired to the specified jar.
+     */
+    void restoreCookies( CookieJar cookieJar ) {
+        try {
+            cookieJar.readCookies( new DataInputStream( new ByteArrayInputStream( _cookies ) ) );
+        } catch (IOException e) {
+            throw new IllegalStateException( "Corrupt session snapshot: " + e );
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * A complete reply held in memory, so that it may be given to any number of responses. Each call to
+ * {@link #getInputStream} returns a new stream over the stored body. A body larger than the client's file
+ * threshold is held in a memory-mapped temporary file, just as for a response.
+ **/
+class StoredResponse implements HttpTransportResponse {
+
+    private final int _responseCode;
+
+    private final String _responseMessage;
+
+    private final String[] _headerNames;
+
+    private final String[] _headerValues;
+
+    private final String _contentType;
+
+    private final ResponseBody _body;
+
+
+    /**
+     * Reads the status, headers and complete body of the specified reply, closing its stream.
+     * @param fileThreshold the size above which the body is held in a file rather than in memory, or zero to
+     *                      hold every body in memory
+     **/
+    static StoredResponse read( HttpTransportResponse source, int fileThreshold ) throws IOException {
+        ArrayList names = new ArrayList();
+        ArrayList values = new ArrayList();
+        for (int i = 0; source.getHeaderFieldKey( i ) != null; i++) {
+            names.add( source.getHeaderFieldKey( i ) );
+            values.add( source.getHeaderField( i ) );
+        }
+        return new StoredResponse( source.getResponseCode(), source.getResponseMessage(),
+                                   (String[]) names.toArray( new String[ names.size() ] ),
+                                   (String[]) values.toArray( new String[ values.size() ] ),
+                                   source.getContentType(), readBody( source, fileThreshold ) );
+    }
+
+
+    StoredResponse( int responseCode, String responseMessage, String[] headerNames, String[] headerValues, String contentType, byte[] body ) {
+        this( responseCode, responseMessage, headerNames, headerValues, contentType, ResponseBody.createBody( body ) );
+    }
+
+
+    private StoredResponse( int responseCode, String responseMessage, String[] headerNames, String[] headerValues, String contentType, ResponseBody body ) {
+        _responseCode    = responseCode;
+        _responseMessage = responseMessage;
+        _headerNames     = headerNames;
+        _headerValues    = headerValues;
+        _contentType     = contentType;
+        _body            = body;
+    }
+
+
+    /**
+     * Returns a copy of this response whose headers are replaced by any of the same name in the specified reply,
+     * as when a cached response is confirmed by a "304 Not Modified" reply.
+     **/
+    StoredResponse withUpdatedHeaders( HttpTransportResponse update ) {
+        ArrayList names = new ArrayList();
+        ArrayList values = new ArrayList();
+        for (int i = 0; i < _headerNames.length; i++) {
+            if (findHeader( update, _headerNames[i] ) != null && !isBodyHeader( _headerNames[i] )) continue;
+            names.add( _headerNames[i] );
+            values.add( _headerValues[i] );
+        }
+        for (int i = 0; update.getHeaderFieldKey( i ) != null; i++) {
+            if (isBodyHeader( update.getHeaderFieldKey( i ) )) continue;
+            names.add( update.getHeaderFieldKey( i ) );
+            values.add( update.getHeaderField( i ) );
+        }
+        return new StoredResponse( _responseCode, _responseMessage,
+                                   (String[]) names.toArray( new String[ names.size() ] ),
+                                   (String[]) values.toArray( new String[ values.size() ] ),
+                                   _contentType, _body );
+    }
+
+
+    /**
+     * Returns the value of the first header with the specified name, ignoring case, or null if there is none.
+     **/
+    String getHeaderField( String name ) {
+        for (int i = 0; i < _headerNames.length; i++) {
+            if (_headerNames[i].equalsIgnoreCase( name )) return _headerValues[i];
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns a new read-only view of the stored body. The body is not copied.
+     **/
+    ByteBuffer getBody() {
+        return _body.getView();
+    }
+
+
+    /**
+     * Returns the number of bytes in the stored body.
+     **/
+    int getBodyLength() {
+        return _body.getLength();
+    }
+
+
+    public int getResponseCode() {
+        return _responseCode;
+    }
+
+
+    public String getResponseMessage() {
+        return _responseMessage;
+    }
+
+
+    public String getHeaderFieldKey( int n ) {
+        return n < _headerNames.length ? _headerNames[n] : null;
+    }
+
+
+    public String getHeaderField( int n ) {
+        return n < _headerValues.length ? _headerValues[n] : null;
+    }
+
+
+    public String getContentType() {
+        return _contentType;
+    }
+
+
+    public InputStream getInputStream() {
+        return _body.newInputStream();
+    }
+
+
+    /**
+     * Returns the value of the first header with the specified name in the specified reply, or null if there is none.
+     **/
+    static String findHeader( HttpTransportResponse response, String name ) {
+        for (int i = 0; response.getHeaderFieldKey( i ) != null; i++) {
+            if (response.getHeaderFieldKey( i ).equalsIgnoreCase( name )) return response.getHeaderField( i );
+        }
+        return null;
+    }
+
+
+    private static boolean isBodyHeader( String name ) {
+        return name.equalsIgnoreCase( "Content-Length" ) || name.equalsIgnoreCase( "Content-Encoding" ) || name.equalsIgnoreCase( "Transfer-Encoding" );
+    }
+
+
+    private static ResponseBody readBody( HttpTransportResponse source, int fileThreshold ) throws IOException {
+        InputStream inputStream = source.getInputStream();
+        try {
+            return ResponseBody.read( inputStream, getContentLength( source ), Integer.MAX_VALUE, fileThreshold );
+        } finally {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * Returns the declared length of the body of the specified reply, or -1 if it is not known.
+     **/
+    private static int getContentLength( HttpTransportResponse source ) {
+        String contentLength = findHeader( source, "Content-Length" );
+        String contentEncoding = findHeader( source, "Content-Encoding" );
+        if (contentLength == null || contentEncoding != null) return -1;
+        try {
+            return Integer.parseInt( contentLength.trim() );
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.StringTokenizer;
+
+
+/**
+ * The default transport, which sends each request through a URLConnection obtained from the JDK.
+ * Connection reuse is left to the JDK's own keep-alive handling.
+ **/
+public class URLConnectionTransport implements HttpTransport {
+
+
+    public HttpTransportResponse sendRequest( WebConversation conversation, WebRequest request, URL url, Dictionary headers ) throws IOException {
+        URLConnection connection = openConnection( url, conversation.getProxy() );
+        // [ 1518901 ] enable http connect and read timeouts (needs JDK 1.5)
+        if (conversation.get_connectTimeout() >= 0) connection.setConnectTimeout( conversation.get_connectTimeout() );
+        if (conversation.get_readTimeout() >= 0)    connection.setReadTimeout( conversation.get_readTimeout() );
+        for (Enumeration e = headers.keys(); e.hasMoreElements();) {
+            String key = (String) e.nextElement();
+            connection.setRequestProperty( key, (String) headers.get( key ) );
+        }
+        request.completeRequest( connection );
+        if (connection instanceof HttpURLConnection) connection.connect();
+        return new Response( connection, System.nanoTime() );
+    }
+
+
+    /**
+     * open a connection for the given uniform resource locator
+     * @param url - the url to use
+     * @param proxy - the proxy through which to connect, or null to use the system defaults
+     */
+    private URLConnection openConnection( URL url, Proxy proxy ) throws IOException {
+        URLConnection connection = (proxy == null || !url.getProtocol().startsWith( "http" )) ? url.openConnection()
+                                                                                             : url.openConnection( proxy );
+        if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).setInstanceFollowRedirects( false );
+        connection.setUseCaches( false );
+        return connection;
+    }
+
+
+//==================================================================================================
+
+
+    /**
+     * A transport response which reads its information from a URL connection.
+     */
+    static class Response implements TimedTransportResponse {
+
+        private final static String FILE_ENCODING = System.getProperty( "file.encoding" );
+
+        private URLConnection _connection;
+        private int           _responseCode = -1;
+        private String        _responseMessage;
+        private long          _connectedTime;
+
+
+        Response( URLConnection connection ) {
+            this( connection, System.nanoTime() );
+        }
+
+
+        Response( URLConnection connection, long connectedTime ) {
+            _connection = connection;
+            _connectedTime = connectedTime;
+        }
+
+
+        public long getConnectedTime() {
+            return _connectedTime;
+        }
+
+
+        /**
+         * The connection sends the request only once the reply is asked for, so the time spent sending
+         * cannot be told apart from the wait for the reply.
+         */
+        public long getSentTime() {
+            return _connectedTime;
+        }
+
+
+        public int getResponseCode() throws IOException {
+            if (_responseCode < 0) readResponseHeader();
+            return _responseCode;
+        }
+
+
+        public String getResponseMessage() throws IOException {
+            if (_responseCode < 0) readResponseHeader();
+            return _responseMessage;
+        }
+
+
+        /**
+         * Returns the name of the nth header field. The status line, which the JDK reports as field zero, is skipped.
+         */
+        public String getHeaderFieldKey( int n ) {
+            return _connection.getHeaderFieldKey( n+1 );
+        }
+
+
+        public String getHeaderField( int n ) {
+            return _connection.getHeaderField( n+1 );
+        }
+
+
+        public String getContentType() {
+            String contentType = _connection.getContentType();
+            if (contentType == null || _connection instanceof HttpURLConnection || !contentType.startsWith( "text" )) {
+                return contentType;
+            } else {
+                return contentType + "; charset=" + FILE_ENCODING;
+            }
+        }
+
+
+        /**
+         * get the input stream for the connection, using the error stream if there is one
+         */
+        public InputStream getInputStream() throws IOException {
+            if (isResponseOnErrorStream()) return ((HttpURLConnection) _connection).getErrorStream();
+
+            // if there is no error stream it depends on the response code
+            try {
+                return _connection.getInputStream();
+            } catch (FileNotFoundException fnfe) {
+                // as of JDK 1.5 a null inputstream might have been returned here
+                // see bug report [ 1283878 ] FileNotFoundException using Sun JDK 1.5 on empty error pages
+                // by Roger Lindsj?
+                if (isErrorResponse()) {
+                    // fake an empty error stream
+                    return new ByteArrayInputStream( new byte[0] );
+                } else {
+                    throw fnfe;
+                }
+            }
+        }
+
+
+        /**
+         * check whether a response code >=400 was received
+         */
+        private boolean isErrorResponse() throws IOException {
+            return getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+
+        /**
+         * check whether the response is on the error stream
+         */
+        private boolean isResponseOnErrorStream() throws IOException {
+            return isErrorResponse() && ((HttpURLConnection) _connection).getErrorStream() != null;
+        }
+
+
+        /**
+         * read the response Header for the connection and set the response code and message accordingly
+         */
+        private void readResponseHeader() throws IOException {
+            if (!(_connection instanceof HttpURLConnection)) {
+                setResponseCode( HttpURLConnection.HTTP_OK, "OK" );
+            } else if (!needStatusWorkaround()) {
+                HttpURLConnection connection = (HttpURLConnection) _connection;
+                setResponseCode( connection.getResponseCode(), connection.getResponseMessage() );
+            } else {
+                if (_connection.getHeaderField(0) == null) throw new UnknownHostException( _connection.getURL().toExternalForm() );
+
+                StringTokenizer st = new StringTokenizer( _connection.getHeaderField(0) );
+                st.nextToken();
+                if (!st.hasMoreTokens()) {
+                    setResponseCode( HttpURLConnection.HTTP_OK, "OK" );
+                } else try {
+                    setResponseCode( Integer.parseInt( st.nextToken() ), getRemainingTokens( st ) );
+                } catch (NumberFormatException e) {
+                    setResponseCode( HttpURLConnection.HTTP_INTERNAL_ERROR, "Cannot parse response header" );
+                }
+            }
+        }
+
+
+        private void setResponseCode( int code, String message ) {
+            _responseCode = code;
+            _responseMessage = message;
+        }
+
+
+        private boolean needStatusWorkaround() {
+            final String jdkVersion = System.getProperty( "java.version" );
+            return jdkVersion.startsWith( "1.2" ) || jdkVersion.startsWith( "1.3" );
+        }
+
+
+        private String getRemainingTokens( StringTokenizer st ) {
+            StringBuffer messageBuffer = new StringBuffer( st.hasMoreTokens() ? st.nextToken() : "" );
+            while (st.hasMoreTokens()) {
+                messageBuffer.append( ' ' ).append( st.nextToken() );
+            }
+            return messageBuffer.toString();
+        }
+    }
+}
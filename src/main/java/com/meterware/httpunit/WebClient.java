@@ -20,6 +20,7 @@ package com.meterware.httpunit;
 *
 *******************************************************************************************************************/
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 
 import java.net.HttpURLConnection;
@@ -27,6 +28,15 @@ import java.net.URL;
 import java.net.PasswordAuthentication;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.xml.sax.SAXException;
 
@@ -55,12 +65,43 @@ public class WebClient {
     /** An authorization string to be sent with every request, whether challenged or not. May be null. **/
     private String _fixedAuthorizationString;
 
-    /** An authorization string to be sent with the next request only. May be null. **/
-    private String _authorizationString;
+    /** An authorization string to be sent with the next request from the current thread only. May hold null. **/
+    private ThreadLocal _authorizationString = new ThreadLocal();
 
     private String _proxyAuthorizationString;
     private Hashtable _credentials = new Hashtable();
 
+    /** True if the credentials may also belong to a client forked from or by this one, and must be copied before changing. **/
+    private boolean _credentialsShared;
+
+    private final AuthenticationCache _authenticationCache = new AuthenticationCache( this );
+
+    /** The cache of included scripts used by this client. May be null. **/
+    private ScriptCache _scriptCache;
+
+    /** The executor on which asynchronous requests are handled. **/
+    private volatile Executor _executor = DEFAULT_EXECUTOR;
+
+    /** The queue of asynchronous requests, which runs each on the executor current when its turn comes. **/
+    private final Executor _orderedExecutor = new OrderedExecutor();
+
+
+    /**
+     * Returns the cache from which this client obtains the scripts included by pages, or null if it does not use one.
+     */
+    public ScriptCache getScriptCache() {
+        return _scriptCache;
+    }
+
+
+    /**
+     * Specifies a cache from which this client will obtain the scripts included by pages. The same cache may be used
+     * by several clients. By default, no cache is used, and each included script is requested whenever it is needed.
+     */
+    public void setScriptCache( ScriptCache scriptCache ) {
+        _scriptCache = scriptCache;
+    }
+
 
     public WebWindow getMainWindow() {
         return _mainWindow;
@@ -123,6 +164,76 @@ public class WebClient {
     }
 
 
+    /**
+     * Submits a GET method request to be sent in the background, and returns the pending response.
+     * @see #getResponseAsync(WebRequest)
+     **/
+    public Future getResponseAsync( String urlString ) {
+        return getResponseAsync( new GetMethodWebRequest( urlString ) );
+    }
+
+
+    /**
+     * Submits a web request to be sent in the background, and returns the pending response. The request is sent and its
+     * response handled exactly as by {@link #getResponse(WebRequest)}, on a thread supplied by this client's executor.
+     * Requests submitted in this way by a single client are handled one at a time, in the order submitted, so that the
+     * windows and frames of the client are updated in that order; those of different clients may be handled concurrently.
+     * Requests should not be sent directly from a client while any that it has submitted remain pending.
+     * @return a future whose result is the {@link WebResponse}, or which reports any exception thrown in obtaining it
+     **/
+    public Future getResponseAsync( final WebRequest request ) {
+        return submitInOrder( new Callable() {
+            public Object call() throws IOException, SAXException {
+                return getResponse( request );
+            }
+        } );
+    }
+
+
+    /**
+     * Submits a web request to be sent in the background. This is an alternate name for the getResponseAsync method.
+     */
+    public Future sendRequestAsync( WebRequest request ) {
+        return getResponseAsync( request );
+    }
+
+
+    /**
+     * Submits a request for a resource to be sent in the background, and returns the pending response. The resource is
+     * obtained as by {@link #getResource(WebRequest)}, in order with any other requests submitted by this client.
+     * @see #getResponseAsync(WebRequest)
+     */
+    public Future getResourceAsync( final WebRequest request ) {
+        return submitInOrder( new Callable() {
+            public Object call() throws IOException {
+                return getResource( request );
+            }
+        } );
+    }
+
+
+    /**
+     * Returns the executor on which this client handles requests submitted by its asynchronous methods.
+     */
+    public Executor getExecutor() {
+        return _executor;
+    }
+
+
+    /**
+     * Specifies the executor on which this client will handle requests submitted by its asynchronous methods.
+     * By default, a pool of daemon threads shared by all clients is used. The executor may be shared by many
+     * clients; on a JDK with virtual threads, a virtual-thread-per-task executor lets a single driver keep
+     * very many clients in flight. Requests already running are not affected; those still queued will run on
+     * the new executor, in the order in which they were submitted. Frames and scripts which a page requests in
+     * the background always use the shared pool, since a request on this executor may be waiting for them.
+     * @param executor the executor to use, or null to restore the default
+     */
+    public void setExecutor( Executor executor ) {
+        _executor = executor != null ? executor : DEFAULT_EXECUTOR;
+    }
+
+
     /**
      * Returns the name of the currently active frames in the main window.
      **/
@@ -168,6 +279,7 @@ public class WebClient {
         _mainWindow = new WebWindow( this );
         _cookieJar.clear();
         _headers = new HeaderDictionary();
+        _headersShared = false;
     }
 
 
@@ -222,6 +334,29 @@ public class WebClient {
     }
 
 
+    /**
+     * Returns the options which control how this client parses, scripts and retrieves pages. Unless a configuration
+     * has been specified, these follow the global settings in {@link HttpUnitOptions} as they change.
+     * @since 1.8
+     */
+    public ClientConfiguration getConfiguration() {
+        ClientConfiguration configuration = _configuration;
+        return configuration != null ? configuration : ClientConfiguration.GLOBAL_OPTIONS;
+    }
+
+
+    /**
+     * Specifies the options which control how this client parses, scripts and retrieves pages, in place of the
+     * global settings. Also sets whether this client throws exceptions on error statuses. If null, the client
+     * returns to following the global settings.
+     * @since 1.8
+     */
+    public void setConfiguration( ClientConfiguration configuration ) {
+        _configuration = configuration;
+        if (configuration != null) _exceptionsThrownOnErrorStatus = configuration.getExceptionsThrownOnErrorStatus();
+    }
+
+
     /**
      * Specifies the user agent identification. Used to trigger browser-specific server behavior.
      * @deprecated as of 1.4.6. Use ClientProperties#setUserAgent instead.
@@ -249,6 +384,27 @@ public class WebClient {
     }
 
 
+    /**
+     * Returns a snapshot of the cookies and fixed authorization header of this client, which may be used to
+     * give other clients the same session.
+     * @since 1.8
+     **/
+    public SessionSnapshot getSessionSnapshot() {
+        return new SessionSnapshot( _cookieJar, _fixedAuthorizationString );
+    }
+
+
+    /**
+     * Adds the unexpired cookies in the specified snapshot to this client, replacing any matching cookies,
+     * and adopts its fixed authorization header, if any.
+     * @since 1.8
+     **/
+    public void restoreSession( SessionSnapshot snapshot ) {
+        snapshot.restoreCookies( _cookieJar );
+        if (snapshot.getAuthorization() != null) _fixedAuthorizationString = snapshot.getAuthorization();
+    }
+
+
     /**
      * Specifies a username and password for on-demand authentication. Will only send
      * the authorization header when challenged for the specified realm.
@@ -257,6 +413,10 @@ public class WebClient {
      * @param password the credentials for the user
      */
     public void setAuthentication( String realm, String username, String password ) {
+        if (_credentialsShared) {
+            _credentials = (Hashtable) _credentials.clone();
+            _credentialsShared = false;
+        }
         _credentials.put( realm, new PasswordAuthentication( username, password.toCharArray() ) );
     }
 
@@ -327,6 +487,10 @@ public class WebClient {
      * removes the header from those to be sent.
      **/
     public void setHeaderField( String fieldName, String fieldValue ) {
+        if (_headersShared) {
+            _headers = (HeaderDictionary) _headers.clone();
+            _headersShared = false;
+        }
         _headers.put( fieldName, fieldValue );
     }
 
@@ -376,6 +540,26 @@ public class WebClient {
     }
 
 
+    /**
+     * Adds a listener to watch the timing of the phases in which responses are obtained and processed.
+     */
+    public void addTimingListener( ResponseTimingListener listener ) {
+        synchronized (_timingListeners) {
+            if (listener != null && !_timingListeners.contains( listener )) _timingListeners.add( listener );
+        }
+    }
+
+
+    /**
+     * Removes a listener to watch the timing of the phases in which responses are obtained and processed.
+     */
+    public void removeTimingListener( ResponseTimingListener listener ) {
+        synchronized (_timingListeners) {
+            _timingListeners.remove( listener );
+        }
+    }
+
+
     /**
      * Adds a listener to watch for window openings and closings.
      */
@@ -430,6 +614,40 @@ public class WebClient {
     }
 
 
+    /**
+     * Gives the specified new client the state of this one: its cookies, headers, credentials and client
+     * properties, and copies of the pages in its main window. The cookies, headers and credentials are shared
+     * until either client changes them.
+     **/
+    void copyStateTo( WebClient fork ) throws IOException {
+        fork._cookieJar = _cookieJar.fork();
+        fork._headers = _headers;
+        fork._headersShared = _headersShared = true;
+        fork._credentials = _credentials;
+        fork._credentialsShared = _credentialsShared = true;
+        fork._fixedAuthorizationString = _fixedAuthorizationString;
+        fork._proxyAuthorizationString = _proxyAuthorizationString;
+        if (_clientProperties != null) fork._clientProperties = _clientProperties.cloneProperties();
+        fork._configuration = _configuration;
+        fork._exceptionsThrownOnErrorStatus = _exceptionsThrownOnErrorStatus;
+        fork._dialogResponder = _dialogResponder;
+        fork._scriptCache = _scriptCache;
+        fork._executor = _executor;
+        fork._mainWindow.copyFrameContents( _mainWindow );
+    }
+
+
+    /**
+     * Returns a response for this client which holds the same page as the specified response of another client.
+     * The copy is made from the text of the response, not from its parsed page: it will be parsed again when
+     * used, so form parameters set and changes made to the document since the original was received are lost.
+     * @param frame the frame in which the copy will be stored
+     **/
+    WebResponse copyResponse( WebResponse response, FrameSelector frame ) throws IOException {
+        return WebResponse.createTextResponse( this, frame, response.getURL(), response.getText() );
+    }
+
+
     /**
      * Creates a web response object which represents the response to the specified web request.
      * @param request the request to which the response should be generated
@@ -455,10 +673,10 @@ public class WebClient {
         result.put( "User-Agent", getClientProperties().getUserAgent() );
         if (getClientProperties().isAcceptGzip()) result.put( "Accept-Encoding", "gzip" );
         AddHeaderIfNotNull( result, "Cookie", _cookieJar.getCookieHeaderField( targetURL ) );
-        if (_authorizationString == null) _authorizationString = _fixedAuthorizationString;
-        AddHeaderIfNotNull( result, "Authorization", _authorizationString );
+        String authorizationString = (String) _authorizationString.get();
+        AddHeaderIfNotNull( result, "Authorization", authorizationString != null ? authorizationString : _fixedAuthorizationString );
         AddHeaderIfNotNull( result, "Proxy-Authorization", _proxyAuthorizationString );
-        _authorizationString = null;
+        _authorizationString.set( null );
         return result;
     }
 
@@ -507,12 +725,37 @@ public class WebClient {
     }
 
 
+    void tellTimingListeners( WebResponse response, int phase, long startTime, long endTime ) {
+        List listeners;
+
+        synchronized (_timingListeners) {
+            if (_timingListeners.isEmpty()) return;
+            listeners = new ArrayList( _timingListeners );
+        }
+
+        for (Iterator i = listeners.iterator(); i.hasNext();) {
+            ((ResponseTimingListener) i.next()).phaseCompleted( this, response, phase, startTime, endTime );
+        }
+    }
+
+
     void updateClient( WebResponse response ) throws IOException {
-        if (getClientProperties().isAcceptCookies()) _cookieJar.updateCookies( response.getCookieJar() );
+        updateCookies( response );
         validateHeaders( response );
     }
 
 
+    /**
+     * Accepts the cookies set by the specified response, if this client accepts cookies, as it does for each page
+     * obtained through {@link #getResponse(WebRequest)}. Resources obtained through {@link #getResource(WebRequest)}
+     * do not otherwise change the cookies of this client.
+     * @since 1.8
+     */
+    public void updateCookies( WebResponse response ) {
+        if (getClientProperties().isAcceptCookies()) _cookieJar.updateCookies( response.getCookieJar() );
+    }
+
+
     /**
      * Support Request [ 1288796 ] getCookieJar() in WebClient
      * @deprecated - use with care - was not public in the past
@@ -523,6 +766,32 @@ public class WebClient {
     }
 
 
+    /**
+     * Returns the Cookie header which this client would send with a request to the specified URL, or null if none.
+     */
+    String getCookieHeaderField( URL targetURL ) {
+        return _cookieJar.getCookieHeaderField( targetURL );
+    }
+
+
+    /**
+     * Returns the cookie jar currently used by this client, for use within the package.
+     */
+    CookieJar getCurrentCookieJar() {
+        return _cookieJar;
+    }
+
+
+    /**
+     * Specifies the cookie jar used by this client. A jar created as concurrent may be shared by clients
+     * running in different threads, so that they all see the same cookies.
+     * @since 1.8
+     */
+    public void setCookieJar( CookieJar cookieJar ) {
+        _cookieJar = cookieJar;
+    }
+
+
     void updateFrameContents( WebWindow requestWindow, String requestTarget, WebResponse response, RequestContext requestContext ) throws IOException, SAXException {
         if (response.getFrame() == FrameSelector.NEW_FRAME) {
             WebWindow window = new WebWindow( this, requestWindow.getCurrentPage() );
@@ -607,16 +876,24 @@ public class WebClient {
     /** A map of header names to values. **/
     private HeaderDictionary _headers = new HeaderDictionary();
 
+    /** True if the headers may also belong to a client forked from or by this one, and must be copied before changing. **/
+    private boolean _headersShared;
+
     private boolean _exceptionsThrownOnErrorStatus = HttpUnitOptions.getExceptionsThrownOnErrorStatus();
 
     private final List _clientListeners = new ArrayList();
 
+    private final List _timingListeners = new ArrayList();
+
     private final List _windowListeners = new ArrayList();
 
     private DialogResponder _dialogResponder = new DialogAdapter();
 
     private ClientProperties _clientProperties;
 
+    /** The options controlling this client, or null if it follows the global options. **/
+    private volatile ClientConfiguration _configuration;
+
 
     /**
      * Examines the headers in the response and throws an exception if appropriate.
@@ -664,12 +941,13 @@ public class WebClient {
      * @throws IOException if an exception (including authorization failure) occurs
      */
     WebResponse createResponse( WebRequest request, FrameSelector targetFrame ) throws IOException {
+        if (_fixedAuthorizationString == null) setOnetimeAuthenticationHeader( _authenticationCache.getAuthorizationHeader( request ) );
         WebResponse response = newResponse( request, targetFrame );
         AuthenticationChallenge challenge = new AuthenticationChallenge( this, request, response.getHeaderField( "WWW-Authenticate" ) );
         if (!challenge.needToAuthenticate()) {
             return response;
         } else {
-            setOnetimeAuthenticationHeader( challenge.createAuthenticationHeader() );
+            setOnetimeAuthenticationHeader( _authenticationCache.getAuthorizationHeader( request, challenge ) );
             WebResponse response2 = newResponse( request, targetFrame );
             if (response2.getHeaderField( "WWW-Authenticate" ) != null && getExceptionsThrownOnErrorStatus()) {
                 throw AuthenticationChallenge.createException( response2.getHeaderField( "WWW-Authenticate" ) );
@@ -680,9 +958,156 @@ public class WebClient {
 
 
     private void setOnetimeAuthenticationHeader( String authorizationHeader ) {
-        _authorizationString = authorizationHeader;
+        _authorizationString.set( authorizationHeader );
+    }
+
+
+    /**
+     * Starts sending a request in the background. Listeners are told of the request before it is submitted,
+     * so that they may still change it; the request is then sent as by {@link #createResponse}. The caller is
+     * responsible for telling listeners of the response.
+     * <p>
+     * These requests run on the shared pool, never on the client's executor: the thread which submits them
+     * may itself be running on that executor while it waits for them, and a bounded executor would then never
+     * reach them.
+     * @param request the request to send
+     * @param targetFrame the frame into which the result will be stored
+     * @param permit a semaphore to be released once the response has been received, or null
+     * @return the pending response, to be obtained by {@link #getSubmittedResponse}
+     */
+    Future submitRequest( final WebRequest request, final FrameSelector targetFrame, final Semaphore permit ) {
+        tellListeners( request );
+        FutureTask future = new FutureTask( new Callable() {
+            public Object call() throws IOException {
+                try {
+                    return createResponse( request, targetFrame );
+                } finally {
+                    if (permit != null) permit.release();
+                }
+            }
+        } );
+        try {
+            DEFAULT_EXECUTOR.execute( future );
+        } catch (RuntimeException e) {
+            if (permit != null) permit.release();
+            throw e;
+        }
+        return future;
     }
 
+
+    /**
+     * Waits for a response to a request started by {@link #submitRequest}, rethrowing any exception thrown
+     * while sending it.
+     */
+    WebResponse getSubmittedResponse( Future pendingResponse ) throws IOException {
+        try {
+            return (WebResponse) pendingResponse.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException( "Interrupted while waiting for a response" );
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException( cause.toString() );
+        }
+    }
+
+
+    /**
+     * Queues a task to run on this client's executor after any queued previously.
+     */
+    private Future submitInOrder( Callable task ) {
+        FutureTask future = new FutureTask( task );
+        _orderedExecutor.execute( future );
+        return future;
+    }
+
+
+    /**
+     * An executor which runs its tasks one at a time, in the order submitted, on the client's executor.
+     */
+    private class OrderedExecutor implements Executor {
+
+        private final LinkedList _tasks = new LinkedList();
+
+        private QueuedTask _active;
+
+
+        /**
+         * Queues a task, starting it at once if no other is queued. Should the executor reject it, the task is
+         * cancelled and the rejection thrown to the caller.
+         */
+        public synchronized void execute( Runnable task ) {
+            _tasks.add( new QueuedTask( task ) );
+            if (_active != null) return;
+            RuntimeException rejection = scheduleNext();
+            if (rejection != null) throw rejection;
+        }
+
+
+        /**
+         * Hands the next task to the client's executor. Each task which the executor rejects is cancelled, so that
+         * no one waits for it forever, and the one after it is tried in turn; the queue is left idle once none
+         * remain, so that the next submission starts it moving again.
+         * @return the first rejection, or null if there was none
+         */
+        private synchronized RuntimeException scheduleNext() {
+            RuntimeException rejection = null;
+            while ((_active = (QueuedTask) _tasks.poll()) != null) {
+                try {
+                    _executor.execute( _active );
+                    break;
+                } catch (RuntimeException e) {
+                    _active.cancel();
+                    if (rejection == null) rejection = e;
+                }
+            }
+            return rejection;
+        }
+
+
+        /**
+         * A task which, once run, schedules the one queued after it. A rejection at that point is not thrown,
+         * since no caller would see it; the rejected tasks are cancelled instead.
+         */
+        private class QueuedTask implements Runnable {
+
+            private final Runnable _task;
+
+            QueuedTask( Runnable task ) {
+                _task = task;
+            }
+
+            public void run() {
+                try {
+                    _task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+
+            void cancel() {
+                if (_task instanceof Future) ((Future) _task).cancel( false );
+            }
+        }
+    }
+
+
+    /**
+     * The executor shared by all clients, on which background frame and script requests always run. It is
+     * unbounded, so those requests never wait behind the threads which wait for them. Its threads do not prevent
+     * the JVM from exiting, and expire when idle.
+     **/
+    private final static ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "httpunit-request" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
 //==================================================================================================
 
 
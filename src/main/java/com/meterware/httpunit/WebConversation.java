@@ -21,14 +21,15 @@ package com.meterware.httpunit;
 *******************************************************************************************************************/
 import java.io.IOException;
 
-import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.Proxy;
 import java.net.URL;
-import java.net.URLConnection;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Enumeration;
-import java.util.Properties;
+import java.util.Hashtable;
 
 
 /**
@@ -42,8 +43,11 @@ public class WebConversation extends WebClient {
 
     private String _proxyHost;
     private int _proxyPort;
+    private Proxy _proxy;
     private int _connectTimeout = -1;
     private int _readTimeout = -1;    
+    private HttpTransport _transport = new URLConnectionTransport();
+    private HttpCache _cache;
 
 
     /**
@@ -53,6 +57,32 @@ public class WebConversation extends WebClient {
     }
 
 
+    /**
+     * Returns a new conversation in the same state as this one. It has the same cookies, headers, credentials,
+     * client properties and connection settings, and copies of the pages in the main window. The cookies, headers
+     * and credentials are shared until either conversation changes them, so that neither conversation sees a
+     * cookie value set in the other. Other windows are not copied.
+     * <p>
+     * <b>Pages are copied as they were received, not as they now stand.</b> Each copy is parsed again from the
+     * text of the original response, and its scripts are run again when the new conversation first uses it, so
+     * form parameters which have been set, and changes made to the document by scripts or by the test, are not
+     * carried over.
+     * @since 1.8
+     **/
+    public WebConversation fork() throws IOException {
+        WebConversation fork = new WebConversation();
+        copyStateTo( fork );
+        fork._proxyHost = _proxyHost;
+        fork._proxyPort = _proxyPort;
+        fork._proxy = _proxy;
+        fork._connectTimeout = _connectTimeout;
+        fork._readTimeout = _readTimeout;
+        fork._transport = _transport;
+        fork._cache = _cache;
+        return fork;
+    }
+
+
 //---------------------------------- protected members --------------------------------
 
 
@@ -60,45 +90,133 @@ public class WebConversation extends WebClient {
      * Creates a web response object which represents the response to the specified web request.
      **/
     protected WebResponse newResponse( WebRequest request, FrameSelector targetFrame ) throws MalformedURLException, IOException {
-        Properties savedProperties = (Properties) System.getProperties().clone();
+        long startTime = System.nanoTime();
+        URL url = getRequestURL( request );
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.HTTP_EXCHANGE );
+        WebResponse response = null;
         try {
-            if (_proxyHost != null) {
-                System.setProperty( "proxyHost", _proxyHost );
-                System.setProperty( "proxyPort", Integer.toString( _proxyPort ) );
-            }
-            URLConnection connection = openConnection( getRequestURL( request ) );
-            // [ 1518901 ] enable http connect and read timeouts (needs JDK 1.5)
-            // comment the next two line if you do not need this and have JDK <1.5
-            if (_connectTimeout>=0) connection.setConnectTimeout( _connectTimeout );
-            if (_readTimeout>=0)    connection.setReadTimeout( _readTimeout );            
-            if (HttpUnitOptions.isLoggingHttpHeaders()) {
+            if (getConfiguration().isLoggingHttpHeaders()) {
                 String urlString = request.getURLString();
                 System.out.println( "\nConnecting to " + request.getURL().getHost() );
                 System.out.println( "Sending:: " + request.getMethod() + " " + urlString );
             }
-            sendHeaders( connection, getHeaderFields( request.getURL() ) );
-            sendHeaders( connection, request.getHeaderDictionary() );
-            request.completeRequest( connection );
-            return new HttpWebResponse( this, targetFrame, request, connection, getExceptionsThrownOnErrorStatus() );
+            Dictionary headers = getRequestHeaders( request );
+            HttpTransportResponse transportResponse = _cache == null ? _transport.sendRequest( this, request, url, headers )
+                                                                    : _cache.sendRequest( _transport, this, request, url, headers );
+            response = new HttpWebResponse( this, targetFrame, request, startTime, transportResponse, getExceptionsThrownOnErrorStatus() );
+            response.setRequestHeaders( headers );
+            return response;
         } finally {
-            System.setProperties( savedProperties );
+            if (event != null) recorder.endEvent( event, url.toExternalForm(), response == null ? -1 : response.getReceivedSize(), 0 );
+        }
+    }
+
+
+    /**
+     * Copies a response received over HTTP with its status and headers, replaying its decoded body. As with
+     * any copied response, the page is parsed again, so changes made to the original page are lost.
+     **/
+    WebResponse copyResponse( WebResponse response, FrameSelector frame ) throws IOException {
+        if (!(response instanceof HttpWebResponse)) return super.copyResponse( response, frame );
+
+        HttpWebResponse original = (HttpWebResponse) response;
+        ArrayList names = new ArrayList();
+        ArrayList values = new ArrayList();
+        String[] headerNames = original.getHeaderFieldNames();
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase( "Content-Encoding" ) || headerNames[i].equalsIgnoreCase( "Content-Length" )) continue;
+            String[] fields = original.getHeaderFields( headerNames[i] );
+            for (int j = 0; j < fields.length; j++) {
+                names.add( headerNames[i] );
+                values.add( fields[j] );
+            }
         }
+        StoredResponse stored = new StoredResponse( original.getResponseCode(), original.getResponseMessage(),
+                                                    (String[]) names.toArray( new String[ names.size() ] ),
+                                                    (String[]) values.toArray( new String[ values.size() ] ),
+                                                    original.getHeaderField( "Content-Type" ), original.getBytes() );
+        return new HttpWebResponse( this, frame, original.getURL(), System.nanoTime(), stored, false );
+    }
+
+
+    /**
+     * Returns the transport used to send requests from this conversation.
+     */
+    public HttpTransport getTransport() {
+        return _transport;
+    }
+
+
+    /**
+     * Specifies the transport used to send requests from this conversation. By default, requests are sent
+     * through URL connections obtained from the JDK.
+     */
+    public void setTransport( HttpTransport transport ) {
+        _transport = transport != null ? transport : new URLConnectionTransport();
+    }
+
+
+    /**
+     * Returns the cache through which this conversation answers its requests, or null if it does not use one.
+     */
+    public HttpCache getCache() {
+        return _cache;
+    }
+
+
+    /**
+     * Specifies a cache through which this conversation will answer its requests. The same cache may be used by
+     * several conversations. By default, no cache is used, and every request is sent to the server.
+     */
+    public void setCache( HttpCache cache ) {
+        _cache = cache;
     }
 
 
     public void clearProxyServer() {
         _proxyHost = null;
+        _proxy = null;
     }
 
 
     /**
-     * set the proxy server to the given proxyHost with the given proxy Port
+     * set the proxy server to the given proxyHost with the given proxy Port. The proxy applies only to
+     * requests sent from this conversation; no system properties are changed.
      * @param proxyHost - the hostname of the proxy e.g. proxy.somedomain.org
      * @param proxyPort - the number of the port to use e.g. 8080
      */
     public void setProxyServer( String proxyHost, int proxyPort ) {
         _proxyHost = proxyHost;
         _proxyPort = proxyPort;
+        _proxy = new Proxy( Proxy.Type.HTTP, new InetSocketAddress( proxyHost, proxyPort ) );
+    }
+
+
+    /**
+     * Returns the name of the proxy server used by this conversation. If none has been set,
+     * returns the proxy defined by the system properties, if any.
+     */
+    public String getProxyHost() {
+        return _proxyHost != null ? _proxyHost : super.getProxyHost();
+    }
+
+
+    /**
+     * Returns the port of the proxy server used by this conversation. If none has been set,
+     * returns the proxy port defined by the system properties, or 0 if none is specified.
+     */
+    public int getProxyPort() {
+        return _proxyHost != null ? _proxyPort : super.getProxyPort();
+    }
+
+
+    /**
+     * Returns the proxy through which this conversation routes its requests, or null if the JDK
+     * defaults are to be used.
+     */
+    Proxy getProxy() {
+        return _proxy;
     }
 
 
@@ -145,11 +263,8 @@ public class WebConversation extends WebClient {
         DNSListener dnsListener = getClientProperties().getDnsListener();
         if (dnsListener == null) return request.getURL();
 
-        String hostName = request.getURL().getHost();
-        String portPortion = request.getURL().getPort() == -1 ? "" : (":" + request.getURL().getPort());
-        setHeaderField( "Host", hostName + portPortion );
-        String actualHost = dnsListener.getIpAddress( hostName );
-        if (HttpUnitOptions.isLoggingHttpHeaders()) System.out.println( "Rerouting request to :: " + actualHost );
+        String actualHost = dnsListener.getIpAddress( request.getURL().getHost() );
+        if (getConfiguration().isLoggingHttpHeaders()) System.out.println( "Rerouting request to :: " + actualHost );
         return new URL( request.getURL().getProtocol(), actualHost, request.getURL().getPort(), request.getURL().getFile() );
     }
 
@@ -158,38 +273,47 @@ public class WebConversation extends WebClient {
 
 
     /**
-     * open a connection for the given uniform resource locator
-     * @param url - the url to use
+     * Returns the headers to send with the given request: those defined for this client, overridden by
+     * those defined for the request itself. A request rerouted by a DNS listener also names its original host,
+     * which is set here rather than on the client, since requests for frames may be sent from several threads at once.
+     * @param request
+     */
+    private Dictionary getRequestHeaders( WebRequest request ) throws MalformedURLException {
+        HeaderDictionary headers = new HeaderDictionary();
+        addHeaders( headers, getHeaderFields( request.getURL() ) );
+        if (getClientProperties().getDnsListener() != null) addHeaders( headers, getHostHeader( request.getURL() ) );
+        addHeaders( headers, request.getHeaderDictionary() );
+        return headers;
+    }
+
+
+    /**
+     * Returns a dictionary holding the Host header which names the host and port of the specified URL.
      */
-    private URLConnection openConnection( URL url ) throws MalformedURLException, IOException {
-        URLConnection connection = url.openConnection();
-        if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).setInstanceFollowRedirects( false );
-        connection.setUseCaches( false );
-        return connection;
+    private Dictionary getHostHeader( URL url ) {
+        Hashtable header = new Hashtable();
+        header.put( "Host", url.getPort() == -1 ? url.getHost() : (url.getHost() + ":" + url.getPort()) );
+        return header;
     }
 
 
     /**
-     * send the headers for the given connection based on the given Dictionary of headers
-     * @param connection
+     * add the given Dictionary of headers to those to be sent
      * @param headers
+     * @param source
      */
-    private void sendHeaders( URLConnection connection, Dictionary headers ) {
+    private void addHeaders( HeaderDictionary headers, Dictionary source ) {
         boolean sendReferer = getClientProperties().isSendReferer();
-        for (Enumeration e = headers.keys(); e.hasMoreElements();) {
+        for (Enumeration e = source.keys(); e.hasMoreElements();) {
             String key = (String) e.nextElement();
             if ( sendReferer || !"referer".equalsIgnoreCase( key ) ) {
-	            connection.setRequestProperty( key, (String) headers.get( key ) );
-	            if (HttpUnitOptions.isLoggingHttpHeaders()) {
-	                if (key.equalsIgnoreCase( "authorization" ) || key.equalsIgnoreCase( "proxy-authorization") ) {
-	                    System.out.println( "Sending:: " + key + ": " + headers.get( key ) );
-	                } else {
-	                    System.out.println( "Sending:: " + key + ": " + connection.getRequestProperty( key ) );
-	                }
+	            headers.put( key, source.get( key ) );
+	            if (getConfiguration().isLoggingHttpHeaders()) {
+	                System.out.println( "Sending:: " + key + ": " + source.get( key ) );
 	            }
-        		} else if (HttpUnitOptions.isLoggingHttpHeaders()) {
-        				System.out.println( "Blocked sending referer:: "+ connection.getRequestProperty( key ) );
-        		}		
+        		} else if (getConfiguration().isLoggingHttpHeaders()) {
+        				System.out.println( "Blocked sending referer:: "+ source.get( key ) );
+        		}
         } // for
     }
 }
@@ -28,6 +28,7 @@ import com.meterware.httpunit.dom.HTMLDocumentImpl;
 import com.meterware.httpunit.dom.DomWindow;
 import com.meterware.httpunit.dom.DomWindowProxy;
 import com.meterware.httpunit.dom.HTMLElementImpl;
+import com.meterware.httpunit.parsing.HTMLParserFactory;
 import com.meterware.httpunit.protocol.MessageBody;
 
 import java.io.*;
@@ -35,12 +36,16 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.MalformedURLException;
+import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.mozilla.javascript.Scriptable;
@@ -70,8 +75,6 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
     
     
     private static final int UNINITIALIZED_INT = -2;
-    private static final int UNKNOWN_LENGTH_TIMEOUT = 500;
-    private static final int UNKNOWN_LENGTH_RETRY_INTERVAL = 10;
 
     private FrameSelector _frame;
     // allow to switch off parsing e.g. for method="HEAD"
@@ -257,7 +260,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         if (_characterSet == null) {
             readContentTypeHeader();
             if (_characterSet == null) setCharacterSet( getHeaderField( "Charset" ) );
-            if (_characterSet == null) setCharacterSet( HttpUnitOptions.getDefaultCharacterSet() );
+            if (_characterSet == null) setCharacterSet( getConfiguration().getDefaultCharacterSet() );
         }
         return _characterSet;
     }
@@ -299,9 +302,9 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
      * @throws IOException
      */
     public byte[] getBytes() throws IOException {
-        if (_responseText == null) 
+        if (_body == null && _responseText == null)
         	loadResponseText();
-        return _bytes;
+        return _body != null ? _body.getBytes() : _responseText.getBytes( getCharacterSet() );
     } 
     
     /**
@@ -310,18 +313,41 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
      * @return the response text
      **/
     public String getText() throws IOException {
-        if (_responseText == null) 
+        if (_body == null && _responseText == null)
         	loadResponseText();
+        if (_responseText == null) {
+            long startTime = System.nanoTime();
+            _responseText = _body.getText( getCharacterSet() );
+            recordPhase( ResponseTiming.DECODE, startTime, System.nanoTime() );
+        }
         return _responseText;
     }
 
+
+    /**
+     * Reports the elements and text of this page to the handler as they are parsed, without building a document
+     * for the page. Combined with {@link WebClient#getResource}, which does not parse the pages it retrieves, this
+     * allows the links or other elements of many pages to be gathered cheaply. Unless the text of the page has
+     * already been requested, it is decoded from the body as the parser reads it, and is not kept.
+     * @see HTMLParserFactory#extract
+     * @since 1.8
+     **/
+    public void extract( ContentHandler handler ) throws IOException, SAXException {
+        if (getConfiguration().isCheckHtmlContentType() && !isHTML()) throw new NotHTMLException( getContentType() );
+        if (_body == null && _responseText == null) loadResponseText();
+        Reader pageReader = _responseText != null ? (Reader) new StringReader( _responseText )
+                                                  : new InputStreamReader( _body.newInputStream(), getCharacterSet() );
+        HTMLParserFactory.extract( getURL(), pageReader, handler );
+    }
+
     /**
-     * Returns a buffered input stream for reading the contents of this reply.
+     * Returns a buffered input stream for reading the contents of this reply. Once the contents have been read,
+     * each call returns a new stream over them.
      **/
     public InputStream getInputStream() throws IOException {
-        if (_inputStream == null) 
-        	_inputStream = new ByteArrayInputStream( getText().getBytes() );
-        return _inputStream;
+        if (_inputStream != null) return _inputStream;
+        if (_body != null) return _body.newInputStream();
+        return new ByteArrayInputStream( getText().getBytes() );
     }
 
 
@@ -712,7 +738,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
 
     public ScriptingHandler getScriptingHandler() {
-        if (_scriptingHandler == null) _scriptingHandler = HttpUnitOptions.getScriptingEngine().createHandler( this );
+        if (_scriptingHandler == null) _scriptingHandler = HttpUnitOptions.getScriptingEngine( getConfiguration() ).createHandler( this );
         return _scriptingHandler;
     }
 
@@ -806,6 +832,11 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
     }
 
 
+    URL getBaseURL() {
+        return _baseURL;
+    }
+
+
     public class Scriptable extends ScriptableDelegate implements NamedDelegate {
 
         public void alertUser( String message ) {
@@ -972,7 +1003,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
     final
     protected void defineRawInputStream( InputStream inputStream ) throws IOException {
-        if (_inputStream != null || _responseText != null) {
+        if (_inputStream != null || _responseText != null || _body != null) {
             throw new IllegalStateException( "Must be called before response text is defined." );
         }
 
@@ -1021,6 +1052,13 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         return new DefaultWebResponse(BLANK_HTML);
     }
 
+    /**
+     * Returns a successful response for the specified client, holding the specified text.
+     */
+    static WebResponse createTextResponse( WebClient client, FrameSelector frame, URL url, String text ) {
+        return new DefaultWebResponse( client, frame, url, text );
+    }
+
     WebWindow getWindow() {
         return _window;
     }
@@ -1039,21 +1077,48 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
     public boolean replaceText( String text, String contentType ) {
         if (_parsingPage) return false;
         _responseText = text;
+        _body = null;
         _inputStream = null;
         _page = null;
         _contentType = contentType;
         _baseURL = null;
         _baseTarget = _frame.getName();
         _refreshHeader = null;
+        _tagsScanned = false;
+        return true;
+    }
 
-        try {
-            readTags( text.getBytes() );
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException( "Failure while attempting to reparse text: " + e );
-        } catch (MalformedURLException e) {
-            throw new RuntimeException( "Failure while attempting to reparse text: " + e );
+
+    /**
+     * Returns requests for the external scripts found in the head of the page, in the order in which they appear.
+     * Only the head is scanned, so that prefetching does not tokenize the whole page ahead of the parser;
+     * scripts in the body are requested when the parser reaches them.
+     **/
+    WebRequest[] getIncludedScriptRequests() throws MalformedURLException {
+        Vector scriptSources = scanTags( true );
+        WebRequest[] requests = new WebRequest[ scriptSources.size() ];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new GetMethodWebRequest( _baseURL, (String) scriptSources.elementAt( i ) );
         }
-        return true;
+        return requests;
+    }
+
+
+    boolean hasPendingScript( String url ) {
+        return _pendingScripts.containsKey( url );
+    }
+
+
+    void addPendingScript( String url, Future pendingResponse ) {
+        _pendingScripts.put( url, pendingResponse );
+    }
+
+
+    /**
+     * Returns the response, if one has been requested in advance, to a request for the script at the specified URL.
+     **/
+    Future removePendingScript( String url ) {
+        return (Future) _pendingScripts.remove( url );
     }
 
 
@@ -1094,16 +1159,28 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
     private int _refreshDelay = -1;  // initialized to invalid value
 
+    /** The number of bytes at the start of a page which are searched for a declaration of its character set. **/
+    private final static int CHARACTER_SET_PRESCAN_LENGTH = 1024;
+
+    /** True once the text of the page has been scanned for its base, refresh and included script tags. **/
+    private boolean _tagsScanned;
+
+    /** The depth of nested noscript regions at the point reached in reading the tags of the page. **/
+    private int _noscriptDepth;
+
     /**
-     * the response as a String
+     * the response as a String, decoded from the body when first requested
      */
     private String _responseText;
     
     /**
-     * the response as a byte array
+     * the response as read from the server
      */
-    private byte[] _bytes;
+    private ResponseBody _body;
 
+    /**
+     * the raw stream from which the body has yet to be read
+     */
 	private InputStream _inputStream;
 
     private final URL    _pageURL;
@@ -1120,24 +1197,40 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
     private ScriptingHandler _scriptingHandler;
 
+    private final ResponseTiming _timing = new ResponseTiming();
+
+    private WebRequest _request;
+
+    private Dictionary _requestHeaders;
+
+    /** Map from the URL of an included script to the response to a request for it sent in advance. **/
+    private Hashtable _pendingScripts = new Hashtable();
+
 
     protected void loadResponseText() throws IOException {
-        if (_responseText != null) throw new IllegalStateException( "May only invoke loadResponseText once" );
-        _responseText = "";
+        if (_body != null || _responseText != null) throw new IllegalStateException( "May only invoke loadResponseText once" );
+        _body = ResponseBody.createEmptyBody();
+        if (_inputStream == null) return;
 
-        InputStream inputStream = getInputStream();
+        InputStream inputStream = _inputStream;
+        _inputStream = null;
         try {
             final int contentLength = this.encodedUsingGZIP() ? -1 : getContentLength();
             int bytesRemaining = contentLength < 0 ? Integer.MAX_VALUE : contentLength;
-            _bytes = readFromStream( inputStream, bytesRemaining );
-
-            readTags( _bytes );
-            _responseText = new String( _bytes, getCharacterSet() );
-            _inputStream  = new ByteArrayInputStream( _bytes );
+            long startTime = System.nanoTime();
+            _body = ResponseBody.read( inputStream, contentLength, bytesRemaining, getResponseBodyFileThreshold() );
+            recordPhase( ResponseTiming.DOWNLOAD, startTime, System.nanoTime() );
+
+            if (!_body.isHeldInFile()) {
+                prescanCharacterSet( _body.getBuffer(), Math.min( _body.getLength(), CHARACTER_SET_PRESCAN_LENGTH ) );
+            } else if (getContentType().startsWith( "text" )) {
+                byte[] bytes = _body.getInitialBytes( CHARACTER_SET_PRESCAN_LENGTH );
+                prescanCharacterSet( bytes, bytes.length );
+            }
 
-            if (HttpUnitOptions.isCheckContentLength() && contentLength >= 0 && _bytes.length != contentLength) {
+            if (getConfiguration().isCheckContentLength() && contentLength >= 0 && _body.getLength() != contentLength) {
                 throw new IOException("Truncated message. Expected length: " + contentLength +
-                                                       ", Actual length: " + _bytes.length);
+                                                       ", Actual length: " + _body.getLength());
             }
         } finally {
             inputStream.close();
@@ -1145,79 +1238,177 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
     }
 
 
-    private byte[] readFromStream( InputStream inputStream, int maxBytes ) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[8 * 1024];
-        int count = 0;
-        if (maxBytes > 0) {
-            do {
-                outputStream.write( buffer, 0, count );
-                maxBytes -= count;
-                if (maxBytes <= 0) break;
-                count = inputStream.read( buffer, 0, Math.min( maxBytes, buffer.length ) );
-            } while (count != -1);
-        } else {
-            do {
-                outputStream.write( buffer, 0, count );
-                int available = getAvailableBytes( inputStream );
-                count = (available == 0) ? -1 : inputStream.read( buffer, 0, buffer.length );
-            } while (count != -1);
-        }
+    /**
+     * Returns the times at which the phases of obtaining and processing this response began and ended.
+     * @since 1.8
+     */
+    public ResponseTiming getTiming() {
+        return _timing;
+    }
+
+
+    /**
+     * Returns the options which control how this response is read, parsed and scripted.
+     */
+    ClientConfiguration getConfiguration() {
+        return _client == null ? ClientConfiguration.GLOBAL_OPTIONS : _client.getConfiguration();
+    }
+
 
-        return outputStream.toByteArray();
+    /**
+     * Records the times at which a phase of obtaining or processing this response began and ended, and notifies
+     * the client's timing listeners.
+     */
+    void recordPhase( int phase, long startTime, long endTime ) {
+        _timing.record( phase, startTime, endTime );
+        if (_client != null) _client.tellTimingListeners( this, phase, startTime, endTime );
+    }
+
+
+    /**
+     * Returns the request which produced this response, if known.
+     */
+    WebRequest getRequest() {
+        return _request;
     }
 
 
-    private int getAvailableBytes( InputStream inputStream ) throws IOException {
-        int timeLeft = UNKNOWN_LENGTH_TIMEOUT;
-        int available;
-        do {
-            timeLeft -= UNKNOWN_LENGTH_RETRY_INTERVAL;
-            try { Thread.sleep( UNKNOWN_LENGTH_RETRY_INTERVAL ); } catch (InterruptedException e) { /* do nothing */ }
-            available = inputStream.available();
-        } while (available == 0 && timeLeft > 0);
-        return available;
+    void setRequest( WebRequest request ) {
+        _request = request;
     }
 
+
     /**
-     * read the tags from the given message
-     * @param rawMessage
-     * @throws UnsupportedEncodingException
-     * @throws MalformedURLException
+     * Returns the headers sent with the request which produced this response, if known.
      */
-    private void readTags( byte[] rawMessage ) throws UnsupportedEncodingException, MalformedURLException {
-        ByteTagParser parser = new ByteTagParser( rawMessage );
-        ByteTag tag = parser.getNextTag();
-        while (tag != null ) {
-            if (tag.getName().equalsIgnoreCase( "meta" )) processMetaTag( tag );
-            if (tag.getName().equalsIgnoreCase( "base" )) processBaseTag( tag );
-            // loop over a noscript region
-            if (tag.getName().equalsIgnoreCase( "noscript") && HttpUnitOptions.isScriptingEnabled()) {
-                do { 
-                	tag = parser.getNextTag(); 
-                } 
-                while (!tag.getName().equalsIgnoreCase( "/noscript") );
+    Dictionary getRequestHeaders() {
+        return _requestHeaders;
+    }
+
+
+    void setRequestHeaders( Dictionary requestHeaders ) {
+        _requestHeaders = requestHeaders;
+    }
+
+
+    /**
+     * Returns the number of bytes in the body of this response, if it has been read, or else its declared length.
+     */
+    long getReceivedSize() {
+        return _body != null ? _body.getLength() : getContentLength();
+    }
+
+
+    /**
+     * Returns the size above which the body of this response will be held in a file rather than in memory.
+     */
+    int getResponseBodyFileThreshold() {
+        return _client == null ? ClientProperties.getDefaultProperties().getResponseBodyFileThreshold()
+                               : _client.getClientProperties().getResponseBodyFileThreshold();
+    }
+
+
+    /**
+     * Looks for a meta tag declaring the character set of the page among the bytes at its start. Like browsers, only
+     * the first {@link #CHARACTER_SET_PRESCAN_LENGTH} bytes are examined, since the page must be decoded before it
+     * can be parsed; the other tags which matter before the page is interpreted are reported as it is parsed.
+     */
+    private void prescanCharacterSet( byte[] rawMessage, int length ) throws UnsupportedEncodingException {
+        ByteTagParser parser = new ByteTagParser( rawMessage, length );
+        for (ByteTag tag = parser.getNextTag(); tag != null; tag = parser.getNextTag()) {
+            if (tag.getName().equalsIgnoreCase( "meta" ) && isHttpEquivMetaTag( tag.getAttributes(), "content-type" )) {
+                inferContentType( tag.getAttribute( "content" ) );
             }
-            tag = parser.getNextTag();
         }
     }
 
 
-    private void processBaseTag( ByteTag tag ) throws MalformedURLException {
-        if (tag.getAttribute( "href" ) != null) _baseURL = new URL( getURL(), tag.getAttribute( "href" ) );
-        if (tag.getAttribute( "target" ) != null) _baseTarget = tag.getAttribute( "target" );
+    /**
+     * Reads the base and refresh tags from the text of the page, for use before it has been parsed,
+     * or if it will not be parsed, or after it is parsed by a parser which does not report these tags itself.
+     */
+    void scanTags() {
+        if (_tagsScanned) return;
+        _tagsScanned = true;
+        scanTags( false );
     }
 
 
     /**
-     * process MetaTags based on the tag
-     * @param tag
+     * Reads the tags from the text of the page, recording those which affect how it is interpreted.
+     * @param headOnly true to stop at the end of the head, where the scan for included scripts may stop
+     * @return the sources of the included scripts found, in the order in which they appear
      */
-    private void processMetaTag( ByteTag tag ) {
-        if (isHttpEquivMetaTag( tag, "content-type" )) {
-            inferContentType( tag.getAttribute( "content" ) );
-        } else if (isHttpEquivMetaTag( tag, "refresh" )) {
-            inferRefreshHeader( tag.getAttribute( "content" ) );
+    private Vector scanTags( boolean headOnly ) {
+        Vector scriptSources = new Vector();
+        try {
+            if (_body == null && _responseText == null) loadResponseText();
+            byte[] bytes;
+            if (_body == null) {
+                bytes = _responseText.getBytes();
+            } else if (!_body.isHeldInFile() || getContentType().startsWith( "text" )) {
+                bytes = _body.getBytes();
+            } else {
+                return scriptSources;
+            }
+
+            int parseDepth = _noscriptDepth;
+            _noscriptDepth = 0;
+            ByteTagParser parser = new ByteTagParser( bytes, bytes.length );
+            for (ByteTag tag = parser.getNextTag(); tag != null; tag = parser.getNextTag()) {
+                String name = tag.getName().toLowerCase();
+                if (headOnly && isEndOfHead( name )) break;
+                recordTag( name, tag.getAttributes() );
+                if (name.equals( "script" ) && tag.getAttribute( "src" ) != null && !isWithinIgnoredNoscript()) {
+                    scriptSources.addElement( tag.getAttribute( "src" ) );
+                }
+            }
+            _noscriptDepth = parseDepth;
+        } catch (IOException e) {
+            HttpUnitUtils.handleException( e );
+        }
+        return scriptSources;
+    }
+
+
+    private boolean isEndOfHead( String name ) {
+        return name.equals( "/head" ) || name.equals( "body" ) || name.equals( "frameset" );
+    }
+
+
+    /**
+     * Records a tag which affects how the page is interpreted: a base or meta tag, or the start or end of a
+     * noscript region, whose contents are ignored when scripting is enabled.
+     * @param name       the tag name in lower case, with a leading slash for an end tag
+     * @param attributes the attribute values of the tag, keyed by lower-case attribute name
+     * @see com.meterware.httpunit.parsing.TagRecorder#recordTag
+     */
+    void recordTag( String name, Map attributes ) {
+        if (name.equals( "noscript" )) {
+            _noscriptDepth++;
+        } else if (name.equals( "/noscript" )) {
+            _noscriptDepth = Math.max( 0, _noscriptDepth - 1 );
+        } else if (isWithinIgnoredNoscript()) {
+            return;
+        } else if (name.equals( "base" )) {
+            processBaseTag( attributes );
+        } else if (name.equals( "meta" ) && isHttpEquivMetaTag( attributes, "refresh" )) {
+            inferRefreshHeader( (String) attributes.get( "content" ) );
+        }
+    }
+
+
+    private boolean isWithinIgnoredNoscript() {
+        return _noscriptDepth > 0 && getConfiguration().isScriptingActive();
+    }
+
+
+    private void processBaseTag( Map attributes ) {
+        try {
+            if (attributes.get( "href" ) != null) _baseURL = new URL( getURL(), (String) attributes.get( "href" ) );
+            if (attributes.get( "target" ) != null) _baseTarget = (String) attributes.get( "target" );
+        } catch (MalformedURLException e) {
+            HttpUnitUtils.handleException( e );
         }
     }
 
@@ -1228,10 +1419,10 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
      * @param headerName
      * @return
      */
-    private boolean isHttpEquivMetaTag( ByteTag tag, String headerName )
+    private boolean isHttpEquivMetaTag( Map attributes, String headerName )
     {
-    	String equiv1=tag.getAttribute( "http_equiv" );
-    	String equiv2=tag.getAttribute( "http-equiv" );
+    	String equiv1=(String) attributes.get( "http_equiv" );
+    	String equiv2=(String) attributes.get( "http-equiv" );
     	boolean result=
     		headerName.equalsIgnoreCase( equiv1 ) ||
         headerName.equalsIgnoreCase( equiv2  );
@@ -1259,6 +1450,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
     private void readRefreshRequest() {
         if (_refreshDelay >= 0) 
         	return;
+        if (_page == null || _parsingPage || !_withParse) scanTags();
         _refreshDelay = 0;
         String refreshHeader = _refreshHeader != null ? _refreshHeader : getHeaderField( "Refresh" );
         if (refreshHeader == null) return;
@@ -1309,7 +1501,9 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
 
     CookieJar getCookieJar() {
-        if (_cookies == null) _cookies = new CookieJar( this );
+        if (_cookies == null) {
+            _cookies = _client == null ? new CookieJar( this ) : _client.getCurrentCookieJar().createJar( this );
+        }
         return _cookies;
     }
 
@@ -1320,8 +1514,8 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         String contentHeader = (_contentHeader != null) ? _contentHeader
                                                         : getHeaderField( "Content-type" );
         if (contentHeader == null) {
-            _contentType = HttpUnitOptions.getDefaultContentType();
-            setCharacterSet( HttpUnitOptions.getDefaultCharacterSet() );
+            _contentType = getConfiguration().getDefaultContentType();
+            setCharacterSet( getConfiguration().getDefaultCharacterSet() );
             _contentHeader = _contentType + ";charset=" + _characterSet;
         } else {
             String[] parts = HttpUnitUtils.parseContentTypeHeader( contentHeader );
@@ -1352,10 +1546,14 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         if (_page == null) {
             try {
                 _parsingPage = true;
-                if (HttpUnitOptions.isCheckHtmlContentType() && !isHTML()) throw new NotHTMLException( getContentType() );
+                if (getConfiguration().isCheckHtmlContentType() && !isHTML()) throw new NotHTMLException( getContentType() );
                 _page = new HTMLPage( this, _frame, _baseURL, _baseTarget, getCharacterSet() );
                 if (_withParse) {
-                	_page.parse( getText(), _pageURL );
+                	String text = getText();
+                	_noscriptDepth = 0;
+                	long startTime = System.nanoTime();
+                	_page.parse( text, _pageURL );
+                	recordPhase( ResponseTiming.PARSE, startTime, System.nanoTime() );
                 	if (_page == null) throw new IllegalStateException( "replaceText called in the middle of getReceivedPage()" );
                 	((HTMLDocumentImpl) _page.getRootNode()).getWindow().setProxy( this );
                 }	
@@ -1408,7 +1606,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
 
     String getCookieHeader() {
-        return _client.getCookieJar().getCookieHeaderField( getURL() );
+        return _client.getCurrentCookieJar().getCookieHeaderField( getURL() );
     }
 
 
@@ -1454,7 +1652,7 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         }
 
 
-        private Hashtable getAttributes() {
+        Map getAttributes() {
             if (_attributes == null) _attributes = new Hashtable();
             return _attributes;
         }
@@ -1495,7 +1693,13 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
 
     static class ByteTagParser {
         ByteTagParser( byte[] buffer ) {
+            this( buffer, buffer.length );
+        }
+
+
+        ByteTagParser( byte[] buffer, int length ) {
             _buffer = buffer;
+            _length = length;
         }
 
 
@@ -1503,18 +1707,18 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
             ByteTag byteTag=null;
             do {
                 int _start = _end + 1;
-                while (_start < _buffer.length && _buffer[ _start ] != '<') _start++;
+                while (_start < _length && _buffer[ _start ] != '<') _start++;
                 // proposed patch for bug report 
                 // [ 1376739 ] iframe tag not recognized if Javascript code contains '<'
                 // by Nathan Jakubiak
                 // uncommented since it doesn't seem to fix the test in WebFrameTest.java
-                // if (_scriptDepth > 0 && _start+1 < _buffer.length &&
+                // if (_scriptDepth > 0 && _start+1 < _length &&
                 //		_buffer[ _start+1 ] != '/') {
                 //		_end = _start+1;
                 //		continue;
                 //}
-                for (_end =_start +1; _end < _buffer.length && _buffer[ _end ] != '>'; _end++);
-                if (_end >= _buffer.length || _end < _start) return null;
+                for (_end =_start +1; _end < _length && _buffer[ _end ] != '>'; _end++);
+                if (_end >= _length || _end < _start) return null;
                 byteTag = new ByteTag( _buffer, _start +1, _end-_start -1 );
                 if (byteTag.getName().equalsIgnoreCase("script")) {
                     _scriptDepth++;
@@ -1530,6 +1734,8 @@ public class WebResponse implements HTMLSegment, CookieSource, DomWindowProxy {
         private int _end   = -1;
 
         private byte[] _buffer;
+
+        private int _length;
     }
 
 
@@ -27,6 +27,8 @@ import java.net.URL;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.xml.sax.SAXException;
 import com.meterware.httpunit.scripting.ScriptingHandler;
@@ -201,6 +203,52 @@ public class WebWindow {
 				response, requestContext);
 	}
 
+	/**
+	 * Loads the responses to the requests for the subframes of a frameset, in
+	 * order. If the client properties allow, the requests are first sent
+	 * concurrently, and the frames loaded once all of them have been received.
+	 */
+	void getSubframeResponses(WebRequest[] requests,
+			RequestContext requestContext) throws IOException, SAXException {
+		Future[] pendingResponses = sendConcurrently(requests);
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i].getURLString().length() == 0)
+				continue;
+			WebResponse response = getResource(requests[i],
+					pendingResponses[i]);
+			if (response != null)
+				updateWindow(requests[i].getTarget(), response,
+						requestContext);
+		}
+	}
+
+	/**
+	 * Sends those of the specified requests which go to a server
+	 * concurrently, no more than the client's limit at a time, and waits for
+	 * all of them to complete. Returns the pending responses, with null for
+	 * each request which was not sent.
+	 */
+	private Future[] sendConcurrently(WebRequest[] requests) {
+		Future[] pendingResponses = new Future[requests.length];
+		int limit = _client.getClientProperties()
+				.getMaxConcurrentFrameRequests();
+		if (limit <= 1 || requests.length <= 1)
+			return pendingResponses;
+
+		final Semaphore permits = new Semaphore(limit);
+		for (int i = 0; i < requests.length; i++) {
+			String urlString = requests[i].getURLString().trim();
+			if (urlString.length() == 0 || urlString.startsWith("about:")
+					|| HttpUnitUtils.isJavaScriptURL(urlString))
+				continue;
+			permits.acquireUninterruptibly();
+			pendingResponses[i] = _client.submitRequest(requests[i],
+					_frameContents.getTargetFrame(requests[i]), permits);
+		}
+		permits.acquireUninterruptibly(limit);
+		return pendingResponses;
+	}
+
 	/**
 	 * Updates this web client based on a received response. This includes
 	 * updating cookies and frames.
@@ -214,22 +262,56 @@ public class WebWindow {
 			WebResponse result = getResponse(request);
 			return result;
 		} else if (shouldFollowRedirect(response)) {
-			delay(HttpUnitOptions.getRedirectDelay());
+			delay(_client.getConfiguration().getRedirectDelay());
 			return getResponse(new RedirectWebRequest(response));
 		} else {
+			if (getClient().getClientProperties().isPrefetchScripts()
+					&& _client.getConfiguration().isScriptingActive())
+				prefetchScripts(response);
 			_client.updateFrameContents(this, requestTarget, response,
 					requestContext);
 			return response;
 		}
 	}
 
+	/**
+	 * Starts requesting the scripts included by a response, so that they are
+	 * ready by the time the parser reaches them. Scripts which may be taken
+	 * from the client's script cache are not requested.
+	 */
+	private void prefetchScripts(WebResponse response) throws IOException {
+		ScriptCache cache = _client.getScriptCache();
+		WebRequest[] requests = response.getIncludedScriptRequests();
+		for (int i = 0; i < requests.length; i++) {
+			String url = requests[i].getURL().toExternalForm();
+			String cookieHeader = cache == null ? null : _client.getCookieHeaderField(requests[i].getURL());
+			if (response.hasPendingScript(url)
+					|| (cache != null && cache.isFresh(url, cookieHeader)))
+				continue;
+			if (cache != null)
+				cache.addValidators(url, cookieHeader, requests[i]);
+			response.addPendingScript(url, _client.submitRequest(requests[i],
+					_frameContents.getTargetFrame(requests[i]), null));
+		}
+	}
+
 	/**
 	 * Returns the resource specified by the request. Does not update the window
 	 * or load included framesets. May return null if the resource is a
 	 * JavaScript URL which would normally leave the client unchanged.
 	 */
 	public WebResponse getResource(WebRequest request) throws IOException {
-		_client.tellListeners(request);
+		return getResource(request, null);
+	}
+
+	/**
+	 * Returns the resource specified by the request, which may already have
+	 * been sent in the background.
+	 */
+	WebResponse getResource(WebRequest request, Future pendingResponse)
+			throws IOException {
+		if (pendingResponse == null)
+			_client.tellListeners(request);
 
 		WebResponse response = null;
 		String urlString = request.getURLString().trim();
@@ -237,7 +319,9 @@ public class WebWindow {
 		if (urlString.startsWith("about:")) {
 			response = new DefaultWebResponse(_client, targetFrame, null, "");
 		} else if (!HttpUnitUtils.isJavaScriptURL(urlString)) {
-			response = _client.createResponse(request, targetFrame);
+			response = pendingResponse != null ? _client
+					.getSubmittedResponse(pendingResponse) : _client
+					.createResponse(request, targetFrame);
 		} else {
 			ScriptingHandler handler = request.getSourceScriptingHandler();
 			if (handler == null)
@@ -332,6 +416,14 @@ public class WebWindow {
 				requestContext);
 	}
 
+	/**
+	 * Replaces the pages in this window with copies of those in a window of
+	 * another client.
+	 */
+	void copyFrameContents(WebWindow source) throws IOException {
+		_frameContents.copyContents(source._frameContents);
+	}
+
 	void setName(String name) {
 		_name = name;
 	}
@@ -37,7 +37,7 @@ public class Cookie {
 
     private String _name;
 
-    private String _value;
+    private volatile String _value;
 
     private String _path;
 
@@ -45,6 +45,9 @@ public class Cookie {
     
     private long _expiredTime;
 
+    /** The number of times the value of this cookie has been set, so that headers holding it may be recognized as out of date. **/
+    private volatile int _valueVersion;
+
 
     /**
      * @return the _expiredTime in milliseconds
@@ -87,6 +90,16 @@ public class Cookie {
      	_domain = domain;
     }
 
+
+    /**
+     * construct a cookie with domain and path restrictions which expires at the specified time
+     * @param expiredTime - the time in milliseconds at which the cookie expires, or 0 if it does not
+     */
+    Cookie( String name, String value, String domain, String path, long expiredTime ) {
+        this( name, value, domain, path );
+        _expiredTime = expiredTime;
+    }
+
     /**
      * Constructs a cookie w/o any domain or path restrictions.
      * @param name - the name of the cookie
@@ -162,8 +175,17 @@ public class Cookie {
      */
     public void setValue(String value) {
       _value = value;
+      _valueVersion++;
     }    
 
+
+    /**
+     * Returns a number which changes whenever the value of this cookie is set.
+     */
+    int getValueVersion() {
+        return _valueVersion;
+    }
+
     /**
      * Returns the path to which this cookie is restricted.
      */
@@ -229,10 +251,15 @@ public class Cookie {
      * @return true if the cookie is not expired and the path is accepted if a domain is set
      */
     public boolean mayBeSentTo( URL url ) {
+        return mayBeSentTo( url, CookieProperties.getDefaults() );
+    }
+
+
+    boolean mayBeSentTo( URL url, CookieProperties properties ) {
         if (getDomain() == null) return true;
         if (isExpired()) return false;
 
-        return acceptHost( getDomain(), url.getHost() ) && acceptPath( getPath(), url.getPath() );
+        return acceptHost( getDomain(), url.getHost() ) && acceptPath( getPath(), url.getPath(), properties );
     }
 
 
@@ -240,10 +267,11 @@ public class Cookie {
      * accept path for the given hostpath
      * @param pathPattern
      * @param hostPath
+     * @param properties
      * @return true - either if PathMatching is not strict or the hostpath starts with the given path pattern
      */
-    private boolean acceptPath( String pathPattern, String hostPath ) {
-        return !CookieProperties.isPathMatchingStrict() || hostPath.startsWith( pathPattern );
+    private boolean acceptPath( String pathPattern, String hostPath, CookieProperties properties ) {
+        return !properties.isStrictPathMatching() || hostPath.startsWith( pathPattern );
     }
 
     /**
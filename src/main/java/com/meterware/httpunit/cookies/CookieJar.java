@@ -20,11 +20,15 @@ package com.meterware.httpunit.cookies;
  * DEALINGS IN THE SOFTWARE.
  *
  *******************************************************************************************************************/
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.StreamTokenizer;
 import java.io.StringReader;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A collection of HTTP cookies, which can interact with cookie and set-cookie
@@ -37,14 +41,65 @@ public class CookieJar {
 
 	private static final int DEFAULT_HEADER_SIZE = 80;
 
-	private ArrayList _cookies = new ArrayList();
-	private ArrayList _globalCookies = new ArrayList();
+	/** The largest number of cookie headers remembered by a single jar. **/
+	private static final int MAX_CACHED_HEADERS = 64;
+
+	/** Flags describing each cookie written by writeCookies. **/
+	private static final int GLOBAL = 1;
+	private static final int HAS_VALUE = 2;
+	private static final int HAS_DOMAIN = 4;
+	private static final int HAS_PATH = 8;
+
+	/**
+	 * The cookies in this jar. In a concurrent jar these are never modified
+	 * once published: each change is made to a copy, which then replaces them.
+	 * Nor are they modified once shared with a forked jar.
+	 **/
+	private volatile Contents _contents = new Contents();
+
+	/** True if this jar may be shared by conversations running in different threads. **/
+	private final boolean _concurrent;
+
+	private final CookieProperties _properties;
+
+	/** The cookie headers last computed, keyed by scheme, host and path. **/
+	private final Map _headerCache;
+
+	private final AtomicInteger _headerCacheHits = new AtomicInteger();
+	private final AtomicInteger _headerCacheMisses = new AtomicInteger();
+
 	private CookiePress _press;
 
 	/**
 	 * Creates an empty cookie jar.
 	 */
 	public CookieJar() {
+		this(CookieProperties.getDefaults(), false);
+	}
+
+	/**
+	 * Creates an empty cookie jar which accepts and sends cookies as directed
+	 * by the specified properties. A concurrent jar may be shared by
+	 * conversations running in different threads: reads never block, while
+	 * each change copies the cookies it holds, so it is best suited to jars
+	 * which are read far more often than they are changed.
+	 * 
+	 * @since 1.8
+	 */
+	public CookieJar(CookieProperties properties, boolean concurrent) {
+		_properties = properties;
+		_concurrent = concurrent;
+		if (concurrent) {
+			_headerCache = new ConcurrentHashMap();
+		} else {
+			_headerCache = new LinkedHashMap(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry eldest) {
+					return size() > MAX_CACHED_HEADERS;
+				}
+			};
+		}
 		_press = new CookiePress(null);
 	}
 
@@ -60,6 +115,18 @@ public class CookieJar {
 	 * </p>
 	 */
 	public CookieJar(CookieSource source) {
+		this(source, CookieProperties.getDefaults());
+	}
+
+	/**
+	 * Creates a cookie jar which is initially populated with cookies parsed
+	 * from the <code>Set-Cookie</code> and <code>Set-Cookie2</code> header
+	 * fields, accepting them as directed by the specified properties.
+	 * 
+	 * @since 1.8
+	 */
+	public CookieJar(CookieSource source, CookieProperties properties) {
+		this(properties, false);
 		_press = new CookiePress(source.getURL());
 		findCookies(source.getHeaderFields("Set-Cookie"),
 				new RFC2109CookieRecipe());
@@ -81,12 +148,56 @@ public class CookieJar {
 		}
 	}
 
+	/**
+	 * Creates a cookie jar holding the cookies parsed from the
+	 * <code>Set-Cookie</code> and <code>Set-Cookie2</code> header fields of
+	 * the specified source, accepted as this jar would accept them.
+	 * 
+	 * @since 1.8
+	 */
+	public CookieJar createJar(CookieSource source) {
+		return new CookieJar(source, _properties);
+	}
+
+	/**
+	 * Returns true if this jar may be shared by conversations running in
+	 * different threads.
+	 * 
+	 * @since 1.8
+	 */
+	public boolean isConcurrent() {
+		return _concurrent;
+	}
+
 	/**
 	 * Empties this cookie jar of all contents.
 	 */
-	public void clear() {
-		_cookies.clear();
-		_globalCookies.clear();
+	public synchronized void clear() {
+		Contents contents = new Contents();
+		contents._version = _contents._version + 1;
+		_contents = contents;
+	}
+
+	/**
+	 * Returns a new jar holding the cookies in this one, and using the same
+	 * properties. The two jars share their cookies until either of them is
+	 * changed or hands out a cookie, which it first copies, so that setting
+	 * the value of a cookie in either jar does not change the other. Only if
+	 * cookies have already been handed out from this jar are they copied at
+	 * once.
+	 * 
+	 * @since 1.8
+	 */
+	public synchronized CookieJar fork() {
+		CookieJar fork = new CookieJar(_properties, _concurrent);
+		Contents contents = _contents;
+		if (contents._exposed) {
+			fork._contents = contents.copyWithCookies();
+		} else {
+			contents._shared = true;
+			fork._contents = contents;
+		}
+		return fork;
 	}
 
 	/**
@@ -96,8 +207,11 @@ public class CookieJar {
 	 * 
 	 * @deprecated as of 1.6, use #putCookie
 	 **/
-	public void addCookie(String name, String value) {
-		_globalCookies.add(new Cookie(name, value));
+	public synchronized void addCookie(String name, String value) {
+		Contents contents = beginUpdate();
+		contents._globalCookies.add(new Cookie(name, value));
+		contents._version++;
+		_contents = contents;
 	}
 
 	/**
@@ -106,40 +220,45 @@ public class CookieJar {
 	 * their host and path.
 	 * 
 	 * Values of null will result in the cookie being removed. Any other value
-	 * will leave the cookie unchanged expect for the value.
+	 * will leave the cookie unchanged expect for the value. The cookie is
+	 * replaced rather than modified, since cookie jars may share cookies.
 	 * 
 	 * @since 1.6
 	 **/
-	public void putCookie(String name, String value) {
+	public synchronized void putCookie(String name, String value) {
+		Contents contents = beginUpdate();
 		boolean foundCookie = false;
-		for (Iterator iterator = _globalCookies.iterator(); iterator.hasNext();) {
+		for (ListIterator iterator = contents._globalCookies.listIterator(); iterator.hasNext();) {
 			Cookie cookie = (Cookie) iterator.next();
 			if (name.equals(cookie.getName())) {
 				foundCookie = true;
 				if (value != null) {
-					cookie.setValue(value);
+					iterator.set(new Cookie(name, value));
 				} else {
 					iterator.remove();
 				}
+				contents._version++;
 			}
 		}
 
-		for (Iterator iterator = _cookies.iterator(); iterator.hasNext();) {
-			Cookie cookie = (Cookie) iterator.next();
-			if (name.equals(cookie.getName())) {
+		for (Iterator iterator = new ArrayList(contents._cookies.values()).iterator(); iterator.hasNext();) {
+			CookieEntry entry = (CookieEntry) iterator.next();
+			if (name.equals(entry._cookie.getName())) {
 				foundCookie = true;
 				if (value != null) {
-					cookie.setValue(value);
+					contents.replaceValue(entry, value);
 				} else {
-					iterator.remove();
+					contents.remove(entry);
 				}
 			}
 		}
 
 		// only add it if it does not already exist
 		if (foundCookie == false) {
-			_globalCookies.add(new Cookie(name, value));
+			contents._globalCookies.add(new Cookie(name, value));
+			contents._version++;
 		}
+		_contents = contents;
 	}
 
 	/**
@@ -148,34 +267,40 @@ public class CookieJar {
 	 * domain and path. If a global cookie is defined with the same name, this
 	 * cookie is not added.
 	 */
-	public void putSingleUseCookie(String name, String value, String domain,
+	public synchronized void putSingleUseCookie(String name, String value, String domain,
 			String path) {
-		for (Iterator iterator = _globalCookies.iterator(); iterator.hasNext();) {
+		for (Iterator iterator = _contents._globalCookies.iterator(); iterator.hasNext();) {
 			Cookie cookie = (Cookie) iterator.next();
 			if (name.equals(cookie.getName()))
 				return;
 		}
 
-		for (Iterator iterator = _cookies.iterator(); iterator.hasNext();) {
-			Cookie cookie = (Cookie) iterator.next();
-			if (name.equals(cookie.getName()))
+		Contents contents = beginUpdate();
+		for (Iterator iterator = contents._cookies.values().iterator(); iterator.hasNext();) {
+			CookieEntry entry = (CookieEntry) iterator.next();
+			if (name.equals(entry._cookie.getName())) {
 				iterator.remove();
+				contents.unindex(entry);
+			}
 		}
 
-		_cookies.add(new Cookie(name, value, domain, path));
+		contents.add(new Cookie(name, value, domain, path));
+		_contents = contents;
 	}
 
 	/**
 	 * Returns the name of all the active cookies in this cookie jar.
 	 **/
 	public String[] getCookieNames() {
-		final int numGlobalCookies = _globalCookies.size();
-		String[] names = new String[_cookies.size() + numGlobalCookies];
+		Contents contents = _contents;
+		final int numGlobalCookies = contents._globalCookies.size();
+		String[] names = new String[contents._cookies.size() + numGlobalCookies];
 		for (int i = 0; i < numGlobalCookies; i++) {
-			names[i] = ((Cookie) _globalCookies.get(i)).getName();
+			names[i] = ((Cookie) contents._globalCookies.get(i)).getName();
 		}
-		for (int i = numGlobalCookies; i < names.length; i++) {
-			names[i] = ((Cookie) _cookies.get(i - numGlobalCookies)).getName();
+		int i = numGlobalCookies;
+		for (Iterator iterator = contents._cookies.values().iterator(); iterator.hasNext();) {
+			names[i++] = ((CookieEntry) iterator.next())._cookie.getName();
 		}
 		return names;
 	}
@@ -184,8 +309,12 @@ public class CookieJar {
 	 * Returns a collection containing all of the cookies in this jar.
 	 */
 	public Collection getCookies() {
-		final Collection collection = (Collection) _cookies.clone();
-		collection.addAll(_globalCookies);
+		Contents contents = getExposedContents();
+		final Collection collection = new ArrayList(contents._cookies.size() + contents._globalCookies.size());
+		for (Iterator iterator = contents._cookies.values().iterator(); iterator.hasNext();) {
+			collection.add(((CookieEntry) iterator.next())._cookie);
+		}
+		collection.addAll(contents._globalCookies);
 		return collection;
 	}
 
@@ -197,7 +326,7 @@ public class CookieJar {
 	 * @return the value of the cookie
 	 **/
 	public String getCookieValue(String name) {
-		Cookie cookie = getCookie(name);
+		Cookie cookie = findCookie(_contents, name);
 		return cookie == null ? null : cookie.getValue();
 	}
 
@@ -205,15 +334,19 @@ public class CookieJar {
 	 * Returns the value of the specified cookie.
 	 **/
 	public Cookie getCookie(String name) {
+		return findCookie(getExposedContents(), name);
+	}
+
+	private static Cookie findCookie(Contents contents, String name) {
 		if (name == null)
 			throw new IllegalArgumentException(
 					"getCookieValue: no name specified");
-		for (Iterator iterator = _cookies.iterator(); iterator.hasNext();) {
-			Cookie cookie = (Cookie) iterator.next();
+		for (Iterator iterator = contents._cookies.values().iterator(); iterator.hasNext();) {
+			Cookie cookie = ((CookieEntry) iterator.next())._cookie;
 			if (name.equals(cookie.getName()))
 				return cookie;
 		}
-		for (Iterator iterator = _globalCookies.iterator(); iterator.hasNext();) {
+		for (Iterator iterator = contents._globalCookies.iterator(); iterator.hasNext();) {
 			Cookie cookie = (Cookie) iterator.next();
 			if (name.equals(cookie.getName()))
 				return cookie;
@@ -223,31 +356,85 @@ public class CookieJar {
 
 	/**
 	 * Returns the value of the cookie header to be sent to the specified URL.
-	 * Will return null if no compatible cookie is defined.
+	 * Will return null if no compatible cookie is defined. Cookies restricted
+	 * to domains or paths are listed first, in the order in which they were
+	 * set, followed by those set without restrictions.
+	 * <p>
+	 * A jar which is not concurrent may still be read by the background
+	 * threads of a single conversation, such as those loading frames or
+	 * prefetching scripts, so the header is computed holding its lock: its
+	 * header cache and the index pruned along the way are changed by reads.
 	 **/
 	public String getCookieHeaderField(URL targetURL) {
-		if (_cookies.isEmpty() && _globalCookies.isEmpty())
+		if (_concurrent)
+			return computeCookieHeaderField(targetURL);
+		synchronized (this) {
+			return computeCookieHeaderField(targetURL);
+		}
+	}
+
+	private String computeCookieHeaderField(URL targetURL) {
+		Contents contents = _contents;
+		if (contents._cookies.isEmpty() && contents._globalCookies.isEmpty())
 			return null;
-		StringBuffer sb = new StringBuffer(DEFAULT_HEADER_SIZE);
-		HashSet restrictedCookies = new HashSet();
-		for (Iterator i = _cookies.iterator(); i.hasNext();) {
-			Cookie cookie = (Cookie) i.next();
-			if (!cookie.mayBeSentTo(targetURL))
-				continue;
-			restrictedCookies.add(cookie.getName());
-			if (sb.length() != 0)
-				sb.append("; ");
-			sb.append(cookie.getName()).append('=').append(cookie.getValue());
+		String key = targetURL.getProtocol() + "://" + targetURL.getHost() + targetURL.getPath();
+		HeaderCacheEntry cached = (HeaderCacheEntry) _headerCache.get(key);
+		if (cached != null && cached.isCurrent(contents, _properties)) {
+			_headerCacheHits.incrementAndGet();
+			return cached._header;
 		}
-		for (Iterator i = _globalCookies.iterator(); i.hasNext();) {
-			Cookie cookie = (Cookie) i.next();
+		_headerCacheMisses.incrementAndGet();
+
+		boolean pathMatchingStrict = _properties.isStrictPathMatching();
+		StringBuffer sb = new StringBuffer(DEFAULT_HEADER_SIZE);
+		ArrayList sentCookies = new ArrayList();
+		HashSet restrictedCookies = contents._globalCookies.isEmpty() ? null : new HashSet();
+		long expirationTime = contents._cookies.isEmpty() ? Long.MAX_VALUE
+				: contents.appendRestrictedCookies(sb, targetURL, sentCookies, restrictedCookies,
+						_properties, !_concurrent && !contents._shared);
+		for (int i = 0; i < contents._globalCookies.size(); i++) {
+			Cookie cookie = (Cookie) contents._globalCookies.get(i);
 			if (restrictedCookies.contains(cookie.getName()))
 				continue;
+			sentCookies.add(cookie);
 			if (sb.length() != 0)
 				sb.append("; ");
 			sb.append(cookie.getName()).append('=').append(cookie.getValue());
 		}
-		return sb.length() == 0 ? null : sb.toString();
+		String header = sb.length() == 0 ? null : sb.toString();
+		if (_concurrent && _headerCache.size() >= MAX_CACHED_HEADERS)
+			_headerCache.clear();
+		_headerCache.put(key, new HeaderCacheEntry(header, contents, sentCookies,
+				pathMatchingStrict, expirationTime));
+		return header;
+	}
+
+	/**
+	 * Returns the number of times a cookie header was found already computed.
+	 * 
+	 * @since 1.8
+	 */
+	public int getHeaderCacheHits() {
+		return _headerCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of times a cookie header had to be computed.
+	 * 
+	 * @since 1.8
+	 */
+	public int getHeaderCacheMisses() {
+		return _headerCacheMisses.get();
+	}
+
+	/**
+	 * Returns a number which changes whenever a cookie is added to or removed
+	 * from this jar.
+	 * 
+	 * @since 1.8
+	 */
+	public long getVersion() {
+		return _contents._version;
 	}
 
 	/**
@@ -255,29 +442,161 @@ public class CookieJar {
 	 * cookie jar. Any duplicate cookies in the new jar will replace those in
 	 * this jar.
 	 **/
-	public void updateCookies(CookieJar newJar) {
-		for (Iterator i = newJar._cookies.iterator(); i.hasNext();) {
-			addUniqueCookie((Cookie) i.next());
+	public synchronized void updateCookies(CookieJar newJar) {
+		Contents newContents = newJar._contents;
+		if (newContents._cookies.isEmpty())
+			return;
+		Contents contents = beginUpdate();
+		for (Iterator i = newContents._cookies.values().iterator(); i.hasNext();) {
+			contents.addUniqueCookie(((CookieEntry) i.next())._cookie);
 		}
+		_contents = contents;
 	}
 
 	/**
-	 * Add the cookie to this jar, replacing any previous matching cookie.
+	 * Writes the cookies in this jar to the specified output, in a compact
+	 * form which may be read by {@link #readCookies}.
+	 * 
+	 * @since 1.8
+	 */
+	public void writeCookies(DataOutput out) throws IOException {
+		Contents contents = _contents;
+		out.writeInt(contents._cookies.size() + contents._globalCookies.size());
+		for (Iterator i = contents._cookies.values().iterator(); i.hasNext();) {
+			writeCookie(out, ((CookieEntry) i.next())._cookie, false);
+		}
+		for (Iterator i = contents._globalCookies.iterator(); i.hasNext();) {
+			writeCookie(out, (Cookie) i.next(), true);
+		}
+	}
+
+	/**
+	 * Adds to this jar the cookies written by {@link #writeCookies}, other
+	 * than those which have expired since. Each replaces any matching cookie
+	 * already in the jar.
+	 * 
+	 * @since 1.8
 	 */
-	void addUniqueCookie(Cookie cookie) {
-		_cookies.remove(cookie);
-		for (Iterator i = _cookies.iterator(); i.hasNext();) {
-			Cookie c = (Cookie) i.next();
-			if (c.getName().equals(cookie.getName())) {
-				if (compareDomain(c.getDomain(), cookie.getDomain())) {
-					if (c.getPath() != null && cookie.getPath() != null
-							&& c.getPath().equals(cookie.getPath())) {
+	public synchronized void readCookies(DataInput in) throws IOException {
+		Contents contents = beginUpdate();
+		long now = System.currentTimeMillis();
+		for (int count = in.readInt(); count > 0; count--) {
+			int flags = in.readByte();
+			String name = in.readUTF();
+			String value = (flags & HAS_VALUE) == 0 ? null : in.readUTF();
+			String domain = (flags & HAS_DOMAIN) == 0 ? null : in.readUTF();
+			String path = (flags & HAS_PATH) == 0 ? null : in.readUTF();
+			long expiredTime = in.readLong();
+			if (expiredTime != 0 && expiredTime <= now)
+				continue;
+
+			Cookie cookie = new Cookie(name, value, domain, path, expiredTime);
+			if ((flags & GLOBAL) == 0) {
+				contents.addUniqueCookie(cookie);
+			} else {
+				for (Iterator i = contents._globalCookies.iterator(); i.hasNext();) {
+					if (name.equals(((Cookie) i.next()).getName()))
 						i.remove();
-					}
 				}
+				contents._globalCookies.add(cookie);
+				contents._version++;
 			}
 		}
-		_cookies.add(cookie);
+		_contents = contents;
+	}
+
+	private static void writeCookie(DataOutput out, Cookie cookie, boolean global) throws IOException {
+		int flags = global ? GLOBAL : 0;
+		if (cookie.getValue() != null)
+			flags |= HAS_VALUE;
+		if (cookie.getDomain() != null)
+			flags |= HAS_DOMAIN;
+		if (cookie.getPath() != null)
+			flags |= HAS_PATH;
+		out.writeByte(flags);
+		out.writeUTF(cookie.getName());
+		if (cookie.getValue() != null)
+			out.writeUTF(cookie.getValue());
+		if (cookie.getDomain() != null)
+			out.writeUTF(cookie.getDomain());
+		if (cookie.getPath() != null)
+			out.writeUTF(cookie.getPath());
+		out.writeLong(cookie.getExpiredTime());
+	}
+
+	/**
+	 * Add the cookie to this jar, replacing any previous matching cookie.
+	 */
+	synchronized void addUniqueCookie(Cookie cookie) {
+		Contents contents = beginUpdate();
+		contents.addUniqueCookie(cookie);
+		_contents = contents;
+	}
+
+	/**
+	 * Returns the contents to which a change should be made: a copy of the
+	 * current ones, if other threads may be reading them, or one holding
+	 * copies of their cookies, if another jar shares them. The caller must
+	 * hold the lock on this jar, and publish the result when done.
+	 */
+	private Contents beginUpdate() {
+		Contents contents = _contents;
+		if (contents._shared)
+			return contents.copyWithCookies();
+		return _concurrent ? contents.copy() : contents;
+	}
+
+	/**
+	 * Returns the contents from which cookies may be handed out, marked so
+	 * that a later fork copies them at once. If another jar shares the
+	 * current contents, they are first replaced by a copy holding copies of
+	 * their cookies.
+	 */
+	private Contents getExposedContents() {
+		Contents contents = _contents;
+		contents._exposed = true;
+		if (!contents._shared)
+			return contents;
+		synchronized (this) {
+			if (_contents._shared)
+				_contents = _contents.copyWithCookies();
+			contents = _contents;
+			contents._exposed = true;
+			return contents;
+		}
+	}
+
+	/**
+	 * Returns true if the first entry should be sent before the second: that
+	 * is, if it was added earlier.
+	 */
+	private static boolean precedes(CookieEntry first, CookieEntry second) {
+		return first._sequence < second._sequence;
+	}
+
+	/**
+	 * Returns the key under which cookies for the specified domain are
+	 * indexed: its labels, lower-cased, in reverse order.
+	 */
+	private static String getIndexKey(String domain) {
+		StringBuffer sb = new StringBuffer(domain.length());
+		int end = domain.length();
+		for (int i = end - 1; i >= -1; i--) {
+			if (i >= 0 && domain.charAt(i) != '.')
+				continue;
+			if (sb.length() != 0 || end < domain.length())
+				sb.append('.');
+			sb.append(domain.substring(i + 1, end).toLowerCase());
+			end = i;
+		}
+		return sb.toString();
+	}
+
+	private static int countLabels(String key) {
+		int count = 1;
+		for (int i = key.indexOf('.'); i >= 0; i = key.indexOf('.', i + 1))
+			count++;
+		return count;
 	}
 
 	/**
@@ -287,7 +606,7 @@ public class CookieJar {
 	 * @param newDomain
 	 * @return
 	 */
-	private boolean compareDomain(String domain, String newDomain) {
+	private static boolean compareDomain(String domain, String newDomain) {
 		if (domain.charAt(0) == '.' && newDomain.endsWith(domain)) {
 			return true;
 		}
@@ -298,6 +617,361 @@ public class CookieJar {
 		return domain.equals(newDomain);
 	}
 
+	/**
+	 * The cookies held by a jar, indexed for quick selection.
+	 */
+	private static class Contents {
+
+		/** The entries for cookies restricted to particular hosts and paths, keyed by the order in which they were added. **/
+		private TreeMap _cookies = new TreeMap();
+
+		/**
+		 * The entries for cookies with domains, in lists in the order in which
+		 * they were added, keyed by the reversed labels of their domains: thus
+		 * "www.meterware.com" is found under "com.meterware.www" and
+		 * ".meterware.com" under "com.meterware.", next to the hosts it covers.
+		 **/
+		private TreeMap _domainIndex = new TreeMap();
+
+		/** The entries for cookies without domains, which may be sent anywhere. **/
+		private ArrayList _undomainedCookies = new ArrayList();
+
+		/** The entries for expired cookies, which are no longer indexed but remain in the jar until replaced. **/
+		private ArrayList _expiredCookies = new ArrayList();
+
+		private ArrayList _globalCookies = new ArrayList();
+
+		private long _nextSequence;
+
+		/** Incremented whenever a cookie is added or removed. **/
+		private long _version;
+
+		/** True if cookies have been handed out from these contents, and may be changed by their holders. **/
+		private volatile boolean _exposed;
+
+		/** True if these contents belong to more than one jar, and must be copied with their cookies before use. **/
+		private volatile boolean _shared;
+
+		/**
+		 * Returns a copy of these contents, which may be changed without
+		 * affecting them. The cookies themselves are shared.
+		 */
+		Contents copy() {
+			Contents copy = new Contents();
+			copy._cookies.putAll(_cookies);
+			for (Iterator i = _domainIndex.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				copy._domainIndex.put(entry.getKey(), new ArrayList((List) entry.getValue()));
+			}
+			copy._undomainedCookies.addAll(_undomainedCookies);
+			copy._expiredCookies.addAll(_expiredCookies);
+			copy._globalCookies.addAll(_globalCookies);
+			copy._nextSequence = _nextSequence;
+			copy._version = _version;
+			copy._exposed = _exposed;
+			return copy;
+		}
+
+		/**
+		 * Returns a copy of these contents which holds copies of their
+		 * cookies, rather than sharing them.
+		 */
+		Contents copyWithCookies() {
+			Contents copy = new Contents();
+			Map copies = new HashMap();
+			for (Iterator i = _cookies.values().iterator(); i.hasNext();) {
+				CookieEntry entry = (CookieEntry) i.next();
+				CookieEntry entryCopy = new CookieEntry(copyCookie(entry._cookie), entry._sequence);
+				copies.put(entry, entryCopy);
+				copy._cookies.put(Long.valueOf(entry._sequence), entryCopy);
+			}
+			for (Iterator i = _domainIndex.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				copy._domainIndex.put(entry.getKey(), copyEntries((List) entry.getValue(), copies));
+			}
+			copy._undomainedCookies = copyEntries(_undomainedCookies, copies);
+			copy._expiredCookies = copyEntries(_expiredCookies, copies);
+			for (int i = 0; i < _globalCookies.size(); i++)
+				copy._globalCookies.add(copyCookie((Cookie) _globalCookies.get(i)));
+			copy._nextSequence = _nextSequence;
+			copy._version = _version;
+			return copy;
+		}
+
+		private static ArrayList copyEntries(List entries, Map copies) {
+			ArrayList result = new ArrayList(entries.size());
+			for (int i = 0; i < entries.size(); i++)
+				result.add(copies.get(entries.get(i)));
+			return result;
+		}
+
+		private static Cookie copyCookie(Cookie cookie) {
+			return new Cookie(cookie.getName(), cookie.getValue(), cookie.getDomain(),
+					cookie.getPath(), cookie.getExpiredTime());
+		}
+
+		/**
+		 * Appends the cookies which may be sent to the specified URL, merging
+		 * the index lists for its host and for each domain containing it.
+		 * 
+		 * @param sentCookies
+		 *            collects the cookies appended
+		 * @param restrictedCookies
+		 *            if not null, collects the names of the cookies appended
+		 * @param purgeExpired
+		 *            if true, expired cookies found along the way are dropped
+		 *            from the index
+		 * @return the earliest time at which one of the cookies appended will
+		 *         expire, or Long.MAX_VALUE if none of them will
+		 */
+		long appendRestrictedCookies(StringBuffer sb, URL targetURL,
+				List sentCookies, HashSet restrictedCookies, CookieProperties properties,
+				boolean purgeExpired) {
+			long expirationTime = Long.MAX_VALUE;
+			String hostKey = getIndexKey(targetURL.getHost());
+			List[] lists = new List[countLabels(hostKey) + 1];
+			int numLists = 0;
+			if (!_undomainedCookies.isEmpty())
+				lists[numLists++] = _undomainedCookies;
+			for (int i = hostKey.indexOf('.'); i >= 0; i = hostKey.indexOf('.', i + 1)) {
+				List list = (List) _domainIndex.get(hostKey.substring(0, i + 1));
+				if (list != null)
+					lists[numLists++] = list;
+			}
+			List hostList = (List) _domainIndex.get(hostKey);
+			if (hostList != null)
+				lists[numLists++] = hostList;
+
+			int[] positions = new int[numLists];
+			while (true) {
+				int selected = -1;
+				for (int i = 0; i < numLists; i++) {
+					if (positions[i] >= lists[i].size())
+						continue;
+					if (selected < 0 || precedes((CookieEntry) lists[i].get(positions[i]),
+							(CookieEntry) lists[selected].get(positions[selected])))
+						selected = i;
+				}
+				if (selected < 0)
+					break;
+
+				CookieEntry entry = (CookieEntry) lists[selected].get(positions[selected]);
+				Cookie cookie = entry._cookie;
+				if (cookie.getDomain() != null && cookie.isExpired()) {
+					if (purgeExpired) {
+						lists[selected].remove(positions[selected]);
+						if (lists[selected].isEmpty())
+							_domainIndex.remove(entry._indexKey);
+						_expiredCookies.add(entry);
+					} else {
+						positions[selected]++;
+					}
+					continue;
+				}
+				positions[selected]++;
+				if (!cookie.mayBeSentTo(targetURL, properties))
+					continue;
+				sentCookies.add(cookie);
+				if (restrictedCookies != null)
+					restrictedCookies.add(cookie.getName());
+				if (cookie.getDomain() != null && cookie.getExpiredTime() != 0)
+					expirationTime = Math.min(expirationTime, cookie.getExpiredTime());
+				if (sb.length() != 0)
+					sb.append("; ");
+				sb.append(cookie.getName()).append('=').append(cookie.getValue());
+			}
+			return expirationTime;
+		}
+
+		/**
+		 * Adds the cookie, replacing any previous matching cookie.
+		 */
+		void addUniqueCookie(Cookie cookie) {
+			String domain = cookie.getDomain();
+			String key = domain == null ? null : getIndexKey(domain);
+			List sameDomain = domain == null ? _undomainedCookies : (List) _domainIndex.get(key);
+
+			CookieEntry equalEntry = findEqualEntry(sameDomain, cookie, null);
+			equalEntry = findEqualEntry(_expiredCookies, cookie, equalEntry);
+			if (equalEntry != null)
+				remove(equalEntry);
+
+			if (domain != null && domain.length() > 0) {
+				removeReplacedCookies((List) _domainIndex.get(key), cookie);
+				for (int i = key.indexOf('.'); i >= 0 && i < key.length() - 1; i = key.indexOf('.', i + 1)) {
+					removeReplacedCookies((List) _domainIndex.get(key.substring(0, i + 1)), cookie);
+				}
+				if (domain.charAt(0) == '.') {
+					Collection descendants = _domainIndex.subMap(key + '\u0000', key + '\uffff').values();
+					for (Iterator i = new ArrayList(descendants).iterator(); i.hasNext();) {
+						removeReplacedCookies((List) i.next(), cookie);
+					}
+				}
+				removeReplacedCookies(_expiredCookies, cookie);
+			}
+			add(cookie);
+		}
+
+		/**
+		 * Returns the earliest added entry for a cookie equal to the specified
+		 * one, among those in the list and the specified candidate.
+		 */
+		private CookieEntry findEqualEntry(List entries, Cookie cookie, CookieEntry candidate) {
+			if (entries == null)
+				return candidate;
+			for (int i = 0; i < entries.size(); i++) {
+				CookieEntry entry = (CookieEntry) entries.get(i);
+				if (entry._cookie.equals(cookie)
+						&& (candidate == null || entry._sequence < candidate._sequence))
+					candidate = entry;
+			}
+			return candidate;
+		}
+
+		/**
+		 * Removes the cookies in the list which have the same name and path as
+		 * the specified cookie, and a matching domain.
+		 */
+		private void removeReplacedCookies(List entries, Cookie cookie) {
+			if (entries == null)
+				return;
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				Cookie c = ((CookieEntry) entries.get(i))._cookie;
+				if (c.getName().equals(cookie.getName())
+						&& c.getDomain() != null && c.getDomain().length() > 0
+						&& compareDomain(c.getDomain(), cookie.getDomain())
+						&& c.getPath() != null && cookie.getPath() != null
+						&& c.getPath().equals(cookie.getPath())) {
+					remove((CookieEntry) entries.get(i));
+				}
+			}
+		}
+
+		/**
+		 * Adds the cookie and indexes it.
+		 */
+		void add(Cookie cookie) {
+			CookieEntry entry = new CookieEntry(cookie, _nextSequence++);
+			_version++;
+			_cookies.put(Long.valueOf(entry._sequence), entry);
+			List list;
+			if (cookie.getDomain() == null) {
+				list = _undomainedCookies;
+			} else {
+				list = (List) _domainIndex.get(entry._indexKey);
+				if (list == null)
+					_domainIndex.put(entry._indexKey, list = new ArrayList());
+			}
+			list.add(entry);
+		}
+
+		/**
+		 * Replaces the cookie in the entry with one which differs only in its
+		 * value, without changing its place in the jar.
+		 */
+		void replaceValue(CookieEntry entry, String value) {
+			Cookie cookie = entry._cookie;
+			CookieEntry replacement = new CookieEntry(new Cookie(cookie.getName(), value,
+					cookie.getDomain(), cookie.getPath(), cookie.getExpiredTime()), entry._sequence);
+			_version++;
+			_cookies.put(Long.valueOf(entry._sequence), replacement);
+			List list = entry._indexKey == null ? _undomainedCookies : (List) _domainIndex.get(entry._indexKey);
+			int index = list == null ? -1 : list.indexOf(entry);
+			if (index < 0) {
+				list = _expiredCookies;
+				index = list.indexOf(entry);
+			}
+			list.set(index, replacement);
+		}
+
+		void remove(CookieEntry entry) {
+			_cookies.remove(Long.valueOf(entry._sequence));
+			unindex(entry);
+		}
+
+		/**
+		 * Removes the entry from the index or, if it has expired, from the
+		 * list of expired entries.
+		 */
+		void unindex(CookieEntry entry) {
+			_version++;
+			List list = entry._indexKey == null ? _undomainedCookies : (List) _domainIndex.get(entry._indexKey);
+			if (list == null || !list.remove(entry)) {
+				_expiredCookies.remove(entry);
+			} else if (list.isEmpty() && entry._indexKey != null) {
+				_domainIndex.remove(entry._indexKey);
+			}
+		}
+	}
+
+	/**
+	 * A cookie header computed for a URL, with what it depended upon.
+	 */
+	private static class HeaderCacheEntry {
+
+		private final String _header;
+		private final Contents _contents;
+		private final long _version;
+		private final Cookie[] _cookies;
+		private final int[] _valueVersions;
+		private final boolean _pathMatchingStrict;
+		private final long _expirationTime;
+
+		HeaderCacheEntry(String header, Contents contents, List cookies,
+				boolean pathMatchingStrict, long expirationTime) {
+			_header = header;
+			_contents = contents;
+			_version = contents._version;
+			_cookies = (Cookie[]) cookies.toArray(new Cookie[cookies.size()]);
+			_valueVersions = new int[_cookies.length];
+			for (int i = 0; i < _cookies.length; i++)
+				_valueVersions[i] = _cookies[i].getValueVersion();
+			_pathMatchingStrict = pathMatchingStrict;
+			_expirationTime = expirationTime;
+		}
+
+		/**
+		 * Returns true if no cookie has been added, removed, changed or expired
+		 * since this header was computed.
+		 */
+		boolean isCurrent(Contents contents, CookieProperties properties) {
+			return _contents == contents && _version == contents._version
+					&& _pathMatchingStrict == properties.isStrictPathMatching()
+					&& (_expirationTime == Long.MAX_VALUE || _expirationTime > System.currentTimeMillis())
+					&& !isValueChanged();
+		}
+
+		/**
+		 * Returns true if the value of a cookie in this header has been set
+		 * since the header was computed.
+		 */
+		private boolean isValueChanged() {
+			for (int i = 0; i < _cookies.length; i++) {
+				if (_cookies[i].getValueVersion() != _valueVersions[i])
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A cookie held in a jar, with the order in which it was added and the
+	 * key under which it is indexed. Entries are never changed, so that they
+	 * may be shared between copies of a jar's contents.
+	 */
+	private static class CookieEntry {
+
+		private final Cookie _cookie;
+		private final long _sequence;
+		private final String _indexKey;
+
+		CookieEntry(Cookie cookie, long sequence) {
+			_cookie = cookie;
+			_sequence = sequence;
+			_indexKey = cookie.getDomain() == null ? null : getIndexKey(cookie.getDomain());
+		}
+	}
+
 	/**
 	 * base class for the cookie recipies - there are two different
 	 * implementations of this
@@ -509,7 +1183,7 @@ public class CookieJar {
 
 			if (cookie.getDomain() == null) {
 				cookie.setDomain(_sourceURL.getHost());
-			} else if (!CookieProperties.isDomainMatchingStrict()
+			} else if (!_properties.isStrictDomainMatching()
 					&& cookie.getDomain()
 							.equalsIgnoreCase(_sourceURL.getHost())) {
 				cookie.setDomain(_sourceURL.getHost());
@@ -534,7 +1208,7 @@ public class CookieJar {
 
 		private int getPathAttributeStatus(String pathAttribute,
 				String sourcePath) {
-			if (!CookieProperties.isPathMatchingStrict()
+			if (!_properties.isStrictPathMatching()
 					|| sourcePath.length() == 0
 					|| sourcePath.startsWith(pathAttribute)) {
 				return CookieListener.ACCEPTED;
@@ -566,7 +1240,7 @@ public class CookieJar {
 				return CookieListener.DOMAIN_ONE_DOT;
 			} else if (!sourceHost.endsWith(domainAttribute)) {
 				return CookieListener.DOMAIN_NOT_SOURCE_SUFFIX;
-			} else if (CookieProperties.isDomainMatchingStrict()
+			} else if (_properties.isStrictDomainMatching()
 					&& sourceHost.lastIndexOf(domainAttribute) > sourceHost
 							.indexOf('.')) {
 				return CookieListener.DOMAIN_TOO_MANY_LEVELS;
@@ -580,7 +1254,7 @@ public class CookieJar {
 
 		private boolean reportCookieRejected(int reason, String attribute,
 				String source) {
-			CookieProperties.reportCookieRejected(reason, attribute, source);
+			_properties.reportRejection(reason, attribute, source);
 			return false;
 		}
 
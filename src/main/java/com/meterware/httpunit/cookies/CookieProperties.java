@@ -1,7 +1,7 @@
 package com.meterware.httpunit.cookies;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /********************************************************************************************************************
  * $Id$
@@ -25,24 +25,45 @@ import java.util.Iterator;
  *******************************************************************************************************************/
 
 /**
- * Controls behavior for cookies.
+ * Controls behavior for cookies. Each cookie jar may be given its own properties; the static methods of this class
+ * control the defaults, which are used by every jar which has not been.
  */
 public class CookieProperties {
 
+    /** The properties used by cookie jars which have not been given their own. **/
+    private static final CookieProperties DEFAULTS = new CookieProperties();
+
     /** If true, domain matching follows the spec. If false, permits any domain which is a prefix of the host. **/
-    private static boolean _domainMatchingStrict = true;
+    private volatile boolean _strictDomainMatching = true;
 
     /** If true, path matching follows the spec. If false, permits any path. **/
-    private static boolean _pathMatchingStrict = true;
+    private volatile boolean _strictPathMatching = true;
 
     /** A collection of listeners for cookie events. **/
-    private static ArrayList _listeners;
+    private final List _listeners = new CopyOnWriteArrayList();
+
+
+    /**
+     * Creates properties which initially follow the specifications, and have no listeners.
+     * @since 1.8
+     */
+    public CookieProperties() {
+    }
+
+
+    /**
+     * Returns the properties used by cookie jars which have not been given their own.
+     * @since 1.8
+     */
+    public static CookieProperties getDefaults() {
+        return DEFAULTS;
+    }
 
 
     public static void reset() {
-        _domainMatchingStrict = true;
-        _pathMatchingStrict = true;
-        _listeners = null;
+        DEFAULTS._strictDomainMatching = true;
+        DEFAULTS._strictPathMatching = true;
+        DEFAULTS._listeners.clear();
     }
 
 
@@ -52,7 +73,7 @@ public class CookieProperties {
      * (see <a href="http://www.faqs.org/rfcs/rfc2965.html">RFC2965</a>).
      */
     public static boolean isDomainMatchingStrict() {
-        return _domainMatchingStrict;
+        return DEFAULTS.isStrictDomainMatching();
     }
 
 
@@ -60,7 +81,7 @@ public class CookieProperties {
      * Specifies whether strict domain name matching must be followed.
      */
     public static void setDomainMatchingStrict( boolean domainMatchingStrict ) {
-        _domainMatchingStrict = domainMatchingStrict;
+        DEFAULTS.setStrictDomainMatching( domainMatchingStrict );
     }
 
 
@@ -69,7 +90,7 @@ public class CookieProperties {
      * of the request path (see <a href="http://www.faqs.org/rfcs/rfc2965.html">RFC2965</a>).
      */
     public static boolean isPathMatchingStrict() {
-        return _pathMatchingStrict;
+        return DEFAULTS.isStrictPathMatching();
     }
 
 
@@ -77,7 +98,7 @@ public class CookieProperties {
      * Specifies whether strict path name matching must be followed.
      */
     public static void setPathMatchingStrict( boolean pathMatchingStrict ) {
-        _pathMatchingStrict = pathMatchingStrict;
+        DEFAULTS.setStrictPathMatching( pathMatchingStrict );
     }
 
 
@@ -85,22 +106,73 @@ public class CookieProperties {
      * Adds a listener for cookie events.
      */
     public static void addCookieListener( CookieListener listener ) {
-        if (_listeners == null) _listeners = new ArrayList();
-        synchronized( _listeners ) {
-            _listeners.add( listener );
-        }
+        DEFAULTS.addListener( listener );
     }
 
 
     public static void reportCookieRejected( int reason, String attribute, String source ) {
-        if (_listeners == null) return;
+        DEFAULTS.reportRejection( reason, attribute, source );
+    }
+
+
+    /**
+     * Returns true (the default) if jars using these properties should reject cookies which specify a domain
+     * which is not a suffix of the host domain or does not contain all of the dots in that host domain name.
+     * @since 1.8
+     */
+    public boolean isStrictDomainMatching() {
+        return _strictDomainMatching;
+    }
+
+
+    /**
+     * Specifies whether jars using these properties must follow strict domain name matching.
+     * @since 1.8
+     */
+    public void setStrictDomainMatching( boolean strictDomainMatching ) {
+        _strictDomainMatching = strictDomainMatching;
+    }
+
+
+    /**
+     * Returns true (the default) if jars using these properties should reject cookies which specify a path
+     * which is not a prefix of the request path, and send cookies only to paths which they prefix.
+     * @since 1.8
+     */
+    public boolean isStrictPathMatching() {
+        return _strictPathMatching;
+    }
+
+
+    /**
+     * Specifies whether jars using these properties must follow strict path name matching.
+     * @since 1.8
+     */
+    public void setStrictPathMatching( boolean strictPathMatching ) {
+        _strictPathMatching = strictPathMatching;
+    }
+
+
+    /**
+     * Adds a listener for cookie events in jars using these properties.
+     * @since 1.8
+     */
+    public void addListener( CookieListener listener ) {
+        _listeners.add( listener );
+    }
+
+
+    /**
+     * Removes a listener for cookie events in jars using these properties.
+     * @since 1.8
+     */
+    public void removeListener( CookieListener listener ) {
+        _listeners.remove( listener );
+    }
 
-        List listeners;
-        synchronized( _listeners ) {
-            listeners = (List) _listeners.clone();
-        }
 
-        for (Iterator i = listeners.iterator(); i.hasNext();) {
+    void reportRejection( int reason, String attribute, String source ) {
+        for (Iterator i = _listeners.iterator(); i.hasNext();) {
             ((CookieListener) i.next()).cookieRejected( source, reason, attribute );
         }
     }
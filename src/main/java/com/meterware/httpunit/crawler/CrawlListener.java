@@ -0,0 +1,54 @@
+package com.meterware.httpunit.crawler;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.WebResponse;
+
+import java.net.URL;
+
+/**
+ * Receives the results of a crawl, page by page, as they are found. The crawler keeps no record of the pages
+ * itself beyond a hash of each URL it has seen and the text of those it has yet to visit, so a listener which only
+ * counts or summarizes them lets a large site be crawled in modest memory.
+ * A listener is called from several threads at once, and so must be thread-safe.
+ * @see Crawler
+ * @since 1.8
+ **/
+public interface CrawlListener {
+
+    /**
+     * Invoked when a page has been retrieved. Its links have not yet been followed.
+     * @param url      the address of the page
+     * @param referrer the page on which the link to this page was first found, or null for a starting page
+     * @param depth    the number of links followed from a starting page to reach this one
+     **/
+    void pageRetrieved( URL url, URL referrer, int depth, WebResponse response );
+
+
+    /**
+     * Invoked when a page could not be retrieved, either because the server returned an error status or because
+     * the request failed, or when the page could not be read to find the pages to which it leads.
+     * @param url      the address of the page
+     * @param referrer the page on which the link to this page was first found, or null for a starting page
+     * @param depth    the number of links followed from a starting page to reach this one
+     **/
+    void pageFailed( URL url, URL referrer, int depth, Exception exception );
+
+}
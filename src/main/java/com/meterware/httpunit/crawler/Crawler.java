@@ -0,0 +1,383 @@
+package com.meterware.httpunit.crawler;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.ClientConfiguration;
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.HTMLElement;
+import com.meterware.httpunit.HttpException;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebLink;
+import com.meterware.httpunit.WebResponse;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Visits every page of a site which can be reached by following links from a set of starting pages, reporting each
+ * to a {@link CrawlListener} as it goes. Only links to the hosts of the starting pages are followed, and each page
+ * is visited once, however many links lead to it.
+ * <p>
+ * Pages are retrieved by a fixed number of worker threads, each with its own conversation. The crawler is polite
+ * to the site: it limits how many requests to a host may be in progress at once, and may be told to wait between
+ * requests to the same host. Links are resolved just as {@link WebLink#getRequest} resolves them, and their
+ * fragments are ignored.
+ * <p>
+ * Each page is retrieved on its own: redirections and frames are not followed by the conversation, but are
+ * reported as pages of their own, with their destinations queued at the same depth as the page which led to them.
+ * Scripts are not run, so that no request escapes the limits above.
+ * <pre>
+ *   Crawler crawler = new Crawler();
+ *   crawler.setWorkers( 8 );
+ *   crawler.setMaxDepth( 5 );
+ *   crawler.crawl( "http://localhost:8080/", new CrawlListener() {
+ *       public void pageRetrieved( URL url, URL referrer, int depth, WebResponse response ) {}
+ *       public void pageFailed( URL url, URL referrer, int depth, Exception exception ) {
+ *           System.out.println( "Broken link on " + referrer + " to " + url + ": " + exception );
+ *       }
+ *   } );
+ * </pre>
+ * @since 1.8
+ **/
+public class Crawler {
+
+    private int _workers = 4;
+
+    private int _maxRequestsPerHost = 2;
+
+    private long _hostDelay;
+
+    private int _maxDepth = Integer.MAX_VALUE;
+
+    private long _maxPages;
+
+    private WebConversation _prototype;
+
+
+    /**
+     * Specifies the number of threads which retrieve pages. The default is four.
+     **/
+    public void setWorkers( int workers ) {
+        if (workers <= 0) throw new IllegalArgumentException( "The number of workers must be positive: " + workers );
+        _workers = workers;
+    }
+
+
+    public int getWorkers() {
+        return _workers;
+    }
+
+
+    /**
+     * Specifies the largest number of requests to any one host which may be in progress at once. The default is two.
+     **/
+    public void setMaxRequestsPerHost( int maxRequestsPerHost ) {
+        if (maxRequestsPerHost <= 0) throw new IllegalArgumentException( "The requests per host must be positive: " + maxRequestsPerHost );
+        _maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+
+    public int getMaxRequestsPerHost() {
+        return _maxRequestsPerHost;
+    }
+
+
+    /**
+     * Specifies the least time, in milliseconds, between the starts of successive requests to the same host.
+     * The default is zero.
+     **/
+    public void setHostDelay( long hostDelay ) {
+        _hostDelay = Math.max( 0, hostDelay );
+    }
+
+
+    public long getHostDelay() {
+        return _hostDelay;
+    }
+
+
+    /**
+     * Specifies the largest number of links to follow from a starting page. The starting pages themselves have a
+     * depth of zero. By default, there is no limit.
+     **/
+    public void setMaxDepth( int maxDepth ) {
+        _maxDepth = Math.max( 0, maxDepth );
+    }
+
+
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+
+    /**
+     * Specifies the largest number of pages to visit, or zero, the default, for no limit.
+     **/
+    public void setMaxPages( long maxPages ) {
+        _maxPages = Math.max( 0, maxPages );
+    }
+
+
+    public long getMaxPages() {
+        return _maxPages;
+    }
+
+
+    /**
+     * Specifies a conversation from which each worker's conversation is forked, so that the crawl may begin with
+     * its cookies, credentials and configuration. It should not be used by other threads during the crawl.
+     **/
+    public void setPrototype( WebConversation prototype ) {
+        _prototype = prototype;
+    }
+
+
+    public WebConversation getPrototype() {
+        return _prototype;
+    }
+
+
+    /**
+     * Crawls the site from the specified page, returning when every reachable page has been visited.
+     * @return the number of pages visited
+     **/
+    public int crawl( String startURL, CrawlListener listener ) throws IOException, InterruptedException {
+        return crawl( new String[] { startURL }, listener );
+    }
+
+
+    /**
+     * Crawls the site from the specified pages, returning when every reachable page has been visited.
+     * @return the number of pages visited
+     * @throws IOException if the prototype conversation could not be forked
+     * @throws InterruptedException if the calling thread is interrupted, in which case the crawl is abandoned
+     * @throws RuntimeException if thrown by the listener, in which case the crawl is abandoned
+     **/
+    public int crawl( String[] startURLs, final CrawlListener listener ) throws IOException, InterruptedException {
+        final Frontier frontier = new Frontier( _maxRequestsPerHost, _hostDelay, _maxPages );
+        final Set siteHosts = new HashSet();
+        for (int i = 0; i < startURLs.length; i++) {
+            URL url = normalize( new URL( startURLs[i] ) );
+            siteHosts.add( url.getHost().toLowerCase() );
+            frontier.add( url, null, 0 );
+        }
+
+        final AtomicReference failure = new AtomicReference();
+        ExecutorService workers = Executors.newFixedThreadPool( _workers, WORKER_THREADS );
+        try {
+            for (int i = 0; i < _workers; i++) {
+                workers.execute( new Runnable() {
+                    public void run() {
+                        try {
+                            WebConversation conversation = newConversation();
+                            Frontier.Target target;
+                            while ((target = frontier.take()) != null) {
+                                try {
+                                    visit( conversation, target, frontier, siteHosts, listener );
+                                } finally {
+                                    frontier.finished( target );
+                                }
+                            }
+                        } catch (InterruptedException e) {   // the crawl has been abandoned
+                        } catch (Throwable e) {
+                            failure.compareAndSet( null, e );
+                            frontier.close();
+                        }
+                    }
+                } );
+            }
+            workers.shutdown();
+            workers.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        } finally {
+            frontier.close();
+            workers.shutdownNow();
+        }
+
+        Throwable t = (Throwable) failure.get();
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return frontier.getAcceptedCount();
+    }
+
+
+    /**
+     * Retrieves a page and queues the pages to which it leads. A failure to retrieve or read the page is reported to
+     * the listener; anything thrown by the listener itself ends the crawl.
+     **/
+    private void visit( WebConversation conversation, Frontier.Target target, Frontier frontier, Set siteHosts, CrawlListener listener )
+            throws MalformedURLException {
+        URL url = new URL( target.getURL() );
+        URL referrer = target.getReferrer() == null ? null : new URL( target.getReferrer() );
+        WebResponse response;
+        List parts = new ArrayList();
+        List links = new ArrayList();
+        try {
+            response = conversation.getResource( new GetMethodWebRequest( target.getURL() ) );
+            conversation.updateCookies( response );
+            if (conversation.getExceptionsThrownOnErrorStatus() && response.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new ErrorStatusException( response );
+            }
+            addRedirect( parts, response );
+            if (response.isHTML()) {
+                addFrames( parts, response, "frame" );
+                addFrames( parts, response, "iframe" );
+                if (target.getDepth() < _maxDepth) addLinks( links, response );
+            }
+        } catch (IOException e) {
+            listener.pageFailed( url, referrer, target.getDepth(), e );
+            return;
+        } catch (SAXException e) {
+            listener.pageFailed( url, referrer, target.getDepth(), e );
+            return;
+        } catch (RuntimeException e) {
+            listener.pageFailed( url, referrer, target.getDepth(), e );
+            return;
+        }
+        listener.pageRetrieved( url, referrer, target.getDepth(), response );
+
+        queue( frontier, siteHosts, parts, target.getURL(), target.getDepth() );
+        queue( frontier, siteHosts, links, target.getURL(), target.getDepth() + 1 );
+    }
+
+
+    private void addRedirect( List pages, WebResponse response ) {
+        int status = response.getResponseCode();
+        if (status < HttpURLConnection.HTTP_MULT_CHOICE || status >= HttpURLConnection.HTTP_BAD_REQUEST) return;
+        String location = response.getHeaderField( "Location" );
+        if (location != null) addPage( pages, response.getURL(), location );
+    }
+
+
+    private void addFrames( List pages, WebResponse response, String tagName ) throws SAXException {
+        HTMLElement[] frames = response.getElementsByTagName( tagName );
+        for (int i = 0; i < frames.length; i++) {
+            String source = frames[i].getAttribute( "src" );
+            if (source.trim().length() != 0) addPage( pages, response.getURL(), source );
+        }
+    }
+
+
+    private void addLinks( List pages, WebResponse response ) throws SAXException {
+        WebLink[] links = response.getLinks();
+        for (int i = 0; i < links.length; i++) {
+            URL url = getLinkURL( links[i] );
+            if (url != null) pages.add( url );
+        }
+    }
+
+
+    private void addPage( List pages, URL base, String location ) {
+        try {
+            pages.add( new URL( base, location.trim() ) );
+        } catch (MalformedURLException e) {
+        }
+    }
+
+
+    /**
+     * Queues those of the specified pages which are web pages on the hosts of the starting pages.
+     **/
+    private void queue( Frontier frontier, Set siteHosts, List pages, String referrer, int depth ) throws MalformedURLException {
+        for (int i = 0; i < pages.size(); i++) {
+            URL url = (URL) pages.get( i );
+            if (isWebPage( url ) && siteHosts.contains( url.getHost().toLowerCase() )) {
+                frontier.add( normalize( url ), referrer, depth );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the page to which the link leads, or null if it does not lead to a web page.
+     **/
+    private URL getLinkURL( WebLink link ) {
+        try {
+            return link.getRequest().getURL();
+        } catch (MalformedURLException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+
+    private static boolean isWebPage( URL url ) {
+        return url.getProtocol().equalsIgnoreCase( "http" ) || url.getProtocol().equalsIgnoreCase( "https" );
+    }
+
+
+    /**
+     * Returns the URL without its fragment, so that links to different parts of a page lead to the same page.
+     **/
+    private static URL normalize( URL url ) throws MalformedURLException {
+        if (url.getRef() == null) return url;
+        return new URL( url.getProtocol(), url.getHost(), url.getPort(), url.getFile() );
+    }
+
+
+    /**
+     * Creates a worker's conversation, which does not run scripts. Forking is synchronized, since it is not safe to
+     * fork a conversation from several threads at once.
+     **/
+    private synchronized WebConversation newConversation() throws IOException {
+        WebConversation conversation = _prototype == null ? new WebConversation() : _prototype.fork();
+        ClientConfiguration configuration = conversation.getConfiguration().withScriptingEnabled( false );
+        conversation.setConfiguration( configuration.withExceptionsThrownOnErrorStatus( conversation.getExceptionsThrownOnErrorStatus() ) );
+        return conversation;
+    }
+
+
+    /**
+     * Reports an error status, as the conversation would have had it retrieved the page itself.
+     **/
+    private static class ErrorStatusException extends HttpException {
+
+        ErrorStatusException( WebResponse response ) {
+            super( response.getResponseCode(), response.getResponseMessage(), response.getURL() );
+        }
+    }
+
+
+    private final static ThreadFactory WORKER_THREADS = new ThreadFactory() {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "httpunit-crawler-" + _count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    };
+
+}
@@ -0,0 +1,238 @@
+package com.meterware.httpunit.crawler;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * The URLs which a crawl has yet to visit. Each URL is accepted only once, and is queued with the others from
+ * its host. The frontier hands out URLs so that no host has more than a set number of requests in progress, and
+ * requests to a host begin no more often than a set interval allows.
+ * <p>
+ * A waiting URL is held as its text, with its depth and a reference to the text of the page on which it was found,
+ * which it shares with the other links from that page. The frontier thus needs memory in proportion to the total
+ * length of the URLs waiting to be visited, plus sixteen bytes or so for every URL it has accepted.
+ **/
+class Frontier {
+
+    private final VisitedSet _visited = new VisitedSet();
+
+    /** The queues of waiting URLs, by host. **/
+    private final Map _hosts = new LinkedHashMap();
+
+    private final int _maxRequestsPerHost;
+
+    private final long _hostDelay;
+
+    private final long _maxPages;
+
+    private int _waiting;
+
+    private int _active;
+
+    private boolean _closed;
+
+
+    /**
+     * Creates a frontier.
+     * @param maxRequestsPerHost the largest number of requests to a host which may be in progress at once
+     * @param hostDelay          the least time, in milliseconds, between the starts of requests to a host
+     * @param maxPages           the largest number of URLs to accept, or zero for no limit
+     */
+    Frontier( int maxRequestsPerHost, long hostDelay, long maxPages ) {
+        _maxRequestsPerHost = maxRequestsPerHost;
+        _hostDelay = hostDelay;
+        _maxPages = maxPages;
+    }
+
+
+    /**
+     * Queues a URL to be visited, unless it has been seen before or the page limit has been reached.
+     * @param referrer the text of the page on which the URL was found, or null for a starting page
+     * @return true if the URL was queued
+     **/
+    synchronized boolean add( URL url, String referrer, int depth ) {
+        String urlString = url.toExternalForm();
+        if (_closed || (_maxPages > 0 && _visited.size() >= _maxPages)) return false;
+        if (!_visited.add( urlString )) return false;
+
+        Host host = getHost( url );
+        host.add( new Target( urlString, referrer, depth, host ) );
+        _waiting++;
+        notifyAll();
+        return true;
+    }
+
+
+    /**
+     * Returns the next URL to visit, waiting until one may be requested. Returns null once no URLs are waiting and
+     * none are being visited, since no more can then be found, or if the frontier has been closed.
+     **/
+    synchronized Target take() throws InterruptedException {
+        while (!_closed && (_waiting > 0 || _active > 0)) {
+            long now = System.currentTimeMillis();
+            long nextStart = Long.MAX_VALUE;
+            for (Iterator i = _hosts.entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                Host host = (Host) entry.getValue();
+                if (host.isIdle()) {
+                    i.remove();
+                } else if (host.canStart( now )) {
+                    i.remove();
+                    _hosts.put( entry.getKey(), host );    // move the host to the back, so hosts take turns
+                    _waiting--;
+                    _active++;
+                    return host.start( now );
+                } else if (host.hasWaiting() && host._active < _maxRequestsPerHost) {
+                    nextStart = Math.min( nextStart, host._nextStart );
+                }
+            }
+            if (nextStart == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait( Math.max( 1, nextStart - now ) );
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Records that the visit to the specified URL is over.
+     **/
+    synchronized void finished( Target target ) {
+        target._host._active--;
+        _active--;
+        notifyAll();
+    }
+
+
+    /**
+     * Ends the crawl: no more URLs are handed out or accepted.
+     **/
+    synchronized void close() {
+        _closed = true;
+        notifyAll();
+    }
+
+
+    /**
+     * Returns the number of URLs accepted.
+     **/
+    synchronized int getAcceptedCount() {
+        return _visited.size();
+    }
+
+
+    private Host getHost( URL url ) {
+        String key = getHostKey( url );
+        Host host = (Host) _hosts.get( key );
+        if (host == null) _hosts.put( key, host = new Host() );
+        return host;
+    }
+
+
+    private static String getHostKey( URL url ) {
+        return url.getHost().toLowerCase() + ':' + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+    }
+
+
+    /**
+     * The URLs waiting to be visited on one host.
+     **/
+    private class Host {
+
+        private final LinkedList _waitingTargets = new LinkedList();
+
+        private int _active;
+
+        private long _nextStart;
+
+
+        void add( Target target ) {
+            _waitingTargets.addLast( target );
+        }
+
+
+        boolean hasWaiting() {
+            return !_waitingTargets.isEmpty();
+        }
+
+
+        boolean isIdle() {
+            return _active == 0 && _waitingTargets.isEmpty() && _nextStart <= System.currentTimeMillis();
+        }
+
+
+        boolean canStart( long now ) {
+            return hasWaiting() && _active < _maxRequestsPerHost && _nextStart <= now;
+        }
+
+
+        Target start( long now ) {
+            _active++;
+            _nextStart = now + _hostDelay;
+            return (Target) _waitingTargets.removeFirst();
+        }
+    }
+
+
+    /**
+     * A URL to be visited, with the page on which it was found.
+     **/
+    static class Target {
+
+        private final String _url;
+
+        private final String _referrer;
+
+        private final int _depth;
+
+        private final Host _host;
+
+
+        Target( String url, String referrer, int depth, Host host ) {
+            _url = url;
+            _referrer = referrer;
+            _depth = depth;
+            _host = host;
+        }
+
+
+        String getURL() {
+            return _url;
+        }
+
+
+        String getReferrer() {
+            return _referrer;
+        }
+
+
+        int getDepth() {
+            return _depth;
+        }
+    }
+
+}
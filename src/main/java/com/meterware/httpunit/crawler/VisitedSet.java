@@ -0,0 +1,92 @@
+package com.meterware.httpunit.crawler;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+/**
+ * A set of the URLs which a crawl has already seen. Rather than the URLs themselves, the set holds a 64-bit hash of
+ * each in an open-addressed table, so that it needs about sixteen bytes per URL however long the URLs are. Two
+ * different URLs will share a hash only with vanishingly small probability; if they do, the second is treated as
+ * already seen.
+ **/
+class VisitedSet {
+
+    private final static int INITIAL_CAPACITY = 1024;
+
+    /** Marks an empty slot. A URL whose hash is zero is stored as one instead. **/
+    private final static long EMPTY = 0;
+
+    private long[] _hashes = new long[ INITIAL_CAPACITY ];
+
+    private int _size;
+
+
+    /**
+     * Adds the specified URL to the set, returning true if it was not already present.
+     **/
+    synchronized boolean add( String url ) {
+        long hash = hash( url );
+        if (!insert( _hashes, hash )) return false;
+        if (++_size > _hashes.length / 2) grow();
+        return true;
+    }
+
+
+    synchronized int size() {
+        return _size;
+    }
+
+
+    private static boolean insert( long[] hashes, long hash ) {
+        int mask = hashes.length - 1;
+        int i = (int) hash & mask;
+        while (hashes[i] != EMPTY) {
+            if (hashes[i] == hash) return false;
+            i = (i + 1) & mask;
+        }
+        hashes[i] = hash;
+        return true;
+    }
+
+
+    private void grow() {
+        long[] hashes = new long[ _hashes.length * 2 ];
+        for (int i = 0; i < _hashes.length; i++) {
+            if (_hashes[i] != EMPTY) insert( hashes, _hashes[i] );
+        }
+        _hashes = hashes;
+    }
+
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the URL, with its bits mixed so that the low bits may be used as a table index.
+     **/
+    private static long hash( String url ) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt( i );
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+}
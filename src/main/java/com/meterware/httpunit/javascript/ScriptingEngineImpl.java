@@ -22,6 +22,8 @@ package com.meterware.httpunit.javascript;
 
 import org.mozilla.javascript.*;
 import com.meterware.httpunit.scripting.ScriptingEngine;
+import com.meterware.httpunit.EventRecorder;
+import com.meterware.httpunit.HttpUnitOptions;
 import com.meterware.httpunit.HttpUnitUtils;
 import com.meterware.httpunit.ScriptException;
 
@@ -96,6 +98,8 @@ public abstract class ScriptingEngineImpl extends ScriptableObject implements Sc
      */
     public String runScript( String language, String script ) {
         if (!supportsScriptLanguage( language )) return "";
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.SCRIPT );
         try {
             script = script.trim();
             if (script.startsWith( "<!--" )) {
@@ -112,6 +116,7 @@ public abstract class ScriptingEngineImpl extends ScriptableObject implements Sc
         } finally {
             discardDocumentWriteBuffer();
             Context.exit();
+            if (event != null) recorder.endEvent( event, null, script.length(), 0 );
         }
     }
 
@@ -136,6 +141,8 @@ public abstract class ScriptingEngineImpl extends ScriptableObject implements Sc
     	if (eventScript.length() == 0) { 
       	return true;
       }	else { 	
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.SCRIPT );
         try {
             Context context = Context.enter();
             context.initStandardObjects( null );
@@ -151,6 +158,7 @@ public abstract class ScriptingEngineImpl extends ScriptableObject implements Sc
             return false;
         } finally {
             Context.exit();
+            if (event != null) recorder.endEvent( event, null, eventScript.length(), 0 );
         }
       } // if
     }
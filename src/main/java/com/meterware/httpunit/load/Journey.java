@@ -0,0 +1,38 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+/**
+ * A scripted sequence of steps which a virtual user follows through a web site. A journey is run many times, from
+ * many threads at once, so any state it keeps between steps should be held in the user's conversation or in local
+ * variables rather than in the journey itself.
+ * @see LoadDriver
+ * @since 1.8
+ **/
+public interface Journey {
+
+    /**
+     * Follows the journey once, as the specified user. Each request should be made through the user's
+     * <code>getResponse</code> methods, or timed with {@link VirtualUser#recordStep}, so that it is reported.
+     * An exception or a failed assertion ends the journey and is counted as a failure.
+     **/
+    void run( VirtualUser user ) throws Exception;
+
+}
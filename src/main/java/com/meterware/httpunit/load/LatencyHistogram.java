@@ -0,0 +1,179 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies which may be recorded from many threads at once without locking. Latencies are counted
+ * in buckets whose width grows with their value, so that each recorded latency is known to within about six percent
+ * at any scale from a microsecond to many hours.
+ * @since 1.8
+ **/
+public class LatencyHistogram {
+
+    /** The number of bits of precision kept for each value. **/
+    private final static int SUB_BUCKET_BITS = 5;
+
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final static int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /** The largest latency distinguished, in microseconds; larger ones are counted as this value. **/
+    private final static long MAX_MICROS = (1L << 36) - 1;
+
+    private final AtomicLongArray _counts = new AtomicLongArray( getBucketIndex( MAX_MICROS ) + 1 );
+
+    private final AtomicLong _count = new AtomicLong();
+
+    private final AtomicLong _total = new AtomicLong();
+
+    private final AtomicLong _minimum = new AtomicLong( Long.MAX_VALUE );
+
+    private final AtomicLong _maximum = new AtomicLong();
+
+
+    /**
+     * Records a single latency, in nanoseconds.
+     **/
+    public void record( long nanos ) {
+        if (nanos < 0) nanos = 0;
+        _counts.incrementAndGet( getBucketIndex( Math.min( nanos / 1000, MAX_MICROS ) ) );
+        _total.addAndGet( nanos );
+        updateMinimum( nanos );
+        updateMaximum( nanos );
+        _count.incrementAndGet();
+    }
+
+
+    /**
+     * Returns the number of latencies recorded.
+     **/
+    public long getCount() {
+        return _count.get();
+    }
+
+
+    /**
+     * Returns the sum of the recorded latencies, in nanoseconds.
+     **/
+    public long getTotal() {
+        return _total.get();
+    }
+
+
+    /**
+     * Returns the mean of the recorded latencies, in nanoseconds, or zero if none have been recorded.
+     **/
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotal() / count;
+    }
+
+
+    /**
+     * Returns the smallest recorded latency, in nanoseconds, or zero if none have been recorded.
+     **/
+    public long getMinimum() {
+        long minimum = _minimum.get();
+        return minimum == Long.MAX_VALUE ? 0 : minimum;
+    }
+
+
+    /**
+     * Returns the largest recorded latency, in nanoseconds.
+     **/
+    public long getMaximum() {
+        return _maximum.get();
+    }
+
+
+    /**
+     * Returns the latency, in nanoseconds, at or below which the specified percentage of the recorded latencies fall.
+     * The result is the upper bound of the bucket holding that latency, but is never more than the largest latency
+     * recorded. Returns zero if no latencies have been recorded.
+     * @param percentile a value from zero to one hundred
+     **/
+    public long getValueAtPercentile( double percentile ) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException( "Percentile must be between 0 and 100: " + percentile );
+        long count = 0;
+        long[] counts = new long[ _counts.length() ];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = _counts.get( i );
+            count += counts[i];
+        }
+        if (count == 0) return 0;
+
+        long target = Math.max( 1, (long) Math.ceil( count * percentile / 100 ) );
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min( getBucketUpperBound( i ) * 1000 + 999, getMaximum() );
+        }
+        return getMaximum();
+    }
+
+
+    public String toString() {
+        return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() / 1000 + "us, p50="
+                + getValueAtPercentile( 50 ) / 1000 + "us, p99=" + getValueAtPercentile( 99 ) / 1000
+                + "us, max=" + getMaximum() / 1000 + "us]";
+    }
+
+
+    /**
+     * Returns the bucket in which the specified value is counted. Values below the sub-bucket count have a bucket
+     * each; above that, each power of two is divided into half as many buckets of equal width.
+     **/
+    private static int getBucketIndex( long value ) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros( value ) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+
+    /**
+     * Returns the largest value counted in the specified bucket.
+     **/
+    private static long getBucketUpperBound( int index ) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+        long subBucket = index % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+
+    private void updateMinimum( long nanos ) {
+        long minimum;
+        do {
+            minimum = _minimum.get();
+        } while (nanos < minimum && !_minimum.compareAndSet( minimum, nanos ));
+    }
+
+
+    private void updateMaximum( long nanos ) {
+        long maximum;
+        do {
+            maximum = _maximum.get();
+        } while (nanos > maximum && !_maximum.compareAndSet( maximum, nanos ));
+    }
+
+}
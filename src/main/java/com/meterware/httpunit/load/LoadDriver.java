@@ -0,0 +1,320 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.WebConversation;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a journey repeatedly on behalf of many simulated users at once, and reports the latency of each of its steps.
+ * The driver supports two models of load:
+ * <ul>
+ * <li>A <em>closed</em> model, in which a fixed number of users each follow the journey over and over, pausing
+ * only for the think time between steps. The load offered depends upon how quickly the site responds.</li>
+ * <li>An <em>open</em> model, in which new users arrive at a fixed rate, each following the journey once, no matter
+ * how many earlier users are still in progress.</li>
+ * </ul>
+ * In either model, the load may be ramped up: in the closed model the users start at even intervals over the
+ * ramp-up time, and in the open model the arrival rate grows steadily to its full value over that time.
+ * <pre>
+ *   LoadDriver driver = new LoadDriver();
+ *   driver.setUsers( 20 );
+ *   driver.setRampUp( 10000 );
+ *   driver.setThinkTime( 500 );
+ *   driver.setDuration( 60000 );
+ *   LoadReport report = driver.run( new Journey() {
+ *       public void run( VirtualUser user ) throws Exception {
+ *           user.getResponse( "home", "http://localhost:8080/" );
+ *           user.getResponse( "search", "http://localhost:8080/search?q=widgets" );
+ *       }
+ *   } );
+ *   System.out.println( report );
+ * </pre>
+ * Each user has its own conversation. If a prototype conversation has been set, each user's conversation is a
+ * {@link WebConversation#fork fork} of it, and so starts with its cookies, headers, credentials and settings.
+ * @since 1.8
+ **/
+public class LoadDriver {
+
+    private int _users = 1;
+
+    private double _arrivalRate;
+
+    private long _rampUp;
+
+    private long _thinkTime;
+
+    private long _duration;
+
+    private int _iterations;
+
+    private WebConversation _prototype;
+
+
+    /**
+     * Selects the closed model, with the specified number of users. This is the default model, with a single user.
+     **/
+    public void setUsers( int users ) {
+        if (users <= 0) throw new IllegalArgumentException( "The number of users must be positive: " + users );
+        _users = users;
+        _arrivalRate = 0;
+    }
+
+
+    /**
+     * Returns the number of users in the closed model.
+     **/
+    public int getUsers() {
+        return _users;
+    }
+
+
+    /**
+     * Selects the open model, in which the specified number of users arrive each second.
+     **/
+    public void setArrivalRate( double usersPerSecond ) {
+        if (usersPerSecond <= 0) throw new IllegalArgumentException( "The arrival rate must be positive: " + usersPerSecond );
+        _arrivalRate = usersPerSecond;
+    }
+
+
+    /**
+     * Returns the number of users arriving each second in the open model, or zero if the closed model is selected.
+     **/
+    public double getArrivalRate() {
+        return _arrivalRate;
+    }
+
+
+    /**
+     * Returns true if the open model is selected.
+     **/
+    public boolean isOpenModel() {
+        return _arrivalRate > 0;
+    }
+
+
+    /**
+     * Specifies the time, in milliseconds, over which the load grows to its full value.
+     **/
+    public void setRampUp( long rampUp ) {
+        _rampUp = Math.max( 0, rampUp );
+    }
+
+
+    public long getRampUp() {
+        return _rampUp;
+    }
+
+
+    /**
+     * Specifies the time, in milliseconds, for which a user pauses after each step of its journey.
+     **/
+    public void setThinkTime( long thinkTime ) {
+        _thinkTime = Math.max( 0, thinkTime );
+    }
+
+
+    public long getThinkTime() {
+        return _thinkTime;
+    }
+
+
+    /**
+     * Specifies the length of the run in milliseconds. In the closed model, no user begins a new journey once
+     * this time has passed; in the open model, no more users arrive. Journeys already under way are completed.
+     **/
+    public void setDuration( long duration ) {
+        _duration = Math.max( 0, duration );
+    }
+
+
+    public long getDuration() {
+        return _duration;
+    }
+
+
+    /**
+     * Specifies the number of journeys each user follows in the closed model. If zero, the default, users follow
+     * the journey until the duration of the run has passed.
+     **/
+    public void setIterations( int iterations ) {
+        _iterations = Math.max( 0, iterations );
+    }
+
+
+    public int getIterations() {
+        return _iterations;
+    }
+
+
+    /**
+     * Specifies a conversation from which each user's conversation is forked. It should not be used by other
+     * threads during the run.
+     **/
+    public void setPrototype( WebConversation prototype ) {
+        _prototype = prototype;
+    }
+
+
+    public WebConversation getPrototype() {
+        return _prototype;
+    }
+
+
+    /**
+     * Runs the journey under the selected model, returning when the run is complete.
+     * @throws IllegalStateException if the run has no end: neither a duration nor, in the closed model,
+     *                               a number of iterations has been set
+     * @throws InterruptedException if the calling thread is interrupted, in which case the users are interrupted too
+     **/
+    public LoadReport run( Journey journey ) throws InterruptedException {
+        if (_duration == 0 && (isOpenModel() || _iterations == 0)) {
+            throw new IllegalStateException( "A load run requires a duration" + (isOpenModel() ? "" : " or a number of iterations") );
+        }
+        LoadReport report = new LoadReport();
+        report.start();
+        try {
+            if (isOpenModel()) {
+                runOpenModel( journey, report );
+            } else {
+                runClosedModel( journey, report );
+            }
+        } finally {
+            report.finish();
+        }
+        return report;
+    }
+
+
+    private void runClosedModel( final Journey journey, final LoadReport report ) throws InterruptedException {
+        final long startTime = System.nanoTime();
+        final long endTime = startTime + TimeUnit.MILLISECONDS.toNanos( _duration );
+        Thread[] threads = new Thread[ _users ];
+        for (int i = 0; i < threads.length; i++) {
+            final int number = i;
+            final long delay = TimeUnit.MILLISECONDS.toNanos( _rampUp ) * i / _users;
+            threads[i] = USER_THREADS.newThread( new Runnable() {
+                public void run() {
+                    try {
+                        sleepUntil( startTime + delay );
+                        VirtualUser user = newUser( number, report );
+                        while (!isFinished( user, endTime )) user.follow( journey );
+                    } catch (InterruptedException e) {   // the run has been cancelled
+                    } catch (IOException e) {
+                        report.recordFailedJourney();
+                    }
+                }
+            } );
+            threads[i].start();
+        }
+
+        try {
+            for (int i = 0; i < threads.length; i++) threads[i].join();
+        } catch (InterruptedException e) {
+            for (int i = 0; i < threads.length; i++) threads[i].interrupt();
+            throw e;
+        }
+    }
+
+
+    private boolean isFinished( VirtualUser user, long endTime ) {
+        if (_iterations > 0 && user.getIteration() >= _iterations) return true;
+        return _duration > 0 && System.nanoTime() - endTime >= 0;
+    }
+
+
+    private void runOpenModel( final Journey journey, final LoadReport report ) throws InterruptedException {
+        ExecutorService users = Executors.newCachedThreadPool( USER_THREADS );
+        long startTime = System.nanoTime();
+        try {
+            for (int number = 0; ; number++) {
+                long arrivalTime = getArrivalTime( number );
+                if (arrivalTime >= TimeUnit.MILLISECONDS.toNanos( _duration )) break;
+                sleepUntil( startTime + arrivalTime );
+
+                final int userNumber = number;
+                users.execute( new Runnable() {
+                    public void run() {
+                        try {
+                            newUser( userNumber, report ).follow( journey );
+                        } catch (InterruptedException e) {   // the run has been cancelled
+                        } catch (IOException e) {
+                            report.recordFailedJourney();
+                        }
+                    }
+                } );
+            }
+            users.shutdown();
+            users.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        } finally {
+            users.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns the time, in nanoseconds from the start of the run, at which the specified user, counting from zero,
+     * arrives in the open model. While the rate ramps up, arrivals grow with the square of the time; afterwards they
+     * grow linearly.
+     **/
+    private long getArrivalTime( long arrival ) {
+        double rampUpSeconds = _rampUp / 1000.0;
+        double rampUpArrivals = _arrivalRate * rampUpSeconds / 2;
+        double seconds = arrival <= rampUpArrivals
+                ? Math.sqrt( 2 * rampUpSeconds * arrival / _arrivalRate )
+                : arrival / _arrivalRate + rampUpSeconds / 2;
+        return (long) (seconds * 1000000000L);
+    }
+
+
+    /**
+     * Creates a user. Forking is synchronized, since it is not safe to fork a conversation from several threads at once.
+     **/
+    private synchronized VirtualUser newUser( int number, LoadReport report ) throws IOException {
+        report.userStarted();
+        WebConversation conversation = _prototype == null ? new WebConversation() : _prototype.fork();
+        return new VirtualUser( number, conversation, report, _thinkTime );
+    }
+
+
+    private static void sleepUntil( long time ) throws InterruptedException {
+        long delay = time - System.nanoTime();
+        if (delay > 0) TimeUnit.NANOSECONDS.sleep( delay );
+    }
+
+
+    private final static ThreadFactory USER_THREADS = new ThreadFactory() {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "httpunit-virtual-user-" + _count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    };
+
+}
@@ -0,0 +1,222 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The results of a load run: a latency histogram and an error count for each named step of the journey, together
+ * with the latencies of the journeys as a whole. A report is filled in while the run proceeds, and may be examined
+ * from another thread before it completes.
+ * @since 1.8
+ **/
+public class LoadReport {
+
+    private final static String HEADER = pad( "\nstep", 25 ) + pad( "count", 9 ) + pad( "errors", 9 ) + pad( "mean", 10 )
+                                          + pad( "p50", 10 ) + pad( "p90", 10 ) + pad( "p99", 10 ) + pad( "max", 10 );
+
+
+    private final ConcurrentMap _histograms = new ConcurrentHashMap();
+
+    private final ConcurrentMap _errorCounts = new ConcurrentHashMap();
+
+    private final LatencyHistogram _journeys = new LatencyHistogram();
+
+    private final AtomicLong _failedJourneys = new AtomicLong();
+
+    private final AtomicLong _startedUsers = new AtomicLong();
+
+    private volatile long _startTime;
+
+    private volatile long _endTime;
+
+
+    /**
+     * Returns the names of the steps for which latencies or errors have been recorded, in alphabetical order.
+     **/
+    public String[] getStepNames() {
+        Set names = new TreeSet( _histograms.keySet() );
+        names.addAll( _errorCounts.keySet() );
+        return (String[]) names.toArray( new String[ names.size() ] );
+    }
+
+
+    /**
+     * Returns the latencies of the successful executions of the named step, or null if there have been none.
+     **/
+    public LatencyHistogram getHistogram( String step ) {
+        return (LatencyHistogram) _histograms.get( step );
+    }
+
+
+    /**
+     * Returns the number of times the named step failed with an exception.
+     **/
+    public long getErrorCount( String step ) {
+        AtomicLong count = (AtomicLong) _errorCounts.get( step );
+        return count == null ? 0 : count.get();
+    }
+
+
+    /**
+     * Returns the latencies of the journeys which completed without an exception.
+     **/
+    public LatencyHistogram getJourneyHistogram() {
+        return _journeys;
+    }
+
+
+    /**
+     * Returns the number of journeys which completed without an exception.
+     **/
+    public long getCompletedJourneyCount() {
+        return _journeys.getCount();
+    }
+
+
+    /**
+     * Returns the number of journeys which ended with an exception.
+     **/
+    public long getFailedJourneyCount() {
+        return _failedJourneys.get();
+    }
+
+
+    /**
+     * Returns the number of virtual users started during the run.
+     **/
+    public long getUserCount() {
+        return _startedUsers.get();
+    }
+
+
+    /**
+     * Returns the length of the run in milliseconds; while the run continues, the time since it started.
+     **/
+    public long getElapsedTime() {
+        if (_startTime == 0) return 0;
+        long endTime = _endTime == 0 ? System.nanoTime() : _endTime;
+        return (endTime - _startTime) / 1000000;
+    }
+
+
+    /**
+     * Returns the number of journeys completed per second.
+     **/
+    public double getThroughput() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0 : getCompletedJourneyCount() * 1000.0 / elapsed;
+    }
+
+
+    /**
+     * Returns a table of the count, errors and latency percentiles, in milliseconds, of each step.
+     **/
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append( "Load run of " ).append( getElapsedTime() ).append( "ms: " ).append( getUserCount() ).append( " users, " )
+          .append( getCompletedJourneyCount() ).append( " journeys completed, " ).append( getFailedJourneyCount() ).append( " failed" )
+          .append( HEADER );
+        String[] steps = getStepNames();
+        for (int i = 0; i < steps.length; i++) {
+            appendRow( sb, steps[i], getHistogram( steps[i] ), getErrorCount( steps[i] ) );
+        }
+        appendRow( sb, "(journey)", _journeys, getFailedJourneyCount() );
+        return sb.toString();
+    }
+
+
+    private void appendRow( StringBuffer sb, String step, LatencyHistogram histogram, long errors ) {
+        sb.append( '\n' ).append( pad( step, 24 ) );
+        if (histogram == null) histogram = new LatencyHistogram();
+        sb.append( pad( String.valueOf( histogram.getCount() ), 9 ) ).append( pad( String.valueOf( errors ), 9 ) );
+        sb.append( pad( toMillis( histogram.getMean() ), 10 ) );
+        sb.append( pad( toMillis( histogram.getValueAtPercentile( 50 ) ), 10 ) );
+        sb.append( pad( toMillis( histogram.getValueAtPercentile( 90 ) ), 10 ) );
+        sb.append( pad( toMillis( histogram.getValueAtPercentile( 99 ) ), 10 ) );
+        sb.append( pad( toMillis( histogram.getMaximum() ), 10 ) );
+    }
+
+
+    private static String toMillis( long nanos ) {
+        long hundredths = (nanos + 5000) / 10000;
+        String fraction = String.valueOf( 100 + hundredths % 100 ).substring( 1 );
+        return hundredths / 100 + "." + fraction;
+    }
+
+
+    private static String pad( String value, int width ) {
+        if (value.length() >= width) return value + ' ';
+        char[] spaces = new char[ width - value.length() ];
+        Arrays.fill( spaces, ' ' );
+        return value + new String( spaces );
+    }
+
+
+    void start() {
+        _startTime = System.nanoTime();
+    }
+
+
+    void finish() {
+        _endTime = System.nanoTime();
+    }
+
+
+    void userStarted() {
+        _startedUsers.incrementAndGet();
+    }
+
+
+    void recordStep( String step, long nanos ) {
+        LatencyHistogram histogram = getHistogram( step );
+        if (histogram == null) {
+            _histograms.putIfAbsent( step, new LatencyHistogram() );
+            histogram = getHistogram( step );
+        }
+        histogram.record( nanos );
+    }
+
+
+    void recordError( String step ) {
+        AtomicLong count = (AtomicLong) _errorCounts.get( step );
+        if (count == null) {
+            _errorCounts.putIfAbsent( step, new AtomicLong() );
+            count = (AtomicLong) _errorCounts.get( step );
+        }
+        count.incrementAndGet();
+    }
+
+
+    void recordJourney( long nanos ) {
+        _journeys.record( nanos );
+    }
+
+
+    void recordFailedJourney() {
+        _failedJourneys.incrementAndGet();
+    }
+
+}
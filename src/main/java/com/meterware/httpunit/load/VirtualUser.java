@@ -0,0 +1,157 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebRequest;
+import com.meterware.httpunit.WebResponse;
+
+import java.io.IOException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * One of the simulated users of a load run. Each user has its own conversation, and so its own cookies and
+ * windows, which it keeps for all of the journeys it follows. A user is only ever used by one thread at a time.
+ * @since 1.8
+ **/
+public class VirtualUser {
+
+    private final int _number;
+
+    private final WebConversation _conversation;
+
+    private final LoadReport _report;
+
+    private final long _thinkTime;
+
+    private int _iteration;
+
+
+    VirtualUser( int number, WebConversation conversation, LoadReport report, long thinkTime ) {
+        _number = number;
+        _conversation = conversation;
+        _report = report;
+        _thinkTime = thinkTime;
+    }
+
+
+    /**
+     * Returns the number of this user within the run, starting from zero.
+     **/
+    public int getNumber() {
+        return _number;
+    }
+
+
+    /**
+     * Returns the number of journeys this user has already followed.
+     **/
+    public int getIteration() {
+        return _iteration;
+    }
+
+
+    /**
+     * Returns the conversation through which this user makes its requests.
+     **/
+    public WebConversation getConversation() {
+        return _conversation;
+    }
+
+
+    /**
+     * Submits the request as the named step of the journey, records how long it took, and then pauses for the
+     * think time of the run.
+     **/
+    public WebResponse getResponse( String step, WebRequest request ) throws IOException, SAXException, InterruptedException {
+        long startTime = System.nanoTime();
+        WebResponse response;
+        try {
+            response = _conversation.getResponse( request );
+        } catch (IOException e) {
+            _report.recordError( step );
+            throw e;
+        } catch (SAXException e) {
+            _report.recordError( step );
+            throw e;
+        } catch (RuntimeException e) {
+            _report.recordError( step );
+            throw e;
+        }
+        recordStep( step, System.nanoTime() - startTime );
+        think();
+        return response;
+    }
+
+
+    /**
+     * Requests the specified URL as the named step of the journey, records how long it took, and then pauses
+     * for the think time of the run.
+     **/
+    public WebResponse getResponse( String step, String urlString ) throws IOException, SAXException, InterruptedException {
+        return getResponse( step, new GetMethodWebRequest( urlString ) );
+    }
+
+
+    /**
+     * Records the latency of a step which the journey has timed itself, such as following a link or submitting
+     * a form.
+     * @param nanos the latency in nanoseconds
+     **/
+    public void recordStep( String step, long nanos ) {
+        _report.recordStep( step, nanos );
+    }
+
+
+    /**
+     * Records a failure of a step which the journey has timed itself.
+     **/
+    public void recordError( String step ) {
+        _report.recordError( step );
+    }
+
+
+    /**
+     * Pauses for the think time of the run.
+     **/
+    public void think() throws InterruptedException {
+        if (_thinkTime > 0) Thread.sleep( _thinkTime );
+    }
+
+
+    void follow( Journey journey ) throws InterruptedException {
+        long startTime = System.nanoTime();
+        try {
+            journey.run( this );
+            _report.recordJourney( System.nanoTime() - startTime );
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            _report.recordFailedJourney();
+        } catch (AssertionError e) {
+            _report.recordFailedJourney();
+        } finally {
+            _iteration++;
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.meterware.httpunit.parsing;
+/********************************************************************************************************************
+ * $Id$
+ *
+ * Copyright (c) 2002-2008, Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import java.net.URL;
+import java.util.Enumeration;
+
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLErrorHandler;
+import org.apache.xerces.xni.parser.XMLParseException;
+
+/**
+ * Reports the errors and warnings found by a NekoHTML parser to the parser listeners.
+ **/
+class ErrorHandler implements XMLErrorHandler {
+
+    private URL _url = null;
+
+    ErrorHandler( URL url ) {
+        _url = url;
+    }
+
+
+    void setURL( URL url ) {
+        _url = url;
+    }
+
+    public void warning( String domain, String key, XMLParseException warningException ) throws XNIException {
+        if (HTMLParserFactory.isParserWarningsEnabled()) {
+            System.out.println( "At line " + warningException.getLineNumber() + ", column " + warningException.getColumnNumber() + ": " + warningException.getMessage() );
+        }
+
+        Enumeration listeners = HTMLParserFactory.getHTMLParserListeners().elements();
+        while (listeners.hasMoreElements()) {
+            ((HTMLParserListener) listeners.nextElement()).warning( _url, warningException.getMessage(), warningException.getLineNumber(), warningException.getColumnNumber() );
+        }
+    }
+
+
+    public void error( String domain, String key, XMLParseException errorException ) throws XNIException {
+        Enumeration listeners = HTMLParserFactory.getHTMLParserListeners().elements();
+        while (listeners.hasMoreElements()) {
+            ((HTMLParserListener) listeners.nextElement()).error( _url, errorException.getMessage(), errorException.getLineNumber(), errorException.getColumnNumber() );
+        }
+    }
+
+
+    public void fatalError( String domain, String key, XMLParseException fatalError ) throws XNIException {
+        error( domain, key, fatalError );
+        throw fatalError;
+    }
+}
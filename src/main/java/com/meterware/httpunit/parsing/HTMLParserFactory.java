@@ -19,8 +19,15 @@ package com.meterware.httpunit.parsing;
  * DEALINGS IN THE SOFTWARE.
  *
  *******************************************************************************************************************/
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
 import java.util.Vector;
 
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
 
 /**
  * Factory for creating HTML parsers. Parser customization properties can be specified but do not necessarily work
@@ -44,6 +51,9 @@ abstract public class HTMLParserFactory {
     private static boolean	  _forceUpper;
     private static boolean    _forceLower;    
 
+    /** Incremented whenever a setting changes, so that parsers configured from the old settings can be discarded. **/
+    private static volatile int _settingsVersion;
+
 
     /**
      * Resets all settings to their default values. This includes the parser selection.
@@ -56,6 +66,7 @@ abstract public class HTMLParserFactory {
         _forceUpper = false;
         _forceLower = false;
         _listeners.clear();
+        settingsChanged();
     }
 
 
@@ -65,6 +76,7 @@ abstract public class HTMLParserFactory {
     public static void useJTidyParser() {
         if (_jtidyParser == null) throw new RuntimeException( "JTidy parser not available" );
         _htmlParser = _jtidyParser;
+        settingsChanged();
     }
 
 
@@ -74,6 +86,7 @@ abstract public class HTMLParserFactory {
     public static void useNekoHTMLParser() {
         if (_nekoParser == null) throw new RuntimeException( "NekoHTML parser not available" );
         _htmlParser = _nekoParser;
+        settingsChanged();
     }
 
 
@@ -82,6 +95,7 @@ abstract public class HTMLParserFactory {
      */
     public static void setHTMLParser( HTMLParser htmlParser ) {
         _htmlParser = htmlParser;
+        settingsChanged();
     }
 
 
@@ -102,6 +116,31 @@ abstract public class HTMLParserFactory {
     }
 
 
+    /**
+     * Parses the text of a page, reporting its elements and text to the handler as they are read, without building
+     * a document. This is much cheaper than examining a page through {@link com.meterware.httpunit.WebResponse}
+     * when only a few of its elements are of interest. Elements are reported by their qualified names, in the case
+     * chosen by the name case settings; scripts on the page are not run. Parse errors are reported to any parser
+     * listeners. Requires NekoHTML, whichever parser is selected.
+     * @since 1.8
+     */
+    public static void extract( URL pageURL, String pageText, ContentHandler handler ) throws IOException, SAXException {
+        extract( pageURL, new StringReader( pageText ), handler );
+    }
+
+
+    /**
+     * Parses a page as it is read from the specified reader, reporting its elements and text to the handler as
+     * {@link #extract(URL,String,ContentHandler)} does. Only as much of the page as the parser's buffers hold is in
+     * memory at once, so the text of a large page need not be held as a whole.
+     * @since 1.8
+     */
+    public static void extract( URL pageURL, Reader pageReader, ContentHandler handler ) throws IOException, SAXException {
+        if (_nekoParser == null) throw new RuntimeException( "NekoHTML parser not available" );
+        NekoSAXParser.parse( pageURL, pageReader, handler );
+    }
+
+
     /**
      * Returns true if the current parser will preserve the case of HTML tags and attributes.
      */
@@ -125,6 +164,7 @@ abstract public class HTMLParserFactory {
         	_forceLower = false;
         	_forceUpper = false;
         }	
+        settingsChanged();
     }
 
 
@@ -151,6 +191,7 @@ abstract public class HTMLParserFactory {
          	_forceLower = false;
         	_forceUpper = false;        	
         }
+        settingsChanged();
     }
 
     /**
@@ -171,6 +212,7 @@ abstract public class HTMLParserFactory {
             _preserveTagCase = false;
             // _returnHTMLDocument = false;
         }
+        settingsChanged();
     }
 
     /**
@@ -200,6 +242,7 @@ abstract public class HTMLParserFactory {
             _preserveTagCase = false;
             // _returnHTMLDocument = false;
         }
+        settingsChanged();
     }
 
     /**
@@ -223,6 +266,7 @@ abstract public class HTMLParserFactory {
      **/
     public static void setParserWarningsEnabled( boolean enabled ) {
         _parserWarningsEnabled = enabled;
+        settingsChanged();
     }
 
 
@@ -231,6 +275,7 @@ abstract public class HTMLParserFactory {
      **/
     public static void removeHTMLParserListener( HTMLParserListener el ) {
         _listeners.removeElement( el );
+        settingsChanged();
     }
 
 
@@ -239,6 +284,7 @@ abstract public class HTMLParserFactory {
      **/
     public static void addHTMLParserListener( HTMLParserListener el ) {
         _listeners.addElement( el );
+        settingsChanged();
     }
 
 
@@ -253,6 +299,19 @@ abstract public class HTMLParserFactory {
     }
 
 
+    /**
+     * Returns a number which changes whenever any of the parser settings change.
+     **/
+    static int getSettingsVersion() {
+        return _settingsVersion;
+    }
+
+
+    private static void settingsChanged() {
+        _settingsVersion++;
+    }
+
+
     private static HTMLParser loadParserIfSupported( final String testClassName, final String parserClassName ) {
         try {
             Class.forName( testClassName );
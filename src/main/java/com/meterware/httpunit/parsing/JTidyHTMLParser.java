@@ -23,6 +23,7 @@ import org.w3c.tidy.Tidy;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Node;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.html.HTMLDocument;
 import org.xml.sax.SAXException;
 
@@ -30,6 +31,8 @@ import java.net.URL;
 import java.io.IOException;
 import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.meterware.httpunit.dom.HTMLDocumentImpl;
 
@@ -50,6 +53,10 @@ class JTidyHTMLParser implements HTMLParser {
                 Node importedNode = nl.item(i);
                 if (importedNode.getNodeType() != Node.DOCUMENT_TYPE_NODE) htmlDocument.appendChild( htmlDocument.importNode( importedNode, true ) );
             }
+            if (adapter instanceof TagRecorder) {
+                ((TagRecorder) adapter).startRecording();
+                recordTags( htmlDocument, (TagRecorder) adapter );
+            }
             adapter.setDocument( htmlDocument );
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException( "UTF-8 encoding failed" );
@@ -57,6 +64,27 @@ class JTidyHTMLParser implements HTMLParser {
     }
 
 
+    /**
+     * Reports the tags which affect how the page is interpreted to the document adapter, in document order.
+     */
+    private void recordTags( Node node, TagRecorder recorder ) {
+        String name = node.getNodeType() == Node.ELEMENT_NODE ? node.getNodeName() : null;
+        if (name != null && NekoDOMParser.isRecordedTag( name )) recorder.recordTag( name.toLowerCase(), getAttributes( node ) );
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) recordTags( child, recorder );
+        if ("noscript".equalsIgnoreCase( name )) recorder.recordTag( "/noscript", new HashMap() );
+    }
+
+
+    private Map getAttributes( Node node ) {
+        Map map = new HashMap();
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            map.put( attributes.item( i ).getNodeName().toLowerCase(), attributes.item( i ).getNodeValue() );
+        }
+        return map;
+    }
+
+
     public String getCleanedText( String string ) {
         return (string == null) ? "" : string.replace( NBSP, ' ' );
     }
@@ -85,22 +113,55 @@ class JTidyHTMLParser implements HTMLParser {
     final private static String UTF_ENCODING = "UTF-8";
 
 
+    /** The parser last used by each thread. **/
+    final private static ThreadLocal THREAD_PARSER = new ThreadLocal();
+
+
     /**
-     * get the parser of the given url
+     * get the parser of the given url. Each thread reuses its parser until the parser factory settings change.
      * @param url
      * @return the parser
      */
     private static Tidy getParser( URL url ) {
-        Tidy tidy = new Tidy();
-        // BR 2880636 httpunit 1.7 does not work with latest Tidy release  r918
-        // tidy.setCharEncoding( org.w3c.tidy.Configuration.UTF8 );
-        tidy.setInputEncoding("UTF8");
-        tidy.setQuiet( true );
-        tidy.setShowWarnings( HTMLParserFactory.isParserWarningsEnabled() );
-        if (!HTMLParserFactory.getHTMLParserListeners().isEmpty()) {
-            tidy.setErrout( new JTidyPrintWriter( url ) );
+        ThreadParser parser = (ThreadParser) THREAD_PARSER.get();
+        if (parser == null || parser._settingsVersion != HTMLParserFactory.getSettingsVersion()) {
+            parser = new ThreadParser();
+            THREAD_PARSER.set( parser );
+        }
+        if (parser._errorWriter != null) parser._errorWriter.setURL( url );
+        return parser._tidy;
+    }
+
+
+    /**
+     * A parser configured from the parser factory settings, with the writer to which it reports errors, if any.
+     */
+    private static class ThreadParser {
+
+        private final int _settingsVersion = HTMLParserFactory.getSettingsVersion();
+
+        private final Tidy _tidy;
+
+        private JTidyPrintWriter _errorWriter;
+
+        ThreadParser() {
+            _tidy = newParser();
+        }
+
+
+        private Tidy newParser() {
+            Tidy tidy = new Tidy();
+            // BR 2880636 httpunit 1.7 does not work with latest Tidy release  r918
+            // tidy.setCharEncoding( org.w3c.tidy.Configuration.UTF8 );
+            tidy.setInputEncoding("UTF8");
+            tidy.setQuiet( true );
+            tidy.setShowWarnings( HTMLParserFactory.isParserWarningsEnabled() );
+            if (!HTMLParserFactory.getHTMLParserListeners().isEmpty()) {
+                _errorWriter = new JTidyPrintWriter( null );
+                tidy.setErrout( _errorWriter );
+            }
+            return tidy;
         }
-        return tidy;
     }
 
 }
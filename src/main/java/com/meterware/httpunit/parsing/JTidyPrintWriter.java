@@ -48,6 +48,14 @@ class JTidyPrintWriter extends PrintWriter {
         _url = pageURL;
     }
 
+
+    /**
+     * Specifies the page whose errors are being reported, so that a parser may be reused for several pages.
+     */
+    void setURL( URL pageURL ) {
+        _url = pageURL;
+    }
+
     public void print(boolean b) {
         print(String.valueOf(b));
     }
@@ -24,13 +24,15 @@ import com.meterware.httpunit.dom.HTMLDocumentImpl;
 
 import java.net.URL;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.cyberneko.html.HTMLConfiguration;
 import org.apache.xerces.xni.parser.XMLDocumentFilter;
-import org.apache.xerces.xni.parser.XMLErrorHandler;
-import org.apache.xerces.xni.parser.XMLParseException;
 import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.Augmentations;
+import org.apache.xerces.xni.QName;
+import org.apache.xerces.xni.XMLAttributes;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.w3c.dom.Element;
@@ -61,8 +63,57 @@ class NekoDOMParser extends org.apache.xerces.parsers.DOMParser implements Scrip
     /** Attribute case settings. possible values: "upper", "lower", "no-change" */
     private static final String ATTRIBUTE_NAME_CASE = "http://cyberneko.org/html/properties/names/attrs";
 
+    /** A parser which has finished its document, kept for reuse by the thread which last used it. **/
+    private static final ThreadLocal IDLE_PARSER = new ThreadLocal();
+
     private DocumentAdapter _documentAdapter;
 
+    /** The parser factory settings version from which this parser was configured. **/
+    private int _settingsVersion;
+
+    /** The handler which reports parse errors, or null if they are not being reported. **/
+    private ErrorHandler _errorHandler;
+
+
+    /**
+     * Returns a parser for the specified page. The thread's idle parser is reused if its configuration is still
+     * current, since building a parser is costly; otherwise a new one is built. The parser should be handed back
+     * by {@link #release} once its document has been retrieved.
+     */
+    static NekoDOMParser getParser( DocumentAdapter adapter, URL url ) {
+        NekoDOMParser parser = (NekoDOMParser) IDLE_PARSER.get();
+        if (parser == null || parser._settingsVersion != HTMLParserFactory.getSettingsVersion()) return newParser( adapter, url );
+
+        IDLE_PARSER.set( null );   // a script on the page may cause another page to be parsed by this thread
+        parser._documentAdapter = adapter;
+        if (parser._errorHandler != null) parser._errorHandler.setURL( url );
+        return parser;
+    }
+
+
+    /**
+     * Makes this parser available for reuse by the current thread, dropping its references to the last document.
+     */
+    void release() {
+        _documentAdapter = null;
+        if (_errorHandler != null) _errorHandler.setURL( null );
+        dropDocumentReferences();
+        if (_settingsVersion == HTMLParserFactory.getSettingsVersion()) IDLE_PARSER.set( this );
+    }
+
+
+    /**
+     * Clears the references which the underlying parser keeps to the last document, so that an idle parser does
+     * not hold a page in memory. The parser sets them afresh when it next parses a document.
+     */
+    private void dropDocumentReferences() {
+        fDocument = null;
+        fDocumentImpl = null;
+        fDeferredDocumentImpl = null;
+        fDocumentType = null;
+        fCurrentNode = null;
+    }
+
 
     /**
      * construct a new NekoDomParser with the given adapter and url
@@ -73,14 +124,49 @@ class NekoDOMParser extends org.apache.xerces.parsers.DOMParser implements Scrip
      * patch [ 1176688 ] Allow configuration of neko parser properties by James Abley
      */
     static NekoDOMParser newParser( DocumentAdapter adapter, URL url ) {
+        final int settingsVersion = HTMLParserFactory.getSettingsVersion();
         final HTMLConfiguration configuration = new HTMLConfiguration();
-        if (!HTMLParserFactory.getHTMLParserListeners().isEmpty() || HTMLParserFactory.isParserWarningsEnabled()) {
-            configuration.setErrorHandler( new ErrorHandler( url ) );
-            configuration.setFeature( REPORT_ERRORS, true);
-        }
+        ErrorHandler errorHandler = configureErrorReporting( configuration, url );
         configuration.setFeature( AUGMENTATIONS, true );
         final ScriptFilter javaScriptFilter = new ScriptFilter( configuration );
         configuration.setProperty( FILTERS, new XMLDocumentFilter[] { javaScriptFilter } );
+        configureNameCase( configuration );
+
+        try {
+            final NekoDOMParser domParser = new NekoDOMParser( configuration, adapter );
+            domParser.setFeature( DEFER_NODE_EXPANSION, false );
+            if (HTMLParserFactory.isReturnHTMLDocument()) domParser.setProperty( DOCUMENT_CLASS_NAME, HTMLDocumentImpl.class.getName() );
+            javaScriptFilter.setScriptHandler( domParser );
+            domParser._settingsVersion = settingsVersion;
+            domParser._errorHandler = errorHandler;
+            return domParser;
+        } catch (SAXNotRecognizedException e) {
+            throw new RuntimeException( e.toString() );
+        } catch (SAXNotSupportedException e) {
+            throw new RuntimeException( e.toString() );
+        }
+
+    }
+
+
+    /**
+     * Installs a handler to report parse errors to the parser listeners, if there are any or warnings are enabled.
+     * @return the handler installed, or null if errors are not to be reported
+     */
+    static ErrorHandler configureErrorReporting( HTMLConfiguration configuration, URL url ) {
+        if (HTMLParserFactory.getHTMLParserListeners().isEmpty() && !HTMLParserFactory.isParserWarningsEnabled()) return null;
+
+        ErrorHandler errorHandler = new ErrorHandler( url );
+        configuration.setErrorHandler( errorHandler );
+        configuration.setFeature( REPORT_ERRORS, true);
+        return errorHandler;
+    }
+
+
+    /**
+     * Sets the case of element and attribute names according to the parser factory settings.
+     */
+    static void configureNameCase( HTMLConfiguration configuration ) {
         if (HTMLParserFactory.isPreserveTagCase()) {
           configuration.setProperty( TAG_NAME_CASE, "match" );
           configuration.setProperty( ATTRIBUTE_NAME_CASE, "no-change" );
@@ -97,20 +183,7 @@ class NekoDOMParser extends org.apache.xerces.parsers.DOMParser implements Scrip
         		configuration.setProperty(TAG_NAME_CASE, "lower");
         		configuration.setProperty(ATTRIBUTE_NAME_CASE, "lower");
         	}
-        }	
-
-        try {
-            final NekoDOMParser domParser = new NekoDOMParser( configuration, adapter );
-            domParser.setFeature( DEFER_NODE_EXPANSION, false );
-            if (HTMLParserFactory.isReturnHTMLDocument()) domParser.setProperty( DOCUMENT_CLASS_NAME, HTMLDocumentImpl.class.getName() );
-            javaScriptFilter.setScriptHandler( domParser );
-            return domParser;
-        } catch (SAXNotRecognizedException e) {
-            throw new RuntimeException( e.toString() );
-        } catch (SAXNotSupportedException e) {
-            throw new RuntimeException( e.toString() );
         }
-
     }
 
 
@@ -132,6 +205,40 @@ class NekoDOMParser extends org.apache.xerces.parsers.DOMParser implements Scrip
     }
 
 
+    /**
+     * Reports the tags which affect how the page is interpreted to the document adapter as they are read, if it
+     * records them, so that the page need not be scanned for them separately.
+     */
+    public void startElement( QName element, XMLAttributes attributes, Augmentations augs ) throws XNIException {
+        if (_documentAdapter instanceof TagRecorder && isRecordedTag( element.rawname )) {
+            ((TagRecorder) _documentAdapter).recordTag( element.rawname.toLowerCase(), toMap( attributes ) );
+        }
+        super.startElement( element, attributes, augs );
+    }
+
+
+    public void endElement( QName element, Augmentations augs ) throws XNIException {
+        super.endElement( element, augs );
+        if (_documentAdapter instanceof TagRecorder && element.rawname.equalsIgnoreCase( "noscript" )) {
+            ((TagRecorder) _documentAdapter).recordTag( "/noscript", new HashMap() );
+        }
+    }
+
+
+    static boolean isRecordedTag( String name ) {
+        return name.equalsIgnoreCase( "base" ) || name.equalsIgnoreCase( "meta" ) || name.equalsIgnoreCase( "noscript" );
+    }
+
+
+    private static Map toMap( XMLAttributes attributes ) {
+        Map map = new HashMap();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            map.put( attributes.getQName( i ).toLowerCase(), attributes.getValue( i ) );
+        }
+        return map;
+    }
+
+
     public String getIncludedScript( String srcAttribute ) {
         try {
             return _documentAdapter.getIncludedScript( srcAttribute );
@@ -171,37 +278,3 @@ class NekoDOMParser extends org.apache.xerces.parsers.DOMParser implements Scrip
     }
 }
 
-
-class ErrorHandler implements XMLErrorHandler {
-
-    private URL _url = null;
-
-    ErrorHandler( URL url ) {
-        _url = url;
-    }
-
-    public void warning( String domain, String key, XMLParseException warningException ) throws XNIException {
-        if (HTMLParserFactory.isParserWarningsEnabled()) {
-            System.out.println( "At line " + warningException.getLineNumber() + ", column " + warningException.getColumnNumber() + ": " + warningException.getMessage() );
-        }
-
-        Enumeration listeners = HTMLParserFactory.getHTMLParserListeners().elements();
-        while (listeners.hasMoreElements()) {
-            ((HTMLParserListener) listeners.nextElement()).warning( _url, warningException.getMessage(), warningException.getLineNumber(), warningException.getColumnNumber() );
-        }
-    }
-
-
-    public void error( String domain, String key, XMLParseException errorException ) throws XNIException {
-        Enumeration listeners = HTMLParserFactory.getHTMLParserListeners().elements();
-        while (listeners.hasMoreElements()) {
-            ((HTMLParserListener) listeners.nextElement()).error( _url, errorException.getMessage(), errorException.getLineNumber(), errorException.getColumnNumber() );
-        }
-    }
-
-
-    public void fatalError( String domain, String key, XMLParseException fatalError ) throws XNIException {
-        error( domain, key, fatalError );
-        throw fatalError;
-    }
-}
\ No newline at end of file
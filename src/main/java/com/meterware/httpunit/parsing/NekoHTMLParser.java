@@ -44,9 +44,11 @@ class NekoHTMLParser implements HTMLParser {
 	 */
   public void parse( URL pageURL, String pageText, DocumentAdapter adapter ) throws IOException, SAXException {
       try {
-          NekoDOMParser parser = NekoDOMParser.newParser( adapter, pageURL );
+          NekoDOMParser parser = NekoDOMParser.getParser( adapter, pageURL );
+          if (adapter instanceof TagRecorder) ((TagRecorder) adapter).startRecording();
           parser.parse( new InputSource( new StringReader( pageText ) ) );
           Document doc=parser.getDocument();
+          parser.release();
          	adapter.setDocument( (HTMLDocument)doc );
       } catch (NekoDOMParser.ScriptException e) {
            throw e.getException();
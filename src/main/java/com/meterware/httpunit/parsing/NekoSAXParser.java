@@ -0,0 +1,81 @@
+package com.meterware.httpunit.parsing;
+/********************************************************************************************************************
+* $Id$
+*
+* Copyright (c) 2013, Russell Gold
+*
+* Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+* documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+* the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+* to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+*
+* The above copyright notice and this permission notice shall be included in all copies or substantial portions
+* of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+* THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+* CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+* DEALINGS IN THE SOFTWARE.
+*
+*******************************************************************************************************************/
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+
+import org.apache.xerces.parsers.AbstractSAXParser;
+import org.cyberneko.html.HTMLConfiguration;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A NekoHTML parser which reports the contents of a page as SAX events rather than building a document.
+ * It shares the name case and error reporting settings of {@link NekoDOMParser}, but does not run scripts.
+ **/
+class NekoSAXParser extends AbstractSAXParser {
+
+    /** A parser which has finished its page, kept for reuse by the thread which last used it. **/
+    private static final ThreadLocal IDLE_PARSER = new ThreadLocal();
+
+    /** The parser factory settings version from which this parser was configured. **/
+    private final int _settingsVersion;
+
+    /** The handler which reports parse errors, or null if they are not being reported. **/
+    private final ErrorHandler _errorHandler;
+
+
+    /**
+     * Parses the page as it is read, reporting its contents to the specified handler. The thread's idle parser is
+     * reused if its configuration is still current.
+     */
+    static void parse( URL pageURL, Reader pageReader, ContentHandler handler ) throws IOException, SAXException {
+        NekoSAXParser parser = (NekoSAXParser) IDLE_PARSER.get();
+        if (parser == null || parser._settingsVersion != HTMLParserFactory.getSettingsVersion()) {
+            parser = new NekoSAXParser( pageURL );
+        } else {
+            IDLE_PARSER.set( null );   // the handler may itself parse another page
+            if (parser._errorHandler != null) parser._errorHandler.setURL( pageURL );
+        }
+
+        parser.setContentHandler( handler );
+        parser.parse( new InputSource( pageReader ) );
+        parser.setContentHandler( null );
+        if (parser._errorHandler != null) parser._errorHandler.setURL( null );
+        if (parser._settingsVersion == HTMLParserFactory.getSettingsVersion()) IDLE_PARSER.set( parser );
+    }
+
+
+    private NekoSAXParser( URL pageURL ) {
+        this( HTMLParserFactory.getSettingsVersion(), new HTMLConfiguration(), pageURL );
+    }
+
+
+    private NekoSAXParser( int settingsVersion, HTMLConfiguration configuration, URL pageURL ) {
+        super( configuration );
+        _settingsVersion = settingsVersion;
+        _errorHandler = NekoDOMParser.configureErrorReporting( configuration, pageURL );
+        NekoDOMParser.configureNameCase( configuration );
+    }
+
+}
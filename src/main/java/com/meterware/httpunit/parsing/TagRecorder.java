@@ -0,0 +1,49 @@
+package com.meterware.httpunit.parsing;
+/********************************************************************************************************************
+ * $Id$
+ *
+ * Copyright (c) 2013, Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import java.util.Map;
+
+
+/**
+ * An optional extension of {@link DocumentAdapter} for adapters which are told of the tags that affect how a page
+ * is interpreted, as the parser reads them. A parser checks whether its adapter implements this interface; one
+ * which does not report tags needs no changes, and the page is then scanned for the tags once it has been parsed.
+ *
+ * @since 1.8
+ **/
+public interface TagRecorder {
+
+
+    /**
+     * Invoked by a parser before it reads a page, to declare that it will report the tags of the page as it reads
+     * them. If this is not invoked, the tags are found by scanning the page separately.
+     */
+    public void startRecording();
+
+
+    /**
+     * Records a tag which affects how the page is interpreted, as it is read. A parser reports the start of each
+     * base, meta and noscript tag, and the end of each noscript region as a tag named "/noscript".
+     * @param name       the tag name in lower case
+     * @param attributes the attribute values of the tag, keyed by attribute name in lower case
+     */
+    public void recordTag( String name, Map attributes );
+}
@@ -70,10 +70,16 @@ class InvocationContextImpl implements InvocationContext {
      * Invokes the current servlet or filter.
      */
     public void service() throws ServletException, IOException {
-        if (isFilterActive()) {
-            getFilter().doFilter( getRequest(), getResponse(), getFilterChain() );
-        } else {
-            getServlet().service( getRequest(), getResponse() );
+        EventRecorder recorder = HttpUnitOptions.getEventRecorder();
+        Object event = recorder == null ? null : recorder.beginEvent( EventRecorder.SERVLET_INVOCATION );
+        try {
+            if (isFilterActive()) {
+                getFilter().doFilter( getRequest(), getResponse(), getFilterChain() );
+            } else {
+                getServlet().service( getRequest(), getResponse() );
+            }
+        } finally {
+            if (event != null) recorder.endEvent( event, _effectiveURL.toExternalForm(), getRequest().getContentLength(), 0 );
         }
     }
 
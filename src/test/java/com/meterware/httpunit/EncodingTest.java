@@ -228,6 +228,27 @@ public class EncodingTest extends HttpUnitTest {
     }
 
 
+    /**
+     * Verifies that, as in browsers, only the start of a page is searched for a meta tag declaring its character set.
+     */
+    @Test
+    public void testMetaEncodingBeyondPrescanIgnored() throws Exception {
+        StringBuffer padding = new StringBuffer();
+        for (int i = 0; i < 64; i++) padding.append("<!-- padding which pushes the meta tag past the prescan -->\n");
+        String page = "<html><head><title>Sample</title>" + padding +
+                "<meta Http_equiv=content-type content=\"text/html; charset=iso-8859-8\"></head>\n" +
+                "<body>This has no data\n" +
+                "</body></html>\n";
+        defineResource("SimplePage.html", page);
+        setResourceCharSet("SimplePage.html", "iso-8859-8", false);
+
+        WebConversation wc = new WebConversation();
+        WebResponse simplePage = wc.getResponse(getHostPath() + "/SimplePage.html");
+
+        assertEquals("Character set", "iso-8859-1", simplePage.getCharacterSet());
+    }
+
+
     @Test
     public void testUnsupportedEncoding() throws Exception {
         defineResource("SimplePage.html", "not much here");
@@ -0,0 +1,131 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.servletunit.ServletRunner;
+import com.meterware.servletunit.ServletUnitClient;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the reporting of events to an event recorder.
+ */
+public class EventRecorderTest extends HttpUnitTest {
+
+    private static final String[] EVENT_NAMES = {"exchange", "parse", "elements", "script", "servlet"};
+
+    private final List _events = new ArrayList();
+
+
+    @After
+    public void tearDown() throws Exception {
+        HttpUnitOptions.setEventRecorder(null);
+    }
+
+
+    @Test
+    public void testPageEvents() throws Exception {
+        defineResource("page.html", "<html><head><script>function greet() { alert('hi'); }</script></head>" +
+                                    "<body onload='greet()'><a href='next.html'>next</a><form><input name='a'></form></body></html>");
+        HttpUnitOptions.setEventRecorder(new TestRecorder());
+        WebConversation wc = new WebConversation();
+        WebResponse response = wc.getResponse(getHostPath() + "/page.html");
+        assertEquals("links", 1, response.getLinks().length);
+
+        assertTrue("No exchange recorded: " + _events, _events.contains("exchange " + getHostPath() + "/page.html"));
+        assertTrue("No parse recorded: " + _events, _events.contains("parse " + getHostPath() + "/page.html"));
+        assertTrue("No element load recorded: " + _events, _events.contains("elements " + getHostPath() + "/page.html"));
+        assertTrue("No script recorded: " + _events, _events.contains("script null"));
+    }
+
+
+    @Test
+    public void testFailedExchangeRecorded() throws Exception {
+        HttpUnitOptions.setEventRecorder(new TestRecorder());
+        try {
+            new WebConversation().getResponse(getHostPath() + "/missing.html");
+            fail("Should have reported missing page");
+        } catch (HttpNotFoundException e) {
+        }
+        assertTrue("No exchange recorded: " + _events, _events.contains("exchange " + getHostPath() + "/missing.html"));
+    }
+
+
+    @Test
+    public void testServletEvents() throws Exception {
+        ServletRunner sr = new ServletRunner();
+        sr.registerServlet("Hello", HelloServlet.class.getName());
+        HttpUnitOptions.setEventRecorder(new TestRecorder());
+        ServletUnitClient client = sr.newClient();
+        assertEquals("hello", client.getResponse("http://localhost/Hello").getText());
+        assertTrue("No servlet invocation recorded: " + _events, _events.contains("servlet http://localhost/Hello"));
+    }
+
+
+    @Test
+    public void testNoEventsWhenNotRequested() throws Exception {
+        defineResource("page.html", "<html><body><a href='next.html'>next</a></body></html>");
+        HttpUnitOptions.setEventRecorder(new EventRecorder() {
+            public Object beginEvent(int eventType) { return null; }
+            public void endEvent(Object event, String url, long size, int elementCount) { fail("Should not end an event not begun"); }
+        });
+        assertEquals("links", 1, new WebConversation().getResponse(getHostPath() + "/page.html").getLinks().length);
+    }
+
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        if (!FlightRecorderEventRecorder.isAvailable()) return;
+        defineResource("page.html", "<html><body onload='document.title=1'><a href='next.html'>next</a></body></html>");
+        HttpUnitOptions.setEventRecorder(new FlightRecorderEventRecorder());
+        assertEquals("links", 1, new WebConversation().getResponse(getHostPath() + "/page.html").getLinks().length);
+    }
+
+
+    private class TestRecorder implements EventRecorder {
+        public Object beginEvent(int eventType) {
+            return EVENT_NAMES[eventType];
+        }
+
+        public void endEvent(Object event, String url, long size, int elementCount) {
+            _events.add(event + " " + url);
+        }
+    }
+
+
+    public static class HelloServlet extends HttpServlet {
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.setContentType("text/plain");
+            resp.getWriter().print("hello");
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the recording of conversations in HAR format.
+ */
+public class HarRecorderTest extends HttpUnitTest {
+
+    @Test
+    public void testRedirectAndCookies() throws Exception {
+        defineResource("start", "moved", HttpURLConnection.HTTP_MOVED_TEMP);
+        addResourceHeader("start", "Location: " + getHostPath() + "/target.html?a=1&b=x%20y");
+        addResourceHeader("start", "Set-Cookie: session=abc; path=/; HttpOnly");
+        defineResource("target.html", "<html><body>Arrived</body></html>");
+
+        StringWriter writer = new StringWriter();
+        HarRecorder recorder = new HarRecorder(writer);
+        WebConversation wc = new WebConversation();
+        wc.addClientListener(recorder);
+        wc.getResponse(getHostPath() + "/start");
+        assertEquals("entries", 2, recorder.getNumEntries());
+        recorder.close();
+
+        String har = writer.toString();
+        assertTrue("Not HAR 1.2: " + har, har.startsWith("{\"log\":{\"version\":\"1.2\""));
+        assertTrue("Not terminated: " + har, har.trim().endsWith("]}}"));
+        assertTrue("Missing redirect: " + har, har.indexOf("\"status\":302") > 0);
+        assertTrue("Missing redirect URL: " + har, har.indexOf("\"redirectURL\":\"" + getHostPath() + "/target.html?a=1&b=x%20y\"") > 0);
+        assertTrue("Missing query string: " + har, har.indexOf("\"queryString\":[{\"name\":\"a\",\"value\":\"1\"},{\"name\":\"b\",\"value\":\"x y\"}]") > 0);
+        assertTrue("Missing response cookie: " + har, har.indexOf("{\"name\":\"session\",\"value\":\"abc\",\"path\":\"/\",\"httpOnly\":true}") > 0);
+        assertTrue("Missing request cookie: " + har, har.indexOf("\"cookies\":[{\"name\":\"session\",\"value\":\"abc\"}]") > 0);
+        assertTrue("Missing content size: " + har, har.indexOf("\"content\":{\"size\":33,\"mimeType\":\"text/html\"}") > 0);
+        assertTrue("Missing timings: " + har, har.indexOf("\"timings\":{\"blocked\":-1,\"dns\":-1,\"connect\":") > 0);
+    }
+
+
+    @Test
+    public void testEmptySetCookieHeader() throws Exception {
+        defineResource("page.txt", "page", "text/plain");
+        addResourceHeader("page.txt", "Set-Cookie: ;");
+        addResourceHeader("page.txt", "Set-Cookie: session=abc");
+
+        StringWriter writer = new StringWriter();
+        HarRecorder recorder = new HarRecorder(writer);
+        WebConversation wc = new WebConversation();
+        wc.addClientListener(recorder);
+        wc.getResponse(getHostPath() + "/page.txt");
+        recorder.close();
+
+        String har = writer.toString();
+        assertTrue("Missing response cookie: " + har, har.indexOf("\"cookies\":[{\"name\":\"session\",\"value\":\"abc\"}]") > 0);
+        assertTrue("Empty cookie entry: " + har, har.indexOf("[,") < 0);
+    }
+
+
+    @Test
+    public void testFormSubmissionToFile() throws Exception {
+        defineResource("form.html", "<html><body><form method='POST' action='submit'><input name='name' value='kim'></form></body></html>");
+        defineResource("submit", new PseudoServlet() {
+            public WebResource getPostResponse() {
+                return new WebResource("done", "text/plain");
+            }
+        });
+
+        File file = File.createTempFile("httpunit", ".har");
+        file.deleteOnExit();
+        HarRecorder recorder = new HarRecorder(file);
+        WebConversation wc = new WebConversation();
+        wc.addClientListener(recorder);
+        wc.getResponse(getHostPath() + "/form.html").getForms()[0].submit();
+        recorder.close();
+
+        String har = readFile(file);
+        assertTrue("Missing form entry: " + har, har.indexOf("\"url\":\"" + getHostPath() + "/form.html\"") > 0);
+        assertTrue("Missing post data: " + har, har.indexOf("\"postData\":{\"mimeType\":\"application/x-www-form-urlencoded\",\"text\":\"name=kim\"}") > 0);
+        assertTrue("Missing response: " + har, har.indexOf("\"content\":{\"size\":4,\"mimeType\":\"text/plain\"}") > 0);
+    }
+
+
+    /**
+     * Verifies that each response is recorded with its own request when the frames of a page are requested together.
+     */
+    @Test
+    public void testConcurrentFrames() throws Exception {
+        defineResource("one.html", "<html><head><title>one</title></head></html>");
+        defineResource("two.html", "<html><head><title>two</title></head></html>");
+        defineResource("three.html", "<html><head><title>three</title></head></html>");
+        defineResource("Frames.html",
+                "<html><frameset cols='30%,30%,40%'><frame src='one.html' name='one'>" +
+                        "<frame src='two.html' name='two'><frame src='three.html' name='three'></frameset></html>");
+
+        final StringBuffer entries = new StringBuffer();
+        HarRecorder recorder = new HarRecorder(new StringWriter()) {
+            synchronized void writeEntry(WebRequest request, WebResponse response) {
+                try {
+                    entries.append(request == null ? "none" : request.getURL().getPath().substring(1));
+                } catch (MalformedURLException e) {
+                    entries.append(e);
+                }
+                entries.append('>').append(response.getURL().getPath().substring(1)).append(' ');
+                super.writeEntry(request, response);
+            }
+        };
+        WebConversation wc = new WebConversation();
+        wc.getClientProperties().setMaxConcurrentFrameRequests(3);
+        wc.addClientListener(recorder);
+        wc.getResponse(getHostPath() + "/Frames.html");
+        recorder.close();
+
+        assertEquals("entries", 4, recorder.getNumEntries());
+        assertEquals("requests and responses",
+                "Frames.html>Frames.html one.html>one.html two.html>two.html three.html>three.html ", entries.toString());
+    }
+
+
+    @Test
+    public void testWriteFailureReported() throws Exception {
+        defineResource("page.html", "<html><body>Hello</body></html>");
+        HarRecorder recorder = new HarRecorder(new FailingWriter());
+        WebConversation wc = new WebConversation();
+        wc.addClientListener(recorder);
+        assertEquals("page text", "<html><body>Hello</body></html>", wc.getResponse(getHostPath() + "/page.html").getText());
+        assertNotNull("No error reported", recorder.getError());
+        try {
+            recorder.close();
+            fail("Should have reported the write failure");
+        } catch (IOException e) {
+            assertSame("reported error", recorder.getError(), e);
+        }
+    }
+
+
+    /**
+     * A writer which accepts the archive header, then fails.
+     */
+    private static class FailingWriter extends Writer {
+        private boolean _failing;
+
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (_failing) throw new IOException("Disk full");
+        }
+
+        public void flush() {
+            _failing = true;
+        }
+
+        public void close() {
+        }
+    }
+
+
+    private String readFile(File file) throws Exception {
+        StringBuffer sb = new StringBuffer();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) > 0) sb.append(buffer, 0, count);
+        reader.close();
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the response cache.
+ */
+public class HttpCacheTest extends HttpUnitTest {
+
+    private int _requestCount;
+
+
+    @Test
+    public void testFreshResponseServedFromCache() throws Exception {
+        defineCountedResource("fresh.txt", "fresh", "Cache-Control: max-age=3600");
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        assertEquals("fresh", wc.getResponse(getHostPath() + "/fresh.txt").getText());
+        assertEquals("fresh", wc.getResponse(getHostPath() + "/fresh.txt").getText());
+
+        assertEquals("requests sent", 1, _requestCount);
+        assertEquals("hits", 1, cache.getHitCount());
+        assertEquals("misses", 1, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testRevalidationWithETag() throws Exception {
+        defineResource("tagged.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                if ("\"v1\"".equals(getHeader("If-None-Match"))) return new WebResource("", 304);
+                WebResource resource = new WebResource("tagged", "text/plain");
+                resource.addHeader("ETag: \"v1\"");
+                return resource;
+            }
+        });
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        assertEquals("tagged", wc.getResponse(getHostPath() + "/tagged.txt").getText());
+        WebResponse response = wc.getResponse(getHostPath() + "/tagged.txt");
+        assertEquals("status", 200, response.getResponseCode());
+        assertEquals("tagged", response.getText());
+
+        assertEquals("requests sent", 2, _requestCount);
+        assertEquals("revalidations", 1, cache.getRevalidationCount());
+        assertEquals("misses", 1, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testRevalidationWithLastModified() throws Exception {
+        final String lastModified = "Mon, 07 Oct 2013 10:00:00 GMT";
+        defineResource("dated.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                if (lastModified.equals(getHeader("If-Modified-Since"))) return new WebResource("", 304);
+                WebResource resource = new WebResource("dated", "text/plain");
+                resource.addHeader("Last-Modified: " + lastModified);
+                resource.addHeader("Cache-Control: no-cache");
+                return resource;
+            }
+        });
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        for (int i = 0; i < 3; i++) assertEquals("dated", wc.getResponse(getHostPath() + "/dated.txt").getText());
+
+        assertEquals("requests sent", 3, _requestCount);
+        assertEquals("revalidations", 2, cache.getRevalidationCount());
+    }
+
+
+    @Test
+    public void testNoStoreResponseNotCached() throws Exception {
+        defineCountedResource("secret.txt", "secret", "Cache-Control: no-store, max-age=3600");
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        wc.getResponse(getHostPath() + "/secret.txt");
+        wc.getResponse(getHostPath() + "/secret.txt");
+
+        assertEquals("requests sent", 2, _requestCount);
+        assertEquals("entries", 0, cache.getEntryCount());
+    }
+
+
+    @Test
+    public void testExpiredResponseRefetched() throws Exception {
+        defineCountedResource("expired.txt", "expired", "Expires: Thu, 01 Jan 1970 00:00:00 GMT");
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        wc.getResponse(getHostPath() + "/expired.txt");
+        wc.getResponse(getHostPath() + "/expired.txt");
+
+        assertEquals("requests sent", 2, _requestCount);
+        assertEquals("hits", 0, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        defineCountedResource("a.txt", "aaaaaaaaaa", "Cache-Control: max-age=3600");
+        defineCountedResource("b.txt", "bbbbbbbbbb", "Cache-Control: max-age=3600");
+        defineCountedResource("c.txt", "cccccccccc", "Cache-Control: max-age=3600");
+
+        HttpCache cache = new HttpCache(25);
+        WebConversation wc = new WebConversation();
+        wc.setCache(cache);
+        wc.getResponse(getHostPath() + "/a.txt");
+        wc.getResponse(getHostPath() + "/b.txt");
+        wc.getResponse(getHostPath() + "/a.txt");
+        wc.getResponse(getHostPath() + "/c.txt");
+        assertEquals("size", 20, cache.getSize());
+
+        wc.getResponse(getHostPath() + "/a.txt");
+        assertEquals("requests before eviction", 3, _requestCount);
+        wc.getResponse(getHostPath() + "/b.txt");
+        assertEquals("requests after eviction", 4, _requestCount);
+    }
+
+
+    @Test
+    public void testSharedBetweenConversations() throws Exception {
+        defineCountedResource("style.css", "body {}", "Cache-Control: max-age=3600");
+
+        HttpCache cache = new HttpCache();
+        for (int i = 0; i < 3; i++) {
+            WebConversation wc = new WebConversation();
+            wc.setCache(cache);
+            assertEquals("body {}", wc.getResponse(getHostPath() + "/style.css").getText());
+        }
+        assertEquals("requests sent", 1, _requestCount);
+        assertEquals("hits", 2, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testPostInvalidatesEntry() throws Exception {
+        defineResource("form.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                WebResource resource = new WebResource("form", "text/plain");
+                resource.addHeader("Cache-Control: max-age=3600");
+                return resource;
+            }
+
+            public WebResource getPostResponse() {
+                return new WebResource("posted", "text/plain");
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        wc.setCache(new HttpCache());
+        wc.getResponse(getHostPath() + "/form.txt");
+        wc.getResponse(new PostMethodWebRequest(getHostPath() + "/form.txt"));
+        wc.getResponse(getHostPath() + "/form.txt");
+        assertEquals("requests sent", 2, _requestCount);
+    }
+
+
+    @Test
+    public void testResponseNotSharedBetweenCookies() throws Exception {
+        defineResource("greeting.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                WebResource resource = new WebResource("hello " + getHeader("Cookie"), "text/plain");
+                resource.addHeader("Cache-Control: max-age=3600");
+                resource.addHeader("Vary: Cookie");
+                return resource;
+            }
+        });
+
+        HttpCache cache = new HttpCache();
+        WebConversation alice = new WebConversation();
+        alice.setCache(cache);
+        alice.putCookie("user", "alice");
+        WebConversation bob = new WebConversation();
+        bob.setCache(cache);
+        bob.putCookie("user", "bob");
+
+        assertEquals("hello user=alice", alice.getResponse(getHostPath() + "/greeting.txt").getText());
+        assertEquals("hello user=bob", bob.getResponse(getHostPath() + "/greeting.txt").getText());
+        assertEquals("hello user=bob", bob.getResponse(getHostPath() + "/greeting.txt").getText());
+        assertEquals("requests sent", 2, _requestCount);
+        assertEquals("hits", 1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testResponseSelectedByVariedHeader() throws Exception {
+        defineResource("localized.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                WebResource resource = new WebResource("text in " + getHeader("Accept-Language"), "text/plain");
+                resource.addHeader("Cache-Control: max-age=3600");
+                resource.addHeader("Vary: accept-language");
+                return resource;
+            }
+        });
+
+        HttpCache cache = new HttpCache();
+        WebConversation english = new WebConversation();
+        english.setCache(cache);
+        english.setHeaderField("Accept-Language", "en");
+        WebConversation french = new WebConversation();
+        french.setCache(cache);
+        french.setHeaderField("Accept-Language", "fr");
+
+        assertEquals("text in en", english.getResponse(getHostPath() + "/localized.txt").getText());
+        assertEquals("text in fr", french.getResponse(getHostPath() + "/localized.txt").getText());
+        assertEquals("requests sent", 2, _requestCount);
+    }
+
+
+    @Test
+    public void testLargeBodyHeldInFile() throws Exception {
+        StringBuffer contents = new StringBuffer();
+        for (int i = 0; i < 1000; i++) contents.append("line ").append(i).append('\n');
+        defineCountedResource("large.txt", contents.toString(), "Cache-Control: max-age=3600");
+
+        HttpCache cache = new HttpCache();
+        WebConversation wc = new WebConversation();
+        wc.getClientProperties().setResponseBodyFileThreshold(1024);
+        wc.setCache(cache);
+        assertEquals(contents.toString(), wc.getResponse(getHostPath() + "/large.txt").getText());
+        assertEquals(contents.toString(), wc.getResponse(getHostPath() + "/large.txt").getText());
+        assertEquals("requests sent", 1, _requestCount);
+        assertEquals("cache size", contents.length(), cache.getSize());
+    }
+
+
+    private void defineCountedResource(String name, final String contents, final String header) {
+        defineResource(name, new PseudoServlet() {
+            public WebResource getGetResponse() {
+                _requestCount++;
+                WebResource resource = new WebResource(contents, "text/plain");
+                resource.addHeader(header);
+                return resource;
+            }
+        });
+    }
+
+}
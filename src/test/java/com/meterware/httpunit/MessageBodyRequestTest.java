@@ -32,6 +32,8 @@ import java.io.UnsupportedEncodingException;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * A unit test to verify miscellaneous requests with message bodies.
@@ -143,6 +145,69 @@ public class MessageBodyRequestTest extends HttpUnitTest {
 		assertArrayEquals("Body response", binaryData, download);
 	}
 
+	/**
+	 * verify that the body is held once and that each input stream is a new view of it
+	 */
+    @Test
+    public void testRepeatedDownloadViews() throws Exception {
+        defineResource("ReportData", new BodyEcho());
+		byte[] binaryData = new byte[20000];
+		for (int i = 0; i < binaryData.length; i++) binaryData[i] = (byte) i;
+
+		WebConversation wc = new WebConversation();
+		WebRequest wr = new PutMethodWebRequest(getHostPath() + "/ReportData",
+				new ByteArrayInputStream(binaryData), "application/random");
+		WebResponse response = wc.getResponse(wr);
+		byte[] download = response.getBytes();
+		assertArrayEquals("Body response", binaryData, download);
+		assertSame("Repeated body", download, response.getBytes());
+
+		assertArrayEquals("First stream", binaryData, getDownload(response));
+		assertArrayEquals("Second stream", binaryData, getDownload(response));
+	}
+
+	/**
+	 * verify that bodies above the file threshold are read back intact from their file
+	 */
+    @Test
+    public void testDownloadAboveFileThreshold() throws Exception {
+        defineResource("ReportData", new BodyEcho());
+		byte[] largeData = new byte[20000];
+		for (int i = 0; i < largeData.length; i++) largeData[i] = (byte) i;
+		byte[] smallData = new byte[] { 0x01, 0x05, 0x0d, 0x0a, 0x02 };
+
+		WebConversation wc = new WebConversation();
+		wc.getClientProperties().setResponseBodyFileThreshold(1000);
+		WebResponse response = wc.getResponse(new PutMethodWebRequest(getHostPath() + "/ReportData",
+				new ByteArrayInputStream(largeData), "application/random"));
+		assertArrayEquals("Large body", largeData, response.getBytes());
+		assertArrayEquals("First stream", largeData, getDownload(response));
+		assertArrayEquals("Second stream", largeData, getDownload(response));
+
+		response = wc.getResponse(new PutMethodWebRequest(getHostPath() + "/ReportData",
+				new ByteArrayInputStream(smallData), "application/random"));
+		assertArrayEquals("Small body", smallData, response.getBytes());
+
+		StringBuffer page = new StringBuffer("<html><head><title>Large</title></head><body>");
+		for (int i = 0; i < 1000; i++) page.append("<p>line ").append(i).append("</p>");
+		defineResource("Large.html", page.append("</body></html>").toString());
+		response = wc.getResponse(getHostPath() + "/Large.html");
+		assertEquals("Large page", page.toString(), response.getText());
+		assertEquals("Title", "Large", response.getTitle());
+	}
+
+	/**
+	 * verify that a false content length does not make the client allocate a buffer of that size
+	 */
+    @Test
+    public void testExaggeratedContentLength() throws Exception {
+		byte[] data = new byte[] { 0x01, 0x05, 0x0d, 0x0a, 0x02 };
+		ResponseBody body = ResponseBody.read(new ByteArrayInputStream(data), 2000000000, Integer.MAX_VALUE, 0);
+		assertEquals("Body length", data.length, body.getLength());
+		assertTrue("Buffer sized from the declared length", body.getBuffer().length < 1000000);
+		assertArrayEquals("Body", data, body.getBytes());
+	}
+
 	/**
 	 * test for BR [ 1964665 ] HeaderOnlyRequest cannot be constructed
 	 */
@@ -0,0 +1,295 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the connection-pooling transport.
+ */
+public class PooledHttpTransportTest extends HttpUnitTest {
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        defineResource("one.html", "<html><body>one</body></html>");
+        defineResource("two.html", "<html><body>two</body></html>");
+        defineResource("three.txt", "three", "text/plain");
+
+        PooledHttpTransport transport = new PooledHttpTransport();
+        WebConversation wc = new WebConversation();
+        wc.setTransport(transport);
+        assertEquals("one", wc.getResponse(getHostPath() + "/one.html").getText().substring(12, 15));
+        assertEquals("two", wc.getResponse(getHostPath() + "/two.html").getText().substring(12, 15));
+        assertEquals("three", wc.getResponse(getHostPath() + "/three.txt").getText());
+
+        assertEquals("connections opened", 1, transport.getConnectionsOpened());
+        assertEquals("idle connections", 1, transport.getIdleConnectionCount());
+    }
+
+
+    @Test
+    public void testSharedAcrossConversations() throws Exception {
+        defineResource("page.txt", "shared", "text/plain");
+
+        PooledHttpTransport transport = new PooledHttpTransport();
+        for (int i = 0; i < 3; i++) {
+            WebConversation wc = new WebConversation();
+            wc.setTransport(transport);
+            assertEquals("shared", wc.getResponse(getHostPath() + "/page.txt").getText());
+        }
+        assertEquals("connections opened", 1, transport.getConnectionsOpened());
+    }
+
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        defineResource("chunked.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                WebResource resource = new WebResource("5\r\nHello\r\n7\r\n, world\r\n0\r\n\r\n", "text/plain");
+                resource.addHeader("Transfer-Encoding: chunked");
+                return resource;
+            }
+        });
+        defineResource("after.txt", "after", "text/plain");
+
+        PooledHttpTransport transport = new PooledHttpTransport();
+        WebConversation wc = new WebConversation();
+        wc.setTransport(transport);
+        assertEquals("Hello, world", wc.getResponse(getHostPath() + "/chunked.txt").getText());
+        assertEquals("after", wc.getResponse(getHostPath() + "/after.txt").getText());
+        assertEquals("connections opened", 1, transport.getConnectionsOpened());
+    }
+
+
+    @Test
+    public void testPostRequest() throws Exception {
+        defineResource("echo", new PseudoServlet() {
+            public WebResource getPostResponse() {
+                return new WebResource(new String(getBody()), "text/plain");
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        wc.setTransport(new PooledHttpTransport());
+        PostMethodWebRequest request = new PostMethodWebRequest(getHostPath() + "/echo");
+        request.setParameter("color", "red");
+        assertEquals("color=red", wc.getResponse(request).getText());
+    }
+
+
+    @Test
+    public void testUnreadBinaryBodiesReleaseConnections() throws Exception {
+        defineResource("image.png", "not really an image", "image/png");
+
+        PooledHttpTransport transport = new PooledHttpTransport();
+        transport.setAcquireTimeout(2000);
+        WebConversation wc = new WebConversation();
+        wc.setTransport(transport);
+        for (int i = 0; i <= 2 * PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST; i++) {
+            assertEquals("content type", "image/png", wc.getResponse(getHostPath() + "/image.png").getContentType());
+        }
+        assertEquals("connections opened", 1, transport.getConnectionsOpened());
+    }
+
+
+    @Test
+    public void testErrorStatusReleasesConnection() throws Exception {
+        defineResource("missing.txt", "not here", HttpURLConnection.HTTP_NOT_FOUND);
+        defineResource("present.txt", "here", "text/plain");
+
+        PooledHttpTransport transport = new PooledHttpTransport(1);
+        WebConversation wc = new WebConversation();
+        wc.setTransport(transport);
+        try {
+            wc.getResponse(getHostPath() + "/missing.txt");
+            fail("Should have rejected the request");
+        } catch (HttpNotFoundException e) {
+            assertEquals("Response code", HttpURLConnection.HTTP_NOT_FOUND, e.getResponseCode());
+        }
+        assertEquals("here", wc.getResponse(getHostPath() + "/present.txt").getText());
+        assertEquals("connections opened", 1, transport.getConnectionsOpened());
+    }
+
+
+    /**
+     * Verifies that a GET whose reused connection was closed by the server is sent again on a fresh connection,
+     * but that a POST is not, since the server may already have acted on it.
+     */
+    @Test
+    public void testOnlySafeRequestsResentOnClosedConnection() throws Exception {
+        OneExchangeServer server = new OneExchangeServer();
+        try {
+            PooledHttpTransport transport = new PooledHttpTransport();
+            WebConversation wc = new WebConversation();
+            wc.setTransport(transport);
+            wc.set_readTimeout(5000);
+            String hostPath = "http://localhost:" + server.getPort();
+
+            assertEquals("ok", wc.getResponse(hostPath + "/first").getText());
+            assertEquals("ok", wc.getResponse(hostPath + "/second").getText());
+            assertEquals("connections opened", 2, transport.getConnectionsOpened());
+
+            try {
+                wc.getResponse(new PostMethodWebRequest(hostPath + "/post"));
+                fail("Should have reported the closed connection");
+            } catch (IOException e) {
+            }
+            assertEquals("requests received", "[GET /first, GET /second, GET /second, POST /post]", server.getRequests().toString());
+        } finally {
+            server.close();
+        }
+    }
+
+
+    /**
+     * Verifies that a response whose Content-Length cannot be read is reported as an error, and that its connection,
+     * on which the end of the body is unknown, is not returned to the pool.
+     */
+    @Test
+    public void testBadContentLengthRejected() throws Exception {
+        checkBadContentLength("abc");
+        checkBadContentLength("2, 2");
+        checkBadContentLength("-1");
+    }
+
+
+    private void checkBadContentLength(String contentLength) throws Exception {
+        OneExchangeServer server = new OneExchangeServer("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: "
+                                                         + contentLength + "\r\n\r\nok");
+        try {
+            PooledHttpTransport transport = new PooledHttpTransport();
+            WebConversation wc = new WebConversation();
+            wc.setTransport(transport);
+            wc.set_readTimeout(5000);
+            try {
+                wc.getResponse("http://localhost:" + server.getPort() + "/bad");
+                fail("Should have rejected Content-Length: " + contentLength);
+            } catch (IOException e) {
+            }
+            assertEquals("idle connections after Content-Length: " + contentLength, 0, transport.getIdleConnectionCount());
+        } finally {
+            server.close();
+        }
+    }
+
+
+    /**
+     * A server which answers only the first request on each connection, and closes the connection after reading
+     * the second, as a server does when it drops an idle connection just as it is reused.
+     */
+    private static class OneExchangeServer implements Runnable {
+
+        private ServerSocket _serverSocket = new ServerSocket(0);
+        private List _requests = Collections.synchronizedList(new ArrayList());
+        private String _reply;
+
+        OneExchangeServer() throws IOException {
+            this("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok");
+        }
+
+        OneExchangeServer(String reply) throws IOException {
+            _reply = reply;
+            Thread thread = new Thread(this, "one-exchange-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return _serverSocket.getLocalPort();
+        }
+
+        List getRequests() {
+            return _requests;
+        }
+
+        void close() throws IOException {
+            _serverSocket.close();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = _serverSocket.accept();
+                    new Thread("one-exchange-connection") {
+                        public void run() {
+                            serve(socket);
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // the server has been closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream input = socket.getInputStream();
+                OutputStream output = socket.getOutputStream();
+                readRequest(input);
+                output.write(_reply.getBytes("US-ASCII"));
+                output.flush();
+                readRequest(input);
+            } catch (IOException e) {
+                // the client closed the connection
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        private void readRequest(InputStream input) throws IOException {
+            String requestLine = readLine(input);
+            int contentLength = 0;
+            for (String line = readLine(input); line.length() > 0; line = readLine(input)) {
+                if (line.toLowerCase().startsWith("content-length:")) contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            for (int i = 0; i < contentLength; i++) input.read();
+            _requests.add(requestLine.substring(0, requestLine.lastIndexOf(' ')));
+        }
+
+        private String readLine(InputStream input) throws IOException {
+            StringBuffer sb = new StringBuffer();
+            for (int b = input.read(); b != '\n'; b = input.read()) {
+                if (b < 0) throw new IOException("Connection closed");
+                if (b != '\r') sb.append((char) b);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.meterware.httpunit;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for recording responses and replaying them without a server.
+ */
+public class ResponseStoreTest extends HttpUnitTest {
+
+    private File _file;
+
+
+    @Before
+    public void createFile() throws Exception {
+        _file = File.createTempFile("httpunit", ".store");
+        _file.delete();
+    }
+
+
+    @After
+    public void deleteFile() throws Exception {
+        _file.delete();
+    }
+
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        defineResource("page.html", "<html><head><title>Original</title></head><body>" +
+                                    "<form method='POST' action='echo'><input name='color'></form></body></html>");
+        defineResource("echo", new PseudoServlet() {
+            public WebResource getPostResponse() {
+                return new WebResource("You chose " + getParameter("color")[0], "text/plain");
+            }
+        });
+        ResponseStore store = new ResponseStore(_file);
+        WebConversation wc = new WebConversation();
+        wc.setTransport(store.createRecordingTransport(wc.getTransport()));
+        submitColor(wc, "red");
+        submitColor(wc, "blue");
+        assertEquals("recorded responses", 3, store.getNumResponses());
+        store.close();
+
+        defineResource("page.html", "<html><head><title>Changed</title></head><body></body></html>");
+        store = new ResponseStore(_file);
+        assertEquals("reloaded responses", 3, store.getNumResponses());
+        WebConversation replay = new WebConversation();
+        replay.setTransport(store.createReplayTransport());
+        assertEquals("title", "Original", replay.getResponse(getHostPath() + "/page.html").getTitle());
+        assertEquals("You chose blue", submitColor(replay, "blue"));
+        assertEquals("You chose red", submitColor(replay, "red"));
+        try {
+            submitColor(replay, "green");
+            fail("Should have rejected an unrecorded request");
+        } catch (IOException e) {
+        }
+        store.close();
+    }
+
+
+    @Test
+    public void testInterruptedRecording() throws Exception {
+        defineResource("first.txt", "first", "text/plain");
+        defineResource("second.txt", "second", "text/plain");
+        ResponseStore store = new ResponseStore(_file);
+        WebConversation wc = new WebConversation();
+        wc.setTransport(store.createRecordingTransport(wc.getTransport()));
+        wc.getResponse(getHostPath() + "/first.txt");
+        wc.getResponse(getHostPath() + "/second.txt");
+        store.close();
+
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        store = new ResponseStore(_file);
+        assertEquals("surviving responses", 1, store.getNumResponses());
+        wc.setTransport(store.createRecordingTransport(new URLConnectionTransport()));
+        wc.getResponse(getHostPath() + "/second.txt");
+        wc.setTransport(store.createReplayTransport());
+        assertEquals("first", wc.getResponse(getHostPath() + "/first.txt").getText());
+        assertEquals("second", wc.getResponse(getHostPath() + "/second.txt").getText());
+        store.close();
+    }
+
+
+    @Test
+    public void testOtherFileLeftUnchanged() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        file.writeBytes("This is not a response store.\n");
+        long length = file.length();
+        file.close();
+
+        try {
+            new ResponseStore(_file);
+            fail("Should have rejected a file which is not a response store");
+        } catch (IOException e) {
+        }
+        assertEquals("file length", length, _file.length());
+    }
+
+
+    @Test
+    public void testLargeHeaderValue() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        while (sb.length() < 70000) sb.append("abcdefghij");
+        String value = sb.toString();
+        defineResource("large.txt", "large", "text/plain");
+        addResourceHeader("large.txt", "X-Large: " + value);
+        ResponseStore store = new ResponseStore(_file);
+        WebConversation wc = new WebConversation();
+        wc.setTransport(store.createRecordingTransport(wc.getTransport()));
+        wc.getResponse(getHostPath() + "/large.txt");
+        store.close();
+
+        store = new ResponseStore(_file);
+        wc.setTransport(store.createReplayTransport());
+        WebResponse response = wc.getResponse(getHostPath() + "/large.txt");
+        assertEquals("large", response.getText());
+        assertEquals("header value", value, response.getHeaderField("X-Large"));
+        store.close();
+    }
+
+
+    private String submitColor(WebConversation wc, String color) throws Exception {
+        WebForm form = wc.getResponse(getHostPath() + "/page.html").getForms()[0];
+        form.setParameter("color", color);
+        return form.submit().getText();
+    }
+
+}
@@ -29,17 +29,29 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
@@ -276,6 +288,109 @@ public class WebClientTest extends HttpUnitTest {
         assertEquals("cookie 'CUSTOMER' value", "WILE_E_COYOTE", wc.getCookieValue("CUSTOMER"));
     }
 
+
+    @Test
+    public void testSessionSnapshot() throws Exception {
+        defineResource("login", "logged in");
+        addResourceHeader("login", "Set-Cookie: session=abc; path=/");
+        addResourceHeader("login", "Set-Cookie: gone=old; path=/; max-age=0");
+        defineResource("bounce", new CookieEcho());
+
+        WebConversation wc = new WebConversation();
+        wc.setAuthorization("user", "password");
+        wc.putCookie("zero", "nil");
+        wc.getResponse(getHostPath() + "/login");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        wc.getSessionSnapshot().write(baos);
+        SessionSnapshot snapshot = SessionSnapshot.read(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals("authorization", "Basic " + Base64.encode("user:password"), snapshot.getAuthorization());
+
+        WebConversation restored = new WebConversation();
+        restored.restoreSession(snapshot);
+        assertEquals("number of cookies", 2, restored.getCookieNames().length);
+        assertEquals("cookies sent", "session=abc; zero=nil", restored.getResponse(getHostPath() + "/bounce").getText().trim());
+    }
+
+
+    @Test
+    public void testCorruptSessionSnapshot() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(0x48555353);
+        out.writeByte(1);
+        out.writeBoolean(false);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+        try {
+            SessionSnapshot.read(new ByteArrayInputStream(baos.toByteArray()));
+            fail("Should have rejected the cookie length");
+        } catch (IOException e) {
+        }
+    }
+
+
+    @Test
+    public void testFork() throws Exception {
+        defineResource("login", "<html><body><a href='bounce'>next</a></body></html>");
+        addResourceHeader("login", "Set-Cookie: session=abc; path=/");
+        defineResource("bounce", new CookieEcho());
+
+        WebConversation wc = new WebConversation();
+        wc.setHeaderField("X-Journey", "main");
+        wc.getResponse(getHostPath() + "/login");
+
+        WebConversation fork = wc.fork();
+        fork.putCookie("branch", "1");
+        fork.setHeaderField("X-Journey", "branch");
+        WebResponse response = fork.getCurrentPage().getLinkWith("next").click();
+        assertEquals("cookies sent by fork", "session=abc; branch=1", response.getText().trim());
+        assertSame("fork page", response, fork.getCurrentPage());
+
+        assertEquals("parent page", getHostPath() + "/login", wc.getCurrentPage().getURL().toExternalForm());
+        assertNull("parent acquired fork cookie", wc.getCookieValue("branch"));
+        assertEquals("parent header", "main", wc.getHeaderField("X-Journey"));
+
+        fork.getCookieDetails("session").setValue("changed");
+        assertEquals("parent cookie after fork changed its copy", "abc", wc.getCookieValue("session"));
+    }
+
+
+    @Test
+    public void testClientConfiguration() throws Exception {
+        defineResource("scripted", "<html><head><script>alert('ran');</script></head><body>" +
+                "<noscript><a id='plain' href='plain'>plain</a></noscript></body></html>");
+
+        WebConversation plain = new WebConversation();
+        plain.setConfiguration(ClientConfiguration.fromGlobalOptions().withScriptingEnabled(false));
+        WebResponse response = plain.getResponse(getHostPath() + "/scripted");
+        assertEquals("script ran with scripting disabled", "", plain.popNextAlert());
+        assertNotNull("noscript link not found", response.getLinkWithID("plain"));
+
+        WebConversation scripted = new WebConversation();
+        assertTrue("global scripting disabled", scripted.getConfiguration().isScriptingEnabled());
+        response = scripted.getResponse(getHostPath() + "/scripted");
+        assertEquals("alert", "ran", scripted.popNextAlert());
+        assertNull("noscript link found", response.getLinkWithID("plain"));
+    }
+
+
+    @Test
+    public void testClientConfigurationCannotOverrideGlobalScripting() throws Exception {
+        defineResource("scripted", "<html><head><script>alert('ran');</script></head><body>" +
+                "<noscript><a id='plain' href='plain'>plain</a></noscript></body></html>");
+
+        WebConversation wc = new WebConversation();
+        wc.setConfiguration(ClientConfiguration.fromGlobalOptions().withScriptingEnabled(true));
+        HttpUnitOptions.setScriptingEnabled(false);
+        try {
+            WebResponse response = wc.getResponse(getHostPath() + "/scripted");
+            assertEquals("script ran with scripting disabled globally", "", wc.popNextAlert());
+            assertNotNull("noscript link not found", response.getLinkWithID("plain"));
+        } finally {
+            HttpUnitOptions.setScriptingEnabled(true);
+        }
+    }
+
     /**
      * test setting a cookie manually
      *
@@ -450,6 +565,120 @@ public class WebClientTest extends HttpUnitTest {
         bodyStream.close();
     }
 
+    /**
+     * Verifies that once challenged, requests into the same protection space send basic credentials preemptively.
+     */
+    @Test
+    public void testPreemptiveBasicAuthentication() throws Exception {
+        final List authorizations = new ArrayList();
+        PseudoServlet servlet = new PseudoServlet() {
+            public WebResource getGetResponse() {
+                String header = getHeader("Authorization");
+                authorizations.add(String.valueOf(header));
+                if (header != null) return new WebResource("welcome", "text/plain");
+                WebResource webResource = new WebResource("unauthorized", HttpURLConnection.HTTP_UNAUTHORIZED);
+                webResource.addHeader("WWW-Authenticate: Basic realm=\"testrealm\"");
+                return webResource;
+            }
+        };
+        defineResource("secure/first.html", servlet);
+        defineResource("secure/docs/second.html", servlet);
+        defineResource("open/third.html", servlet);
+
+        WebConversation wc = new WebConversation();
+        wc.setAuthentication("testrealm", "user", "password");
+        wc.getResponse(getHostPath() + "/secure/first.html");
+        wc.getResponse(getHostPath() + "/secure/first.html");
+        wc.getResponse(getHostPath() + "/secure/docs/second.html");
+        assertEquals("requests to protected space", "[null, Basic dXNlcjpwYXNzd29yZA==, Basic dXNlcjpwYXNzd29yZA==, Basic dXNlcjpwYXNzd29yZA==]",
+                authorizations.toString());
+
+        authorizations.clear();
+        wc.getResponse(getHostPath() + "/open/third.html");
+        assertEquals("requests outside protected space", "[null, Basic dXNlcjpwYXNzd29yZA==]", authorizations.toString());
+    }
+
+
+    /**
+     * Verifies that an authorization set explicitly is sent in place of preemptive credentials.
+     */
+    @Test
+    public void testExplicitAuthorizationPrecedesPreemptive() throws Exception {
+        final List authorizations = new ArrayList();
+        defineResource("secure/page.html", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                String header = getHeader("Authorization");
+                authorizations.add(String.valueOf(header));
+                if (header != null) return new WebResource("welcome", "text/plain");
+                WebResource webResource = new WebResource("unauthorized", HttpURLConnection.HTTP_UNAUTHORIZED);
+                webResource.addHeader("WWW-Authenticate: Basic realm=\"testrealm\"");
+                return webResource;
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        wc.setAuthentication("testrealm", "user", "password");
+        wc.getResponse(getHostPath() + "/secure/page.html");
+        wc.setAuthorization("other", "secret");
+        authorizations.clear();
+        wc.getResponse(getHostPath() + "/secure/page.html");
+        assertEquals("authorizations", "[Basic b3RoZXI6c2VjcmV0]", authorizations.toString());
+    }
+
+
+    /**
+     * Verifies that a digest nonce is reused with an increasing nonce count until the server reports it stale.
+     */
+    @Test
+    public void testDigestNonceReuse() throws Exception {
+        final List received = new ArrayList();
+        defineResource("/dir/index.html", new PseudoServlet() {
+            public WebResource getGetResponse() throws IOException {
+                String authorization = getHeader("Authorization");
+                if (authorization == null) return createDigestChallenge("first", false);
+
+                HttpHeader header = new HttpHeader(authorization);
+                String nonce = header.getProperty("nonce");
+                String nc = header.getProperty("nc");
+                String ha1 = md5("Mufasa:testrealm@host.com:CircleOfLife");
+                String ha2 = md5("GET:/dir/index.html");
+                String expected = md5(ha1 + ':' + nonce + ':' + nc + ':' + header.getProperty("cnonce") + ":auth:" + ha2);
+                if (!expected.equals(header.getProperty("response"))) return createDigestChallenge("first", false);
+                received.add(nonce + " " + nc);
+                if (nonce.equals("first") && nc.equals("00000003")) return createDigestChallenge("second", true);
+                return new WebResource("welcome", "text/plain");
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        wc.setAuthentication("testrealm@host.com", "Mufasa", "CircleOfLife");
+        for (int i = 0; i < 4; i++) {
+            assertEquals("welcome", wc.getResponse(getHostPath() + "/dir/index.html").getText());
+        }
+        assertEquals("authorizations", "[first 00000001, first 00000002, first 00000003, second 00000001, second 00000002]", received.toString());
+    }
+
+
+    private static WebResource createDigestChallenge(String nonce, boolean stale) {
+        WebResource resource = new WebResource("not authorized", HttpURLConnection.HTTP_UNAUTHORIZED);
+        resource.addHeader("WWW-Authenticate: Digest realm=\"testrealm@host.com\", qop=\"auth\", nonce=\"" + nonce + "\"" +
+                (stale ? ", stale=true" : ""));
+        return resource;
+    }
+
+
+    private static String md5(String text) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8"));
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < digest.length; i++) sb.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+
     /**
      * Verifies that even though we have specified username and password for a realm,
      * a request for a different realm will still result in an exception.
@@ -1121,6 +1350,280 @@ public class WebClientTest extends HttpUnitTest {
     }
 
 
+    /**
+     * Verifies that a chunked response is read completely.
+     */
+    @Test
+    public void testChunkedResponse() throws Exception {
+        final int numChunks = 50;
+        final StringBuffer expected = new StringBuffer();
+        final StringBuffer chunked = new StringBuffer();
+        for (int i = 0; i < numChunks; i++) {
+            String chunk = "chunk " + i + ";";
+            expected.append(chunk);
+            chunked.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+        }
+        chunked.append("0\r\n\r\n");
+        defineResource("Chunked.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                WebResource resource = new WebResource(chunked.toString(), "text/plain");
+                resource.addHeader("Transfer-Encoding: chunked");
+                return resource;
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        assertEquals("Content", expected.toString(), wc.getResponse(getHostPath() + "/Chunked.txt").getText());
+    }
+
+
+    /**
+     * Verifies that an empty body is recognized as complete at once, rather than after waiting to see
+     * whether more data will show up.
+     */
+    @Test
+    public void testEmptyResponseLatency() throws Exception {
+        defineResource("Empty.txt", "", "text/plain");
+
+        WebConversation wc = new WebConversation();
+        assertEquals("Content", "", wc.getResponse(getHostPath() + "/Empty.txt").getText());
+
+        final int numRequests = 5;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < numRequests; i++) {
+            WebResponse response = wc.getResponse(getHostPath() + "/Empty.txt");
+            assertEquals("Content length", 0, response.getContentLength());
+            assertEquals("Content", "", response.getText());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(numRequests + " empty responses took " + elapsed + " msec", elapsed < 1000);
+    }
+
+
+    /**
+     * Verifies that a body with no length, delimited by the closing of the connection, is read completely
+     * even when the server pauses in the middle of it.
+     */
+    @Test
+    public void testSlowUndefinedLengthResponse() throws Exception {
+        defineResource("Slow.txt", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                return new WebResource(new SlowInputStream("first part ", "second part"), "text/plain", HttpURLConnection.HTTP_OK);
+            }
+        });
+
+        WebConversation wc = new WebConversation();
+        assertEquals("Content", "first part second part", wc.getResponse(getHostPath() + "/Slow.txt").getText());
+    }
+
+
+    /**
+     * A stream which delivers its first part, then pauses before delivering the second.
+     */
+    static class SlowInputStream extends InputStream {
+
+        private final static int PAUSE = 700;
+
+        private InputStream[] _parts;
+        private int _current;
+
+        SlowInputStream(String firstPart, String secondPart) {
+            _parts = new InputStream[]{new ByteArrayInputStream(firstPart.getBytes()), new ByteArrayInputStream(secondPart.getBytes())};
+        }
+
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0];
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (_current < _parts.length) {
+                int count = _parts[_current].read(buffer, offset, length);
+                if (count > 0) return count;
+                if (++_current < _parts.length) {
+                    try {
+                        Thread.sleep(PAUSE);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.toString());
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+
+    /**
+     * Verifies that asynchronous requests from different conversations proceed concurrently, while those
+     * from a single conversation are handled in the order submitted.
+     */
+    @Test
+    public void testAsynchronousRequests() throws Exception {
+        final int delay = 400;
+        String[] names = {"first", "second", "third"};
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            defineResource(name + ".html", new PseudoServlet() {
+                public WebResource getGetResponse() {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                    }
+                    return new WebResource("<html><head><title>" + name + "</title></head></html>", "text/html");
+                }
+            });
+        }
+
+        WebConversation ordered = new WebConversation();
+        final List titles = new ArrayList();
+        ordered.addClientListener(new WebClientListener() {
+            public void requestSent(WebClient src, WebRequest req) {
+            }
+
+            public void responseReceived(WebClient src, WebResponse resp) {
+                try {
+                    titles.add(resp.getTitle());
+                } catch (Exception e) {
+                    titles.add(e.toString());
+                }
+            }
+        });
+        WebConversation other = new WebConversation();
+
+        long start = System.currentTimeMillis();
+        Future[] responses = new Future[names.length];
+        for (int i = 0; i < names.length; i++) {
+            responses[i] = ordered.getResponseAsync(getHostPath() + "/" + names[i] + ".html");
+        }
+        Future otherResponse = other.getResponseAsync(getHostPath() + "/second.html");
+        Future missing = other.getResponseAsync(getHostPath() + "/missing.html");
+
+        for (int i = 0; i < names.length; i++) {
+            assertEquals("response " + i, names[i], ((WebResponse) responses[i].get()).getTitle());
+        }
+        assertEquals("other response", "second", ((WebResponse) otherResponse.get()).getTitle());
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("order handled", "[first, second, third]", titles.toString());
+        assertEquals("current page", "third", ordered.getCurrentPage().getTitle());
+        assertTrue("Requests took " + elapsed + " msec", elapsed < (names.length + 1) * delay);
+        try {
+            missing.get();
+            fail("Should have reported missing page");
+        } catch (ExecutionException e) {
+            assertTrue("Reported " + e.getCause(), e.getCause() instanceof HttpNotFoundException);
+        }
+    }
+
+
+    /**
+     * Verifies that requests queued when the executor is changed still run in order, and that an executor
+     * which rejects a request does not stall those submitted after it.
+     */
+    @Test
+    public void testAsynchronousRequestsAcrossExecutorChanges() throws Exception {
+        final String[] names = {"first", "second", "third"};
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            defineResource(name + ".html", new PseudoServlet() {
+                public WebResource getGetResponse() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                    }
+                    return new WebResource("<html><head><title>" + name + "</title></head></html>", "text/html");
+                }
+            });
+        }
+
+        WebConversation wc = new WebConversation();
+        final List titles = new ArrayList();
+        wc.addClientListener(new WebClientListener() {
+            public void requestSent(WebClient src, WebRequest req) {
+            }
+
+            public void responseReceived(WebClient src, WebResponse resp) {
+                try {
+                    titles.add(resp.getTitle());
+                } catch (Exception e) {
+                    titles.add(e.toString());
+                }
+            }
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future[] responses = new Future[names.length];
+        for (int i = 0; i < names.length; i++) {
+            responses[i] = wc.getResponseAsync(getHostPath() + "/" + names[i] + ".html");
+            if (i == 0) wc.setExecutor(executor);
+        }
+        for (int i = 0; i < names.length; i++) {
+            assertEquals("response " + i, names[i], ((WebResponse) responses[i].get()).getTitle());
+        }
+        executor.shutdown();
+        assertTrue("executor did not finish", executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("order handled", "[first, second, third]", titles.toString());
+
+        wc.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+        });
+        try {
+            wc.getResponseAsync(getHostPath() + "/first.html");
+            fail("Should have reported rejected request");
+        } catch (RejectedExecutionException e) {
+        }
+
+        wc.setExecutor(null);
+        Future response = wc.getResponseAsync(getHostPath() + "/second.html");
+        assertEquals("response after rejection", "second", ((WebResponse) response.get(5, TimeUnit.SECONDS)).getTitle());
+    }
+
+
+    /**
+     * Verifies that requests still queued when the executor shuts down are cancelled, rather than left pending.
+     */
+    @Test
+    public void testQueuedRequestsCancelledWhenExecutorShutsDown() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        defineResource("blocking.html", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return new WebResource("<html><head><title>blocking</title></head></html>", "text/html");
+            }
+        });
+        defineWebPage("queued", "queued");
+
+        WebConversation wc = new WebConversation();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        wc.setExecutor(executor);
+        Future first = wc.getResponseAsync(getHostPath() + "/blocking.html");
+        Future second = wc.getResponseAsync(getHostPath() + "/queued.html");
+        Future third = wc.getResponseAsync(getHostPath() + "/queued.html");
+        assertTrue("first request not started", started.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        release.countDown();
+
+        assertEquals("first response", "blocking", ((WebResponse) first.get(5, TimeUnit.SECONDS)).getTitle());
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("Second request should have been cancelled");
+        } catch (CancellationException e) {
+        }
+        try {
+            third.get(5, TimeUnit.SECONDS);
+            fail("Third request should have been cancelled");
+        } catch (CancellationException e) {
+        }
+    }
+
+
     @Test
     public void testClientListener() throws Exception {
         defineWebPage("Target", "This is another page with <a href=Form.html target='_top'>one link</a>");
@@ -1293,4 +1796,32 @@ public class WebClientTest extends HttpUnitTest {
         assertEquals("content type", contentType, response.getContentType());
     }
 
+
+    /**
+     * Verifies that the phases of obtaining and processing a page are recorded and reported to timing listeners.
+     */
+    @Test
+    public void testResponseTiming() throws Exception {
+        defineResource("timed.html", "<html><head><script>function sayHello() { alert('Loaded'); }</script></head>" +
+                                     "<body onload='sayHello()'>Hello</body></html>");
+        final List phases = new ArrayList();
+        WebConversation wc = new WebConversation();
+        wc.addTimingListener(new ResponseTimingListener() {
+            public void phaseCompleted(WebClient src, WebResponse resp, int phase, long startTime, long endTime) {
+                assertTrue("Phase " + ResponseTiming.getPhaseName(phase) + " ended before it started", startTime <= endTime);
+                phases.add(ResponseTiming.getPhaseName(phase));
+            }
+        });
+
+        WebResponse response = wc.getResponse(getHostPath() + "/timed.html");
+        assertEquals("alert", "Loaded", wc.popNextAlert());
+        assertEquals("reported phases", "[connect, send, wait, download, decode, parse, scripts]", phases.toString());
+
+        ResponseTiming timing = response.getTiming();
+        for (int i = 0; i < ResponseTiming.getNumPhases(); i++) {
+            assertTrue("Phase " + ResponseTiming.getPhaseName(i) + " not recorded", timing.isRecorded(i));
+        }
+        assertTrue("wait ended before connect", timing.getEndTime(ResponseTiming.CONNECT) <= timing.getStartTime(ResponseTiming.WAIT));
+    }
+
 }
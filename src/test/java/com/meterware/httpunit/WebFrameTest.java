@@ -20,10 +20,16 @@ package com.meterware.httpunit;
  *
  *******************************************************************************************************************/
 
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.net.HttpURLConnection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -689,5 +695,121 @@ public class WebFrameTest extends HttpUnitTest {
     }
 
 
+
+    /**
+     * Verifies that the frames of a frameset, and of a nested frameset, may be requested concurrently,
+     * and are still loaded and reported to listeners in document order.
+     */
+    @Test
+    public void testConcurrentFrameLoading() throws Exception {
+        final int delay = 400;
+        String[] names = {"one", "two", "three", "four"};
+        for (int i = 0; i < names.length; i++) defineSlowPage(names[i], delay);
+        defineResource("Nested.html",
+                "<html><frameset cols='50%,50%'><frame src='three.html' name='three'><frame src='four.html' name='four'></frameset></html>");
+        defineResource("Frames.html",
+                "<html><frameset cols='30%,30%,40%'><frame src='one.html' name='one'>" +
+                        "<frame src='two.html' name='two'><frame src='Nested.html' name='nested'></frameset></html>");
+
+        final StringBuffer loaded = new StringBuffer();
+        _wc.addClientListener(new WebClientListener() {
+            public void requestSent(WebClient src, WebRequest req) {
+            }
+
+            public void responseReceived(WebClient src, WebResponse resp) {
+                loaded.append(resp.getURL().getPath().substring(1)).append(' ');
+            }
+        });
+        _wc.getClientProperties().setMaxConcurrentFrameRequests(4);
+        long start = System.currentTimeMillis();
+        _wc.getResponse(getHostPath() + "/Frames.html");
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("load order", "Frames.html one.html two.html Nested.html three.html four.html ", loaded.toString());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals("frame " + names[i], names[i], _wc.getFrameContents(names[i]).getTitle());
+        }
+        assertTrue("Loading took " + elapsed + " msec", elapsed < 3 * delay);
+    }
+
+
+    /**
+     * Verifies that frames requested concurrently are not sent on the client's executor, which may be busy waiting
+     * for them, and that listeners are told of each request before it is sent, so that they may still change it.
+     */
+    @Test
+    public void testConcurrentFramesBypassClientExecutor() throws Exception {
+        defineResource("Tagged.html", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                return new WebResource("<html><head><title>" + getHeader("X-Tag") + "</title></head></html>", "text/html");
+            }
+        });
+        defineResource("Frames.html",
+                "<html><frameset cols='50%,50%'><frame src='Tagged.html' name='left'><frame src='Tagged.html?2' name='right'></frameset></html>");
+
+        final int[] tasksRun = new int[1];
+        _wc.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                synchronized (tasksRun) {
+                    tasksRun[0]++;
+                }
+                new Thread(command).start();
+            }
+        });
+        _wc.addClientListener(new WebClientListener() {
+            public void requestSent(WebClient src, WebRequest req) {
+                req.setHeaderField("X-Tag", "tagged");
+            }
+
+            public void responseReceived(WebClient src, WebResponse resp) {
+            }
+        });
+        _wc.getClientProperties().setMaxConcurrentFrameRequests(2);
+        _wc.getResponse(getHostPath() + "/Frames.html");
+
+        assertEquals("tasks run on executor", 0, tasksRun[0]);
+        assertEquals("left title", "tagged", _wc.getFrameContents("left").getTitle());
+        assertEquals("right title", "tagged", _wc.getFrameContents("right").getTitle());
+    }
+
+
+    /**
+     * Verifies that a frameset requested asynchronously on a single-thread executor loads its frames concurrently
+     * without waiting for that thread, which is busy loading the frameset.
+     */
+    @Test
+    public void testConcurrentFramesWithSingleThreadExecutor() throws Exception {
+        defineWebPage("Left", "left page");
+        defineWebPage("Right", "right page");
+        defineResource("Frames.html",
+                "<html><frameset cols='50%,50%'><frame src='Left.html' name='left'><frame src='Right.html' name='right'></frameset></html>");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            _wc.setExecutor(executor);
+            _wc.getClientProperties().setMaxConcurrentFrameRequests(4);
+            _wc.getResponseAsync(new GetMethodWebRequest(getHostPath() + "/Frames.html")).get(10, TimeUnit.SECONDS);
+
+            assertEquals("left frame", getHostPath() + "/Left.html", _wc.getFrameContents("left").getURL().toExternalForm());
+            assertEquals("right frame", getHostPath() + "/Right.html", _wc.getFrameContents("right").getURL().toExternalForm());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void defineSlowPage(final String name, final int delay) {
+        defineResource(name + ".html", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                }
+                return new WebResource("<html><head><title>" + name + "</title></head></html>", "text/html");
+            }
+        });
+    }
+
+
     private WebConversation _wc;
 }
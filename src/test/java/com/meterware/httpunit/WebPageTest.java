@@ -26,6 +26,13 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
+import com.meterware.httpunit.parsing.DocumentAdapter;
+import com.meterware.httpunit.parsing.HTMLParser;
+import com.meterware.httpunit.parsing.HTMLParserFactory;
+import com.meterware.httpunit.scripting.ScriptingHandler;
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+
 import org.junit.Ignore;
 import org.junit.Test;
 import org.w3c.dom.html.HTMLDocument;
@@ -70,6 +77,31 @@ public class WebPageTest extends HttpUnitTest {
         }
     }
 
+    @Test
+    public void testProxyServerDoesNotChangeSystemProperties() throws Exception {
+        defineResource("http://someserver.com/sample", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                return new WebResource(String.valueOf(System.getProperty("proxyHost")), "text/plain");
+            }
+        });
+        WebConversation wc = new WebConversation();
+        wc.setProxyServer("localhost", getHostPort());
+        assertEquals("proxy host", "localhost", wc.getProxyHost());
+        assertEquals("proxy port", getHostPort(), wc.getProxyPort());
+        assertEquals("System proxy host during request", "null", wc.getResponse("http://someserver.com/sample").getText());
+    }
+
+
+    @Test
+    public void testProxyServerAccessWithPooledTransport() throws Exception {
+        defineResource("http://someserver.com/sample", "Get this", "text/plain");
+        WebConversation wc = new WebConversation();
+        wc.setTransport(new PooledHttpTransport());
+        wc.setProxyServer("localhost", getHostPort());
+        assertEquals("Expected text", "Get this", wc.getResponse("http://someserver.com/sample").getText().trim());
+    }
+
+
     /**
      * check the valid contentTypes
      * modified for bug report
@@ -265,6 +297,99 @@ public class WebPageTest extends HttpUnitTest {
     }
 
 
+    /**
+     * Verifies that base and refresh tags read while parsing are honored, except within a noscript region
+     * when scripting is enabled.
+     */
+    @Test
+    public void testBaseAndRefreshReadDuringParse() throws Exception {
+        String page = "<html><head><title>Sample</title>" +
+                "<base href='" + getHostPath() + "/Base/' target='side'>" +
+                "<noscript><meta http-equiv=refresh content='5;URL=Ignored.html'></noscript>" +
+                "<meta http-equiv=refresh content='2;URL=NextPage.html'></head>\n" +
+                "<body><a href='Link.html'>relative link</a>\n" +
+                "</body></html>\n";
+        defineResource("SimplePage.html", page);
+
+        WebConversation wc = new WebConversation();
+        WebResponse simplePage = wc.getResponse(getHostPath() + "/SimplePage.html");
+
+        assertEquals("Link URL", getHostPath() + "/Base/Link.html", simplePage.getLinkWith("relative link").getRequest().getURL().toExternalForm());
+        assertEquals("Link target", "side", simplePage.getLinkWith("relative link").getTarget());
+        assertEquals("Refresh URL", getHostPath() + "/NextPage.html", simplePage.getRefreshRequest().getURL().toExternalForm());
+        assertEquals("Refresh delay", 2, simplePage.getRefreshDelay());
+    }
+
+
+    /**
+     * Verifies that base and refresh tags are honored when the parser does not report them itself.
+     */
+    @Test
+    public void testBaseAndRefreshWithParserNotReportingTags() throws Exception {
+        String page = "<html><head><title>Sample</title>" +
+                "<base href='" + getHostPath() + "/Base/' target='side'>" +
+                "<meta http-equiv=refresh content='2;URL=NextPage.html'></head>\n" +
+                "<body><a href='Link.html'>relative link</a>\n" +
+                "</body></html>\n";
+        defineResource("SimplePage.html", page);
+
+        WebConversation wc = new WebConversation();
+        wc.setConfiguration(wc.getConfiguration().withHTMLParser(new UnreportingParser(HTMLParserFactory.getHTMLParser())));
+        WebResponse simplePage = wc.getResponse(getHostPath() + "/SimplePage.html");
+
+        assertEquals("Link URL", getHostPath() + "/Base/Link.html", simplePage.getLinkWith("relative link").getRequest().getURL().toExternalForm());
+        assertEquals("Link target", "side", simplePage.getLinkWith("relative link").getTarget());
+        assertEquals("Refresh URL", getHostPath() + "/NextPage.html", simplePage.getRefreshRequest().getURL().toExternalForm());
+    }
+
+
+    /**
+     * Verifies that only the head of a page is scanned for scripts to request ahead of the parser.
+     */
+    @Test
+    public void testIncludedScriptRequestsReadFromHead() throws Exception {
+        String page = "<html><head><base href='" + getHostPath() + "/Base/'>" +
+                "<script src='head.js'></script></head>\n" +
+                "<body><script src='body.js'></script></body></html>\n";
+        defineResource("SimplePage.html", page);
+
+        WebConversation wc = new WebConversation();
+        WebResponse simplePage = wc.getResource(new GetMethodWebRequest(getHostPath() + "/SimplePage.html"));
+        WebRequest[] requests = simplePage.getIncludedScriptRequests();
+
+        assertEquals("Number of script requests", 1, requests.length);
+        assertEquals("Script URL", getHostPath() + "/Base/head.js", requests[0].getURL().toExternalForm());
+    }
+
+
+    /**
+     * A parser which hides the tag recording of the page from the parser it wraps, as a parser written before
+     * tags were reported would.
+     */
+    private static class UnreportingParser implements HTMLParser {
+
+        private HTMLParser _parser;
+
+        UnreportingParser(HTMLParser parser) {
+            _parser = parser;
+        }
+
+        public void parse(URL baseURL, String pageText, final DocumentAdapter adapter) throws IOException, SAXException {
+            _parser.parse(baseURL, pageText, new DocumentAdapter() {
+                public void setDocument(HTMLDocument document) { adapter.setDocument(document); }
+                public String getIncludedScript(String srcAttribute) throws IOException { return adapter.getIncludedScript(srcAttribute); }
+                public ScriptingHandler getScriptingHandler() { return adapter.getScriptingHandler(); }
+            });
+        }
+
+        public String getCleanedText(String string) { return _parser.getCleanedText(string); }
+        public boolean supportsPreserveTagCase() { return _parser.supportsPreserveTagCase(); }
+        public boolean supportsForceTagCase() { return _parser.supportsForceTagCase(); }
+        public boolean supportsReturnHTMLDocument() { return _parser.supportsReturnHTMLDocument(); }
+        public boolean supportsParserWarnings() { return _parser.supportsParserWarnings(); }
+    }
+
+
     @Test
     public void testMetaRefreshURLRequest() throws Exception {
         String refreshURL = getHostPath() + "/NextPage.html";
@@ -246,6 +246,76 @@ public class CookieTest {
                 jar.getCookieNames());
     }
 
+
+    @Test
+    public void testHeaderInOrderSet() throws Exception {
+        CookieJar jar = new CookieJar();
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "outer=1"));
+        jar.updateCookies(newJar("www.meterware.com/servlets/standard/AServlet", "inner=2"));
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "wide=3;domain=.meterware.com;path=/"));
+        jar.updateCookies(newJar("meterware.com/servlets/AServlet", "other=4"));
+
+        checkHeader(1, jar, "outer=1; inner=2; wide=3", "www.meterware.com/servlets/standard/Count");
+        checkHeader(2, jar, "wide=3", "ftp.meterware.com/servlets/standard/Count");
+        checkHeader(3, jar, "other=4", "meterware.com/servlets/Count");
+    }
+
+
+    @Test
+    public void testHeaderCaching() throws Exception {
+        CookieJar jar = new CookieJar();
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "first=ready"));
+        checkHeader(1, jar, "first=ready", "www.meterware.com/servlets/Count");
+        checkHeader(2, jar, "first=ready", "www.meterware.com/servlets/Count");
+        assertEquals("cache hits", 1, jar.getHeaderCacheHits());
+        assertEquals("cache misses", 1, jar.getHeaderCacheMisses());
+
+        jar.putCookie("zero", "nil");
+        checkHeader(3, jar, "first=ready; zero=nil", "www.meterware.com/servlets/Count");
+        jar.getCookie("first").setValue("steady");
+        checkHeader(4, jar, "first=steady; zero=nil", "www.meterware.com/servlets/Count");
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "first=gone;max-age=0"));
+        checkHeader(5, jar, "zero=nil", "www.meterware.com/servlets/Count");
+        assertEquals("cache hits", 1, jar.getHeaderCacheHits());
+        assertEquals("cache misses", 4, jar.getHeaderCacheMisses());
+    }
+
+    @Test
+    public void testValueChangeAffectsOnlyItsJar() throws Exception {
+        CookieJar jar = new CookieJar();
+        CookieJar other = new CookieJar();
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "first=ready"));
+        other.updateCookies(newJar("www.meterware.com/servlets/AServlet", "second=set"));
+        checkHeader(1, other, "second=set", "www.meterware.com/servlets/Count");
+
+        jar.getCookie("first").setValue("steady");
+        checkHeader(2, jar, "first=steady", "www.meterware.com/servlets/Count");
+        checkHeader(3, other, "second=set", "www.meterware.com/servlets/Count");
+        assertEquals("other jar's cache hits", 1, other.getHeaderCacheHits());
+    }
+
+    @Test
+    public void testForkSharesCookiesUntilChanged() throws Exception {
+        CookieJar jar = new CookieJar();
+        jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "first=ready"));
+        checkHeader(1, jar, "first=ready", "www.meterware.com/servlets/Count");
+
+        CookieJar fork = jar.fork();
+        fork.getCookie("first").setValue("steady");
+        checkHeader(2, fork, "first=steady", "www.meterware.com/servlets/Count");
+        checkHeader(3, jar, "first=ready", "www.meterware.com/servlets/Count");
+
+        jar.putCookie("zero", "nil");
+        checkHeader(4, jar, "first=ready; zero=nil", "www.meterware.com/servlets/Count");
+        checkHeader(5, fork, "first=steady", "www.meterware.com/servlets/Count");
+
+        jar.getCookie("first").setValue("set");
+        CookieJar second = jar.fork();
+        jar.getCookie("first").setValue("go");
+        assertEquals("second fork's cookie", "set", second.getCookieValue("first"));
+        checkHeader(6, jar, "first=go; zero=nil", "www.meterware.com/servlets/Count");
+    }
+
     /**
      * @throws Exception
      */
@@ -382,6 +452,59 @@ public class CookieTest {
     }
 
 
+    @Test
+    public void testPerJarProperties() throws Exception {
+        CookieProperties properties = new CookieProperties();
+        properties.setStrictPathMatching(false);
+        MockListener listener = new MockListener();
+        properties.addListener(listener);
+
+        TestSource source = new TestSource(new URL("http://www.meterware.com/servlets/special"),
+                "name=value; domain=.meterware.com; path=/servlets/ordinary");
+        assertNull("Cookie accepted with default properties", new CookieJar(source).getCookie("name"));
+        assertNotNull("Cookie rejected with lenient properties", new CookieJar(source, properties).getCookie("name"));
+
+        properties.setStrictPathMatching(true);
+        listener.expectRejection(1, "name", CookieListener.PATH_NOT_PREFIX, "/servlets/ordinary");
+        new CookieJar(source, properties);
+        listener.confirmRejection();
+        assertTrue("Default properties were changed", CookieProperties.isPathMatchingStrict());
+    }
+
+
+    @Test
+    public void testConcurrentJar() throws Exception {
+        final CookieJar jar = new CookieJar(CookieProperties.getDefaults(), true);
+        jar.putCookie("zero", "nil");
+        final URL url = new URL("http://www.meterware.com/servlets/Count");
+        final Throwable[] failure = new Throwable[1];
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            String header = jar.getCookieHeaderField(url);
+                            if (!header.endsWith("zero=nil")) throw new AssertionError("Unexpected header: " + header);
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int i = 0; i < 200; i++) {
+            jar.updateCookies(newJar("www.meterware.com/servlets/AServlet", "c" + (i % 10) + "=" + i));
+        }
+        for (int i = 0; i < readers.length; i++) readers[i].join();
+
+        assertNull("Reader failed: " + failure[0], failure[0]);
+        assertEquals("number of cookies", 11, jar.getCookies().size());
+        assertTrue("header not updated", jar.getCookieHeaderField(url).startsWith("c0=190; "));
+    }
+
+
     @Test
     public void testRejectionCallbacks() throws Exception {
         MockListener listener = new MockListener();
@@ -0,0 +1,176 @@
+package com.meterware.httpunit.crawler;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.httpunit.HttpUnitTest;
+import com.meterware.httpunit.WebResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the crawler.
+ */
+public class CrawlerTest extends HttpUnitTest {
+
+    private Set _retrieved = Collections.synchronizedSet(new TreeSet());
+
+    private AtomicInteger _retrievals = new AtomicInteger();
+
+    private Map _failed = Collections.synchronizedMap(new TreeMap());
+
+    private CrawlListener _listener = new CrawlListener() {
+        public void pageRetrieved(URL url, URL referrer, int depth, WebResponse response) {
+            _retrievals.incrementAndGet();
+            _retrieved.add(url.getFile());
+        }
+
+        public void pageFailed(URL url, URL referrer, int depth, Exception exception) {
+            _failed.put(url.getFile(), referrer.getFile());
+        }
+    };
+
+
+    @Before
+    public void setUpSite() throws Exception {
+        defineWebPage("index", "<a href='a.html'>a</a> <a href='b.html#top'>b</a> <a href='missing.html'>missing</a>" +
+                "<a href='http://elsewhere.example/'>elsewhere</a> <a href='mailto:someone@example.com'>mail</a>");
+        defineWebPage("a", "<a href='index.html'>home</a> <a href='c.html'>c</a>");
+        defineWebPage("b", "<a href='a.html'>a</a>");
+        defineWebPage("c", "<a href='d.html'>d</a>");
+        defineWebPage("d", "the end");
+    }
+
+
+    @Test
+    public void testCrawlVisitsEachPageOnce() throws Exception {
+        int visited = new Crawler().crawl(getHostPath() + "/index.html", _listener);
+
+        assertEquals("pages visited", 6, visited);
+        assertEquals("pages retrieved", asSet(new String[]{"/index.html", "/a.html", "/b.html", "/c.html", "/d.html"}), _retrieved);
+        assertEquals("retrievals", 5, _retrievals.get());
+        assertEquals("broken links", Collections.singletonMap("/missing.html", "/index.html"), _failed);
+    }
+
+
+    @Test
+    public void testDepthLimit() throws Exception {
+        Crawler crawler = new Crawler();
+        crawler.setMaxDepth(1);
+        crawler.crawl(getHostPath() + "/index.html", _listener);
+
+        assertEquals("pages retrieved", asSet(new String[]{"/index.html", "/a.html", "/b.html"}), _retrieved);
+        assertEquals("broken links", 1, _failed.size());
+    }
+
+
+    @Test
+    public void testPageLimit() throws Exception {
+        Crawler crawler = new Crawler();
+        crawler.setMaxPages(2);
+        assertEquals("pages visited", 2, crawler.crawl(getHostPath() + "/index.html", _listener));
+        assertEquals("pages retrieved", 2, _retrieved.size() + _failed.size());
+    }
+
+
+    @Test
+    public void testHostDelay() throws Exception {
+        Crawler crawler = new Crawler();
+        crawler.setHostDelay(50);
+        long startTime = System.currentTimeMillis();
+        crawler.crawl(getHostPath() + "/index.html", _listener);
+
+        assertEquals("pages retrieved", 5, _retrieved.size());
+        assertTrue("requests were not spaced out", System.currentTimeMillis() - startTime >= 250);
+    }
+
+
+    @Test
+    public void testVisitedSet() throws Exception {
+        VisitedSet visited = new VisitedSet();
+        for (int i = 0; i < 10000; i++) assertTrue("new URL rejected", visited.add("http://localhost/page" + i));
+        for (int i = 0; i < 10000; i++) assertFalse("URL accepted twice", visited.add("http://localhost/page" + i));
+        assertEquals("size", 10000, visited.size());
+    }
+
+
+    @Test
+    public void testRedirectsQueuedOnSiteOnly() throws Exception {
+        defineWebPage("start", "<a href='moved.html'>moved</a> <a href='away.html'>away</a>");
+        defineResource("moved.html", "ignored", HttpURLConnection.HTTP_MOVED_TEMP);
+        addResourceHeader("moved.html", "Location: " + getHostPath() + "/d.html");
+        defineResource("away.html", "ignored", HttpURLConnection.HTTP_MOVED_TEMP);
+        addResourceHeader("away.html", "Location: http://elsewhere.example/");
+        Crawler crawler = new Crawler();
+        crawler.setMaxDepth(1);
+        crawler.crawl(getHostPath() + "/start.html", _listener);
+
+        assertEquals("pages retrieved", asSet(new String[]{"/start.html", "/moved.html", "/away.html", "/d.html"}), _retrieved);
+    }
+
+
+    @Test
+    public void testFramesQueued() throws Exception {
+        defineResource("frames.html", "<html><frameset><frame src='a.html'><frame src='http://elsewhere.example/'></frameset></html>");
+        Crawler crawler = new Crawler();
+        crawler.setMaxDepth(0);
+        crawler.crawl(getHostPath() + "/frames.html", _listener);
+
+        assertEquals("pages retrieved", asSet(new String[]{"/frames.html", "/a.html"}), _retrieved);
+    }
+
+
+    @Test
+    public void testListenerFailureEndsCrawl() throws Exception {
+        try {
+            new Crawler().crawl(getHostPath() + "/index.html", new CrawlListener() {
+                public void pageRetrieved(URL url, URL referrer, int depth, WebResponse response) {
+                    throw new IllegalStateException("listener failed");
+                }
+
+                public void pageFailed(URL url, URL referrer, int depth, Exception exception) {
+                }
+            });
+            fail("Listener failure not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("message", "listener failed", e.getMessage());
+        }
+    }
+
+
+    private Set asSet(String[] values) {
+        Set set = new TreeSet();
+        Collections.addAll(set, values);
+        return set;
+    }
+
+}
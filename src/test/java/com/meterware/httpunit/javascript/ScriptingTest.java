@@ -22,6 +22,8 @@ package com.meterware.httpunit.javascript;
  *******************************************************************************************************************/
 
 import com.meterware.httpunit.*;
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -187,6 +189,158 @@ public class ScriptingTest extends AbstractJavaScriptTest {
         assertEquals("Alert message", "Cheese!", wc.popNextAlert());
     }
 
+
+    /**
+     * Verifies that included scripts may be requested together as soon as the page is received,
+     * and are still run in the order in which they appear.
+     */
+    @Test
+    public void testPrefetchedScripts() throws Exception {
+        final int delay = 400;
+        defineSlowScript("one.js", "var order = 'one';", delay);
+        defineSlowScript("two.js", "order += ' two';", delay);
+        defineSlowScript("three.js", "order += ' three';", delay);
+        defineResource("OnCommand.html", "<html><head>" +
+                "<script src='one.js'></script><script src='two.js'></script><script src='three.js'></script>" +
+                "</head><body onload='alert( order )'></body></html>");
+        WebConversation wc = new WebConversation();
+        wc.getClientProperties().setPrefetchScripts(true);
+        long start = System.currentTimeMillis();
+        wc.getResponse(getHostPath() + "/OnCommand.html");
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("Alert message", "one two three", wc.popNextAlert());
+        assertTrue("Loading took " + elapsed + " msec", elapsed < 2 * delay);
+    }
+
+
+    /**
+     * Verifies that a script cache shared between conversations answers requests for fresh scripts, and
+     * revalidates stale ones.
+     */
+    @Test
+    public void testSharedScriptCache() throws Exception {
+        final int[] requestCount = new int[2];
+        defineResource("fresh.js", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                requestCount[0]++;
+                WebResource resource = new WebResource("var fresh = 'fresh';", "text/javascript");
+                resource.addHeader("Cache-Control: max-age=3600");
+                return resource;
+            }
+        });
+        defineResource("tagged.js", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                requestCount[1]++;
+                if ("\"v1\"".equals(getHeader("If-None-Match"))) return new WebResource("", 304);
+                WebResource resource = new WebResource("var tagged = 'tagged';", "text/javascript");
+                resource.addHeader("ETag: \"v1\"");
+                return resource;
+            }
+        });
+        defineResource("OnCommand.html", "<html><head>" +
+                "<script src='fresh.js'></script><script src='tagged.js'></script>" +
+                "</head><body onload='alert( fresh + tagged )'></body></html>");
+
+        ScriptCache cache = new ScriptCache();
+        for (int i = 0; i < 3; i++) {
+            WebConversation wc = new WebConversation();
+            wc.setScriptCache(cache);
+            wc.getClientProperties().setPrefetchScripts(i == 2);
+            wc.getResponse(getHostPath() + "/OnCommand.html");
+            assertEquals("Alert message", "freshtagged", wc.popNextAlert());
+        }
+        assertEquals("fresh script requests", 1, requestCount[0]);
+        assertEquals("tagged script requests", 3, requestCount[1]);
+        assertEquals("hits", 2, cache.getHitCount());
+        assertEquals("revalidations", 2, cache.getRevalidationCount());
+    }
+
+
+    /**
+     * Verifies that a script is requested again without validators if its cached copy is discarded before
+     * the server confirms that it is still current.
+     */
+    @Test
+    public void testScriptEvictedBeforeRevalidation() throws Exception {
+        final ScriptCache cache = new ScriptCache();
+        final int[] requestCount = new int[1];
+        defineResource("tagged.js", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                requestCount[0]++;
+                if ("\"v1\"".equals(getHeader("If-None-Match"))) {
+                    cache.clear();
+                    return new WebResource("", 304);
+                }
+                WebResource resource = new WebResource("var tagged = 'tagged';", "text/javascript");
+                resource.addHeader("ETag: \"v1\"");
+                return resource;
+            }
+        });
+        defineResource("OnCommand.html", "<html><head><script src='tagged.js'></script>" +
+                "</head><body onload='alert( tagged )'></body></html>");
+
+        for (int i = 0; i < 2; i++) {
+            WebConversation wc = new WebConversation();
+            wc.setScriptCache(cache);
+            wc.getResponse(getHostPath() + "/OnCommand.html");
+            assertEquals("Alert message", "tagged", wc.popNextAlert());
+        }
+        assertEquals("tagged script requests", 3, requestCount[0]);
+        assertEquals("revalidations", 0, cache.getRevalidationCount());
+    }
+
+
+    /**
+     * Verifies that a cached script is returned only to clients which send the same cookies as the one which
+     * requested it, and that a script requested with credentials is not cached.
+     */
+    @Test
+    public void testScriptCacheSeparatesClients() throws Exception {
+        final int[] requestCount = new int[1];
+        defineResource("user.js", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                requestCount[0]++;
+                WebResource resource = new WebResource("var user = '" + getHeader("Cookie") + "';", "text/javascript");
+                resource.addHeader("Cache-Control: max-age=3600");
+                return resource;
+            }
+        });
+        defineResource("OnCommand.html", "<html><head><script src='user.js'></script>" +
+                "</head><body onload='alert( user )'></body></html>");
+
+        ScriptCache cache = new ScriptCache();
+        String[] users = {"a", "b", "a"};
+        for (int i = 0; i < users.length; i++) {
+            WebConversation wc = new WebConversation();
+            wc.setScriptCache(cache);
+            wc.putCookie("user", users[i]);
+            wc.getResponse(getHostPath() + "/OnCommand.html");
+            assertEquals("Alert message", "user=" + users[i], wc.popNextAlert());
+        }
+        assertEquals("script requests", 2, requestCount[0]);
+
+        cache.clear();
+        WebConversation wc = new WebConversation();
+        wc.setScriptCache(cache);
+        wc.setAuthorization("user", "secret");
+        wc.getResponse(getHostPath() + "/OnCommand.html");
+        assertEquals("cached scripts", 0, cache.getEntryCount());
+    }
+
+
+    private void defineSlowScript(String name, final String script, final int delay) {
+        defineResource(name, new PseudoServlet() {
+            public WebResource getGetResponse() {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                }
+                return new WebResource(script, "text/javascript");
+            }
+        });
+    }
+
     /**
      * test Detection of Javascript files that can not be found
      * behaviour pointed out by Dan Lipofsky
@@ -0,0 +1,142 @@
+package com.meterware.httpunit.load;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.httpunit.HttpUnitTest;
+import com.meterware.pseudoserver.PseudoServlet;
+import com.meterware.pseudoserver.WebResource;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for the load driver.
+ */
+public class LoadDriverTest extends HttpUnitTest {
+
+    @Test
+    public void testClosedModelGivesEachUserItsOwnCookies() throws Exception {
+        defineLoginResources();
+
+        LoadDriver driver = new LoadDriver();
+        driver.setUsers(3);
+        driver.setIterations(2);
+        LoadReport report = driver.run(new Journey() {
+            public void run(VirtualUser user) throws Exception {
+                user.getResponse("login", getHostPath() + "/login?user=" + user.getNumber());
+                String cookie = user.getResponse("whoami", getHostPath() + "/whoami").getText();
+                assertEquals("cookie", "user=" + user.getNumber(), cookie);
+            }
+        });
+
+        assertEquals("users", 3, report.getUserCount());
+        assertEquals("completed journeys", 6, report.getCompletedJourneyCount());
+        assertEquals("failed journeys", 0, report.getFailedJourneyCount());
+        assertArrayEquals("steps", new String[]{"login", "whoami"}, report.getStepNames());
+        assertEquals("login requests", 6, report.getHistogram("login").getCount());
+        assertEquals("whoami requests", 6, report.getHistogram("whoami").getCount());
+    }
+
+
+    @Test
+    public void testFailuresAreCounted() throws Exception {
+        LoadDriver driver = new LoadDriver();
+        driver.setIterations(2);
+        LoadReport report = driver.run(new Journey() {
+            public void run(VirtualUser user) throws Exception {
+                user.getResponse("missing", getHostPath() + "/nowhere");
+            }
+        });
+
+        assertEquals("completed journeys", 0, report.getCompletedJourneyCount());
+        assertEquals("failed journeys", 2, report.getFailedJourneyCount());
+        assertEquals("errors", 2, report.getErrorCount("missing"));
+        assertNull("latencies recorded", report.getHistogram("missing"));
+    }
+
+
+    @Test
+    public void testOpenModelStartsNewUsersAtTheArrivalRate() throws Exception {
+        defineLoginResources();
+
+        LoadDriver driver = new LoadDriver();
+        driver.setArrivalRate(100);
+        driver.setDuration(200);
+        LoadReport report = driver.run(new Journey() {
+            public void run(VirtualUser user) throws Exception {
+                user.getResponse("whoami", getHostPath() + "/whoami");
+            }
+        });
+
+        assertEquals("users", 20, report.getUserCount());
+        assertEquals("completed journeys", 20, report.getCompletedJourneyCount());
+        assertEquals("whoami requests", 20, report.getHistogram("whoami").getCount());
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnboundedRunIsRejected() throws Exception {
+        LoadDriver driver = new LoadDriver();
+        driver.setArrivalRate(10);
+        driver.run(new Journey() {
+            public void run(VirtualUser user) {
+            }
+        });
+    }
+
+
+    @Test
+    public void testHistogramPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000000L);
+
+        assertEquals("count", 1000, histogram.getCount());
+        assertEquals("minimum", 1000000L, histogram.getMinimum());
+        assertEquals("maximum", 1000000000L, histogram.getMaximum());
+        assertEquals("mean", 500500000L, histogram.getMean());
+        assertWithin("median", 500000000L, histogram.getValueAtPercentile(50), 0.07);
+        assertWithin("99th percentile", 990000000L, histogram.getValueAtPercentile(99), 0.07);
+        assertEquals("100th percentile", 1000000000L, histogram.getValueAtPercentile(100));
+    }
+
+
+    private void assertWithin(String comment, long expected, long actual, double tolerance) {
+        assertTrue(comment + " was " + actual + ", expected about " + expected, Math.abs(actual - expected) <= expected * tolerance);
+    }
+
+
+    private void defineLoginResources() {
+        defineResource("login", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                WebResource resource = new WebResource("welcome", "text/plain");
+                resource.addHeader("Set-Cookie: user=" + getParameter("user")[0]);
+                return resource;
+            }
+        });
+        defineResource("whoami", new PseudoServlet() {
+            public WebResource getGetResponse() {
+                return new WebResource(String.valueOf(getHeader("Cookie")), "text/plain");
+            }
+        });
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.meterware.httpunit.parsing;
+/********************************************************************************************************************
+ * $Id$
+ * $URL$*
+ *
+ * Copyright (c) 2013 Russell Gold
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions
+ * of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ *******************************************************************************************************************/
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.HttpUnitTest;
+import com.meterware.httpunit.WebConversation;
+import com.meterware.httpunit.WebResponse;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for extracting the contents of a page without building its document.
+ */
+public class HTMLExtractionTest extends HttpUnitTest {
+
+    private static final String PAGE = "<html><head><title>Links</title></head><body>" +
+            "<a href='one.html'>one</a> <P><A HREF='two.html'>two</A>" +
+            "<script>document.write(\"<a href='scripted.html'>scripted</a>\");</script>" +
+            "</body></html>";
+
+
+    @Test
+    public void testExtractLinksAndTitle() throws Exception {
+        LinkCollector collector = new LinkCollector();
+        HTMLParserFactory.extract(new URL("http://localhost/page.html"), PAGE, collector);
+
+        assertEquals("title", "Links", collector._title.toString());
+        assertEquals("links", "[one.html, two.html]", collector._links.toString());
+    }
+
+
+    @Test
+    public void testExtractFromResponse() throws Exception {
+        defineResource("links.html", PAGE);
+        WebConversation wc = new WebConversation();
+        WebResponse response = wc.getResource(new GetMethodWebRequest(getHostPath() + "/links.html"));
+        LinkCollector collector = new LinkCollector();
+        response.extract(collector);
+
+        assertEquals("links", "[one.html, two.html]", collector._links.toString());
+    }
+
+
+    private static class LinkCollector extends DefaultHandler {
+
+        private List _links = new ArrayList();
+        private StringBuffer _title = new StringBuffer();
+        private boolean _inTitle;
+
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("a")) _links.add(attributes.getValue("href"));
+            _inTitle = qName.equals("title");
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            _inTitle = false;
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            if (_inTitle) _title.append(ch, start, length);
+        }
+    }
+
+}
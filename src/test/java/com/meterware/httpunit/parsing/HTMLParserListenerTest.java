@@ -82,6 +82,41 @@ public class HTMLParserListenerTest extends HttpUnitTest {
         }
     }
 
+    @Test
+    public void testReusedParserReportsEachPage() throws Exception {
+        defineResource("GoodPage.html", "<html><head><title>Good</title></head><body></body></html>");
+        defineResource("BadPage1.html", "<html><head><title>Bad</head><body><p><b>Bad</p></b></body></html>");
+        defineResource("BadPage2.html", "<html><head><title>Bad</head><body><p><b>Bad</p></b></body></html>");
+
+        final ErrorHandler errorHandler = new ErrorHandler(/* expectProblems */true);
+        try {
+            WebConversation wc = new WebConversation();
+            wc.getResponse(getHostPath() + "/GoodPage.html");
+            HTMLParserFactory.addHTMLParserListener(errorHandler);
+            wc.getResponse(getHostPath() + "/BadPage1.html");
+            assertTrue("Should have found problems", errorHandler.foundProblems());
+            assertEquals("Expected URL", new URL(getHostPath() + "/BadPage1.html"), errorHandler.getBadURL());
+
+            wc.getResponse(getHostPath() + "/BadPage2.html");
+            assertEquals("Expected URL", new URL(getHostPath() + "/BadPage2.html"), errorHandler.getBadURL());
+        } finally {
+            HTMLParserFactory.removeHTMLParserListener(errorHandler);
+        }
+    }
+
+    @Test
+    public void testParserReusedUntilSettingsChange() throws Exception {
+        URL url = new URL("http://localhost/blank.html");
+        NekoDOMParser parser = NekoDOMParser.getParser(null, url);
+        parser.release();
+        assertSame("parser not reused", parser, NekoDOMParser.getParser(null, url));
+        assertNotSame("parser in use was handed out", parser, NekoDOMParser.getParser(null, url));
+        parser.release();
+
+        HTMLParserFactory.setParserWarningsEnabled(false);
+        assertNotSame("parser reused after settings changed", parser, NekoDOMParser.getParser(null, url));
+    }
+
     @Test
     public void testJTidyPrintWriterParsing() throws Exception {
         URL url = new URL("http://localhost/blank.html");